@@ -5,11 +5,15 @@ import com.compomics.util.waiting.WaitingHandler;
 import java.awt.Color;
 import java.awt.Component;
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -747,6 +751,49 @@ public class Util {
         }
     }
 
+    /**
+     * Unmaps a memory mapped buffer. Without this, the file remains mapped,
+     * and hence locked on Windows, until the buffer is garbage collected. The
+     * buffer must not be used afterwards, and accessing it from another
+     * thread at the same time can crash the virtual machine.
+     *
+     * @param buffer the buffer to unmap, can be null
+     *
+     * @return a boolean indicating whether the buffer could be unmapped
+     */
+    public static boolean unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return false;
+        }
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return true;
+        } catch (NoSuchMethodException e) {
+            // Java 8 and earlier
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner == null) {
+                    return false;
+                }
+                Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+                return true;
+            } catch (Exception e1) {
+                return false;
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     /**
      * Returns the number of lines in the given file.
      *
@@ -0,0 +1,113 @@
+package com.compomics.util.db;
+
+/**
+ * Snapshot of the metrics of an objects cache.
+ *
+ * @author Marc Vaudel
+ */
+public class CacheMetrics {
+
+    /**
+     * The number of objects in cache.
+     */
+    private final int nObjects;
+    /**
+     * The estimated size of the objects in cache in bytes.
+     */
+    private final long size;
+    /**
+     * The size budget of the cache in bytes, zero if not set.
+     */
+    private final long sizeBudget;
+    /**
+     * The number of evicted objects waiting to be saved.
+     */
+    private final int nPending;
+    /**
+     * The number of objects evicted from the cache.
+     */
+    private final long nEvicted;
+    /**
+     * The number of objects saved in the databases.
+     */
+    private final long nSaved;
+
+    /**
+     * Constructor.
+     *
+     * @param nObjects the number of objects in cache
+     * @param size the estimated size of the objects in cache in bytes
+     * @param sizeBudget the size budget of the cache in bytes, zero if not
+     * set
+     * @param nPending the number of evicted objects waiting to be saved
+     * @param nEvicted the number of objects evicted from the cache
+     * @param nSaved the number of objects saved in the databases
+     */
+    public CacheMetrics(int nObjects, long size, long sizeBudget, int nPending, long nEvicted, long nSaved) {
+        this.nObjects = nObjects;
+        this.size = size;
+        this.sizeBudget = sizeBudget;
+        this.nPending = nPending;
+        this.nEvicted = nEvicted;
+        this.nSaved = nSaved;
+    }
+
+    /**
+     * Returns the number of objects in cache.
+     *
+     * @return the number of objects in cache
+     */
+    public int getNObjects() {
+        return nObjects;
+    }
+
+    /**
+     * Returns the estimated size of the objects in cache in bytes.
+     *
+     * @return the estimated size of the objects in cache in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the size budget of the cache in bytes, zero if not set.
+     *
+     * @return the size budget of the cache in bytes
+     */
+    public long getSizeBudget() {
+        return sizeBudget;
+    }
+
+    /**
+     * Returns the number of evicted objects waiting to be saved.
+     *
+     * @return the number of evicted objects waiting to be saved
+     */
+    public int getNPending() {
+        return nPending;
+    }
+
+    /**
+     * Returns the number of objects evicted from the cache.
+     *
+     * @return the number of objects evicted from the cache
+     */
+    public long getNEvicted() {
+        return nEvicted;
+    }
+
+    /**
+     * Returns the number of objects saved in the databases.
+     *
+     * @return the number of objects saved in the databases
+     */
+    public long getNSaved() {
+        return nSaved;
+    }
+
+    @Override
+    public String toString() {
+        return nObjects + " objects, " + size + " bytes of " + sizeBudget + ", " + nPending + " pending, " + nEvicted + " evicted, " + nSaved + " saved";
+    }
+}
@@ -0,0 +1,357 @@
+package com.compomics.util.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the binary codecs used to store objects in the database. An
+ * object for which a codec is registered is stored as a marker byte followed
+ * by the identifier of the codec, the version of the format and the content
+ * written by the codec. Other objects are stored using Java serialization,
+ * the format used by previous versions of the database, which can therefore
+ * still be read.
+ *
+ * @author Marc Vaudel
+ */
+public class CodecRegistry {
+
+    /**
+     * The first byte of the blobs written using a codec. Java serialization
+     * streams start with 0xAC.
+     */
+    public static final byte CODEC_BLOB = 0x01;
+    /**
+     * Tag for a null nested object.
+     */
+    private static final byte NULL_OBJECT = 0;
+    /**
+     * Tag for a nested object written using a codec.
+     */
+    private static final byte CODEC_OBJECT = 1;
+    /**
+     * Tag for a nested object written using Java serialization.
+     */
+    private static final byte SERIALIZED_OBJECT = 2;
+    /**
+     * The encoding of the strings.
+     */
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+    /**
+     * The instance of the registry.
+     */
+    private static CodecRegistry instance = null;
+    /**
+     * The codecs indexed by identifier.
+     */
+    private final ConcurrentHashMap<Integer, ObjectCodec<?>> codecs = new ConcurrentHashMap<Integer, ObjectCodec<?>>();
+    /**
+     * The identifiers of the codecs indexed by class of object.
+     */
+    private final ConcurrentHashMap<Class<?>, Integer> codecIds = new ConcurrentHashMap<Class<?>, Integer>();
+
+    /**
+     * Constructor.
+     */
+    private CodecRegistry() {
+    }
+
+    /**
+     * Returns the instance of the registry.
+     *
+     * @return the instance of the registry
+     */
+    public static synchronized CodecRegistry getInstance() {
+        if (instance == null) {
+            instance = new CodecRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a codec. The identifier is stored with every object written
+     * by the codec and must therefore not change between versions.
+     * Registering the same codec class again under the same identifier has no
+     * effect.
+     *
+     * @param id the identifier of the codec
+     * @param codec the codec
+     *
+     * @throws IllegalArgumentException exception thrown whenever the
+     * identifier or the class of objects is already used by another codec
+     */
+    public synchronized void register(int id, ObjectCodec<?> codec) {
+        ObjectCodec<?> registeredCodec = codecs.get(id);
+        Integer registeredId = codecIds.get(codec.getObjectClass());
+        if (registeredCodec != null && registeredCodec.getClass() != codec.getClass()
+                || registeredId != null && registeredId != id) {
+            throw new IllegalArgumentException("Conflicting codec registration for " + codec.getObjectClass().getName() + " with identifier " + id + ".");
+        }
+        if (codec.getVersion() < 0 || codec.getVersion() > 255) {
+            throw new IllegalArgumentException("Codec version " + codec.getVersion() + " out of range for " + codec.getObjectClass().getName() + ".");
+        }
+        codecs.put(id, codec);
+        codecIds.put(codec.getObjectClass(), id);
+    }
+
+    /**
+     * Indicates whether a codec is registered for the given class.
+     *
+     * @param objectClass the class of object
+     *
+     * @return a boolean indicating whether a codec is registered for the given
+     * class
+     */
+    public boolean hasCodec(Class<?> objectClass) {
+        return codecIds.containsKey(objectClass);
+    }
+
+    /**
+     * Returns the bytes to store for the given object.
+     *
+     * @param object the object
+     *
+     * @return the bytes to store
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Integer id = object == null ? null : codecIds.get(object.getClass());
+        if (id != null) {
+            DataOutputStream output = new DataOutputStream(bos);
+            output.writeByte(CODEC_BLOB);
+            writeWithCodec(id, object, output);
+            output.flush();
+        } else {
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            try {
+                oos.writeObject(object);
+            } finally {
+                oos.close();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Returns the object stored in the given bytes.
+     *
+     * @param bytes the stored bytes
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever the class of
+     * the object or no codec is found
+     */
+    public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (bytes.length > 0 && bytes[0] == CODEC_BLOB) {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+            return readWithCodec(input);
+        }
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a nested object. The codec of the object is used if registered,
+     * Java serialization otherwise.
+     *
+     * @param object the object, can be null
+     * @param output the stream where to write the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void writeObject(Object object, DataOutputStream output) throws IOException {
+        if (object == null) {
+            output.writeByte(NULL_OBJECT);
+            return;
+        }
+        Integer id = codecIds.get(object.getClass());
+        if (id != null) {
+            output.writeByte(CODEC_OBJECT);
+            writeWithCodec(id, object, output);
+        } else {
+            output.writeByte(SERIALIZED_OBJECT);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            try {
+                oos.writeObject(object);
+            } finally {
+                oos.close();
+            }
+            output.writeInt(bos.size());
+            bos.writeTo(output);
+        }
+    }
+
+    /**
+     * Reads a nested object written using writeObject.
+     *
+     * @param input the stream where to read the object
+     *
+     * @return the object, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever the class of
+     * the object or no codec is found
+     */
+    public Object readObject(DataInputStream input) throws IOException, ClassNotFoundException {
+        byte tag = input.readByte();
+        switch (tag) {
+            case NULL_OBJECT:
+                return null;
+            case CODEC_OBJECT:
+                return readWithCodec(input);
+            case SERIALIZED_OBJECT:
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return in.readObject();
+                } finally {
+                    in.close();
+                }
+            default:
+                throw new IOException("Unknown object tag " + tag + ".");
+        }
+    }
+
+    /**
+     * Writes the identifier of the codec, the version and the object using
+     * the codec.
+     *
+     * @param id the identifier of the codec
+     * @param object the object
+     * @param output the stream where to write the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    @SuppressWarnings("unchecked")
+    private void writeWithCodec(int id, Object object, DataOutputStream output) throws IOException {
+        ObjectCodec<Object> codec = (ObjectCodec<Object>) codecs.get(id);
+        output.writeInt(id);
+        output.writeByte(codec.getVersion());
+        codec.write(object, output, this);
+    }
+
+    /**
+     * Reads an object written using writeWithCodec.
+     *
+     * @param input the stream where to read the object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever no codec is
+     * found
+     */
+    private Object readWithCodec(DataInputStream input) throws IOException, ClassNotFoundException {
+        int id = input.readInt();
+        int version = input.readUnsignedByte();
+        ObjectCodec<?> codec = codecs.get(id);
+        if (codec == null) {
+            throw new ClassNotFoundException("No codec registered for identifier " + id + ".");
+        }
+        return codec.read(input, version, this);
+    }
+
+    /**
+     * Writes a string.
+     *
+     * @param string the string, can be null
+     * @param output the stream where to write the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    public static void writeString(String string, DataOutputStream output) throws IOException {
+        if (string == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(ENCODING);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a string written using writeString.
+     *
+     * @param input the stream where to read the string
+     *
+     * @return the string, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the string
+     */
+    public static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Writes a list of strings.
+     *
+     * @param strings the strings, can be null
+     * @param output the stream where to write the strings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the strings
+     */
+    public static void writeStrings(ArrayList<String> strings, DataOutputStream output) throws IOException {
+        if (strings == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(strings.size());
+            for (String string : strings) {
+                writeString(string, output);
+            }
+        }
+    }
+
+    /**
+     * Reads a list of strings written using writeStrings.
+     *
+     * @param input the stream where to read the strings
+     *
+     * @return the strings, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the strings
+     */
+    public static ArrayList<String> readStrings(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        if (size == -1) {
+            return null;
+        }
+        ArrayList<String> strings = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(readString(input));
+        }
+        return strings;
+    }
+}
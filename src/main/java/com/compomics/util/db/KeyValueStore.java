@@ -0,0 +1,991 @@
+package com.compomics.util.db;
+
+import com.compomics.util.Util;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded key-value store where records are appended to segment files.
+ * The location of the last record of every key is kept in an index in
+ * memory, rebuilt when opening the store by reading the memory-mapped
+ * segments. Records are checksummed, a truncated or corrupted record at the
+ * end of a segment, for instance after a crash, is ignored together with the
+ * rest of the segment. The space of overwritten and deleted records is
+ * reclaimed by compaction. Reads do not lock each other, writes are
+ * serialized.
+ *
+ * @author Marc Vaudel
+ */
+public class KeyValueStore {
+
+    /**
+     * The prefix of the segment files.
+     */
+    public static final String SEGMENT_PREFIX = "segment_";
+    /**
+     * The extension of the segment files.
+     */
+    public static final String SEGMENT_EXTENSION = ".kvs";
+    /**
+     * The name of the file locked while the store is open.
+     */
+    public static final String LOCK_FILE = "store.lock";
+    /**
+     * The default size in bytes above which a new segment is started.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    /**
+     * The maximal segment size in bytes, such that record offsets fit in an
+     * int.
+     */
+    public static final long MAX_SEGMENT_SIZE = 1L << 30;
+    /**
+     * The size in bytes above which a batch of records is written to the
+     * segment.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The minimal number of obsolete records before compacting when closing
+     * the store.
+     */
+    private static final long MIN_COMPACTION_RECORDS = 10000;
+    /**
+     * Record type of a value stored for a key.
+     */
+    private static final byte PUT = 1;
+    /**
+     * Record type of a key deletion.
+     */
+    private static final byte DELETE = 2;
+    /**
+     * Record type of a table creation.
+     */
+    private static final byte TABLE = 3;
+    /**
+     * The length of the record header: the length of the payload and its
+     * checksum.
+     */
+    private static final int HEADER_LENGTH = 8;
+    /**
+     * The folder containing the segments.
+     */
+    private final File folder;
+    /**
+     * The size in bytes above which a new segment is started.
+     */
+    private final long segmentSize;
+    /**
+     * The location of the record of every key: table name &gt; key &gt;
+     * segment id in the high int and offset in the low int.
+     */
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Long>> index = new ConcurrentHashMap<String, ConcurrentSkipListMap<String, Long>>();
+    /**
+     * The segments indexed by id.
+     */
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+    /**
+     * Lock shared by reads and writes and held exclusively when compacting
+     * or closing the store.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Lock serializing the writes.
+     */
+    private final Object writeLock = new Object();
+    /**
+     * The segment where records are appended.
+     */
+    private Segment activeSegment;
+    /**
+     * The number of key records in the segments.
+     */
+    private long nRecords = 0;
+    /**
+     * The number of keys in the store.
+     */
+    private long nKeys = 0;
+    /**
+     * The channel of the lock file.
+     */
+    private final FileChannel lockChannel;
+    /**
+     * The lock preventing another store to open the folder.
+     */
+    private FileLock fileLock;
+    /**
+     * Indicates whether the store is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Opens the store in the given folder, creating it if needed.
+     *
+     * @param folder the folder containing the segments
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the segments
+     */
+    public KeyValueStore(File folder) throws IOException {
+        this(folder, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the store in the given folder, creating it if needed.
+     *
+     * @param folder the folder containing the segments
+     * @param segmentSize the size in bytes above which a new segment is
+     * started
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the segments
+     */
+    public KeyValueStore(File folder, long segmentSize) throws IOException {
+
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size " + segmentSize + " not in ]0, " + MAX_SEGMENT_SIZE + "].");
+        }
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Impossible to create folder " + folder.getAbsolutePath() + ".");
+        }
+
+        lockChannel = new RandomAccessFile(new File(folder, LOCK_FILE), "rw").getChannel();
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IllegalArgumentException("Impossible to open a store in " + folder.getAbsolutePath() + ", the store is already open.");
+        }
+
+        try {
+            ArrayList<Integer> ids = getSegmentIds(folder);
+            boolean lastComplete = true;
+            for (int id : ids) {
+                Segment segment = new Segment(id, getSegmentFile(id));
+                segments.put(id, segment);
+                lastComplete = replay(segment);
+            }
+            if (!ids.isEmpty() && lastComplete) {
+                activeSegment = segments.get(ids.get(ids.size() - 1));
+            } else {
+                int id = ids.isEmpty() ? 0 : ids.get(ids.size() - 1) + 1;
+                activeSegment = createSegment(id);
+            }
+        } catch (IOException e) {
+            closeSegments();
+            throw e;
+        }
+    }
+
+    /**
+     * Indicates whether the given folder contains a store.
+     *
+     * @param folder the folder
+     *
+     * @return a boolean indicating whether the given folder contains a store
+     */
+    public static boolean isKeyValueStore(File folder) {
+        return folder.isDirectory() && !getSegmentIds(folder).isEmpty();
+    }
+
+    /**
+     * Returns the ids of the segments found in the given folder in
+     * increasing order.
+     *
+     * @param folder the folder
+     *
+     * @return the ids of the segments
+     */
+    private static ArrayList<Integer> getSegmentIds(File folder) {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        String[] fileNames = folder.list();
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_EXTENSION)) {
+                    try {
+                        ids.add(new Integer(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_EXTENSION.length())));
+                    } catch (NumberFormatException e) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Returns the file of the segment with the given id.
+     *
+     * @param id the id of the segment
+     *
+     * @return the file of the segment
+     */
+    private File getSegmentFile(int id) {
+        return new File(folder, SEGMENT_PREFIX + id + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Creates a new segment and registers it.
+     *
+     * @param id the id of the segment
+     *
+     * @return the new segment
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * creating the segment file
+     */
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = new Segment(id, getSegmentFile(id));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Adds the records of the given segment to the index.
+     *
+     * @param segment the segment
+     *
+     * @return a boolean indicating whether all records of the segment could
+     * be read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the segment
+     */
+    private boolean replay(Segment segment) throws IOException {
+
+        if (segment.length == 0) {
+            return true;
+        }
+
+        MappedByteBuffer buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.length);
+        try {
+            return replay(segment, buffer);
+        } finally {
+            // release the mapping so that the segment can be deleted when compacting
+            Util.unmap(buffer);
+        }
+    }
+
+    /**
+     * Adds the records of the given mapped segment to the index.
+     *
+     * @param segment the segment
+     * @param buffer the content of the segment
+     *
+     * @return a boolean indicating whether all records of the segment could
+     * be read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the segment
+     */
+    private boolean replay(Segment segment, MappedByteBuffer buffer) throws IOException {
+
+        byte[] payload = new byte[1024];
+        CRC32 crc = new CRC32();
+
+        while (buffer.remaining() >= HEADER_LENGTH) {
+
+            int offset = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, 2 * payload.length)];
+            }
+            buffer.get(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(offset);
+                break;
+            }
+
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+            byte type = dis.readByte();
+            String tableName = dis.readUTF();
+            if (type == TABLE) {
+                getTable(tableName);
+            } else {
+                String key = dis.readUTF();
+                ConcurrentSkipListMap<String, Long> table = getTable(tableName);
+                Long previous;
+                if (type == PUT) {
+                    previous = table.put(key, getLocation(segment.id, offset));
+                    if (previous == null) {
+                        nKeys++;
+                    }
+                } else {
+                    previous = table.remove(key);
+                    if (previous != null) {
+                        nKeys--;
+                    }
+                }
+                nRecords++;
+            }
+        }
+
+        return !buffer.hasRemaining();
+    }
+
+    /**
+     * Returns the index of the given table, creating it if needed.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the index of the table
+     */
+    private ConcurrentSkipListMap<String, Long> getTable(String tableName) {
+        ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+        if (table == null) {
+            table = new ConcurrentSkipListMap<String, Long>();
+            ConcurrentSkipListMap<String, Long> previous = index.putIfAbsent(tableName, table);
+            if (previous != null) {
+                table = previous;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the index of the given table and throws an exception if the
+     * table does not exist.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the index of the table
+     */
+    private ConcurrentSkipListMap<String, Long> getExistingTable(String tableName) {
+        ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("Table " + tableName + " not found in the store.");
+        }
+        return table;
+    }
+
+    /**
+     * Returns the location of a record.
+     *
+     * @param segmentId the id of the segment
+     * @param offset the offset of the record in the segment
+     *
+     * @return the location of the record
+     */
+    private static long getLocation(int segmentId, long offset) {
+        return (((long) segmentId) << 32) | offset;
+    }
+
+    /**
+     * Returns the record of the given type.
+     *
+     * @param type the type of record
+     * @param tableName the name of the table
+     * @param key the key, null for a table record
+     * @param value the value, null if not a put record
+     *
+     * @return the record
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the record
+     */
+    private static byte[] getRecord(byte type, String tableName, String key, byte[] value) throws IOException {
+
+        int valueLength = value == null ? 0 : value.length;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(HEADER_LENGTH + 16 + 2 * tableName.length() + (key == null ? 0 : 2 * key.length()) + valueLength);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeByte(type);
+        dos.writeUTF(tableName);
+        if (key != null) {
+            dos.writeUTF(key);
+        }
+        if (value != null) {
+            dos.write(value);
+        }
+        dos.close();
+
+        byte[] record = bos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_LENGTH, record.length - HEADER_LENGTH);
+        ByteBuffer.wrap(record).putInt(record.length - HEADER_LENGTH).putInt((int) crc.getValue());
+
+        return record;
+    }
+
+    /**
+     * Appends the given records to the active segment, starting a new segment
+     * if the active one is full. The lock and write lock must be held.
+     *
+     * @param records the records
+     * @param length the length of the records
+     *
+     * @return the location of the first record
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the records
+     */
+    private long append(byte[] records, int length) throws IOException {
+        if (activeSegment.length >= segmentSize) {
+            activeSegment.channel.force(false);
+            activeSegment = createSegment(activeSegment.id + 1);
+        }
+        long offset = activeSegment.length;
+        activeSegment.write(records, length, offset);
+        return getLocation(activeSegment.id, offset);
+    }
+
+    /**
+     * Throws an exception if the store is closed.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The store in " + folder.getAbsolutePath() + " is closed.");
+        }
+    }
+
+    /**
+     * Adds a table to the store if not already present.
+     *
+     * @param tableName the name of the table
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the table
+     */
+    public void addTable(String tableName) throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            synchronized (writeLock) {
+                if (!index.containsKey(tableName)) {
+                    byte[] record = getRecord(TABLE, tableName, null, null);
+                    append(record, record.length);
+                    getTable(tableName);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indicates whether the store contains the given table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return a boolean indicating whether the store contains the given table
+     */
+    public boolean hasTable(String tableName) {
+        return index.containsKey(tableName);
+    }
+
+    /**
+     * Returns the names of the tables.
+     *
+     * @return the names of the tables
+     */
+    public ArrayList<String> getTables() {
+        return new ArrayList<String>(index.keySet());
+    }
+
+    /**
+     * Indicates whether the given table contains the given key.
+     *
+     * @param tableName the name of the table
+     * @param key the key
+     *
+     * @return a boolean indicating whether the table contains the given key
+     */
+    public boolean contains(String tableName, String key) {
+        ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+        return table != null && table.containsKey(key);
+    }
+
+    /**
+     * Returns the number of keys in the given table. This operation is
+     * linear in the number of keys.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the number of keys in the table
+     */
+    public int size(String tableName) {
+        ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+        return table == null ? 0 : table.size();
+    }
+
+    /**
+     * Returns the keys of the given table in increasing order.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the keys of the table
+     */
+    public ArrayList<String> keys(String tableName) {
+        ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+        return table == null ? new ArrayList<String>(0) : new ArrayList<String>(table.keySet());
+    }
+
+    /**
+     * Returns the value stored for the given key.
+     *
+     * @param tableName the name of the table
+     * @param key the key
+     *
+     * @return the value, null if not found
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the value
+     */
+    public byte[] get(String tableName, String key) throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+            if (table == null) {
+                return null;
+            }
+            Long location = table.get(key);
+            if (location == null) {
+                return null;
+            }
+            return read(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a page of the given table in the order of the keys.
+     *
+     * @param tableName the name of the table
+     * @param lastKey the last key of the previous page, null for the first
+     * page
+     * @param pageSize the maximal number of values to read
+     * @param keys the list where to add the keys
+     * @param values the list where to add the values
+     *
+     * @return the last key of the page, lastKey if the page is empty
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the values
+     */
+    public String readPage(String tableName, String lastKey, int pageSize, ArrayList<String> keys, ArrayList<byte[]> values) throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+            if (table == null) {
+                return lastKey;
+            }
+            Map<String, Long> page = lastKey == null ? table : table.tailMap(lastKey, false);
+            int count = 0;
+            for (Map.Entry<String, Long> entry : page.entrySet()) {
+                if (count++ == pageSize) {
+                    break;
+                }
+                lastKey = entry.getKey();
+                keys.add(lastKey);
+                values.add(read(entry.getValue()));
+            }
+            return lastKey;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the value of the record at the given location. The lock must be
+     * held.
+     *
+     * @param location the location of the record
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the value
+     */
+    private byte[] read(long location) throws IOException {
+
+        Segment segment = segments.get((int) (location >>> 32));
+        long offset = location & 0xffffffffL;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        segment.read(header, offset);
+        int length = header.getInt(0);
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        segment.read(payload, offset + HEADER_LENGTH);
+
+        // skip the type, table name and key
+        int keyStart = 3 + (payload.getShort(1) & 0xffff);
+        int valueStart = keyStart + 2 + (payload.getShort(keyStart) & 0xffff);
+
+        return Arrays.copyOfRange(payload.array(), valueStart, length);
+    }
+
+    /**
+     * Stores a value for the given key, replacing the previous value if any.
+     *
+     * @param tableName the name of the table, must exist
+     * @param key the key
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the value
+     */
+    public void put(String tableName, String key, byte[] value) throws IOException {
+        HashMap<String, byte[]> values = new HashMap<String, byte[]>(1);
+        values.put(key, value);
+        putAll(tableName, values);
+    }
+
+    /**
+     * Stores values for the given keys, replacing the previous values if any.
+     * Records are written by batches.
+     *
+     * @param tableName the name of the table, must exist
+     * @param values the values indexed by key
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the values
+     */
+    public void putAll(String tableName, Map<String, byte[]> values) throws IOException {
+
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ConcurrentSkipListMap<String, Long> table = getExistingTable(tableName);
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            ArrayList<String> batchKeys = new ArrayList<String>();
+            ArrayList<Integer> batchOffsets = new ArrayList<Integer>();
+
+            synchronized (writeLock) {
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    byte[] record = getRecord(PUT, tableName, entry.getKey(), entry.getValue());
+                    batchKeys.add(entry.getKey());
+                    batchOffsets.add(batch.size());
+                    batch.write(record);
+                    if (batch.size() >= WRITE_BUFFER_SIZE) {
+                        writeBatch(table, batch, batchKeys, batchOffsets);
+                    }
+                }
+                if (!batchKeys.isEmpty()) {
+                    writeBatch(table, batch, batchKeys, batchOffsets);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a batch of put records, updates the index, and empties the
+     * batch. The lock and write lock must be held.
+     *
+     * @param table the index of the table
+     * @param batch the records
+     * @param keys the keys of the records
+     * @param offsets the offsets of the records in the batch
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the records
+     */
+    private void writeBatch(ConcurrentSkipListMap<String, Long> table, ByteArrayOutputStream batch, ArrayList<String> keys, ArrayList<Integer> offsets) throws IOException {
+        long location = append(batch.toByteArray(), batch.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (table.put(keys.get(i), location + offsets.get(i)) == null) {
+                nKeys++;
+            }
+        }
+        nRecords += keys.size();
+        batch.reset();
+        keys.clear();
+        offsets.clear();
+    }
+
+    /**
+     * Deletes a key.
+     *
+     * @param tableName the name of the table
+     * @param key the key
+     *
+     * @return a boolean indicating whether the key was found
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the deletion
+     */
+    public boolean delete(String tableName, String key) throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            synchronized (writeLock) {
+                ConcurrentSkipListMap<String, Long> table = index.get(tableName);
+                if (table == null || !table.containsKey(key)) {
+                    return false;
+                }
+                byte[] record = getRecord(DELETE, tableName, key, null);
+                append(record, record.length);
+                table.remove(key);
+                nKeys--;
+                nRecords++;
+                return true;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the records written to the storage device.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the records
+     */
+    public void flush() throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            synchronized (writeLock) {
+                activeSegment.channel.force(false);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of obsolete records, i.e. overwritten or deleted,
+     * in the segments.
+     *
+     * @return the number of obsolete records in the segments
+     */
+    public long getNObsoleteRecords() {
+        synchronized (writeLock) {
+            return nRecords - nKeys;
+        }
+    }
+
+    /**
+     * Rewrites the live records in new segments and deletes the old
+     * segments. Reads and writes are blocked during the compaction. If
+     * interrupted, the old segments still present are replayed before the new
+     * ones when reopening, yielding the same content.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the segments
+     */
+    public void compact() throws IOException {
+
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+
+            ArrayList<Integer> oldIds = new ArrayList<Integer>(segments.keySet());
+            Collections.sort(oldIds);
+            activeSegment.channel.force(false);
+            activeSegment = createSegment(oldIds.get(oldIds.size() - 1) + 1);
+            nRecords = 0;
+
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            ArrayList<String> batchKeys = new ArrayList<String>();
+            ArrayList<Integer> batchOffsets = new ArrayList<Integer>();
+
+            for (Map.Entry<String, ConcurrentSkipListMap<String, Long>> tableEntry : index.entrySet()) {
+                String tableName = tableEntry.getKey();
+                ConcurrentSkipListMap<String, Long> table = tableEntry.getValue();
+                batch.write(getRecord(TABLE, tableName, null, null));
+                for (Map.Entry<String, Long> entry : table.entrySet()) {
+                    batchKeys.add(entry.getKey());
+                    batchOffsets.add(batch.size());
+                    batch.write(getRecord(PUT, tableName, entry.getKey(), read(entry.getValue())));
+                    if (batch.size() >= WRITE_BUFFER_SIZE) {
+                        writeBatch(table, batch, batchKeys, batchOffsets);
+                    }
+                }
+                if (batch.size() > 0) {
+                    writeBatch(table, batch, batchKeys, batchOffsets);
+                }
+            }
+            activeSegment.channel.force(false);
+
+            for (int id : oldIds) {
+                Segment segment = segments.remove(id);
+                segment.close();
+                if (!segment.file.delete()) {
+                    throw new IOException("Impossible to delete segment " + segment.file.getAbsolutePath() + ".");
+                }
+            }
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the store, compacting it first if more than half of the records
+     * are obsolete.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the segments
+     */
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        if (closed) {
+            lock.writeLock().unlock();
+            return;
+        }
+        try {
+            long nObsolete = getNObsoleteRecords();
+            if (nObsolete >= MIN_COMPACTION_RECORDS && nObsolete > nKeys) {
+                compact();
+            } else {
+                activeSegment.channel.force(false);
+            }
+        } finally {
+            closed = true;
+            try {
+                closeSegments();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes the segment files and releases the folder.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the files
+     */
+    private void closeSegments() throws IOException {
+        try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+        } finally {
+            fileLock.release();
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * A segment file.
+     */
+    private static class Segment {
+
+        /**
+         * The id of the segment.
+         */
+        private final int id;
+        /**
+         * The segment file.
+         */
+        private final File file;
+        /**
+         * The random access file of the segment.
+         */
+        private final RandomAccessFile randomAccessFile;
+        /**
+         * The channel used for positional reads and writes.
+         */
+        private final FileChannel channel;
+        /**
+         * The length of the segment in bytes.
+         */
+        private long length;
+
+        /**
+         * Constructor, opens or creates the segment file.
+         *
+         * @param id the id of the segment
+         * @param file the segment file
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while opening the file
+         */
+        public Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+            length = channel.size();
+        }
+
+        /**
+         * Fills the given buffer from the given position and rewinds it.
+         *
+         * @param buffer the buffer
+         * @param position the position in the segment
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public void read(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of segment " + file.getAbsolutePath() + ".");
+                }
+            }
+            buffer.rewind();
+        }
+
+        /**
+         * Writes bytes at the given position and updates the length of the
+         * segment.
+         *
+         * @param bytes the bytes to write
+         * @param nBytes the number of bytes to write
+         * @param position the position in the segment
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void write(byte[] bytes, int nBytes, long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, nBytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            length = Math.max(length, position + nBytes);
+        }
+
+        /**
+         * Closes the segment file.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while closing the file
+         */
+        public void close() throws IOException {
+            channel.close();
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.compomics.util.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Interface for the binary codecs used to store objects in the database
+ * instead of Java serialization. Codecs are registered in the codec registry
+ * and must be thread safe.
+ *
+ * @param <T> the class of objects encoded
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectCodec<T> {
+
+    /**
+     * Returns the class of objects encoded by this codec. Only objects of
+     * exactly this class are encoded, objects of subclasses are serialized.
+     *
+     * @return the class of objects encoded by this codec
+     */
+    public Class<T> getObjectClass();
+
+    /**
+     * Returns the version of the format written by this codec, between 0 and
+     * 255. The version is stored with every object and passed to the codec
+     * upon reading.
+     *
+     * @return the version of the format written by this codec
+     */
+    public int getVersion();
+
+    /**
+     * Writes an object.
+     *
+     * @param object the object to write
+     * @param output the stream where to write the object
+     * @param codecRegistry the codec registry to use for nested objects
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void write(T object, DataOutputStream output, CodecRegistry codecRegistry) throws IOException;
+
+    /**
+     * Reads an object.
+     *
+     * @param input the stream where to read the object
+     * @param version the version of the format used to write the object
+     * @param codecRegistry the codec registry to use for nested objects
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever the class of a
+     * nested object is not found
+     */
+    public T read(DataInputStream input, int version, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,30 @@
+package com.compomics.util.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Interface for the consumers of the objects read when scanning a table of
+ * an objects database. Consumers used by parallel scans must be thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectConsumer {
+
+    /**
+     * Consumes an object.
+     *
+     * @param key the key of the object
+     * @param object the object
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with a database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown if a threading error
+     * occurs
+     */
+    public void consume(String key, Object object) throws SQLException, IOException, ClassNotFoundException, InterruptedException;
+}
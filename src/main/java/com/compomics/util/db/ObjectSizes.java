@@ -0,0 +1,138 @@
+package com.compomics.util.db;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Estimates of the heap size of common objects, assuming a 64 bit virtual
+ * machine using compressed references. To be used by size estimators.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectSizes {
+
+    /**
+     * The size of an object header.
+     */
+    public static final int OBJECT_HEADER = 12;
+    /**
+     * The size of an array header.
+     */
+    public static final int ARRAY_HEADER = 16;
+    /**
+     * The size of a reference.
+     */
+    public static final int REFERENCE = 4;
+    /**
+     * The size of a boxed primitive.
+     */
+    public static final int BOXED_PRIMITIVE = 16;
+    /**
+     * The size of a hash map entry.
+     */
+    public static final int MAP_ENTRY = 32;
+    /**
+     * The size of an empty array list.
+     */
+    public static final int ARRAY_LIST = 24;
+    /**
+     * The size of an empty hash map.
+     */
+    public static final int HASH_MAP = 48;
+    /**
+     * The size of a string without its characters.
+     */
+    public static final int STRING = 24;
+
+    /**
+     * Empty default constructor.
+     */
+    private ObjectSizes() {
+    }
+
+    /**
+     * Rounds the given size to the next multiple of 8 bytes.
+     *
+     * @param size the size
+     *
+     * @return the aligned size
+     */
+    public static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Returns the size of an array.
+     *
+     * @param length the length of the array
+     * @param elementSize the size of an element
+     *
+     * @return the size of the array
+     */
+    public static long getArraySize(int length, int elementSize) {
+        return align(ARRAY_HEADER + ((long) length) * elementSize);
+    }
+
+    /**
+     * Returns the size of a string, zero if null.
+     *
+     * @param string the string
+     *
+     * @return the size of the string
+     */
+    public static long getStringSize(String string) {
+        if (string == null) {
+            return 0;
+        }
+        return STRING + getArraySize(string.length(), 2);
+    }
+
+    /**
+     * Returns the size of a list without the size of its elements, zero if
+     * null.
+     *
+     * @param list the list
+     *
+     * @return the size of the list
+     */
+    public static long getListSize(ArrayList<?> list) {
+        if (list == null) {
+            return 0;
+        }
+        return ARRAY_LIST + getArraySize(list.size(), REFERENCE);
+    }
+
+    /**
+     * Returns the size of a list of strings, zero if null.
+     *
+     * @param list the list
+     *
+     * @return the size of the list
+     */
+    public static long getStringListSize(ArrayList<String> list) {
+        if (list == null) {
+            return 0;
+        }
+        long size = getListSize(list);
+        for (String string : list) {
+            size += getStringSize(string);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of a hash map without the size of its keys and
+     * values, zero if null.
+     *
+     * @param map the map
+     *
+     * @return the size of the map
+     */
+    public static long getMapSize(Map<?, ?> map) {
+        if (map == null) {
+            return 0;
+        }
+        int tableLength = Integer.highestOneBit(Math.max(1, (int) (map.size() / 0.75f)) * 2 - 1);
+        return HASH_MAP + getArraySize(tableLength, REFERENCE) + ((long) map.size()) * MAP_ENTRY;
+    }
+}
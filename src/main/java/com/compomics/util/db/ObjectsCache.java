@@ -5,7 +5,15 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An object cache can be combined to an ObjectDB to improve its performance. A
@@ -13,53 +21,177 @@ import java.util.concurrent.LinkedBlockingDeque;
  * serialized. The length of lists/maps in the cache shall stay independent from
  * the number of objects in cache.
  *
+ * The cache is split in shards, every shard keeping its entries in a
+ * concurrent map and in a list ordered by access, the least recently used
+ * entries being evicted first. Reading does not block: the access order is
+ * updated only if the shard is not locked by another thread. Modified entries
+ * are saved in the database by batches upon eviction.
+ *
+ * In write behind mode, the default, modified entries evicted from the cache
+ * are saved by a background thread. The entries remain available in the cache
+ * until saved. When more entries than the maximal number of pending writes
+ * are waiting, the thread adding objects to the cache saves them itself.
+ *
+ * When a size budget is set, entries are evicted when the estimated size of
+ * the objects in cache exceeds the budget. The size of the objects is
+ * estimated using the size estimators set for their class.
+ *
  * @author Marc Vaudel
  */
 public class ObjectsCache {
 
+    /**
+     * The number of shards.
+     */
+    private static final int N_SHARDS = 16;
+    /**
+     * The share of the entries evicted when the cache is full.
+     */
+    private static final double EVICTION_SHARE = 0.25;
+    /**
+     * The size in bytes attributed to objects for which no size estimator is
+     * set.
+     */
+    public static final long DEFAULT_OBJECT_SIZE = 1024;
+    /**
+     * The time in milliseconds the flusher waits for a full batch before
+     * saving the pending entries.
+     */
+    private static final long FLUSH_DELAY = 1000;
     /**
      * Map of the databases for which this cache should be used.
      */
-    private HashMap<String, ObjectsDB> databases = new HashMap<String, ObjectsDB>();
+    private final ConcurrentHashMap<String, ObjectsDB> databases = new ConcurrentHashMap<String, ObjectsDB>();
     /**
      * The cache size in number of matches.
      */
-    private int cacheSize = 0;
+    private volatile int cacheSize = 0;
     /**
      * Boolean indicating whether the memory management should be done
      * automatically. If true, the cache size will be extended to reach 99% of
      * the available heap size. True by default.
      */
-    private boolean automatedMemoryManagement = true;
+    private volatile boolean automatedMemoryManagement = true;
     /**
      * Share of the memory to be used.
      */
-    private double memoryShare = 0.8;
+    private volatile double memoryShare = 0.8;
+    /**
+     * The shards of the cache.
+     */
+    private final Shard[] shards;
+    /**
+     * The number of entries in cache.
+     */
+    private final AtomicInteger nEntries = new AtomicInteger();
     /**
-     * Map of the loaded matches. db &gt; table &gt; object key &gt; object.
+     * The estimated size in bytes of the objects in cache.
      */
-    private HashMap<String, HashMap<String, HashMap<String, CacheEntry>>> loadedObjectsMap = new HashMap<String, HashMap<String, HashMap<String, CacheEntry>>>(1);
+    private final AtomicLong size = new AtomicLong();
     /**
-     * List of the loaded objects with the most used matches in the end.
+     * The size budget in bytes, zero if not set.
      */
-    private LinkedBlockingDeque<String> loadedObjectsKeys = new LinkedBlockingDeque<String>();
+    private volatile long sizeBudget = 0;
     /**
-     * Separator used to concatenate strings.
+     * The size estimators set by the user indexed by class of object.
      */
-    private static final String cacheSeparator = "_ccs_";
+    private final ConcurrentHashMap<Class<?>, SizeEstimator<?>> sizeEstimators = new ConcurrentHashMap<Class<?>, SizeEstimator<?>>();
+    /**
+     * The size estimators to use indexed by class of object, including the
+     * estimators inherited from a superclass.
+     */
+    private final ConcurrentHashMap<Class<?>, SizeEstimator<?>> resolvedSizeEstimators = new ConcurrentHashMap<Class<?>, SizeEstimator<?>>();
+    /**
+     * The number of objects evicted from the cache.
+     */
+    private final AtomicLong nEvicted = new AtomicLong();
+    /**
+     * The number of objects saved in the databases.
+     */
+    private final AtomicLong nSaved = new AtomicLong();
+    /**
+     * Lock held while saving entries to the databases.
+     */
+    private final ReentrantLock saveLock = new ReentrantLock();
+    /**
+     * The index of the shard where the next eviction starts, rotated to
+     * spread evictions over the shards. Accessed while holding the save lock.
+     */
+    private int evictionStart = 0;
     /**
      * The standard batch size for saving objects in databases.
      */
-    private int batchSize = 1000;
+    private volatile int batchSize = 1000;
     /**
      * Indicates whether the cache is read only.
      */
-    private boolean readOnly = false;
+    private volatile boolean readOnly = false;
+    /**
+     * Indicates whether modified entries are saved in the background upon
+     * eviction.
+     */
+    private volatile boolean writeBehind = true;
+    /**
+     * The maximal number of evicted entries waiting to be saved.
+     */
+    private volatile int maxPendingWrites = 10000;
+    /**
+     * The evicted entries waiting to be saved.
+     */
+    private final ConcurrentLinkedQueue<CacheEntry> pendingWrites = new ConcurrentLinkedQueue<CacheEntry>();
+    /**
+     * The number of evicted entries waiting to be saved.
+     */
+    private final AtomicInteger nPending = new AtomicInteger();
+    /**
+     * The estimated size of the evicted entries waiting to be saved.
+     */
+    private final AtomicLong pendingSize = new AtomicLong();
+    /**
+     * The sequence number of the last entry queued for saving.
+     */
+    private final AtomicLong pendingSequence = new AtomicLong();
+    /**
+     * The sequence numbers of the entries queued for saving and not released
+     * yet.
+     */
+    private final ConcurrentSkipListSet<Long> pendingSequences = new ConcurrentSkipListSet<Long>();
+    /**
+     * Lock used to coordinate with the flusher thread.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /**
+     * Condition signaled when entries are waiting to be saved.
+     */
+    private final Condition workAvailable = flushLock.newCondition();
+    /**
+     * Condition signaled when pending entries were saved.
+     */
+    private final Condition flushDone = flushLock.newCondition();
+    /**
+     * The thread saving the pending entries, null if not running. Accessed
+     * while holding the flush lock.
+     */
+    private Thread flusher = null;
+    /**
+     * Indicates whether the flusher should save the pending entries without
+     * waiting for a full batch. Accessed while holding the flush lock.
+     */
+    private boolean flushRequested = false;
+    /**
+     * The exception thrown while saving pending entries in the background,
+     * null if none.
+     */
+    private volatile Exception flushException = null;
 
     /**
      * Constructor.
      */
     public ObjectsCache() {
+        shards = new Shard[N_SHARDS];
+        for (int i = 0; i < N_SHARDS; i++) {
+            shards[i] = new Shard();
+        }
     }
 
     /**
@@ -140,6 +272,122 @@ public class ObjectsCache {
         this.memoryShare = memoryShare;
     }
 
+    /**
+     * Indicates whether modified entries are saved in the background upon
+     * eviction.
+     *
+     * @return a boolean indicating whether modified entries are saved in the
+     * background upon eviction
+     */
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Sets whether modified entries are saved in the background upon
+     * eviction. When disabling, pending entries are still saved by the
+     * background thread.
+     *
+     * @param writeBehind a boolean indicating whether modified entries are
+     * saved in the background upon eviction
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Returns the maximal number of evicted entries waiting to be saved.
+     *
+     * @return the maximal number of evicted entries waiting to be saved
+     */
+    public int getMaxPendingWrites() {
+        return maxPendingWrites;
+    }
+
+    /**
+     * Sets the maximal number of evicted entries waiting to be saved. Beyond
+     * this number, threads adding objects to the cache save pending entries
+     * themselves.
+     *
+     * @param maxPendingWrites the maximal number of evicted entries waiting to
+     * be saved
+     */
+    public void setMaxPendingWrites(int maxPendingWrites) {
+        this.maxPendingWrites = maxPendingWrites;
+    }
+
+    /**
+     * Returns the size budget in bytes, zero if not set.
+     *
+     * @return the size budget in bytes
+     */
+    public long getSizeBudget() {
+        return sizeBudget;
+    }
+
+    /**
+     * Sets the size budget in bytes. When set, entries are evicted when the
+     * estimated size of the objects in cache exceeds the budget, regardless of
+     * the cache size and automated memory management settings. Zero disables
+     * the size budget.
+     *
+     * @param sizeBudget the size budget in bytes
+     */
+    public void setSizeBudget(long sizeBudget) {
+        if (sizeBudget < 0) {
+            throw new IllegalArgumentException("Negative size budget: " + sizeBudget + ".");
+        }
+        this.sizeBudget = sizeBudget;
+    }
+
+    /**
+     * Sets the size estimator to use for the objects of the class of the
+     * estimator and of its subclasses, replacing the previous estimator of
+     * this class if any. The estimated size of the objects already in cache is
+     * not updated.
+     *
+     * @param sizeEstimator the size estimator
+     */
+    public void setSizeEstimator(SizeEstimator<?> sizeEstimator) {
+        sizeEstimators.put(sizeEstimator.getObjectClass(), sizeEstimator);
+        resolvedSizeEstimators.clear();
+    }
+
+    /**
+     * Returns the estimated size in bytes of the given object.
+     *
+     * @param object the object
+     *
+     * @return the estimated size in bytes of the object
+     */
+    @SuppressWarnings("unchecked")
+    public long getSize(Object object) {
+        if (object == null || sizeEstimators.isEmpty()) {
+            return DEFAULT_OBJECT_SIZE;
+        }
+        Class<?> objectClass = object.getClass();
+        SizeEstimator<?> sizeEstimator = resolvedSizeEstimators.get(objectClass);
+        if (sizeEstimator == null) {
+            for (Class<?> tempClass = objectClass; tempClass != null && sizeEstimator == null; tempClass = tempClass.getSuperclass()) {
+                sizeEstimator = sizeEstimators.get(tempClass);
+            }
+            if (sizeEstimator == null) {
+                sizeEstimator = DefaultSizeEstimator.INSTANCE;
+            }
+            resolvedSizeEstimators.put(objectClass, sizeEstimator);
+        }
+        return ((SizeEstimator<Object>) sizeEstimator).getSize(object);
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the cache.
+     *
+     * @return a snapshot of the metrics of the cache
+     */
+    public CacheMetrics getMetrics() {
+        return new CacheMetrics(nEntries.get(), size.get(), sizeBudget, nPending.get(), nEvicted.get(), nSaved.get());
+    }
+
     /**
      * Adds a database in the list of the databases handled by the cache. If a
      * database with the same name is already present it will be silently
@@ -149,14 +397,23 @@ public class ObjectsCache {
      */
     public void addDb(ObjectsDB objectsDB) {
         if (!readOnly) {
-            String dbName = objectsDB.getName();
-            if (dbName.contains(cacheSeparator)) {
-                throw new IllegalArgumentException("Database name (" + dbName + ") should not contain " + cacheSeparator);
-            }
-            databases.put(dbName, objectsDB);
+            databases.put(objectsDB.getName(), objectsDB);
         }
     }
 
+    /**
+     * Returns the shard where the given key is stored.
+     *
+     * @param cacheKey the key
+     *
+     * @return the shard where the given key is stored
+     */
+    private Shard getShard(CacheKey cacheKey) {
+        int hash = cacheKey.hashCode();
+        hash ^= (hash >>> 16);
+        return shards[(hash & Integer.MAX_VALUE) % N_SHARDS];
+    }
+
     /**
      * Removes an object from the cache mappings.
      *
@@ -164,22 +421,25 @@ public class ObjectsCache {
      * @param tableName the name of the table
      * @param objectKey the key of the object
      */
-    public synchronized void removeObject(String dbName, String tableName, String objectKey) {
+    public void removeObject(String dbName, String tableName, String objectKey) {
         if (!readOnly) {
-            String cacheKey = getCacheKey(dbName, tableName, objectKey);
-            loadedObjectsKeys.remove(cacheKey);
-            HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-            if (dbObjects != null) {
-                HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-                if (tableObjects != null) {
-                    tableObjects.remove(objectKey);
+            CacheKey cacheKey = new CacheKey(dbName, tableName, objectKey);
+            Shard shard = getShard(cacheKey);
+            shard.lock.lock();
+            try {
+                CacheEntry entry = shard.entries.get(cacheKey);
+                if (entry != null) {
+                    shard.remove(entry);
                 }
+            } finally {
+                shard.lock.unlock();
             }
         }
     }
 
     /**
-     * Returns the entry if present in the cache. Null if not.
+     * Returns the entry if present in the cache and updates its access order.
+     * Null if not.
      *
      * @param dbName the name of the database
      * @param tableName the name of the table
@@ -187,14 +447,17 @@ public class ObjectsCache {
      * @return the entry of interest, null if not present in the cache
      */
     private CacheEntry getEntry(String dbName, String tableName, String objectKey) {
-        HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-        if (dbObjects != null) {
-            HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-            if (tableObjects != null) {
-                return tableObjects.get(objectKey);
+        CacheKey cacheKey = new CacheKey(dbName, tableName, objectKey);
+        Shard shard = getShard(cacheKey);
+        CacheEntry entry = shard.entries.get(cacheKey);
+        if (entry != null && shard.lock.tryLock()) {
+            try {
+                shard.moveToTail(entry);
+            } finally {
+                shard.lock.unlock();
             }
         }
-        return null;
+        return entry;
     }
 
     /**
@@ -230,27 +493,8 @@ public class ObjectsCache {
         if (!readOnly) {
             CacheEntry entry = getEntry(dbName, tableName, objectKey);
             if (entry != null) {
-                return updateObjectSynchronized(entry, object);
+                return entry.update(object, true, getSize(object));
             }
-            return false;
-        }
-        return false;
-    }
-
-    /**
-     * Sets that a match has been modified and returns true in case of success.
-     *
-     * @param entry the entry to update
-     * @param object the object updated
-     *
-     * @return returns a boolean indicating that the entry was in cache and has
-     * been updated. False otherwise.
-     */
-    private synchronized boolean updateObjectSynchronized(CacheEntry entry, Object object) {
-        if (!readOnly) {
-            entry.setModified(true);
-            entry.setObject(object);
-            return true;
         }
         return false;
     }
@@ -269,31 +513,62 @@ public class ObjectsCache {
      * @throws SQLException if an SQLException occurs
      * @throws InterruptedException if an InterruptedException occurs
      */
-    public synchronized void addObject(String dbName, String tableName, String objectKey, Object object, boolean modifiedOrNew) throws IOException, SQLException, InterruptedException {
+    public void addObject(String dbName, String tableName, String objectKey, Object object, boolean modifiedOrNew) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
-            if (dbName.contains(cacheSeparator)) {
-                throw new IllegalArgumentException("Database name (" + dbName + ") should not contain " + cacheSeparator);
-            } else if (tableName.contains(cacheSeparator)) {
-                throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator);
-            } else if (objectKey.contains(cacheSeparator)) {
-                throw new IllegalArgumentException("Object key (" + objectKey + ") should not contain " + cacheSeparator);
-            }
-            loadedObjectsKeys.add(getCacheKey(dbName, tableName, objectKey));
-            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-            if (dbCache == null) {
-                dbCache = new HashMap<String, HashMap<String, CacheEntry>>(2);
-                loadedObjectsMap.put(dbName, dbCache);
-            }
-            HashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
-            if (tableCache == null) {
-                tableCache = new HashMap<String, CacheEntry>(512);
-                dbCache.put(tableName, tableCache);
-            }
-            tableCache.put(objectKey, new CacheEntry(object, modifiedOrNew));
+            CacheKey cacheKey = new CacheKey(dbName, tableName, objectKey);
+            long objectSize = getSize(object);
+            Shard shard = getShard(cacheKey);
+            shard.lock.lock();
+            try {
+                CacheEntry entry = shard.entries.get(cacheKey);
+                if (entry == null || !entry.update(object, modifiedOrNew, objectSize)) {
+                    shard.add(new CacheEntry(cacheKey, object, modifiedOrNew, objectSize));
+                } else {
+                    shard.moveToTail(entry);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
             updateCache();
         }
     }
 
+    /**
+     * Adds an object loaded from the database to the cache as not modified
+     * unless an object is already present with the same identifiers, in which
+     * case the cached object is kept.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object loaded from the database
+     *
+     * @return true if the object was added to the cache
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public boolean addObjectIfAbsent(String dbName, String tableName, String objectKey, Object object) throws IOException, SQLException, InterruptedException {
+        if (readOnly) {
+            return false;
+        }
+        CacheKey cacheKey = new CacheKey(dbName, tableName, objectKey);
+        long objectSize = getSize(object);
+        Shard shard = getShard(cacheKey);
+        shard.lock.lock();
+        try {
+            if (shard.entries.containsKey(cacheKey)) {
+                return false;
+            }
+            shard.add(new CacheEntry(cacheKey, object, false, objectSize));
+        } finally {
+            shard.lock.unlock();
+        }
+        updateCache();
+        return true;
+    }
+
     /**
      * Indicates whether the memory used by the application is lower than 99% of
      * the heap size.
@@ -306,338 +581,633 @@ public class ObjectsCache {
     }
 
     /**
-     * Saves an entry in the database if modified and clears it from the cache.
+     * Indicates whether entries should be evicted from the cache according to
+     * the memory settings. Entries waiting to be saved are considered as
+     * evicted.
+     *
+     * @return a boolean indicating whether entries should be evicted from the
+     * cache
+     */
+    private boolean isFull() {
+        long budget = sizeBudget;
+        if (budget > 0) {
+            return size.get() - pendingSize.get() > budget;
+        }
+        return (!automatedMemoryManagement && nEntries.get() - nPending.get() > cacheSize)
+                || (automatedMemoryManagement && !memoryCheck());
+    }
+
+    /**
+     * Updates the cache according to the memory settings.
      *
-     * @param entryKeys the keys of the entries
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
      * @throws IOException exception thrown whenever an error occurred while
      * writing the object
+     * @throws InterruptedException if an InterruptedException occurs
      */
-    public void saveObjects(ArrayList<String> entryKeys) throws IOException, SQLException {
-        saveObjects(entryKeys, null, true);
+    public void updateCache() throws IOException, SQLException, InterruptedException {
+        if (!readOnly) {
+            checkFlushException();
+            if (isFull()) {
+                saveLock.lock();
+                try {
+                    // the cache might have been reduced while waiting for the lock
+                    while (isFull()) {
+                        int nSelected;
+                        if (writeBehind) {
+                            nSelected = evictWriteBehind(getNToEvict());
+                        } else {
+                            nSelected = evict(getNToEvict(), null);
+                        }
+                        if (nSelected == 0) {
+                            break;
+                        }
+                    }
+                } finally {
+                    saveLock.unlock();
+                }
+            }
+            int nToWrite = nPending.get() - maxPendingWrites;
+            if (nToWrite > 0) {
+                // the flusher is late, save pending entries on this thread
+                writePending(nToWrite + maxPendingWrites / 2);
+            }
+        }
     }
 
     /**
-     * Saves an entry in the database if modified and clears it from the cache.
+     * Returns the number of entries to evict when the cache is full. With a
+     * size budget, the share of entries needed to go back to 75% of the
+     * budget, 25% of the entries otherwise.
      *
-     * @param entryKeys the keys of the entries
-     * @param waitingHandler a waiting handler displaying progress to the user.
-     * Can be null. Progress will be displayed as secondary.
+     * @return the number of entries to evict
+     */
+    private int getNToEvict() {
+        int n = nEntries.get() - nPending.get();
+        long budget = sizeBudget;
+        long currentSize = size.get() - pendingSize.get();
+        double share = EVICTION_SHARE;
+        if (budget > 0 && currentSize > 0) {
+            share = Math.min(1.0, (currentSize - (1 - EVICTION_SHARE) * budget) / currentSize);
+        }
+        return Math.max(1, (int) (share * n));
+    }
+
+    /**
+     * Reduces the memory consumption by saving the given share of hits.
+     *
+     * @param share the share to be saved, 0.25 means that 25% of the hits will
+     * be saved
+     * @param waitingHandler a waiting handler on which the progress will be
+     * displayed as secondary progress. can be null
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
      * @throws IOException exception thrown whenever an error occurred while
      * writing the object
      */
-    public void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler) throws IOException, SQLException {
-        saveObjects(entryKeys, waitingHandler, true);
+    public void reduceMemoryConsumption(double share, WaitingHandler waitingHandler) throws IOException, SQLException {
+        saveLock.lock();
+        try {
+            evict((int) (share * (nEntries.get() - nPending.get())), waitingHandler);
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the least recently used entries of every shard in proportion of
+     * the shard size. Entries waiting to be saved are not included. Must be
+     * called while holding the save lock.
+     *
+     * @param toRemove the number of entries to select
+     *
+     * @return the entries selected
+     */
+    private ArrayList<CacheEntry> selectVictims(int toRemove) {
+        int total = Math.max(1, nEntries.get());
+        ArrayList<CacheEntry> victims = new ArrayList<CacheEntry>(toRemove);
+        int firstShard = evictionStart++ % N_SHARDS;
+        for (int i = 0; i < N_SHARDS; i++) {
+            Shard shard = shards[(firstShard + i) % N_SHARDS];
+            shard.lock.lock();
+            try {
+                int shardToRemove = (int) Math.ceil(((double) toRemove) * shard.entries.size() / total);
+                shardToRemove = Math.min(shardToRemove, toRemove - victims.size());
+                CacheEntry entry = shard.head.next;
+                for (int j = 0; j < shardToRemove && entry != shard.head; j++) {
+                    victims.add(entry);
+                    entry = entry.next;
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return victims;
     }
 
     /**
-     * Saves an entry in the database if modified.
+     * Evicts the least recently used entries of every shard, saving the
+     * modified ones in the database. Must be called while holding the save
+     * lock.
      *
-     * @param entryKeys the keys of the entries
+     * @param toRemove the number of entries to evict
      * @param waitingHandler a waiting handler displaying progress to the user.
      * Can be null. Progress will be displayed as secondary.
-     * @param clearEntries a boolean indicating whether the entry shall be
-     * cleared from the cache
+     *
+     * @return the number of entries selected for eviction
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
      * @throws IOException exception thrown whenever an error occurred while
      * writing the object
      */
-    public synchronized void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException {
-        if (!readOnly) {
-            if (waitingHandler != null) {
-                waitingHandler.resetSecondaryProgressCounter();
-                if (clearEntries) {
-                    waitingHandler.setMaxSecondaryProgressCounter(3 * entryKeys.size());
-                } else {
-                    waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
-                }
-            }
-            // temporary map for batch saving
-            HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>();
-            for (String entryKey : entryKeys) {
-                String[] splittedKey = getKeyComponents(entryKey);
-                String dbName = splittedKey[0];
-                String tableName = splittedKey[1];
-                String objectKey = splittedKey[2];
-                CacheEntry entry = getEntry(dbName, tableName, objectKey);
-
-                if (entry == null) {
-                    throw new IllegalArgumentException("Object " + objectKey + " corresponding to entry " + entryKey + " not found in cache when saving.");
-                } else {
-                    if (entry.isModified()) {
-                        HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
-                        if (dbMap == null) {
-                            dbMap = new HashMap<String, HashMap<String, Object>>();
-                            toSave.put(dbName, dbMap);
-                        }
-                        HashMap<String, Object> tableMap = dbMap.get(tableName);
-                        if (tableMap == null) {
-                            tableMap = new HashMap<String, Object>();
-                            dbMap.put(tableName, tableMap);
+    private int evict(int toRemove, WaitingHandler waitingHandler) throws IOException, SQLException {
+
+        if (readOnly || toRemove <= 0) {
+            return 0;
+        }
+
+        ArrayList<CacheEntry> victims = selectVictims(toRemove);
+
+        if (saveEntries(victims, waitingHandler)) {
+            nEvicted.addAndGet(removeEntries(victims));
+        }
+
+        return victims.size();
+    }
+
+    /**
+     * Evicts the least recently used entries of every shard. Unmodified
+     * entries are removed, modified entries are queued for the flusher. Must
+     * be called while holding the save lock.
+     *
+     * @param toRemove the number of entries to evict
+     *
+     * @return the number of entries selected for eviction
+     */
+    private int evictWriteBehind(int toRemove) {
+
+        if (readOnly || toRemove <= 0) {
+            return 0;
+        }
+
+        ArrayList<CacheEntry> victims = selectVictims(toRemove);
+        boolean queued = false;
+
+        for (CacheEntry entry : victims) {
+            Shard shard = getShard(entry.cacheKey);
+            shard.lock.lock();
+            try {
+                synchronized (entry) {
+                    if (!entry.removed && !entry.pending) {
+                        if (entry.modified) {
+                            shard.unlink(entry);
+                            entry.pending = true;
+                            entry.pendingSize = entry.size;
+                            entry.sequence = pendingSequence.incrementAndGet();
+                            pendingSequences.add(entry.sequence);
+                            nPending.incrementAndGet();
+                            pendingSize.addAndGet(entry.size);
+                            pendingWrites.add(entry);
+                            queued = true;
+                        } else {
+                            shard.remove(entry);
+                            nEvicted.incrementAndGet();
                         }
-                        tableMap.put(objectKey, entry.getObject());
                     }
                 }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
 
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
+        if (queued) {
+            startFlusher(false);
+        }
+
+        return victims.size();
+    }
+
+    /**
+     * Saves entries waiting to be saved. For every database, entries are
+     * collected and saved while holding the lock of the database, preventing
+     * the deletion of an object while being saved. Saved entries are removed
+     * from the cache unless modified since they were queued.
+     *
+     * @param maxEntries the maximal number of entries to save
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private void writePending(int maxEntries) throws IOException, SQLException {
+
+        HashMap<String, ArrayList<CacheEntry>> dbEntries = new HashMap<String, ArrayList<CacheEntry>>();
+        ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>();
+        CacheEntry polled;
+        while (entries.size() < maxEntries && (polled = pendingWrites.poll()) != null) {
+            entries.add(polled);
+            ArrayList<CacheEntry> dbList = dbEntries.get(polled.cacheKey.dbName);
+            if (dbList == null) {
+                dbList = new ArrayList<CacheEntry>();
+                dbEntries.put(polled.cacheKey.dbName, dbList);
             }
-            for (String dbName : toSave.keySet()) {
+            dbList.add(polled);
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (String dbName : dbEntries.keySet()) {
                 ObjectsDB objectsDB = databases.get(dbName);
-                for (String tableName : toSave.get(dbName).keySet()) {
-                    objectsDB.insertObjects(tableName, toSave.get(dbName).get(tableName), waitingHandler);
+                if (objectsDB == null) {
+                    throw new IllegalStateException("Database " + dbName + " not loaded in cache");
                 }
-            }
-            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
-                if (clearEntries) {
-                    for (String entryKey : entryKeys) {
-                        String[] splittedKey = getKeyComponents(entryKey);
-                        String dbName = splittedKey[0];
-                        String tableName = splittedKey[1];
-                        String objectKey = splittedKey[2];
-                        HashMap<String, HashMap<String, CacheEntry>> dbMap = loadedObjectsMap.get(dbName);
-                        if (dbMap != null) {
-                            HashMap<String, CacheEntry> tableMap = dbMap.get(tableName);
-                            if (tableMap != null) {
-                                tableMap.remove(objectKey);
-                                if (tableMap.isEmpty()) {
-                                    dbMap.remove(tableName);
+                synchronized (objectsDB) {
+                    HashMap<String, HashMap<String, Object>> toSave = new HashMap<String, HashMap<String, Object>>();
+                    HashMap<CacheEntry, Integer> savedVersions = new HashMap<CacheEntry, Integer>();
+                    for (CacheEntry entry : dbEntries.get(dbName)) {
+                        synchronized (entry) {
+                            if (entry.pending) {
+                                HashMap<String, Object> tableMap = toSave.get(entry.cacheKey.tableName);
+                                if (tableMap == null) {
+                                    tableMap = new HashMap<String, Object>();
+                                    toSave.put(entry.cacheKey.tableName, tableMap);
                                 }
-                            }
-                            if (dbMap.isEmpty()) {
-                                loadedObjectsMap.remove(dbName);
+                                tableMap.put(entry.cacheKey.objectKey, entry.object);
+                                savedVersions.put(entry, entry.version);
                             }
                         }
+                    }
+                    for (String tableName : toSave.keySet()) {
+                        HashMap<String, Object> objects = toSave.get(tableName);
+                        objectsDB.insertObjects(tableName, objects, null);
+                        nSaved.addAndGet(objects.size());
+                    }
+                    for (CacheEntry entry : savedVersions.keySet()) {
+                        releasePending(entry, savedVersions.get(entry));
+                    }
+                }
+            }
+        } finally {
+            // entries not saved go back to the cache
+            for (CacheEntry entry : entries) {
+                releasePending(entry, -1);
+            }
+            flushLock.lock();
+            try {
+                flushDone.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
 
-                        if (waitingHandler != null) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                            if (waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
+    /**
+     * Releases an entry waiting to be saved. If saved and not modified since
+     * queued, the entry is removed from the cache. Otherwise it is set back as
+     * most recently used.
+     *
+     * @param entry the entry
+     * @param savedVersion the version of the entry saved, -1 if not saved
+     */
+    private void releasePending(CacheEntry entry, int savedVersion) {
+        Shard shard = getShard(entry.cacheKey);
+        shard.lock.lock();
+        try {
+            synchronized (entry) {
+                if (entry.pending) {
+                    entry.pending = false;
+                    nPending.decrementAndGet();
+                    pendingSize.addAndGet(-entry.pendingSize);
+                    pendingSequences.remove(entry.sequence);
+                    if (entry.version == savedVersion) {
+                        entry.modified = false;
+                        shard.remove(entry);
+                        nEvicted.incrementAndGet();
+                    } else {
+                        shard.link(entry);
                     }
                 }
             }
+        } finally {
+            shard.lock.unlock();
         }
     }
 
     /**
-     * Saves an entry in the database if modified and clears it from the cache.
-     * Batch saving should be used instead when possible in order to limit the
-     * interactions with the database. See method saveObjects
+     * Starts the flusher if not running, wakes it up otherwise.
      *
-     * @param entryKey the key of the entry
-     * @throws SQLException exception thrown whenever an error occurred while
-     * adding the object in the database
-     * @throws IOException exception thrown whenever an error occurred while
-     * writing the object
-     * @throws InterruptedException if an InterruptedException occurs
+     * @param flushNow a boolean indicating whether the flusher should save the
+     * pending entries without waiting for a full batch
      */
-    public synchronized void saveObject(String entryKey) throws IOException, SQLException, InterruptedException {
-        saveObject(entryKey, true);
+    private void startFlusher(boolean flushNow) {
+        flushLock.lock();
+        try {
+            if (flushNow) {
+                flushRequested = true;
+            }
+            if (flusher == null) {
+                flusher = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runFlusher(Thread.currentThread());
+                    }
+                }, "ObjectsCache flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            } else if (flushNow || pendingWrites.size() >= batchSize) {
+                workAvailable.signal();
+            }
+        } finally {
+            flushLock.unlock();
+        }
     }
 
     /**
-     * Saves an entry in the database if modified. Batch saving should be used
-     * instead in order to limit the interactions with the database. See method
-     * saveObjects
+     * Loop of the flusher thread: waits for a batch of pending entries, or
+     * for the flush delay, and saves them. The thread stops when no entry
+     * is pending at the end of the delay.
      *
-     * @param entryKey the key of the entry
-     * @param clearEntry a boolean indicating whether the entry shall be cleared
-     * from the cache
-     * @throws SQLException exception thrown whenever an error occurred while
-     * adding the object in the database
-     * @throws IOException exception thrown whenever an error occurred while
-     * writing the object
-     * @throws InterruptedException if an InterruptedException occurs
+     * @param thread the flusher thread
      */
-    public synchronized void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
-        if (!readOnly) {
-            String[] splittedKey = getKeyComponents(entryKey);
-            String dbName = splittedKey[0];
-            String tableName = splittedKey[1];
-            String objectKey = splittedKey[2];
-            CacheEntry entry = loadedObjectsMap.get(dbName).get(tableName).get(objectKey);
-            if (entry.isModified()) {
+    private void runFlusher(Thread thread) {
+        try {
+            while (true) {
+                flushLock.lock();
                 try {
-                    ObjectsDB objectsDB = databases.get(dbName);
-                    if (objectsDB == null) {
-                        throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+                    while (pendingWrites.size() < batchSize && !flushRequested) {
+                        if (!workAvailable.await(FLUSH_DELAY, TimeUnit.MILLISECONDS)) {
+                            break;
+                        }
                     }
-                    if (objectsDB.inDB(tableName, objectKey, false)) {
-                        objectsDB.updateObject(tableName, objectKey, entry.getObject(), false);
-                    } else {
-                        objectsDB.insertObject(tableName, objectKey, entry.getObject(), false);
+                    flushRequested = false;
+                    if (pendingWrites.isEmpty()) {
+                        // stop in the same critical section so that the
+                        // entries added afterwards start a new flusher
+                        if (flusher == thread) {
+                            flusher = null;
+                        }
+                        return;
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    throw new IOException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    throw new SQLException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
+                } finally {
+                    flushLock.unlock();
                 }
-            }
-            if (clearEntry) {
-                loadedObjectsKeys.remove(entryKey);
-                loadedObjectsMap.get(dbName).get(tableName).remove(objectKey);
-                if (loadedObjectsMap.get(dbName).get(tableName).isEmpty()) {
-                    loadedObjectsMap.get(dbName).remove(tableName);
+                try {
+                    writePending(Math.max(batchSize, maxPendingWrites));
+                } catch (Exception e) {
+                    flushException = e;
                 }
-                if (loadedObjectsMap.get(dbName).isEmpty()) {
-                    loadedObjectsMap.remove(dbName);
+            }
+        } catch (InterruptedException e) {
+            // stop flushing, pending entries will be saved by the other threads
+        } finally {
+            flushLock.lock();
+            try {
+                if (flusher == thread) {
+                    flusher = null;
                 }
+            } finally {
+                flushLock.unlock();
             }
         }
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Requests the background saving of the evicted entries waiting to be
+     * saved without waiting for a full batch. Returns immediately.
+     */
+    public void flush() {
+        if (!pendingWrites.isEmpty()) {
+            startFlusher(true);
+        }
+    }
+
+    /**
+     * Saves the evicted entries waiting to be saved and waits until entries
+     * being saved by the flusher are saved. After this method returns, all
+     * entries evicted before the call are in the database. Entries evicted
+     * while waiting are not waited for. This method must not be called while
+     * holding the lock of a database.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
      * @throws IOException exception thrown whenever an error occurred while
      * writing the object
-     * @throws InterruptedException if an InterruptedException occurs
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting for the flusher
      */
-    public synchronized void updateCache() throws IOException, SQLException, InterruptedException {
-        if (!readOnly) {
-
-            while ((!automatedMemoryManagement && loadedObjectsKeys.size() > cacheSize)
-                    || (automatedMemoryManagement && !memoryCheck())) {
-                int toRemove = (int) (((double) loadedObjectsKeys.size()) * 0.25); // remove 25% of the objects from the cache
-                if (toRemove <= 1) {
-                    saveObject(loadedObjectsKeys.take());
-                } else {
-                    ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-                    loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-                    saveObjects(keysToRemove);
-                }
-                if (loadedObjectsKeys.isEmpty()) {
-                    break;
-                }
+    public void awaitFlush() throws IOException, SQLException, InterruptedException {
+        long lastSequence = pendingSequence.get();
+        writePending(Integer.MAX_VALUE);
+        flushLock.lock();
+        try {
+            while (isPending(lastSequence)) {
+                flushDone.await(FLUSH_DELAY, TimeUnit.MILLISECONDS);
             }
+        } finally {
+            flushLock.unlock();
         }
+        checkFlushException();
     }
 
     /**
-     * Reduces the memory consumption by saving the given share of hits.
+     * Indicates whether entries queued up to the given sequence number are
+     * still waiting to be saved.
      *
-     * @param share the share to be saved, 0.25 means that 25% of the hits will
-     * be saved
-     * @param waitingHandler a waiting handler on which the progress will be
-     * displayed as secondary progress. can be null
-     * @throws SQLException exception thrown whenever an error occurred while
-     * adding the object in the database
-     * @throws IOException exception thrown whenever an error occurred while
-     * writing the object
+     * @param lastSequence the sequence number of the last entry of interest
+     *
+     * @return a boolean indicating whether entries queued up to the given
+     * sequence number are still waiting to be saved
      */
-    public synchronized void reduceMemoryConsumption(double share, WaitingHandler waitingHandler) throws IOException, SQLException {
-        int toRemove = (int) (share * loadedObjectsKeys.size());
-        ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-        loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-        saveObjects(keysToRemove, waitingHandler);
+    private boolean isPending(long lastSequence) {
+        try {
+            return pendingSequences.first() <= lastSequence;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
     }
 
     /**
-     * Indicates whether an object is loaded in the cache
+     * Throws the exception encountered by the flusher if any.
      *
-     * @param dbName the database name
-     * @param tableName the table name
-     * @param objectKey the object key
-     * @return a boolean indicating whether an object is loaded in the cache
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
      */
-    public synchronized boolean inCache(String dbName, String tableName, String objectKey) {
-        return loadedObjectsMap.containsKey(dbName) && loadedObjectsMap.get(dbName).containsKey(tableName) && loadedObjectsMap.get(dbName).get(tableName).containsKey(objectKey);
+    private void checkFlushException() throws IOException, SQLException {
+        Exception e = flushException;
+        if (e != null) {
+            flushException = null;
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof SQLException) {
+                throw (SQLException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
-     * Saves the cache content in the database.
+     * Saves the modified entries in the database by batches of db and table.
+     * Must be called while holding the save lock.
+     *
+     * @param entries the entries to save
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     *
+     * @return a boolean indicating whether the entries were saved, false if
+     * the process was canceled
      *
-     * @param waitingHandler a waiting handler on which the progress will be
-     * @param emptyCache boolean indicating whether the cache content shall be
-     * cleared while saving displayed as secondary progress. can be null
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
      * @throws IOException exception thrown whenever an error occurred while
      * writing the object
      */
-    public synchronized void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException {
+    private boolean saveEntries(ArrayList<CacheEntry> entries, WaitingHandler waitingHandler) throws IOException, SQLException {
 
         if (waitingHandler != null) {
-            waitingHandler.setMaxSecondaryProgressCounter((loadedObjectsKeys.size() * 2) + 1);
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setSecondaryProgressCounter(0);
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(2 * entries.size());
         }
 
-        // add the objects to the database
-        for (String dbName : loadedObjectsMap.keySet()) {
+        // temporary map for batch saving
+        HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>();
+        HashMap<CacheEntry, Integer> savedVersions = new HashMap<CacheEntry, Integer>();
 
-            ObjectsDB objectsDB = databases.get(dbName);
+        for (CacheEntry entry : entries) {
+            synchronized (entry) {
+                if (entry.modified && !entry.removed) {
+                    CacheKey cacheKey = entry.cacheKey;
+                    HashMap<String, HashMap<String, Object>> dbMap = toSave.get(cacheKey.dbName);
+                    if (dbMap == null) {
+                        dbMap = new HashMap<String, HashMap<String, Object>>();
+                        toSave.put(cacheKey.dbName, dbMap);
+                    }
+                    HashMap<String, Object> tableMap = dbMap.get(cacheKey.tableName);
+                    if (tableMap == null) {
+                        tableMap = new HashMap<String, Object>();
+                        dbMap.put(cacheKey.tableName, tableMap);
+                    }
+                    tableMap.put(cacheKey.objectKey, entry.object);
+                    savedVersions.put(entry, entry.version);
+                }
+            }
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+        }
 
+        for (String dbName : toSave.keySet()) {
+            ObjectsDB objectsDB = databases.get(dbName);
             if (objectsDB == null) {
                 throw new IllegalStateException("Database " + dbName + " not loaded in cache");
             }
-            for (String tableName : loadedObjectsMap.get(dbName).keySet()) {
-
-                HashMap<String, CacheEntry> data = loadedObjectsMap.get(dbName).get(tableName);
-                HashMap<String, Object> objectsToStore = new HashMap<String, Object>(data.size());
+            for (String tableName : toSave.get(dbName).keySet()) {
+                HashMap<String, Object> objects = toSave.get(dbName).get(tableName);
+                objectsDB.insertObjects(tableName, objects, waitingHandler);
+                nSaved.addAndGet(objects.size());
+            }
+        }
 
-                for (String objectKey : data.keySet()) {
-                    CacheEntry entry = data.get(objectKey);
-                    if (entry.isModified()) {
-                        objectsToStore.put(objectKey, entry.getObject());
-                    }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return false;
+        }
 
-                    if (waitingHandler != null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
-                        }
-                    }
+        // entries updated while saving remain modified
+        for (CacheEntry entry : savedVersions.keySet()) {
+            synchronized (entry) {
+                if (entry.version == savedVersions.get(entry)) {
+                    entry.modified = false;
                 }
-
-                objectsDB.insertObjects(tableName, objectsToStore, waitingHandler);
             }
         }
 
-        if (emptyCache && !readOnly) {
-            loadedObjectsMap.clear();
-            loadedObjectsKeys.clear();
+        return true;
+    }
+
+    /**
+     * Removes the given entries from the cache unless modified since they
+     * were saved.
+     *
+     * @param entries the entries to remove
+     *
+     * @return the number of entries removed
+     */
+    private int removeEntries(ArrayList<CacheEntry> entries) {
+        int nRemoved = 0;
+        for (CacheEntry entry : entries) {
+            Shard shard = getShard(entry.cacheKey);
+            shard.lock.lock();
+            try {
+                synchronized (entry) {
+                    if (!entry.modified && !entry.removed) {
+                        shard.remove(entry);
+                        nRemoved++;
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
         }
+        return nRemoved;
     }
 
     /**
-     * Returns the cache key which will index an object based on its db name,
-     * table name and object key.
+     * Indicates whether an object is loaded in the cache
      *
-     * @param dbName the DB name
+     * @param dbName the database name
      * @param tableName the table name
      * @param objectKey the object key
-     * @return the cache key which will index an object based on its db name,
-     * table name and object key
+     * @return a boolean indicating whether an object is loaded in the cache
      */
-    private String getCacheKey(String dbName, String tableName, String objectKey) {
-        return dbName + cacheSeparator + tableName + cacheSeparator + objectKey;
+    public boolean inCache(String dbName, String tableName, String objectKey) {
+        CacheKey cacheKey = new CacheKey(dbName, tableName, objectKey);
+        return getShard(cacheKey).entries.containsKey(cacheKey);
     }
 
     /**
-     * Returns the key components in an array: 0 &gt; DB name 1 &gt; table name
-     * 2 &gt; object key.
+     * Saves the cache content in the database.
      *
-     * @param cacheKey the key used by the cache
-     * @return the components of the key
+     * @param waitingHandler a waiting handler on which the progress will be
+     * @param emptyCache boolean indicating whether the cache content shall be
+     * cleared while saving displayed as secondary progress. can be null
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
      */
-    private String[] getKeyComponents(String cacheKey) {
-        return cacheKey.split(cacheSeparator);
+    public void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException {
+
+        writePending(Integer.MAX_VALUE);
+        checkFlushException();
+
+        saveLock.lock();
+        try {
+            ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>(nEntries.get());
+            for (Shard shard : shards) {
+                entries.addAll(shard.entries.values());
+            }
+
+            if (!saveEntries(entries, waitingHandler)) {
+                return;
+            }
+
+            if (emptyCache && !readOnly) {
+                removeEntries(entries);
+            }
+        } finally {
+            saveLock.unlock();
+        }
     }
 
     /**
@@ -645,8 +1215,8 @@ public class ObjectsCache {
      *
      * @return a boolean indicating whether the cache is empty
      */
-    public synchronized boolean isEmpty() {
-        return loadedObjectsKeys.isEmpty();
+    public boolean isEmpty() {
+        return nEntries.get() == 0;
     }
 
     /**
@@ -660,70 +1230,298 @@ public class ObjectsCache {
     }
 
     /**
-     * Class representing a cache entry.
+     * Shard of the cache: a concurrent map of the entries and a doubly linked
+     * list of the entries ordered by access, least recently used first.
+     * Modifications must be done while holding the lock of the shard.
+     */
+    private class Shard {
+
+        /**
+         * The entries of the shard.
+         */
+        private final ConcurrentHashMap<CacheKey, CacheEntry> entries = new ConcurrentHashMap<CacheKey, CacheEntry>(512);
+        /**
+         * The sentinel of the list of entries, its next entry is the least
+         * recently used.
+         */
+        private final CacheEntry head = new CacheEntry(null, null, false, 0);
+        /**
+         * The lock of the shard.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Constructor.
+         */
+        Shard() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        /**
+         * Adds an entry as most recently used, replacing the entry with the
+         * same key if any.
+         *
+         * @param entry the entry
+         */
+        void add(CacheEntry entry) {
+            CacheEntry previousEntry = entries.put(entry.cacheKey, entry);
+            if (previousEntry != null) {
+                unlink(previousEntry);
+                synchronized (previousEntry) {
+                    previousEntry.removed = true;
+                    size.addAndGet(-previousEntry.size);
+                }
+            } else {
+                nEntries.incrementAndGet();
+            }
+            size.addAndGet(entry.size);
+            link(entry);
+        }
+
+        /**
+         * Removes an entry.
+         *
+         * @param entry the entry
+         */
+        void remove(CacheEntry entry) {
+            synchronized (entry) {
+                entry.removed = true;
+                if (entry.pending) {
+                    entry.pending = false;
+                    nPending.decrementAndGet();
+                    pendingSize.addAndGet(-entry.pendingSize);
+                    pendingSequences.remove(entry.sequence);
+                }
+                if (entries.remove(entry.cacheKey, entry)) {
+                    nEntries.decrementAndGet();
+                    size.addAndGet(-entry.size);
+                }
+            }
+            unlink(entry);
+        }
+
+        /**
+         * Sets an entry as most recently used.
+         *
+         * @param entry the entry
+         */
+        void moveToTail(CacheEntry entry) {
+            if (entry.next != null && entry.next != head) {
+                unlink(entry);
+                link(entry);
+            }
+        }
+
+        /**
+         * Appends an entry at the end of the list.
+         *
+         * @param entry the entry
+         */
+        private void link(CacheEntry entry) {
+            entry.previous = head.previous;
+            entry.next = head;
+            head.previous.next = entry;
+            head.previous = entry;
+        }
+
+        /**
+         * Removes an entry from the list.
+         *
+         * @param entry the entry
+         */
+        private void unlink(CacheEntry entry) {
+            if (entry.next != null) {
+                entry.previous.next = entry.next;
+                entry.next.previous = entry.previous;
+                entry.previous = null;
+                entry.next = null;
+            }
+        }
+    }
+
+    /**
+     * Key of an entry: the database, table and object keys.
+     */
+    private static class CacheKey {
+
+        /**
+         * The name of the database.
+         */
+        private final String dbName;
+        /**
+         * The name of the table.
+         */
+        private final String tableName;
+        /**
+         * The key of the object.
+         */
+        private final String objectKey;
+        /**
+         * The hash code of the key.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param dbName the name of the database
+         * @param tableName the name of the table
+         * @param objectKey the key of the object
+         */
+        CacheKey(String dbName, String tableName, String objectKey) {
+            this.dbName = dbName;
+            this.tableName = tableName;
+            this.objectKey = objectKey;
+            int hash = objectKey == null ? 0 : objectKey.hashCode();
+            hash = 31 * hash + (tableName == null ? 0 : tableName.hashCode());
+            hash = 31 * hash + (dbName == null ? 0 : dbName.hashCode());
+            hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return hashCode == other.hashCode
+                    && objectKey.equals(other.objectKey)
+                    && tableName.equals(other.tableName)
+                    && dbName.equals(other.dbName);
+        }
+    }
+
+    /**
+     * Class representing a cache entry. The object, modification status,
+     * version and size are accessed while synchronized on the entry, the links
+     * while holding the lock of the shard.
      */
     private class CacheEntry {
 
+        /**
+         * The key of this entry.
+         */
+        private final CacheKey cacheKey;
         /**
          * The object of this entry.
          */
-        private Object object;
+        private volatile Object object;
         /**
          * A boolean indicating whether this entry is modified when compared to
          * the version of the database. Only modified entries will be saved when
          * the cache is emptied.
          */
         private boolean modified;
+        /**
+         * The number of times the entry was updated.
+         */
+        private int version = 0;
+        /**
+         * The estimated size of the object in bytes.
+         */
+        private long size;
+        /**
+         * Boolean indicating whether the entry was removed from the cache.
+         */
+        private boolean removed = false;
+        /**
+         * Boolean indicating whether the entry was evicted and waits to be
+         * saved.
+         */
+        private boolean pending = false;
+        /**
+         * The estimated size of the object when the entry was queued for
+         * saving.
+         */
+        private long pendingSize = 0;
+        /**
+         * The sequence number of the entry when queued for saving.
+         */
+        private long sequence = 0;
+        /**
+         * The previous entry in the access order.
+         */
+        private CacheEntry previous;
+        /**
+         * The next entry in the access order.
+         */
+        private CacheEntry next;
 
         /**
          * Constructor.
          *
+         * @param cacheKey the key of the entry
          * @param object the object of the entry
          * @param modified boolean indicating whether the entry is modified
+         * @param size the estimated size of the object in bytes
          */
-        public CacheEntry(Object object, boolean modified) {
+        CacheEntry(CacheKey cacheKey, Object object, boolean modified, long size) {
+            this.cacheKey = cacheKey;
             this.object = object;
             this.modified = modified;
+            this.size = size;
         }
 
         /**
-         * Indicates whether the object is modified when compared to the version
-         * in the database.
+         * Returns the object of this entry.
          *
-         * @return a boolean indicating whether the object is modified when
-         * compared to the version in the database
+         * @return the object contained by this entry
          */
-        public boolean isModified() {
-            return modified;
+        Object getObject() {
+            return object;
         }
 
         /**
-         * Sets whether the object is modified when compared to the version in
-         * the database.
+         * Sets the object of this entry unless the entry was removed from the
+         * cache.
          *
-         * @param modified a boolean indicating whether the object is modified
+         * @param object the object for this entry
+         * @param modified boolean indicating whether the object is modified
          * when compared to the version in the database
+         * @param size the estimated size of the object in bytes
+         *
+         * @return a boolean indicating whether the entry was updated
          */
-        public void setModified(boolean modified) {
+        synchronized boolean update(Object object, boolean modified, long size) {
+            if (removed) {
+                return false;
+            }
+            this.object = object;
             this.modified = modified;
+            ObjectsCache.this.size.addAndGet(size - this.size);
+            this.size = size;
+            version++;
+            return true;
         }
+    }
+
+    /**
+     * Estimator attributing the default size to all objects.
+     */
+    private static class DefaultSizeEstimator implements SizeEstimator<Object> {
 
         /**
-         * Returns the object of this entry.
-         *
-         * @return the object contained by this entry
+         * The instance of the estimator.
          */
-        public Object getObject() {
-            return object;
+        private static final DefaultSizeEstimator INSTANCE = new DefaultSizeEstimator();
+
+        @Override
+        public Class<Object> getObjectClass() {
+            return Object.class;
         }
 
-        /**
-         * Sets the object of this cache entry.
-         *
-         * @param object the object for this entry
-         */
-        public void setObject(Object object) {
-            this.object = object;
+        @Override
+        public long getSize(Object object) {
+            return DEFAULT_OBJECT_SIZE;
         }
     }
 }
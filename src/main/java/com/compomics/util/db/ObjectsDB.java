@@ -1,13 +1,20 @@
 package com.compomics.util.db;
 
 import com.compomics.util.Util;
+import com.compomics.util.io.compression.LzUtils;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
 import java.sql.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import javax.sql.rowset.serial.SerialBlob;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A database which can easily be used to store objects.
@@ -125,11 +132,64 @@ public class ObjectsDB implements Serializable {
      * If true, SQLite is used as the database, if false Derby is used.
      */
     private boolean useSQLite = false;
+    /**
+     * If true, the objects are stored in an embedded key-value store instead
+     * of a JDBC database.
+     */
+    private boolean useKeyValueStore = false;
+    /**
+     * The key-value store, null if a JDBC database is used.
+     */
+    private transient KeyValueStore keyValueStore = null;
     /**
      * The identifier used to register the derby connection in the DerbyUtil
      * class.
      */
     public static final String derbyConnectionID = "objectsDB";
+    /**
+     * The first byte of the compressed blobs, followed by the length of the
+     * uncompressed blob and the compressed bytes.
+     */
+    public static final byte COMPRESSED_BLOB = 0x02;
+    /**
+     * The minimal size in bytes of a blob to compress.
+     */
+    public static final int MIN_COMPRESSION_LENGTH = 64;
+    /**
+     * The number of chunks per thread when scanning a page of a table in
+     * parallel.
+     */
+    private static final int SCAN_CHUNKS_PER_THREAD = 4;
+    /**
+     * The number of objects deserialized per task when loading objects in
+     * the cache.
+     */
+    private static final int DESERIALIZATION_CHUNK_SIZE = 64;
+    /**
+     * The number of deserialization tasks per thread which can be pending
+     * when loading objects in the cache.
+     */
+    private static final int DESERIALIZATION_TASKS_PER_THREAD = 4;
+    /**
+     * The number of threads used to deserialize the objects loaded in the
+     * cache.
+     */
+    private int deserializationThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The pool of threads used to deserialize the objects loaded in the
+     * cache, created on demand.
+     */
+    private transient ExecutorService deserializationPool = null;
+    /**
+     * Boolean indicating whether the blobs of the tables are compressed by
+     * default.
+     */
+    private boolean compression = false;
+    /**
+     * The tables where compression is enabled or disabled regardless of the
+     * default.
+     */
+    private HashMap<String, Boolean> tablesCompression = new HashMap<String, Boolean>();
 
     /**
      * Constructor.
@@ -155,6 +215,32 @@ public class ObjectsDB implements Serializable {
         establishConnection(folder, deleteOldDatabase, objectsCache);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param folder absolute path of the folder where to establish the database
+     * @param dbName name of the database
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectsCache a cache to store objects without interacting with the
+     * database
+     * @param useKeyValueStore if true, the objects are stored in an embedded
+     * key-value store instead of a JDBC database
+     *
+     * @throws SQLException exception thrown whenever a problem occurred when
+     * establishing the connection to the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while establishing the connection
+     */
+    public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache, boolean useKeyValueStore) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        this.dbName = dbName;
+        objectsCache.addDb(this);
+        establishConnection(folder, deleteOldDatabase, objectsCache, useKeyValueStore);
+    }
+
     /**
      * Returns the database name.
      *
@@ -195,6 +281,14 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println("Inserting table, table: " + tableName);
         }
+        if (keyValueStore != null) {
+            try {
+                keyValueStore.addTable(getStoreTableName(tableName));
+            } catch (IOException e) {
+                throw new SQLException("An error occurred while creating table " + tableName + ".", e);
+            }
+            return;
+        }
         Statement stmt = dbConnection.createStatement();
         try {
             stmt.execute("CREATE table " + tableName + " ("
@@ -247,6 +341,10 @@ public class ObjectsDB implements Serializable {
      */
     public synchronized ArrayList<String> getTables() throws SQLException {
 
+        if (keyValueStore != null) {
+            return keyValueStore.getTables();
+        }
+
         DatabaseMetaData dmd = dbConnection.getMetaData();
         ArrayList<String> result = new ArrayList<String>();
         ResultSet rs = dmd.getTables(null, null, null, null); //@TODO: not sure to which extend this is Derby dependent...
@@ -290,21 +388,14 @@ public class ObjectsDB implements Serializable {
             if (debugInteractions) {
                 System.out.println("Inserting single object, table: " + tableName + ", key: " + objectKey);
             }
-            PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-            ps.setString(1, correctedKey);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try {
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try {
-                    oos.writeObject(object);
-                } finally {
-                    oos.close();
-                }
-            } finally {
-                bos.close();
+            if (keyValueStore != null) {
+                keyValueStore.put(getStoreTableName(tableName), correctedKey, serialize(tableName, object));
+            } else {
+                PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
+                ps.setString(1, correctedKey);
+                ps.setBytes(2, serialize(tableName, object));
+                ps.executeUpdate();
             }
-            ps.setBytes(2, bos.toByteArray());
-            ps.executeUpdate();
         }
     }
 
@@ -344,6 +435,10 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println("Preparing table insertion: " + tableName);
         }
+        if (keyValueStore != null) {
+            insertObjectsInStore(tableName, objects, waitingHandler);
+            return;
+        }
         PreparedStatement insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
         try {
             PreparedStatement updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
@@ -359,54 +454,33 @@ public class ObjectsDB implements Serializable {
 
                     String correctedKey = correctKey(tableName, objectKey);
 
+                    byte[] bytes = serialize(tableName, objects.get(objectKey));
+
                     if (debugContent) {
                         if (debugInteractions) {
                             System.out.println("Inserting batch of objects, table: " + tableName + ", key: " + objectKey);
                         }
-                        File debugObjectFile = new File(debugFolder, "debugMatch");
-                        FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                        BufferedOutputStream debugBos = new BufferedOutputStream(fos);
-                        ObjectOutputStream debugOos = new ObjectOutputStream(debugBos);
-                        debugOos.writeObject(objects.get(objectKey));
-                        debugOos.close();
-                        debugBos.close();
-                        fos.close();
-                        long size = debugObjectFile.length();
-
-                        debugContentWriter.write(tableName + "\t" + objectKey + "\t" + size + "\n");
+                        debugContentWriter.write(tableName + "\t" + objectKey + "\t" + bytes.length + "\n");
                         debugContentWriter.flush();
                     }
 
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    try {
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        try {
-                            oos.writeObject(objects.get(objectKey));
-
-                            if (!allNewObjects && tableContent.contains(objectKey)) {
-                                updateStatement.setString(2, correctedKey);
-                                updateStatement.setBytes(1, bos.toByteArray());
-                                updateStatement.addBatch();
-                            } else {
-                                insertStatement.setString(1, correctedKey);
-                                insertStatement.setBytes(2, bos.toByteArray());
-                                insertStatement.addBatch();
-                            }
-
-                            if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                                updateStatement.executeBatch();
-                                insertStatement.executeBatch();
-                                updateStatement.clearParameters();
-                                insertStatement.clearParameters();
-                                dbConnection.commit();
-                                rowCounter = 0;
-                            }
+                    if (!allNewObjects && tableContent.contains(objectKey)) {
+                        updateStatement.setString(2, correctedKey);
+                        updateStatement.setBytes(1, bytes);
+                        updateStatement.addBatch();
+                    } else {
+                        insertStatement.setString(1, correctedKey);
+                        insertStatement.setBytes(2, bytes);
+                        insertStatement.addBatch();
+                    }
 
-                        } finally {
-                            oos.close();
-                        }
-                    } finally {
-                        bos.close();
+                    if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                        updateStatement.executeBatch();
+                        insertStatement.executeBatch();
+                        updateStatement.clearParameters();
+                        insertStatement.clearParameters();
+                        dbConnection.commit();
+                        rowCounter = 0;
                     }
 
                     if (waitingHandler != null) {
@@ -437,6 +511,53 @@ public class ObjectsDB implements Serializable {
         }
     }
 
+    /**
+     * Inserts a set of objects in the given table of the key-value store by
+     * batches. Objects already stored are replaced.
+     *
+     * @param tableName the name of the table
+     * @param objects map of the objects (object key &gt; object)
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     */
+    private synchronized void insertObjectsInStore(String tableName, HashMap<String, Object> objects, WaitingHandler waitingHandler) throws IOException {
+
+        String storeTableName = getStoreTableName(tableName);
+        HashMap<String, byte[]> batch = new HashMap<String, byte[]>();
+
+        for (String objectKey : objects.keySet()) {
+
+            byte[] bytes = serialize(tableName, objects.get(objectKey));
+
+            if (debugContent) {
+                if (debugInteractions) {
+                    System.out.println("Inserting batch of objects, table: " + tableName + ", key: " + objectKey);
+                }
+                debugContentWriter.write(tableName + "\t" + objectKey + "\t" + bytes.length + "\n");
+                debugContentWriter.flush();
+            }
+
+            batch.put(correctKey(tableName, objectKey), bytes);
+
+            if (batch.size() == objectsCache.getBatchSize()) {
+                keyValueStore.putAll(storeTableName, batch);
+                batch.clear();
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        }
+
+        keyValueStore.putAll(storeTableName, batch);
+    }
+
     /**
      * Loads all objects from a table in the cache.
      *
@@ -467,10 +588,7 @@ public class ObjectsDB implements Serializable {
                 waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
                 // note that using the count statement might take a couple of seconds for a big table, but still better than an indeterminate progressbar.
-                Statement rowCountStatement = dbConnection.createStatement();
-                results = rowCountStatement.executeQuery("select count(*) from " + tableName);
-                results.next();
-                Integer numberOfRows = results.getInt(1);
+                int numberOfRows = countObjects(tableName);
 
                 waitingHandler.setSecondaryProgressCounterIndeterminate(false);
                 waitingHandler.setSecondaryProgressCounter(0);
@@ -478,8 +596,14 @@ public class ObjectsDB implements Serializable {
             }
 
             busy = true;
+            DeserializationPipeline pipeline = new DeserializationPipeline(tableName, null);
 
             try {
+                if (keyValueStore != null) {
+                    loadObjectsFromStore(tableName, pipeline, waitingHandler, displayProgress);
+                    tableQueue.remove(tableName);
+                    return;
+                }
                 Statement stmt = dbConnection.createStatement();
                 try {
                     results = stmt.executeQuery("select * from " + tableName);
@@ -499,33 +623,11 @@ public class ObjectsDB implements Serializable {
                             String key = results.getString(1);
 
                             if (!objectsCache.inCache(dbName, tableName, key)) {
-
-                                Blob tempBlob;
-
-                                if (useSQLite) {
-                                    byte[] bytes = results.getBytes(2);
-                                    tempBlob = new SerialBlob(bytes);
-                                } else {
-                                    tempBlob = results.getBlob(2);
-                                }
-
-                                Object object = null;
-                                BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                try {
-                                    ObjectInputStream in = new ObjectInputStream(bis);
-                                    try {
-                                        object = in.readObject();
-                                    } finally {
-                                        in.close();
-                                    }
-                                } finally {
-                                    bis.close();
-                                }
-
-                                objectsCache.addObject(dbName, tableName, key, object, false);
+                                pipeline.add(key, getBlob(results, 2));
                             }
                         }
 
+                        pipeline.finish();
                         tableQueue.remove(tableName);
 
                     } finally {
@@ -536,20 +638,448 @@ public class ObjectsDB implements Serializable {
                 }
 
             } finally {
+                pipeline.cancel();
                 busy = false;
             }
 
-        } else {
+        } else {
+
+            if (!tableQueue.contains(tableName)) {
+                tableQueue.add(tableName);
+            }
+
+            while (busy) {
+                wait(11);
+            }
+
+            loadObjects(tableName, waitingHandler, displayProgress);
+        }
+    }
+
+    /**
+     * Loads all objects from a table of the key-value store in the cache.
+     *
+     * @param tableName the table name
+     * @param pipeline the pipeline deserializing the objects
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    private void loadObjectsFromStore(String tableName, DeserializationPipeline pipeline, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        String storeTableName = getStoreTableName(tableName);
+
+        for (String key : keyValueStore.keys(storeTableName)) {
+
+            if (waitingHandler != null) {
+                if (waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                if (displayProgress) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+
+            if (!objectsCache.inCache(dbName, tableName, key)) {
+                byte[] blob = keyValueStore.get(storeTableName, key);
+                if (blob != null) {
+                    pipeline.add(key, blob);
+                }
+            }
+        }
+
+        pipeline.finish();
+    }
+
+    /**
+     * Returns the number of threads used to deserialize the objects loaded in
+     * the cache.
+     *
+     * @return the number of threads used to deserialize the objects loaded in
+     * the cache
+     */
+    public synchronized int getDeserializationThreads() {
+        if (deserializationThreads < 1) { // Backward compatibility check
+            deserializationThreads = Runtime.getRuntime().availableProcessors();
+        }
+        return deserializationThreads;
+    }
+
+    /**
+     * Sets the number of threads used to deserialize the objects loaded in
+     * the cache. One deserializes the objects on the thread loading them.
+     *
+     * @param deserializationThreads the number of threads used to deserialize
+     * the objects loaded in the cache
+     */
+    public synchronized void setDeserializationThreads(int deserializationThreads) {
+        if (deserializationThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive.");
+        }
+        this.deserializationThreads = deserializationThreads;
+        shutdownDeserializationPool();
+    }
+
+    /**
+     * Returns the pool of threads used to deserialize objects, creating it if
+     * needed.
+     *
+     * @return the pool of threads used to deserialize objects
+     */
+    private synchronized ExecutorService getDeserializationPool() {
+        if (deserializationPool == null) {
+            deserializationPool = Executors.newFixedThreadPool(getDeserializationThreads(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ObjectsDB deserialization");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return deserializationPool;
+    }
+
+    /**
+     * Shuts down the pool of threads used to deserialize objects if created.
+     */
+    private synchronized void shutdownDeserializationPool() {
+        if (deserializationPool != null) {
+            deserializationPool.shutdown();
+            deserializationPool = null;
+        }
+    }
+
+    /**
+     * Reads a page of a table in the order of the keys. For every object, the
+     * original key is added to the keys list. If the object is in cache, the
+     * cached object is added to the cached objects list and null to the blobs
+     * list, otherwise null is added to the cached objects list and the blob
+     * to the blobs list. The cache is not modified.
+     *
+     * @param tableName the name of the table
+     * @param lastKey the last key of the previous page as returned by this
+     * method, null for the first page
+     * @param pageSize the maximal number of objects to read
+     * @param keys the list where to add the keys
+     * @param blobs the list where to add the blobs
+     * @param cachedObjects the list where to add the cached objects
+     *
+     * @return the last key of the page as stored in the database, to be used
+     * to read the next page
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    synchronized String readTablePage(String tableName, String lastKey, int pageSize, ArrayList<String> keys, ArrayList<byte[]> blobs, ArrayList<Object> cachedObjects) throws SQLException {
+
+        if (debugInteractions) {
+            System.out.println("reading page of table " + tableName + " after key " + lastKey);
+        }
+
+        if (keyValueStore != null) {
+            ArrayList<String> storedKeys = new ArrayList<String>(pageSize);
+            ArrayList<byte[]> storedBlobs = new ArrayList<byte[]>(pageSize);
+            try {
+                lastKey = keyValueStore.readPage(getStoreTableName(tableName), lastKey, pageSize, storedKeys, storedBlobs);
+            } catch (IOException e) {
+                throw new SQLException("An error occurred while reading table " + tableName + ".", e);
+            }
+            for (int i = 0; i < storedKeys.size(); i++) {
+                String correctedKey = storedKeys.get(i);
+                Object cachedObject = objectsCache == null ? null : objectsCache.getObject(dbName, tableName, correctedKey);
+                String key = correctedKey.startsWith(LONG_KEY_PREFIX) ? getOriginalKey(tableName, correctedKey) : correctedKey;
+                keys.add(key);
+                cachedObjects.add(cachedObject);
+                blobs.add(cachedObject == null ? storedBlobs.get(i) : null);
+            }
+            return lastKey;
+        }
+
+        String query = getTablePageQuery(tableName, lastKey != null, pageSize, useSQLite);
+
+        PreparedStatement stmt = dbConnection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            stmt.setFetchSize(pageSize);
+            if (lastKey != null) {
+                stmt.setString(1, lastKey);
+            }
+            ResultSet results = stmt.executeQuery();
+            try {
+                while (results.next()) {
+                    String correctedKey = results.getString(1);
+                    lastKey = correctedKey;
+                    Object cachedObject = objectsCache == null ? null : objectsCache.getObject(dbName, tableName, correctedKey);
+                    String key = correctedKey.startsWith(LONG_KEY_PREFIX) ? getOriginalKey(tableName, correctedKey) : correctedKey;
+                    keys.add(key);
+                    cachedObjects.add(cachedObject);
+                    blobs.add(cachedObject == null ? getBlob(results, 2) : null);
+                }
+            } finally {
+                results.close();
+            }
+        } finally {
+            stmt.close();
+        }
+
+        return lastKey;
+    }
+
+    /**
+     * Returns the query reading a page of a table in the order of the keys.
+     * The key of the last object of the previous page is the parameter of the
+     * query if any.
+     *
+     * @param tableName the name of the table
+     * @param afterKey boolean indicating whether the page starts after the
+     * key given as parameter, false for the first page
+     * @param pageSize the maximal number of objects to read
+     * @param sqlite boolean indicating whether the query is for SQLite, Derby
+     * otherwise
+     *
+     * @return the query reading a page of the table
+     */
+    public static String getTablePageQuery(String tableName, boolean afterKey, int pageSize, boolean sqlite) {
+        String query = "select NAME, MATCH_BLOB from " + tableName;
+        if (afterKey) {
+            query += " where NAME > ?";
+        }
+        query += " order by NAME";
+        if (sqlite) {
+            query += " limit " + pageSize;
+        } else {
+            query += " fetch first " + pageSize + " rows only";
+        }
+        return query;
+    }
+
+    /**
+     * Returns the number of objects stored in a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the number of objects stored in the table
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    private synchronized int countObjects(String tableName) throws SQLException {
+        if (keyValueStore != null) {
+            return keyValueStore.size(getStoreTableName(tableName));
+        }
+        Statement rowCountStatement = dbConnection.createStatement();
+        try {
+            ResultSet results = rowCountStatement.executeQuery("select count(*) from " + tableName);
+            try {
+                results.next();
+                return results.getInt(1);
+            } finally {
+                results.close();
+            }
+        } finally {
+            rowCountStatement.close();
+        }
+    }
+
+    /**
+     * Returns an iterator of the objects of a table reading the table by
+     * pages. Objects are not added to the cache. Objects in cache which were
+     * never saved in the table are not returned.
+     *
+     * @param tableName the name of the table
+     *
+     * @return an iterator of the objects of the table
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    public TableIterator getTableIterator(String tableName) throws SQLException {
+        return getTableIterator(tableName, TableIterator.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Returns an iterator of the objects of a table reading the table by
+     * pages. Objects are not added to the cache. Objects in cache which were
+     * never saved in the table are not returned.
+     *
+     * @param tableName the name of the table
+     * @param pageSize the number of objects to read per page
+     *
+     * @return an iterator of the objects of the table
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    public TableIterator getTableIterator(String tableName, int pageSize) throws SQLException {
+        return new TableIterator(this, tableName, pageSize);
+    }
+
+    /**
+     * Passes all objects of a table to a consumer. The table is read by
+     * pages, the next page being read while the objects of the current page
+     * are deserialized and consumed in parallel. Objects are not added to the
+     * cache, the memory used is therefore limited to two pages of objects.
+     * Objects in cache which were never saved in the table are not returned.
+     *
+     * @param tableName the name of the table
+     * @param consumer the consumer of the objects, must be thread safe if
+     * more than one thread is used
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * as secondary progress and canceling the process, can be null
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    public void scanTable(String tableName, ObjectConsumer consumer, int nThreads, WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        scanTable(tableName, consumer, nThreads, TableIterator.DEFAULT_PAGE_SIZE, waitingHandler);
+    }
+
+    /**
+     * Passes all objects of a table to a consumer. The table is read by
+     * pages, the next page being read while the objects of the current page
+     * are deserialized and consumed in parallel. Objects are not added to the
+     * cache, the memory used is therefore limited to two pages of objects.
+     * Objects in cache which were never saved in the table are not returned.
+     *
+     * @param tableName the name of the table
+     * @param consumer the consumer of the objects, must be thread safe if
+     * more than one thread is used
+     * @param nThreads the number of threads to use
+     * @param pageSize the number of objects to read per page
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * as secondary progress and canceling the process, can be null
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    public void scanTable(String tableName, final ObjectConsumer consumer, int nThreads, int pageSize, final WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setSecondaryProgressCounter(0);
+            waitingHandler.setMaxSecondaryProgressCounter(countObjects(tableName));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            String lastKey = null;
+            boolean lastPage = false;
+
+            while (!lastPage) {
+
+                final ArrayList<String> keys = new ArrayList<String>(pageSize);
+                final ArrayList<byte[]> blobs = new ArrayList<byte[]>(pageSize);
+                final ArrayList<Object> cachedObjects = new ArrayList<Object>(pageSize);
+                lastKey = readTablePage(tableName, lastKey, pageSize, keys, blobs, cachedObjects);
+                lastPage = keys.size() < pageSize;
+
+                waitForScan(futures);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                int nChunks = Math.max(1, Math.min(keys.size(), nThreads * SCAN_CHUNKS_PER_THREAD));
+                for (int i = 0; i < nChunks; i++) {
+                    final int start = (int) (((long) keys.size()) * i / nChunks);
+                    final int end = (int) (((long) keys.size()) * (i + 1) / nChunks);
+                    futures.add(pool.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            for (int j = start; j < end; j++) {
+                                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                    return null;
+                                }
+                                Object object = cachedObjects.get(j);
+                                if (object == null) {
+                                    object = deserialize(blobs.get(j));
+                                    blobs.set(j, null);
+                                }
+                                consumer.consume(keys.get(j), object);
+                            }
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter(end - start);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            waitForScan(futures);
 
-            if (!tableQueue.contains(tableName)) {
-                tableQueue.add(tableName);
-            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-            while (busy) {
-                wait(11);
+    /**
+     * Waits for the given scanning tasks to complete and empties the list.
+     *
+     * @param futures the tasks
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    private void waitForScan(ArrayList<Future<Object>> futures) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        try {
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SQLException) {
+                        throw (SQLException) cause;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof ClassNotFoundException) {
+                        throw (ClassNotFoundException) cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
             }
-
-            loadObjects(tableName, waitingHandler, displayProgress);
+        } finally {
+            futures.clear();
         }
     }
 
@@ -597,7 +1127,7 @@ public class ObjectsDB implements Serializable {
                 }
             }
 
-            ArrayList<String> toLoad = new ArrayList<String>(queue.size());
+            HashSet<String> toLoad = new HashSet<String>(queue.size());
 
             for (String key : queue) {
                 String correctedKey = correctKey(tableName, key);
@@ -609,8 +1139,23 @@ public class ObjectsDB implements Serializable {
             if (!toLoad.isEmpty()) {
 
                 busy = true;
+                DeserializationPipeline pipeline = new DeserializationPipeline(tableName, displayProgress ? waitingHandler : null);
 
                 try {
+                    if (keyValueStore != null) {
+                        String storeTableName = getStoreTableName(tableName);
+                        for (String key : toLoad) {
+                            byte[] blob = keyValueStore.get(storeTableName, key);
+                            if (blob != null) {
+                                pipeline.add(key, blob);
+                            }
+                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                        }
+                        pipeline.finish();
+                        return;
+                    }
                     Statement stmt = dbConnection.createStatement();
                     //Statement stmt = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY); // @TODO: test if this is faster
                     //stmt.setFetchSize(toLoad.size()); // @TODO: test if this is faster
@@ -625,35 +1170,13 @@ public class ObjectsDB implements Serializable {
                                 String key = results.getString(1);
                                 if (toLoad.contains(key)) {
                                     found++;
-                                    Blob tempBlob;
-
-                                    if (useSQLite) {
-                                        byte[] bytes = results.getBytes(2);
-                                        tempBlob = new SerialBlob(bytes);
-                                    } else {
-                                        tempBlob = results.getBlob(2);
-                                    }
-
-                                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                    try {
-                                    ObjectInputStream in = new ObjectInputStream(bis);
-                                    try {
-                                        Object object = in.readObject();
-                                        objectsCache.addObject(dbName, tableName, key, object, false);
-                                    } finally {
-                                        in.close();
-                                    }
-                                    } finally {
-                                        bis.close();
-                                    }
-                                    if (waitingHandler != null && displayProgress) {
-                                        waitingHandler.increaseSecondaryProgressCounter();
-                                    }
+                                    pipeline.add(key, getBlob(results, 2));
                                 }
                                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                                     break;
                                 }
                             }
+                            pipeline.finish();
                         } finally {
                             results.close();
                         }
@@ -662,6 +1185,7 @@ public class ObjectsDB implements Serializable {
                     }
 
                 } finally {
+                    pipeline.cancel();
                     busy = false;
                 }
             }
@@ -746,9 +1270,19 @@ public class ObjectsDB implements Serializable {
 
         if (!useDB || object != null) {
             return object;
-        } else {
-            return retrieveObjectSynchronized(tableName, objectKey, correctedKey, useDB, useCache);
         }
+
+        KeyValueStore store = keyValueStore;
+        if (!useCache && store != null) {
+            // the store supports concurrent reads, the database does not need to be locked
+            if (debugInteractions) {
+                System.out.println("Retrieving object, table: " + tableName + ", key: " + objectKey);
+            }
+            byte[] blob = store.get(getStoreTableName(tableName), correctedKey);
+            return blob == null ? null : deserialize(blob);
+        }
+
+        return retrieveObjectSynchronized(tableName, objectKey, correctedKey, useDB, useCache);
     }
 
     /**
@@ -789,6 +1323,18 @@ public class ObjectsDB implements Serializable {
             System.out.println("Retrieving object, table: " + tableName + ", key: " + objectKey);
         }
 
+        if (keyValueStore != null) {
+            byte[] blob = keyValueStore.get(getStoreTableName(tableName), correctedKey);
+            if (blob == null) {
+                return null;
+            }
+            object = deserialize(blob);
+            if (useCache) {
+                objectsCache.addObject(dbName, tableName, objectKey, object, false);
+            }
+            return object;
+        }
+
         if (dbConnection == null) {
             return object;
         }
@@ -803,26 +1349,7 @@ public class ObjectsDB implements Serializable {
 
                 if (results.next()) {
 
-                    Blob tempBlob;
-
-                    if (useSQLite) {
-                        byte[] bytes = results.getBytes(1);
-                        tempBlob = new SerialBlob(bytes);
-                    } else {
-                        tempBlob = results.getBlob(1);
-                    }
-
-                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                    try {
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        try {
-                            object = in.readObject();
-                        } finally {
-                            in.close();
-                        }
-                    } finally {
-                        bis.close();
-                    }
+                    object = deserialize(results, 1);
                     if (useCache) {
                         objectsCache.addObject(dbName, tableName, objectKey, object, false);
                     }
@@ -842,7 +1369,7 @@ public class ObjectsDB implements Serializable {
                         long written = System.currentTimeMillis();
 
                         FileInputStream fis = new FileInputStream(debugObjectFile);
-                        bis = new BufferedInputStream(fis);
+                        BufferedInputStream bis = new BufferedInputStream(fis);
                         ObjectInputStream in = new ObjectInputStream(bis);
                         Object match = in.readObject();
                         fis.close();
@@ -872,6 +1399,228 @@ public class ObjectsDB implements Serializable {
         return null;
     }
 
+    /**
+     * Sets whether the blobs of the tables are compressed by default. Blobs
+     * already stored are not affected, compressed and uncompressed blobs can
+     * be read regardless of this setting.
+     *
+     * @param compression boolean indicating whether the blobs of the tables
+     * are compressed by default
+     */
+    public synchronized void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets whether the blobs of the given table are compressed, overriding the
+     * default.
+     *
+     * @param tableName the name of the table
+     * @param compression boolean indicating whether the blobs of the table are
+     * compressed
+     */
+    public synchronized void setCompression(String tableName, boolean compression) {
+        if (tablesCompression == null) {
+            tablesCompression = new HashMap<String, Boolean>();
+        }
+        tablesCompression.put(tableName, compression);
+    }
+
+    /**
+     * Indicates whether the blobs of the given table are compressed.
+     *
+     * @param tableName the name of the table
+     *
+     * @return a boolean indicating whether the blobs of the table are
+     * compressed
+     */
+    public synchronized boolean isCompressed(String tableName) {
+        Boolean tableCompression = tablesCompression == null ? null : tablesCompression.get(tableName);
+        return tableCompression != null ? tableCompression : compression;
+    }
+
+    /**
+     * Returns the bytes to store for the given object. The object is written
+     * using its codec if registered in the codec registry, Java serialization
+     * otherwise, and compressed if enabled for the table and smaller.
+     *
+     * @param tableName the name of the table
+     * @param object the object to store
+     *
+     * @return the bytes to store
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private byte[] serialize(String tableName, Object object) throws IOException {
+        byte[] bytes = CodecRegistry.getInstance().serialize(object);
+        if (bytes.length >= MIN_COMPRESSION_LENGTH && isCompressed(tableName)) {
+            return compress(bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Compresses a blob. The uncompressed blob is returned if compression
+     * does not reduce its size.
+     *
+     * @param bytes the uncompressed blob
+     *
+     * @return the compressed blob
+     */
+    private static byte[] compress(byte[] bytes) {
+        byte[] compressed = LzUtils.compress(bytes);
+        if (compressed.length + 5 >= bytes.length) {
+            return bytes;
+        }
+        byte[] blob = new byte[compressed.length + 5];
+        blob[0] = COMPRESSED_BLOB;
+        blob[1] = (byte) (bytes.length >>> 24);
+        blob[2] = (byte) (bytes.length >>> 16);
+        blob[3] = (byte) (bytes.length >>> 8);
+        blob[4] = (byte) bytes.length;
+        System.arraycopy(compressed, 0, blob, 5, compressed.length);
+        return blob;
+    }
+
+    /**
+     * Decompresses a blob if compressed.
+     *
+     * @param blob the blob as stored in the database
+     *
+     * @return the uncompressed blob
+     *
+     * @throws IOException exception thrown whenever the compressed blob is
+     * corrupted
+     */
+    private static byte[] decompress(byte[] blob) throws IOException {
+        if (blob.length < 5 || blob[0] != COMPRESSED_BLOB) {
+            return blob;
+        }
+        int length = (blob[1] & 0xFF) << 24 | (blob[2] & 0xFF) << 16 | (blob[3] & 0xFF) << 8 | (blob[4] & 0xFF);
+        return LzUtils.decompress(blob, 5, blob.length - 5, length);
+    }
+
+    /**
+     * Returns the object stored in the given column of the current row of a
+     * result set.
+     *
+     * @param results the result set
+     * @param columnIndex the index of the column containing the blob
+     *
+     * @return the object
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private Object deserialize(ResultSet results, int columnIndex) throws SQLException, IOException, ClassNotFoundException {
+        return deserialize(getBlob(results, columnIndex));
+    }
+
+    /**
+     * Returns the object stored in the given blob.
+     *
+     * @param blob the blob as stored in the database
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    Object deserialize(byte[] blob) throws IOException, ClassNotFoundException {
+        return CodecRegistry.getInstance().deserialize(decompress(blob));
+    }
+
+    /**
+     * Returns the blob stored in the given column of the current row of a
+     * result set.
+     *
+     * @param results the result set
+     * @param columnIndex the index of the column containing the blob
+     *
+     * @return the blob as stored in the database
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    private byte[] getBlob(ResultSet results, int columnIndex) throws SQLException {
+        if (useSQLite) {
+            return results.getBytes(columnIndex);
+        }
+        Blob blob = results.getBlob(columnIndex);
+        return blob.getBytes(1, (int) blob.length());
+    }
+
+    /**
+     * Benchmarks the compression of the blobs of a table. All blobs are read,
+     * uncompressed if needed, and compressed again. Returns a tab separated
+     * line with the table name, the number of blobs, the uncompressed and
+     * compressed sizes in bytes and the compression and decompression
+     * throughputs in MB/s.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the results of the benchmark
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever a compressed blob is
+     * corrupted
+     */
+    public synchronized String benchmarkCompression(String tableName) throws SQLException, IOException {
+
+        ArrayList<byte[]> blobs = new ArrayList<byte[]>();
+        if (keyValueStore != null) {
+            String storeTableName = getStoreTableName(tableName);
+            for (String key : keyValueStore.keys(storeTableName)) {
+                byte[] blob = keyValueStore.get(storeTableName, key);
+                if (blob != null) {
+                    blobs.add(decompress(blob));
+                }
+            }
+        } else {
+            Statement stmt = dbConnection.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery("select MATCH_BLOB from " + tableName);
+                try {
+                    while (results.next()) {
+                        blobs.add(decompress(getBlob(results, 1)));
+                    }
+                } finally {
+                    results.close();
+                }
+            } finally {
+                stmt.close();
+            }
+        }
+
+        long size = 0, compressedSize = 0;
+        ArrayList<byte[]> compressedBlobs = new ArrayList<byte[]>(blobs.size());
+        long start = System.nanoTime();
+        for (byte[] blob : blobs) {
+            byte[] compressedBlob = compress(blob);
+            compressedBlobs.add(compressedBlob);
+            size += blob.length;
+            compressedSize += compressedBlob.length;
+        }
+        long compressed = System.nanoTime();
+        for (byte[] compressedBlob : compressedBlobs) {
+            decompress(compressedBlob);
+        }
+        long decompressed = System.nanoTime();
+
+        double compressionSpeed = size * 1000.0 / Math.max(1, compressed - start);
+        double decompressionSpeed = size * 1000.0 / Math.max(1, decompressed - compressed);
+
+        return tableName + "\t" + blobs.size() + "\t" + size + "\t" + compressedSize + "\t" + Util.roundDouble(compressionSpeed, 1) + "\t" + Util.roundDouble(decompressionSpeed, 1);
+    }
+
     /**
      * Indicates whether an object is loaded in the given table.
      *
@@ -923,6 +1672,9 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println("checking db content, table: " + tableName + ", key: " + objectKey);
         }
+        if (keyValueStore != null) {
+            return keyValueStore.contains(getStoreTableName(tableName), correctedKey);
+        }
         Statement stmt = dbConnection.createStatement();
         boolean result = false;
         try {
@@ -956,6 +1708,16 @@ public class ObjectsDB implements Serializable {
         }
 
         ArrayList<String> tableContent = new ArrayList<String>();
+        if (keyValueStore != null) {
+            for (String key : keyValueStore.keys(getStoreTableName(tableName))) {
+                if (key.startsWith(LONG_KEY_PREFIX)) {
+                    key = getOriginalKey(tableName, key);
+                }
+                tableContent.add(key);
+            }
+            return tableContent;
+        }
+
         Statement stmt = dbConnection.createStatement();
 
         try {
@@ -995,6 +1757,16 @@ public class ObjectsDB implements Serializable {
         }
 
         HashSet<String> tableContent = new HashSet<String>();
+        if (keyValueStore != null) {
+            for (String key : keyValueStore.keys(getStoreTableName(tableName))) {
+                if (key.startsWith(LONG_KEY_PREFIX)) {
+                    key = getOriginalKey(tableName, key);
+                }
+                tableContent.add(key);
+            }
+            return tableContent;
+        }
+
         Statement stmt = dbConnection.createStatement();
 
         try {
@@ -1039,6 +1811,10 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println("Removing object, table: " + tableName + ", key: " + objectKey);
         }
+        if (keyValueStore != null) {
+            keyValueStore.delete(getStoreTableName(tableName), correctedKey);
+            return;
+        }
         Statement stmt = dbConnection.createStatement();
         try {
             stmt.executeUpdate("delete from " + tableName + " where NAME='" + correctedKey + "'"); // @TODO: what if the accession contains (') ..? - a single quotation mark is the escape character for a single quotation mark
@@ -1123,20 +1899,13 @@ public class ObjectsDB implements Serializable {
             if (debugInteractions) {
                 System.out.println("Updating object, table: " + tableName + ", key: " + objectKey);
             }
-            PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try {
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try {
-                    oos.writeObject(object);
-                } finally {
-                    oos.close();
-                }
-            } finally {
-                bos.close();
+            if (keyValueStore != null) {
+                keyValueStore.put(getStoreTableName(tableName), correctedKey, serialize(tableName, object));
+            } else {
+                PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
+                ps.setBytes(1, serialize(tableName, object));
+                ps.executeUpdate();
             }
-            ps.setBytes(1, bos.toByteArray());
-            ps.executeUpdate();
         }
     }
 
@@ -1212,29 +1981,59 @@ public class ObjectsDB implements Serializable {
      * @return true if the connection to the DB is active
      */
     public boolean isConnectionActive() {
+        if (useKeyValueStore) {
+            return keyValueStore != null;
+        }
         return path != null && DerbyUtil.isActiveConnection(derbyConnectionID, path);
     }
 
     /**
-     * Closes the db connection.
+     * Closes the db connection. The objects evicted from the cache and waiting
+     * to be saved are saved before closing.
      *
      * @throws SQLException exception thrown whenever an error occurred while
-     * closing the database connection
+     * closing the database connection or saving the objects waiting to be
+     * saved
      */
-    public synchronized void close() throws SQLException {
+    public void close() throws SQLException {
 
-        if (dbConnection != null) {
+        // the flusher of the cache needs the lock of the database, flush before acquiring it
+        ObjectsCache cache = objectsCache;
+        try {
+            if (cache != null) {
+                cache.awaitFlush();
+            }
+        } catch (IOException e) {
+            throw new SQLException("An error occurred while saving the objects evicted from the cache.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while saving the objects evicted from the cache.", e);
+        } finally {
+            synchronized (this) {
+                closeConnection();
+            }
+        }
+    }
+
+    /**
+     * Closes the db connection. Must be called while holding the lock of the
+     * database.
+     */
+    private void closeConnection() {
+
+        if (dbConnection != null || keyValueStore != null) {
             // try to save the long key indexes
             try {
                 saveLongKeys();
             } catch (Exception e) {
-                if (dbConnection != null) {
+                if (dbConnection != null || keyValueStore != null) {
                     e.printStackTrace();
                 }
             }
         }
 
         objectsCache = null;
+        shutdownDeserializationPool();
 
         try {
             if (dbConnection != null && isConnectionActive()) {
@@ -1245,6 +2044,15 @@ public class ObjectsDB implements Serializable {
             e.printStackTrace();
         }
 
+        if (keyValueStore != null) {
+            try {
+                keyValueStore.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            keyValueStore = null;
+        }
+
         if (debugSpeed && debugSpeedWriter != null) {
             try {
                 debugSpeedWriter.close();
@@ -1283,6 +2091,29 @@ public class ObjectsDB implements Serializable {
      * threading error occurred while establishing the connection
      */
     public void establishConnection(String aDbFolder, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        boolean keyValueStoreFound = !deleteOldDatabase && KeyValueStore.isKeyValueStore(new File(aDbFolder, dbName));
+        establishConnection(aDbFolder, deleteOldDatabase, objectsCache, useKeyValueStore || keyValueStoreFound);
+    }
+
+    /**
+     * Establishes connection to the database.
+     *
+     * @param aDbFolder the folder where the database is located
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectsCache the objects cache
+     * @param useKeyValueStore if true, the objects are stored in an embedded
+     * key-value store instead of a JDBC database
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * establishing the connection to the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while establishing the connection
+     */
+    public void establishConnection(String aDbFolder, boolean deleteOldDatabase, ObjectsCache objectsCache, boolean useKeyValueStore) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         File parentFolder = new File(aDbFolder);
         if (!parentFolder.exists()) {
@@ -1305,7 +2136,11 @@ public class ObjectsDB implements Serializable {
             }
         }
 
-        if (useSQLite) {
+        this.useKeyValueStore = useKeyValueStore;
+
+        if (useKeyValueStore) {
+            keyValueStore = new KeyValueStore(dbFolder);
+        } else if (useSQLite) {
             try {
                 Class.forName("org.sqlite.JDBC");
                 dbConnection = DriverManager.getConnection("jdbc:sqlite:" + path); // @TODO: another instance of SQLite may have already booted the database. We need to check this first?
@@ -1316,7 +2151,7 @@ public class ObjectsDB implements Serializable {
                 ex.printStackTrace();
             }
         }
-        if (!useSQLite) {
+        if (!useKeyValueStore && !useSQLite) {
             if (isConnectionActive()) {
                 throw new IllegalArgumentException("Impossible to establish a Derby connection in " + path + ", connection to the folder already active.");
             }
@@ -1455,4 +2290,242 @@ public class ObjectsDB implements Serializable {
     public String getPath() {
         return path;
     }
+
+    /**
+     * Indicates whether the objects are stored in an embedded key-value store
+     * instead of a JDBC database.
+     *
+     * @return a boolean indicating whether the objects are stored in an
+     * embedded key-value store
+     */
+    public boolean isUsingKeyValueStore() {
+        return useKeyValueStore;
+    }
+
+    /**
+     * Returns the name of the table in the key-value store, i.e. without
+     * quotation marks.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the name of the table in the key-value store
+     */
+    private String getStoreTableName(String tableName) {
+        if (tableName.startsWith("\"") && tableName.endsWith("\"") && tableName.length() > 1) {
+            return tableName.substring(1, tableName.length() - 1);
+        }
+        return tableName;
+    }
+
+    /**
+     * Pipeline deserializing the blobs read from a table in parallel and
+     * adding the objects to the cache in the order of reading. Blobs are
+     * deserialized by chunks on the deserialization pool while the table is
+     * being read, and the objects of the completed chunks added to the cache
+     * on the reading thread. The number of pending chunks is bounded.
+     */
+    private class DeserializationPipeline {
+
+        /**
+         * The name of the table.
+         */
+        private final String tableName;
+        /**
+         * The waiting handler where to display the progress, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The maximal number of pending chunks.
+         */
+        private final int maxPendingChunks;
+        /**
+         * The keys of the chunk being filled.
+         */
+        private ArrayList<String> keys = new ArrayList<String>(DESERIALIZATION_CHUNK_SIZE);
+        /**
+         * The blobs of the chunk being filled.
+         */
+        private ArrayList<byte[]> blobs = new ArrayList<byte[]>(DESERIALIZATION_CHUNK_SIZE);
+        /**
+         * The keys of the pending chunks.
+         */
+        private final ArrayDeque<ArrayList<String>> pendingKeys = new ArrayDeque<ArrayList<String>>();
+        /**
+         * The deserialization tasks of the pending chunks.
+         */
+        private final ArrayDeque<Future<Object[]>> pendingChunks = new ArrayDeque<Future<Object[]>>();
+
+        /**
+         * Constructor.
+         *
+         * @param tableName the name of the table
+         * @param waitingHandler the waiting handler where to display the
+         * progress as secondary progress, can be null
+         */
+        DeserializationPipeline(String tableName, WaitingHandler waitingHandler) {
+            this.tableName = tableName;
+            this.waitingHandler = waitingHandler;
+            maxPendingChunks = DESERIALIZATION_TASKS_PER_THREAD * getDeserializationThreads();
+        }
+
+        /**
+         * Adds a blob to deserialize.
+         *
+         * @param key the key of the object
+         * @param blob the blob as stored in the database
+         *
+         * @throws SQLException exception thrown whenever an error occurs while
+         * interacting with the database
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading an object
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing an object
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting for the deserialization
+         */
+        void add(String key, byte[] blob) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+            keys.add(key);
+            blobs.add(blob);
+            if (keys.size() == DESERIALIZATION_CHUNK_SIZE) {
+                if (getDeserializationThreads() == 1) {
+                    addToCache(keys, deserialize(blobs));
+                    keys.clear();
+                    blobs.clear();
+                } else {
+                    submit();
+                    addCompleted(maxPendingChunks);
+                }
+            }
+        }
+
+        /**
+         * Adds all remaining objects to the cache.
+         *
+         * @throws SQLException exception thrown whenever an error occurs while
+         * interacting with the database
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading an object
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing an object
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting for the deserialization
+         */
+        void finish() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+            addCompleted(0);
+            if (!keys.isEmpty()) {
+                addToCache(keys, deserialize(blobs));
+                keys.clear();
+                blobs.clear();
+            }
+        }
+
+        /**
+         * Cancels the pending deserialization tasks.
+         */
+        void cancel() {
+            for (Future<Object[]> future : pendingChunks) {
+                future.cancel(true);
+            }
+            pendingChunks.clear();
+            pendingKeys.clear();
+        }
+
+        /**
+         * Submits the current chunk for deserialization.
+         */
+        private void submit() {
+            final ArrayList<byte[]> chunkBlobs = blobs;
+            pendingKeys.add(keys);
+            pendingChunks.add(getDeserializationPool().submit(new Callable<Object[]>() {
+                @Override
+                public Object[] call() throws Exception {
+                    return deserialize(chunkBlobs);
+                }
+            }));
+            keys = new ArrayList<String>(DESERIALIZATION_CHUNK_SIZE);
+            blobs = new ArrayList<byte[]>(DESERIALIZATION_CHUNK_SIZE);
+        }
+
+        /**
+         * Adds the objects of the completed chunks to the cache in order,
+         * waiting for chunks until no more than the given number are pending.
+         *
+         * @param maxPending the maximal number of chunks left pending
+         *
+         * @throws SQLException exception thrown whenever an error occurs while
+         * interacting with the database
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading an object
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing an object
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting for the deserialization
+         */
+        private void addCompleted(int maxPending) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+            while (!pendingChunks.isEmpty() && (pendingChunks.size() > maxPending || pendingChunks.peek().isDone())) {
+                Future<Object[]> future = pendingChunks.poll();
+                ArrayList<String> chunkKeys = pendingKeys.poll();
+                Object[] objects;
+                try {
+                    objects = future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof ClassNotFoundException) {
+                        throw (ClassNotFoundException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+                addToCache(chunkKeys, objects);
+            }
+        }
+
+        /**
+         * Deserializes a chunk of blobs.
+         *
+         * @param chunkBlobs the blobs
+         *
+         * @return the objects
+         *
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading an object
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing an object
+         */
+        private Object[] deserialize(ArrayList<byte[]> chunkBlobs) throws IOException, ClassNotFoundException {
+            Object[] objects = new Object[chunkBlobs.size()];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = ObjectsDB.this.deserialize(chunkBlobs.get(i));
+            }
+            return objects;
+        }
+
+        /**
+         * Adds objects to the cache.
+         *
+         * @param chunkKeys the keys of the objects
+         * @param objects the objects
+         *
+         * @throws SQLException exception thrown whenever an error occurs while
+         * interacting with the database
+         * @throws IOException exception thrown whenever an error occurs while
+         * writing an object
+         * @throws InterruptedException exception thrown if a threading error
+         * occurs while interacting with the database
+         */
+        private void addToCache(ArrayList<String> chunkKeys, Object[] objects) throws SQLException, IOException, InterruptedException {
+            for (int i = 0; i < objects.length; i++) {
+                // the object might have been loaded or modified since the blob was read
+                objectsCache.addObjectIfAbsent(dbName, tableName, chunkKeys.get(i), objects[i]);
+            }
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter(objects.length);
+            }
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package com.compomics.util.db;
+
+/**
+ * Interface for the estimators of the memory retained by the objects stored
+ * in the objects cache. Estimators are set on the cache and must be thread
+ * safe. Estimates need not be exact but should be of the order of magnitude
+ * of the heap used by the object and the objects it references exclusively.
+ *
+ * @param <T> the class of objects estimated
+ *
+ * @author Marc Vaudel
+ */
+public interface SizeEstimator<T> {
+
+    /**
+     * Returns the class of objects estimated by this estimator. The estimator
+     * is also used for subclasses for which no other estimator is set.
+     *
+     * @return the class of objects estimated by this estimator
+     */
+    public Class<T> getObjectClass();
+
+    /**
+     * Returns the estimated size in bytes retained by the given object.
+     *
+     * @param object the object
+     *
+     * @return the estimated size in bytes
+     */
+    public long getSize(T object);
+}
@@ -0,0 +1,146 @@
+package com.compomics.util.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Iterates the objects of a table of an objects database in the order of
+ * their keys. Objects are read by pages using keyset pagination, the
+ * database is locked only while reading a page, and objects are not added to
+ * the cache. Objects found in the cache are returned from the cache. Objects
+ * added to the table while iterating are returned if their key comes after
+ * the current key. An iterator is not thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class TableIterator {
+
+    /**
+     * The default number of objects read per page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    /**
+     * The database to read from.
+     */
+    private final ObjectsDB objectsDB;
+    /**
+     * The name of the table.
+     */
+    private final String tableName;
+    /**
+     * The number of objects read per page.
+     */
+    private final int pageSize;
+    /**
+     * The keys of the current page.
+     */
+    private ArrayList<String> keys = new ArrayList<String>();
+    /**
+     * The blobs of the current page, null for the objects found in cache.
+     */
+    private ArrayList<byte[]> blobs = new ArrayList<byte[]>();
+    /**
+     * The objects of the current page found in cache.
+     */
+    private ArrayList<Object> cachedObjects = new ArrayList<Object>();
+    /**
+     * The index of the next object in the current page.
+     */
+    private int index = 0;
+    /**
+     * The last key read from the database, null if none.
+     */
+    private String lastKey = null;
+    /**
+     * Indicates whether the last page was read.
+     */
+    private boolean lastPage = false;
+    /**
+     * The key of the object last returned.
+     */
+    private String key = null;
+
+    /**
+     * Constructor. The first page is read.
+     *
+     * @param objectsDB the database to read from
+     * @param tableName the name of the table
+     * @param pageSize the number of objects read per page
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    public TableIterator(ObjectsDB objectsDB, String tableName, int pageSize) throws SQLException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        this.objectsDB = objectsDB;
+        this.tableName = tableName;
+        this.pageSize = pageSize;
+        readPage();
+    }
+
+    /**
+     * Reads the next page.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    private void readPage() throws SQLException {
+        keys.clear();
+        blobs.clear();
+        cachedObjects.clear();
+        index = 0;
+        if (!lastPage) {
+            lastKey = objectsDB.readTablePage(tableName, lastKey, pageSize, keys, blobs, cachedObjects);
+            lastPage = keys.size() < pageSize;
+        }
+    }
+
+    /**
+     * Indicates whether there is a next object.
+     *
+     * @return a boolean indicating whether there is a next object
+     */
+    public boolean hasNext() {
+        return index < keys.size();
+    }
+
+    /**
+     * Returns the next object, null if none.
+     *
+     * @return the next object
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    public Object next() throws SQLException, IOException, ClassNotFoundException {
+        if (!hasNext()) {
+            return null;
+        }
+        key = keys.get(index);
+        Object object = cachedObjects.get(index);
+        if (object == null) {
+            object = objectsDB.deserialize(blobs.get(index));
+        }
+        index++;
+        if (index == keys.size()) {
+            readPage();
+        }
+        return object;
+    }
+
+    /**
+     * Returns the key of the object last returned, null if none.
+     *
+     * @return the key of the object last returned
+     */
+    public String getKey() {
+        return key;
+    }
+}
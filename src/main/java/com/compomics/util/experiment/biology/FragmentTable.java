@@ -0,0 +1,342 @@
+package com.compomics.util.experiment.biology;
+
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.biology.ions.ImmoniumIon;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.PrecursorIon;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Table of the theoretic ions of a peptide stored in primitive arrays. The
+ * table is filled by the ion factory and can be reused for every peptide, the
+ * arrays growing as needed, such that the theoretic ions can be iterated
+ * without creating ion objects. The ion objects can be obtained on demand.
+ * Not thread safe, use a table per thread.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentTable {
+
+    /**
+     * The initial number of ions of the table.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+    /**
+     * The sequence of the peptide.
+     */
+    private String sequence;
+    /**
+     * The number of ions in the table.
+     */
+    private int size = 0;
+    /**
+     * The theoretic masses of the ions.
+     */
+    private double[] masses = new double[INITIAL_CAPACITY];
+    /**
+     * The type indexes of the ions.
+     */
+    private int[] types = new int[INITIAL_CAPACITY];
+    /**
+     * The subtypes of the ions.
+     */
+    private int[] subTypes = new int[INITIAL_CAPACITY];
+    /**
+     * The numbers of the ions, i.e., the number of residues of the peptide
+     * fragment ions and the position on the sequence of the immonium ions.
+     */
+    private int[] numbers = new int[INITIAL_CAPACITY];
+    /**
+     * The indexes of the neutral losses combinations of the ions, -1 if none.
+     */
+    private int[] neutralLossesIndexes = new int[INITIAL_CAPACITY];
+    /**
+     * The ion objects of the ions which do not depend on the peptide, i.e.,
+     * reporter and related ions, null for the other ions.
+     */
+    private Ion[] staticIons = new Ion[INITIAL_CAPACITY];
+    /**
+     * The combinations of neutral losses accounted, null if neutral losses
+     * are not accounted.
+     */
+    private ArrayList<ArrayList<NeutralLoss>> neutralLossesCombinations = null;
+    /**
+     * The masses of the combinations of neutral losses.
+     */
+    private double[] neutralLossesMasses = new double[0];
+    /**
+     * The types of ions present in the table, possibly without ions.
+     */
+    private final boolean[] typesPresent = new boolean[Ion.IonType.values().length];
+    /**
+     * The subtypes of ions present in the table indexed by type index.
+     */
+    private final BitSet[] subTypesPresent = new BitSet[Ion.IonType.values().length];
+
+    /**
+     * Constructor.
+     */
+    public FragmentTable() {
+        for (int i = 0; i < subTypesPresent.length; i++) {
+            subTypesPresent[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Empties the table.
+     *
+     * @param sequence the sequence of the new peptide
+     */
+    void clear(String sequence) {
+        this.sequence = sequence;
+        Arrays.fill(staticIons, 0, size, null);
+        size = 0;
+        neutralLossesCombinations = null;
+        Arrays.fill(typesPresent, false);
+        for (BitSet bitSet : subTypesPresent) {
+            bitSet.clear();
+        }
+    }
+
+    /**
+     * Sets the combinations of neutral losses to account for.
+     *
+     * @param neutralLossesCombinations the combinations of neutral losses,
+     * null if neutral losses are not accounted
+     */
+    void setNeutralLossesCombinations(ArrayList<ArrayList<NeutralLoss>> neutralLossesCombinations) {
+        this.neutralLossesCombinations = neutralLossesCombinations;
+        if (neutralLossesCombinations != null) {
+            if (neutralLossesMasses.length < neutralLossesCombinations.size()) {
+                neutralLossesMasses = new double[neutralLossesCombinations.size()];
+            }
+            for (int i = 0; i < neutralLossesCombinations.size(); i++) {
+                neutralLossesMasses[i] = IonFactory.getLossesMass(neutralLossesCombinations.get(i));
+            }
+        }
+    }
+
+    /**
+     * Indicates whether neutral losses are accounted.
+     *
+     * @return a boolean indicating whether neutral losses are accounted
+     */
+    public boolean hasNeutralLosses() {
+        return neutralLossesCombinations != null;
+    }
+
+    /**
+     * Marks a type of ion as present in the table.
+     *
+     * @param type the index of the ion type
+     */
+    void addType(int type) {
+        typesPresent[type] = true;
+    }
+
+    /**
+     * Indicates whether an ion of the given type and subtype is in the table.
+     *
+     * @param type the index of the ion type
+     * @param subType the subtype
+     *
+     * @return a boolean indicating whether an ion of the given type and
+     * subtype is in the table
+     */
+    public boolean contains(int type, int subType) {
+        return subTypesPresent[type].get(subType);
+    }
+
+    /**
+     * Adds an ion to the table.
+     *
+     * @param type the index of the ion type
+     * @param subType the subtype
+     * @param number the number of the ion
+     * @param mass the theoretic mass
+     * @param neutralLossesIndex the index of the neutral losses combination,
+     * -1 if none
+     * @param staticIon the ion object if it does not depend on the peptide,
+     * null otherwise
+     */
+    void add(int type, int subType, int number, double mass, int neutralLossesIndex, Ion staticIon) {
+        if (size == masses.length) {
+            int capacity = 2 * size;
+            masses = Arrays.copyOf(masses, capacity);
+            types = Arrays.copyOf(types, capacity);
+            subTypes = Arrays.copyOf(subTypes, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            neutralLossesIndexes = Arrays.copyOf(neutralLossesIndexes, capacity);
+            staticIons = Arrays.copyOf(staticIons, capacity);
+        }
+        masses[size] = mass;
+        types[size] = type;
+        subTypes[size] = subType;
+        numbers[size] = number;
+        neutralLossesIndexes[size] = neutralLossesIndex;
+        staticIons[size] = staticIon;
+        size++;
+        typesPresent[type] = true;
+        subTypesPresent[type].set(subType);
+    }
+
+    /**
+     * Adds an ion for every combination of neutral losses, or a single ion
+     * without neutral losses if neutral losses are not accounted.
+     *
+     * @param type the index of the ion type
+     * @param subType the subtype
+     * @param number the number of the ion
+     * @param mass the theoretic mass without neutral losses
+     */
+    void addWithNeutralLosses(int type, int subType, int number, double mass) {
+        if (neutralLossesCombinations != null) {
+            for (int i = 0; i < neutralLossesCombinations.size(); i++) {
+                add(type, subType, number, mass - neutralLossesMasses[i], i, null);
+            }
+        } else {
+            add(type, subType, number, mass, -1, null);
+        }
+    }
+
+    /**
+     * Returns the sequence of the peptide.
+     *
+     * @return the sequence of the peptide
+     */
+    public String getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of ions in the table.
+     *
+     * @return the number of ions in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the theoretic mass of the ion at the given index.
+     *
+     * @param index the index of the ion in the table
+     *
+     * @return the theoretic mass
+     */
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    /**
+     * Returns the theoretic m/z of the ion at the given index at a given
+     * charge state, as computed by the ion object.
+     *
+     * @param index the index of the ion in the table
+     * @param charge the charge
+     *
+     * @return the theoretic m/z
+     */
+    public double getMz(int index, int charge) {
+        return (masses[index] + (charge * ElementaryIon.proton.theoreticMass)) / charge;
+    }
+
+    /**
+     * Returns the index of the type of the ion at the given index.
+     *
+     * @param index the index of the ion in the table
+     *
+     * @return the index of the ion type
+     */
+    public int getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * Returns the subtype of the ion at the given index.
+     *
+     * @param index the index of the ion in the table
+     *
+     * @return the subtype
+     */
+    public int getSubType(int index) {
+        return subTypes[index];
+    }
+
+    /**
+     * Returns the number of the ion at the given index, i.e., the number of
+     * residues for peptide fragment ions and the position on the sequence
+     * starting from 1 for immonium ions, 0 for the other ions.
+     *
+     * @param index the index of the ion in the table
+     *
+     * @return the number of the ion
+     */
+    public int getNumber(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * Returns the neutral losses of the ion at the given index, null if
+     * neutral losses are not accounted. The list must not be modified.
+     *
+     * @param index the index of the ion in the table
+     *
+     * @return the neutral losses
+     */
+    public ArrayList<NeutralLoss> getNeutralLosses(int index) {
+        int neutralLossesIndex = neutralLossesIndexes[index];
+        return neutralLossesIndex == -1 ? null : neutralLossesCombinations.get(neutralLossesIndex);
+    }
+
+    /**
+     * Returns the ion object of the ion at the given index. Peptide fragment,
+     * precursor and immonium ions are created upon every call.
+     *
+     * @param index the index of the ion in the table
+     *
+     * @return the ion object
+     */
+    public Ion getIon(int index) {
+        if (staticIons[index] != null) {
+            return staticIons[index];
+        }
+        int type = types[index];
+        if (type == Ion.IonType.PEPTIDE_FRAGMENT_ION.index) {
+            return new PeptideFragmentIon(subTypes[index], numbers[index], masses[index], getNeutralLosses(index));
+        } else if (type == Ion.IonType.PRECURSOR_ION.index) {
+            return new PrecursorIon(masses[index], getNeutralLosses(index));
+        } else if (type == Ion.IonType.IMMONIUM_ION.index) {
+            return new ImmoniumIon(sequence.charAt(numbers[index] - 1));
+        }
+        throw new IllegalArgumentException("Ion type " + type + " not supported.");
+    }
+
+    /**
+     * Returns the ions of the table as ion objects indexed by type index and
+     * subtype in the order of the table.
+     *
+     * @return the ions of the table as ion objects
+     */
+    public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getIons() {
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> result = new HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>();
+        for (int type = 0; type < typesPresent.length; type++) {
+            if (typesPresent[type]) {
+                result.put(type, new HashMap<Integer, ArrayList<Ion>>(Math.max(1, subTypesPresent[type].cardinality())));
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            HashMap<Integer, ArrayList<Ion>> ionsMap = result.get(types[i]);
+            ArrayList<Ion> ions = ionsMap.get(subTypes[i]);
+            if (ions == null) {
+                ions = new ArrayList<Ion>(neutralLossesCombinations == null ? 1 : neutralLossesCombinations.size());
+                ionsMap.put(subTypes[i], ions);
+            }
+            ions.add(getIon(i));
+        }
+        return result;
+    }
+}
@@ -457,6 +457,203 @@ public class IonFactory {
         return result;
     }
 
+    /**
+     * This method writes the theoretic ions expected from a peptide in a
+     * fragment table, replacing its content. The table can be reused for every
+     * peptide, the ions are then generated without creating ion objects. The
+     * ions are the same as the ones returned by getFragmentIons(Peptide,
+     * SpecificAnnotationSettings). /!\ this method will work only if the PMTs
+     * found in the peptide are in the PTMFactory.
+     *
+     * @param peptide The considered peptide
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     * @param fragmentTable the table where to write the ions
+     */
+    public void getFragmentIons(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings, FragmentTable fragmentTable) {
+
+        HashMap<Ion.IonType, HashSet<Integer>> selectedIonTypes = null;
+        if (specificAnnotationSettings != null) {
+            selectedIonTypes = specificAnnotationSettings.getIonTypes();
+        }
+
+        String sequence = peptide.getSequence();
+        fragmentTable.clear(sequence);
+        HashMap<Integer, ArrayList<PTM>> modifications = new HashMap<Integer, ArrayList<PTM>>(peptide.getNModifications());
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        ArrayList<String> processedPtms = null;
+        ArrayList<NeutralLoss> possibleNeutralLosses = null;
+        if (specificAnnotationSettings == null || !specificAnnotationSettings.getNeutralLossesMap().isEmpty()) {
+            possibleNeutralLosses = new ArrayList<NeutralLoss>(getDefaultNeutralLosses());
+        }
+
+        if (peptide.isModified()) {
+            for (ModificationMatch ptmMatch : peptide.getModificationMatches()) {
+                int location = ptmMatch.getModificationSite();
+                String ptmName = ptmMatch.getTheoreticPtm();
+                PTM ptm = ptmFactory.getPTM(ptmName);
+                if (ptm == null) {
+                    throw new IllegalArgumentException("PTM " + ptmName + " not loaded in the PTM factory.");
+                }
+                ArrayList<PTM> modificationsAtSite = modifications.get(location);
+                if (modificationsAtSite == null) {
+                    modificationsAtSite = new ArrayList<PTM>(1);
+                    modifications.put(location, modificationsAtSite);
+                }
+                modificationsAtSite.add(ptm);
+                if (processedPtms == null || !processedPtms.contains(ptmName)) {
+                    if (selectedIonTypes == null || selectedIonTypes.keySet().contains(Ion.IonType.REPORTER_ION)) {
+                        for (ReporterIon ptmReporterIon : ptm.getReporterIons()) {
+                            int subType = ptmReporterIon.getSubType();
+                            if (!fragmentTable.contains(Ion.IonType.REPORTER_ION.index, subType)) {
+                                fragmentTable.add(Ion.IonType.REPORTER_ION.index, subType, 0, ptmReporterIon.getTheoreticMass(), -1, ptmReporterIon);
+                            }
+                        }
+                    }
+                    if (specificAnnotationSettings == null || !specificAnnotationSettings.getNeutralLossesMap().isEmpty()) {
+                        for (NeutralLoss ptmNeutralLoss : ptm.getNeutralLosses()) {
+                            boolean found = false;
+                            for (NeutralLoss neutralLoss : possibleNeutralLosses) {
+                                // @TODO: we keep only different neutral losses. We might want to change that when people
+                                //       are working with modifications having reproducible motifs like ubiquitin or some glycons.
+                                if (ptmNeutralLoss.isSameAs(neutralLoss)) {
+                                    found = true;
+                                    break;
+                                }
+                            }
+                            if (!found) {
+                                possibleNeutralLosses.add(ptmNeutralLoss);
+                            }
+                        }
+                    }
+                    if (processedPtms == null) {
+                        processedPtms = new ArrayList<String>(peptide.getNModifications());
+                    }
+                    processedPtms.add(ptmName);
+                }
+            }
+        }
+
+        // We will account for up to two neutral losses per ion maximum
+        ArrayList<ArrayList<NeutralLoss>> neutralLossesCombinations = null;
+        if (specificAnnotationSettings == null || !specificAnnotationSettings.getNeutralLossesMap().isEmpty()) {
+            neutralLossesCombinations = getAccountedNeutralLosses(possibleNeutralLosses);
+        }
+        fragmentTable.setNeutralLossesCombinations(neutralLossesCombinations);
+
+        boolean immoniumIons = selectedIonTypes == null || selectedIonTypes.keySet().contains(Ion.IonType.IMMONIUM_ION);
+        boolean relatedIons = selectedIonTypes == null || selectedIonTypes.keySet().contains(Ion.IonType.RELATED_ION);
+        boolean aIons = isFragmentIonSelected(specificAnnotationSettings, PeptideFragmentIon.A_ION);
+        boolean bIons = isFragmentIonSelected(specificAnnotationSettings, PeptideFragmentIon.B_ION);
+        boolean cIons = isFragmentIonSelected(specificAnnotationSettings, PeptideFragmentIon.C_ION);
+        boolean xIons = isFragmentIonSelected(specificAnnotationSettings, PeptideFragmentIon.X_ION);
+        boolean yIons = isFragmentIonSelected(specificAnnotationSettings, PeptideFragmentIon.Y_ION);
+        boolean zIons = isFragmentIonSelected(specificAnnotationSettings, PeptideFragmentIon.Z_ION);
+        int fragmentIonType = Ion.IonType.PEPTIDE_FRAGMENT_ION.index;
+
+        double forwardMass = 0;
+        double rewindMass = Atom.O.getMonoisotopicMass();
+
+        for (int aa = 0; aa < sequence.length() - 1; aa++) {
+
+            char aaName = sequence.charAt(aa);
+            AminoAcid currentAA = AminoAcid.getAminoAcid(aaName);
+
+            // immonium ions
+            if (immoniumIons) {
+                int subType = ImmoniumIon.getSubtype(aaName);
+                if (!fragmentTable.contains(Ion.IonType.IMMONIUM_ION.index, subType)) {
+                    double mass = currentAA.getMonoisotopicMass() - Atom.C.getMonoisotopicMass() - Atom.O.getMonoisotopicMass();
+                    fragmentTable.add(Ion.IonType.IMMONIUM_ION.index, subType, aa + 1, mass, -1, null);
+                }
+            }
+
+            // related ions
+            if (relatedIons) {
+                fragmentTable.addType(Ion.IonType.RELATED_ION.index);
+                for (RelatedIon tempRelated : RelatedIon.getRelatedIons(currentAA)) {
+                    fragmentTable.add(Ion.IonType.RELATED_ION.index, tempRelated.getSubType(), 0, tempRelated.getTheoreticMass(), -1, tempRelated);
+                }
+            }
+
+            int faa = aa + 1;
+            forwardMass += currentAA.getMonoisotopicMass();
+
+            if (modifications.get(faa) != null) {
+                for (PTM ptm : modifications.get(faa)) {
+                    forwardMass += ptm.getMass();
+                }
+            }
+
+            fragmentTable.addType(fragmentIonType);
+
+            if (aIons) {
+                fragmentTable.addWithNeutralLosses(fragmentIonType, PeptideFragmentIon.A_ION, faa, forwardMass - Atom.C.getMonoisotopicMass() - Atom.O.getMonoisotopicMass());
+            }
+            if (bIons) {
+                fragmentTable.addWithNeutralLosses(fragmentIonType, PeptideFragmentIon.B_ION, faa, forwardMass);
+            }
+            if (cIons) {
+                fragmentTable.addWithNeutralLosses(fragmentIonType, PeptideFragmentIon.C_ION, faa, forwardMass + Atom.N.getMonoisotopicMass() + 3 * Atom.H.getMonoisotopicMass());
+            }
+
+            int raa = sequence.length() - aa - 1;
+            currentAA = AminoAcid.getAminoAcid(sequence.charAt(raa));
+            rewindMass += currentAA.getMonoisotopicMass();
+
+            if (modifications.get(raa + 1) != null) {
+                for (PTM ptm : modifications.get(raa + 1)) {
+                    rewindMass += ptm.getMass();
+                }
+            }
+
+            if (xIons) {
+                fragmentTable.addWithNeutralLosses(fragmentIonType, PeptideFragmentIon.X_ION, faa, rewindMass + Atom.C.getMonoisotopicMass() + Atom.O.getMonoisotopicMass());
+            }
+            if (yIons) {
+                fragmentTable.addWithNeutralLosses(fragmentIonType, PeptideFragmentIon.Y_ION, faa, rewindMass + 2 * Atom.H.getMonoisotopicMass());
+            }
+            if (zIons) {
+                fragmentTable.addWithNeutralLosses(fragmentIonType, PeptideFragmentIon.Z_ION, faa, rewindMass - Atom.N.getMonoisotopicMass());
+            }
+        }
+
+        AminoAcid currentAA = AminoAcid.getAminoAcid(sequence.charAt(sequence.length() - 1));
+        forwardMass += currentAA.getMonoisotopicMass();
+
+        if (modifications.get(sequence.length()) != null) {
+            for (PTM ptm : modifications.get(sequence.length())) {
+                forwardMass += ptm.getMass();
+            }
+        }
+
+        if (specificAnnotationSettings == null || selectedIonTypes.keySet().contains(Ion.IonType.PRECURSOR_ION)) {
+            // add the precursor ion
+            if (neutralLossesCombinations != null) {
+                fragmentTable.addWithNeutralLosses(Ion.IonType.PRECURSOR_ION.index, PrecursorIon.PRECURSOR, 0, forwardMass + (2 * Atom.H.getMonoisotopicMass()) + Atom.O.getMonoisotopicMass());
+            } else {
+                fragmentTable.addWithNeutralLosses(Ion.IonType.PRECURSOR_ION.index, PrecursorIon.PRECURSOR, 0, forwardMass + Atom.H.getMonoisotopicMass() + Atom.O.getMonoisotopicMass());
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the given type of peptide fragment ion is selected in
+     * the annotation settings.
+     *
+     * @param specificAnnotationSettings the annotation settings, if null all
+     * ions are selected
+     * @param subType the type of peptide fragment ion
+     *
+     * @return a boolean indicating whether the given type of peptide fragment
+     * ion is selected
+     */
+    private static boolean isFragmentIonSelected(SpecificAnnotationSettings specificAnnotationSettings, int subType) {
+        return specificAnnotationSettings == null
+                || specificAnnotationSettings.getIonTypes().keySet().contains(Ion.IonType.PEPTIDE_FRAGMENT_ION)
+                && specificAnnotationSettings.getFragmentIonTypes().contains(subType);
+    }
+
     /**
      * This method returns the theoretic ions expected from a tag.
      *
@@ -5,6 +5,7 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
+import com.compomics.util.experiment.identification.spectrum_annotation.FragmentIonsCache;
 import com.compomics.util.io.SerializationUtils;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -132,6 +133,7 @@ public class PTMFactory implements Serializable {
      */
     public void clearFactory() {
         instance = new PTMFactory();
+        FragmentIonsCache.getInstance().clear();
     }
 
     /**
@@ -139,6 +141,7 @@ public class PTMFactory implements Serializable {
      */
     public void reloadFactory() {
         instance = null;
+        FragmentIonsCache.getInstance().clear();
     }
 
     /**
@@ -203,6 +206,7 @@ public class PTMFactory implements Serializable {
             userMods.set(userMods.indexOf(modName), modName);
         }
         usersModsSorted = false;
+        FragmentIonsCache.getInstance().clear();
 
         // add the neutral losses and reporter ions
         if (!ptm.getNeutralLosses().isEmpty()) {
@@ -232,6 +236,7 @@ public class PTMFactory implements Serializable {
         }
         ptmMap.remove(ptmName);
         userMods.remove(ptmName);
+        FragmentIonsCache.getInstance().clear();
     }
 
     /**
@@ -345,6 +350,7 @@ public class PTMFactory implements Serializable {
                     if (overwrite) {
                         PTM ptm = modificationProfile.getPtm(modification);
                         ptmMap.put(modification, ptm);
+                        FragmentIonsCache.getInstance().clear();
                         for (NeutralLoss neutralLoss : ptm.getNeutralLosses()) {
                             NeutralLoss.addNeutralLoss(neutralLoss);
                         }
@@ -70,6 +70,43 @@ public abstract class Identification extends ExperimentObject {
      * The ordered list of spectrum file names.
      */
     private ArrayList<String> orderedSpectrumFileNames;
+    /**
+     * The ids of the match keys, attributed during the session.
+     */
+    private transient volatile IdentificationKeys identificationKeys = null;
+
+    /**
+     * Returns the ids of the spectrum, peptide and protein match keys. The
+     * keys of the matches are interned upon first request, the keys of the
+     * matches added afterwards are interned when added. Ids are valid until
+     * the match is removed. Match keys are added and removed while holding
+     * the lock on this identification, the keys are therefore read under
+     * this lock.
+     *
+     * @return the ids of the match keys
+     */
+    public IdentificationKeys getIdentificationKeys() {
+        if (identificationKeys == null) {
+            synchronized (this) {
+                if (identificationKeys == null) {
+                    IdentificationKeys newKeys = new IdentificationKeys();
+                    for (HashSet<String> spectrumKeys : spectrumIdentificationMap.values()) {
+                        for (String spectrumKey : spectrumKeys) {
+                            newKeys.internSpectrumKey(spectrumKey);
+                        }
+                    }
+                    for (String peptideKey : peptideIdentification) {
+                        newKeys.internPeptideKey(peptideKey);
+                    }
+                    for (String proteinKey : proteinIdentification) {
+                        newKeys.internProteinKey(proteinKey);
+                    }
+                    identificationKeys = newKeys;
+                }
+            }
+        }
+        return identificationKeys;
+    }
 
     /**
      * Returns the ordered list of spectrum file names.
@@ -779,9 +816,13 @@ public abstract class Identification extends ExperimentObject {
             }
         }
         removePeptideMatch(oldKey);
+        synchronized (this) {
+            if (identificationKeys != null) {
+                newKey = identificationKeys.internPeptideKey(newKey);
+            }
+            peptideIdentification.add(newKey);
+        }
         peptideMatch.setKey(newKey);
-        peptideIdentification.remove(oldKey);
-        peptideIdentification.add(newKey);
         identificationDB.addPeptideMatch(peptideMatch);
         for (String accession : peptideMatch.getTheoreticPeptide().getParentProteinsNoRemapping()) {
             HashSet<String> proteinGroups = proteinMap.get(accession);
@@ -872,9 +913,14 @@ public abstract class Identification extends ExperimentObject {
     public void removeSpectrumMatch(String matchKey) throws SQLException, IOException {
 
         String fileName = Spectrum.getSpectrumFile(matchKey);
-        HashSet<String> spectrumKeys = spectrumIdentificationMap.get(fileName);
-        if (spectrumKeys != null) {
-            spectrumKeys.remove(matchKey);
+        synchronized (this) {
+            HashSet<String> spectrumKeys = spectrumIdentificationMap.get(fileName);
+            if (spectrumKeys != null) {
+                spectrumKeys.remove(matchKey);
+            }
+            if (identificationKeys != null) {
+                identificationKeys.releaseSpectrumKey(matchKey);
+            }
         }
         identificationDB.removeSpectrumMatch(matchKey);
     }
@@ -891,7 +937,12 @@ public abstract class Identification extends ExperimentObject {
      */
     public void removePeptideMatch(String matchKey) throws SQLException, IOException {
 
-        peptideIdentification.remove(matchKey);
+        synchronized (this) {
+            peptideIdentification.remove(matchKey);
+            if (identificationKeys != null) {
+                identificationKeys.releasePeptideKey(matchKey);
+            }
+        }
         identificationDB.removePeptideMatch(matchKey);
     }
 
@@ -907,7 +958,8 @@ public abstract class Identification extends ExperimentObject {
      */
     public void removeProteinMatch(String matchKey) throws SQLException, IOException {
         if (proteinIdentification.contains(matchKey)) {
-            for (String protein : ProteinMatch.getAccessions(matchKey)) {
+            String[] accessions = identificationKeys != null ? identificationKeys.getProteinAccessions(matchKey) : ProteinMatch.getAccessions(matchKey);
+            for (String protein : accessions) {
                 if (proteinMap.get(protein) == null) {
                     throw new IllegalArgumentException("Protein not found: " + protein + ".");
                 } else {
@@ -921,7 +973,12 @@ public abstract class Identification extends ExperimentObject {
             }
         }
 
-        proteinIdentification.remove(matchKey);
+        synchronized (this) {
+            proteinIdentification.remove(matchKey);
+            if (identificationKeys != null) {
+                identificationKeys.releaseProteinKey(matchKey);
+            }
+        }
         identificationDB.removeProteinMatch(matchKey);
     }
 
@@ -1422,6 +1479,9 @@ public abstract class Identification extends ExperimentObject {
         }
 
         if (newSpectrum) {
+            if (identificationKeys != null) {
+                spectrumKey = identificationKeys.internSpectrumKey(spectrumKey);
+            }
             spectrumKeys.add(spectrumKey);
             identificationDB.addSpectrumMatch(newMatch);
         }
@@ -1507,9 +1567,14 @@ public abstract class Identification extends ExperimentObject {
                 peptideMatch.addSpectrumMatchKey(spectrumMatchKey);
                 identificationDB.updatePeptideMatch(peptideMatch);
             } else {
+                synchronized (this) {
+                    if (identificationKeys != null) {
+                        peptideKey = identificationKeys.internPeptideKey(peptideKey);
+                    }
+                    peptideIdentification.add(peptideKey);
+                }
                 peptideMatch = new PeptideMatch(peptide, peptideKey);
                 peptideMatch.addSpectrumMatchKey(spectrumMatchKey);
-                peptideIdentification.add(peptideKey);
                 try {
                     identificationDB.addPeptideMatch(peptideMatch);
                 } catch (IOException e) {
@@ -1538,7 +1603,12 @@ public abstract class Identification extends ExperimentObject {
                     throw new IllegalArgumentException("Protein inference issue: the protein key " + proteinKey + " does not match the peptide proteins " + proteinMatch.getKey() + "."
                             + " Peptide: " + peptideKey + " found in spectrum " + spectrumMatchKey + ".");
                 }
-                proteinIdentification.add(proteinKey);
+                synchronized (this) {
+                    if (identificationKeys != null) {
+                        proteinKey = identificationKeys.internProteinKey(proteinKey);
+                    }
+                    proteinIdentification.add(proteinKey);
+                }
                 for (String protein : peptide.getParentProteinsNoRemapping()) {
                     if (!proteinMap.containsKey(protein)) {
                         proteinMap.put(protein, new HashSet<String>());
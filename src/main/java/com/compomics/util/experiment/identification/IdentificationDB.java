@@ -1,10 +1,19 @@
 package com.compomics.util.experiment.identification;
 
+import com.compomics.util.db.CodecRegistry;
 import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.experiment.identification.codecs.PeptideAssumptionCodec;
+import com.compomics.util.experiment.identification.codecs.PeptideCodec;
+import com.compomics.util.experiment.identification.codecs.PeptideMatchCodec;
+import com.compomics.util.experiment.identification.codecs.ProteinMatchCodec;
+import com.compomics.util.experiment.identification.codecs.SpectrumMatchCodec;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.size_estimators.PeptideMatchSizeEstimator;
+import com.compomics.util.experiment.identification.size_estimators.ProteinMatchSizeEstimator;
+import com.compomics.util.experiment.identification.size_estimators.SpectrumMatchSizeEstimator;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.experiment.personalization.UrParameter;
@@ -108,6 +117,8 @@ public class IdentificationDB implements Serializable {
      */
     public IdentificationDB(String folder, String name, boolean deleteOldDatabase, ObjectsCache objectCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         this.dbName = name;
+        registerCodecs();
+        setSizeEstimators(objectCache);
         objectsDB = new ObjectsDB(folder, dbName, deleteOldDatabase, objectCache);
         if (deleteOldDatabase) {
             objectsDB.addTable(proteinTableName);
@@ -115,6 +126,31 @@ public class IdentificationDB implements Serializable {
         }
     }
 
+    /**
+     * Registers the binary codecs used to store the identification matches in
+     * the database.
+     */
+    public static void registerCodecs() {
+        CodecRegistry codecRegistry = CodecRegistry.getInstance();
+        codecRegistry.register(PeptideMatchCodec.ID, new PeptideMatchCodec());
+        codecRegistry.register(ProteinMatchCodec.ID, new ProteinMatchCodec());
+        codecRegistry.register(PeptideCodec.ID, new PeptideCodec());
+        codecRegistry.register(PeptideAssumptionCodec.ID, new PeptideAssumptionCodec());
+        codecRegistry.register(SpectrumMatchCodec.ID, new SpectrumMatchCodec());
+    }
+
+    /**
+     * Sets the estimators of the size of the identification matches on the
+     * given cache.
+     *
+     * @param objectsCache the objects cache
+     */
+    public static void setSizeEstimators(ObjectsCache objectsCache) {
+        objectsCache.setSizeEstimator(new SpectrumMatchSizeEstimator());
+        objectsCache.setSizeEstimator(new PeptideMatchSizeEstimator());
+        objectsCache.setSizeEstimator(new ProteinMatchSizeEstimator());
+    }
+
     /**
      * Indicates whether a spectrum match is loaded.
      *
@@ -1371,6 +1407,7 @@ public class IdentificationDB implements Serializable {
      * while interacting with the database
      */
     public void restoreConnection(String dbFolder, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        setSizeEstimators(objectsCache);
         objectsDB.establishConnection(dbFolder, deleteOldDatabase, objectsCache);
         objectsCache.addDb(objectsDB);
     }
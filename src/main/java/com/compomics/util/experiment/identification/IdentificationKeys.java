@@ -0,0 +1,310 @@
+package com.compomics.util.experiment.identification;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+
+/**
+ * Dense integer ids for the spectrum, peptide and protein match keys of an
+ * identification. The information parsed from the keys, i.e., the spectrum
+ * file of spectrum keys, the sequence of peptide keys and the accessions of
+ * protein keys, is stored along with the ids, such that the keys need to be
+ * parsed only once. Ids are attributed upon first request and remain valid
+ * until the key is released, they are not saved with the identification.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationKeys {
+
+    /**
+     * The interner of the spectrum file names.
+     */
+    private final KeyInterner<Object> spectrumFiles = new KeyInterner<Object>();
+    /**
+     * The interner of the spectrum keys, storing the id of the spectrum file.
+     */
+    private final KeyInterner<Integer> spectrumKeys = new KeyInterner<Integer>() {
+        @Override
+        protected Integer parse(String key) {
+            return spectrumFiles.getId(Spectrum.getSpectrumFile(key));
+        }
+    };
+    /**
+     * The interner of the peptide keys, storing the peptide sequence.
+     */
+    private final KeyInterner<String> peptideKeys = new KeyInterner<String>() {
+        @Override
+        protected String parse(String key) {
+            return Peptide.getSequence(key);
+        }
+    };
+    /**
+     * The interner of the protein keys, storing the protein accessions.
+     */
+    private final KeyInterner<String[]> proteinKeys = new KeyInterner<String[]>() {
+        @Override
+        protected String[] parse(String key) {
+            return ProteinMatch.getAccessions(key);
+        }
+    };
+
+    /**
+     * Constructor.
+     */
+    public IdentificationKeys() {
+
+    }
+
+    /**
+     * Returns the id of a spectrum key.
+     *
+     * @param spectrumKey the spectrum key
+     *
+     * @return the id of the spectrum key
+     */
+    public int getSpectrumId(String spectrumKey) {
+        return spectrumKeys.getId(spectrumKey);
+    }
+
+    /**
+     * Returns the instance of a spectrum key held by this object, interning
+     * the key if not done already.
+     *
+     * @param spectrumKey the spectrum key
+     *
+     * @return the instance of the spectrum key held by this object
+     */
+    public String internSpectrumKey(String spectrumKey) {
+        return spectrumKeys.getCanonicalKey(spectrumKey);
+    }
+
+    /**
+     * Releases a spectrum key, its id is not valid anymore.
+     *
+     * @param spectrumKey the spectrum key
+     */
+    public void releaseSpectrumKey(String spectrumKey) {
+        spectrumKeys.release(spectrumKey);
+    }
+
+    /**
+     * Returns the spectrum key corresponding to an id.
+     *
+     * @param spectrumId the id of the spectrum key
+     *
+     * @return the spectrum key
+     */
+    public String getSpectrumKey(int spectrumId) {
+        return spectrumKeys.getKey(spectrumId);
+    }
+
+    /**
+     * Returns the id of the spectrum file of a spectrum.
+     *
+     * @param spectrumId the id of the spectrum key
+     *
+     * @return the id of the spectrum file
+     */
+    public int getSpectrumFileId(int spectrumId) {
+        return spectrumKeys.getValue(spectrumId);
+    }
+
+    /**
+     * Returns the spectrum file of a spectrum.
+     *
+     * @param spectrumId the id of the spectrum key
+     *
+     * @return the spectrum file
+     */
+    public String getSpectrumFile(int spectrumId) {
+        return spectrumFiles.getKey(getSpectrumFileId(spectrumId));
+    }
+
+    /**
+     * Returns the name of a spectrum file.
+     *
+     * @param spectrumFileId the id of the spectrum file
+     *
+     * @return the name of the spectrum file
+     */
+    public String getSpectrumFileName(int spectrumFileId) {
+        return spectrumFiles.getKey(spectrumFileId);
+    }
+
+    /**
+     * Returns the title of a spectrum.
+     *
+     * @param spectrumId the id of the spectrum key
+     *
+     * @return the title of the spectrum
+     */
+    public String getSpectrumTitle(int spectrumId) {
+        return Spectrum.getSpectrumTitle(getSpectrumKey(spectrumId));
+    }
+
+    /**
+     * Returns the id of a peptide key.
+     *
+     * @param peptideKey the peptide key
+     *
+     * @return the id of the peptide key
+     */
+    public int getPeptideId(String peptideKey) {
+        return peptideKeys.getId(peptideKey);
+    }
+
+    /**
+     * Returns the instance of a peptide key held by this object, interning the
+     * key if not done already.
+     *
+     * @param peptideKey the peptide key
+     *
+     * @return the instance of the peptide key held by this object
+     */
+    public String internPeptideKey(String peptideKey) {
+        return peptideKeys.getCanonicalKey(peptideKey);
+    }
+
+    /**
+     * Releases a peptide key, its id is not valid anymore.
+     *
+     * @param peptideKey the peptide key
+     */
+    public void releasePeptideKey(String peptideKey) {
+        peptideKeys.release(peptideKey);
+    }
+
+    /**
+     * Returns the peptide key corresponding to an id.
+     *
+     * @param peptideId the id of the peptide key
+     *
+     * @return the peptide key
+     */
+    public String getPeptideKey(int peptideId) {
+        return peptideKeys.getKey(peptideId);
+    }
+
+    /**
+     * Returns the sequence of a peptide.
+     *
+     * @param peptideId the id of the peptide key
+     *
+     * @return the sequence of the peptide
+     */
+    public String getPeptideSequence(int peptideId) {
+        return peptideKeys.getValue(peptideId);
+    }
+
+    /**
+     * Returns the id of a protein key.
+     *
+     * @param proteinKey the protein key
+     *
+     * @return the id of the protein key
+     */
+    public int getProteinId(String proteinKey) {
+        return proteinKeys.getId(proteinKey);
+    }
+
+    /**
+     * Returns the instance of a protein key held by this object, interning the
+     * key if not done already.
+     *
+     * @param proteinKey the protein key
+     *
+     * @return the instance of the protein key held by this object
+     */
+    public String internProteinKey(String proteinKey) {
+        return proteinKeys.getCanonicalKey(proteinKey);
+    }
+
+    /**
+     * Releases a protein key, its id is not valid anymore.
+     *
+     * @param proteinKey the protein key
+     */
+    public void releaseProteinKey(String proteinKey) {
+        proteinKeys.release(proteinKey);
+    }
+
+    /**
+     * Returns the protein key corresponding to an id.
+     *
+     * @param proteinId the id of the protein key
+     *
+     * @return the protein key
+     */
+    public String getProteinKey(int proteinId) {
+        return proteinKeys.getKey(proteinId);
+    }
+
+    /**
+     * Returns the accessions of a protein match. The array must not be
+     * modified.
+     *
+     * @param proteinId the id of the protein key
+     *
+     * @return the accessions of the protein match
+     */
+    public String[] getProteinAccessions(int proteinId) {
+        return proteinKeys.getValue(proteinId);
+    }
+
+    /**
+     * Returns the accessions of a protein match, the key is not interned if
+     * not done already. The array must not be modified.
+     *
+     * @param proteinKey the protein key
+     *
+     * @return the accessions of the protein match
+     */
+    public String[] getProteinAccessions(String proteinKey) {
+        int proteinId = proteinKeys.getExistingId(proteinKey);
+        if (proteinId == -1) {
+            return ProteinMatch.getAccessions(proteinKey);
+        }
+        return proteinKeys.getValue(proteinId);
+    }
+
+    /**
+     * Returns the number of proteins of a protein match.
+     *
+     * @param proteinId the id of the protein key
+     *
+     * @return the number of proteins of the protein match
+     */
+    public int getNProteins(int proteinId) {
+        return getProteinAccessions(proteinId).length;
+    }
+
+    /**
+     * Returns the number of ids attributed to spectrum keys, including released
+     * keys.
+     *
+     * @return the number of ids attributed to spectrum keys
+     */
+    public int getNSpectrumKeys() {
+        return spectrumKeys.size();
+    }
+
+    /**
+     * Returns the number of ids attributed to peptide keys, including released
+     * keys.
+     *
+     * @return the number of ids attributed to peptide keys
+     */
+    public int getNPeptideKeys() {
+        return peptideKeys.size();
+    }
+
+    /**
+     * Returns the number of ids attributed to protein keys, including released
+     * keys.
+     *
+     * @return the number of ids attributed to protein keys
+     */
+    public int getNProteinKeys() {
+        return proteinKeys.size();
+    }
+}
@@ -0,0 +1,225 @@
+package com.compomics.util.experiment.identification;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interner mapping keys to dense integer ids starting from 0 in the order of
+ * interning, with reverse lookup. A value parsed from the key can be stored
+ * along with every key such that the key does not need to be parsed again.
+ * The interner references the key instances it is given, callers holding the
+ * keys in other collections should store the instance returned by
+ * getCanonicalKey in order not to keep two copies of the same key. Released
+ * keys are dropped and their ids are never reassigned, such that an id remains
+ * valid until its key is released. Keys are looked up without locking,
+ * interning and releasing keys is synchronized.
+ *
+ * @param <V> the type of value parsed from the keys
+ *
+ * @author Marc Vaudel
+ */
+public class KeyInterner<V> {
+
+    /**
+     * The number of bits of the index of an id in a page.
+     */
+    private static final int PAGE_BITS = 12;
+    /**
+     * The number of ids per page.
+     */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    /**
+     * The mask of the index of an id in a page.
+     */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    /**
+     * The ids indexed by key.
+     */
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    /**
+     * The keys in pages indexed by id. Pages are never moved once allocated.
+     */
+    private volatile String[][] keys = new String[0][];
+    /**
+     * The values parsed from the keys in pages indexed by id.
+     */
+    private volatile Object[][] values = new Object[0][];
+    /**
+     * The number of ids attributed. Written after the keys and values of a new
+     * id in order to publish them.
+     */
+    private volatile int size = 0;
+
+    /**
+     * Constructor.
+     */
+    public KeyInterner() {
+
+    }
+
+    /**
+     * Returns the id of a key, interning the key if not done already.
+     *
+     * @param key the key
+     *
+     * @return the id of the key
+     */
+    public int getId(String key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        return intern(key);
+    }
+
+    /**
+     * Returns the id of a key, -1 if the key was not interned.
+     *
+     * @param key the key
+     *
+     * @return the id of the key, -1 if the key was not interned
+     */
+    public int getExistingId(String key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the instance of a key held by the interner, interning the key if
+     * not done already.
+     *
+     * @param key the key
+     *
+     * @return the instance of the key held by the interner
+     */
+    public String getCanonicalKey(String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = intern(key);
+        }
+        String canonicalKey = keys[id >>> PAGE_BITS][id & PAGE_MASK];
+        if (canonicalKey == null) {
+            // released concurrently
+            return key;
+        }
+        return canonicalKey;
+    }
+
+    /**
+     * Releases a key, the key and its value are dropped from the interner and
+     * its id is not attributed anymore.
+     *
+     * @param key the key
+     *
+     * @return the id of the key, -1 if the key was not interned
+     */
+    public synchronized int release(String key) {
+        Integer id = ids.remove(key);
+        if (id == null) {
+            return -1;
+        }
+        keys[id >>> PAGE_BITS][id & PAGE_MASK] = null;
+        values[id >>> PAGE_BITS][id & PAGE_MASK] = null;
+        return id;
+    }
+
+    /**
+     * Interns a key.
+     *
+     * @param key the key
+     *
+     * @return the id of the key
+     */
+    private synchronized int intern(String key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        int newId = size;
+        int page = newId >>> PAGE_BITS;
+        String[][] keyPages = keys;
+        Object[][] valuePages = values;
+        if (page == keyPages.length) {
+            keyPages = Arrays.copyOf(keyPages, page + 1);
+            keyPages[page] = new String[PAGE_SIZE];
+            valuePages = Arrays.copyOf(valuePages, page + 1);
+            valuePages[page] = new Object[PAGE_SIZE];
+            keys = keyPages;
+            values = valuePages;
+        }
+        keyPages[page][newId & PAGE_MASK] = key;
+        valuePages[page][newId & PAGE_MASK] = parse(key);
+        size = newId + 1;
+        ids.put(key, newId);
+        return newId;
+    }
+
+    /**
+     * Returns the key corresponding to an id.
+     *
+     * @param id the id
+     *
+     * @return the key
+     */
+    public String getKey(int id) {
+        checkId(id);
+        String key = keys[id >>> PAGE_BITS][id & PAGE_MASK];
+        if (key == null) {
+            throw new IllegalArgumentException("The key with id " + id + " was released.");
+        }
+        return key;
+    }
+
+    /**
+     * Returns the value parsed from the key corresponding to an id.
+     *
+     * @param id the id
+     *
+     * @return the value parsed from the key
+     */
+    @SuppressWarnings("unchecked")
+    public V getValue(int id) {
+        String key = getKey(id);
+        V value = (V) values[id >>> PAGE_BITS][id & PAGE_MASK];
+        if (value == null && ids.get(key) == null) {
+            throw new IllegalArgumentException("The key with id " + id + " was released.");
+        }
+        return value;
+    }
+
+    /**
+     * Throws an exception if no key was interned with the given id.
+     *
+     * @param id the id
+     */
+    private void checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("No key interned with id " + id + ".");
+        }
+    }
+
+    /**
+     * Returns the number of ids attributed, including the ids of released
+     * keys.
+     *
+     * @return the number of ids attributed
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Parses the value to store along with a key upon interning. Returns null
+     * by default, to be overridden by interners storing values.
+     *
+     * @param key the key
+     *
+     * @return the value to store along with the key
+     */
+    protected V parse(String key) {
+        return null;
+    }
+}
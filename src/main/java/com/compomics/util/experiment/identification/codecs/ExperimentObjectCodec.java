@@ -0,0 +1,84 @@
+package com.compomics.util.experiment.identification.codecs;
+
+import com.compomics.util.db.CodecRegistry;
+import com.compomics.util.db.ObjectCodec;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Base class for the codecs of experiment objects, writing the user
+ * refinement parameters of the objects. The parameters are written using
+ * their codec if registered, Java serialization otherwise.
+ *
+ * @param <T> the class of objects encoded
+ *
+ * @author Marc Vaudel
+ */
+public abstract class ExperimentObjectCodec<T extends ExperimentObject> implements ObjectCodec<T> {
+
+    /**
+     * Checks that the version of a stored object is supported.
+     *
+     * @param version the version of the stored object
+     *
+     * @throws IOException exception thrown whenever the version is not
+     * supported
+     */
+    protected void checkVersion(int version) throws IOException {
+        if (version != getVersion()) {
+            throw new IOException("Unsupported " + getObjectClass().getSimpleName() + " codec version: " + version + ".");
+        }
+    }
+
+    /**
+     * Writes the user refinement parameters of an object.
+     *
+     * @param object the object
+     * @param output the stream where to write the parameters
+     * @param codecRegistry the codec registry to use for the parameters
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the parameters
+     */
+    protected void writeUrParams(ExperimentObject object, DataOutputStream output, CodecRegistry codecRegistry) throws IOException {
+        HashMap<String, UrParameter> urParams = object.getUrParams();
+        if (urParams == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(urParams.size());
+            for (String key : urParams.keySet()) {
+                CodecRegistry.writeString(key, output);
+                codecRegistry.writeObject(urParams.get(key), output);
+            }
+        }
+    }
+
+    /**
+     * Reads the user refinement parameters of an object written using
+     * writeUrParams.
+     *
+     * @param object the object
+     * @param input the stream where to read the parameters
+     * @param codecRegistry the codec registry to use for the parameters
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the parameters
+     * @throws ClassNotFoundException exception thrown whenever the class of a
+     * parameter is not found
+     */
+    protected void readUrParams(ExperimentObject object, DataInputStream input, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException {
+        int size = input.readInt();
+        if (size >= 0) {
+            HashMap<String, UrParameter> urParams = new HashMap<String, UrParameter>(Math.max(1, 2 * size));
+            for (int i = 0; i < size; i++) {
+                String key = CodecRegistry.readString(input);
+                urParams.put(key, (UrParameter) codecRegistry.readObject(input));
+            }
+            object.setUrParams(urParams);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.compomics.util.experiment.identification.codecs;
+
+import com.compomics.util.db.CodecRegistry;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for peptide assumptions. The user refinement parameters of the
+ * identification charge are not stored.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideAssumptionCodec extends ExperimentObjectCodec<PeptideAssumption> {
+
+    /**
+     * The identifier of the codec in the registry.
+     */
+    public static final int ID = 4;
+
+    @Override
+    public Class<PeptideAssumption> getObjectClass() {
+        return PeptideAssumption.class;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(PeptideAssumption peptideAssumption, DataOutputStream output, CodecRegistry codecRegistry) throws IOException {
+        codecRegistry.writeObject(peptideAssumption.getPeptide(), output);
+        output.writeInt(peptideAssumption.getRank());
+        output.writeInt(peptideAssumption.getAdvocate());
+        Charge charge = peptideAssumption.getIdentificationCharge();
+        output.writeBoolean(charge != null);
+        if (charge != null) {
+            output.writeInt(charge.sign);
+            output.writeInt(charge.value);
+        }
+        output.writeDouble(peptideAssumption.getScore());
+        CodecRegistry.writeString(peptideAssumption.getIdentificationFile(), output);
+        Double rawScore = peptideAssumption.getRawScore();
+        output.writeBoolean(rawScore != null);
+        if (rawScore != null) {
+            output.writeDouble(rawScore);
+        }
+        ArrayList<double[]> aminoAcidScores = peptideAssumption.getAminoAcidScores();
+        if (aminoAcidScores == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(aminoAcidScores.size());
+            for (double[] scores : aminoAcidScores) {
+                output.writeInt(scores.length);
+                for (double score : scores) {
+                    output.writeDouble(score);
+                }
+            }
+        }
+        writeUrParams(peptideAssumption, output, codecRegistry);
+    }
+
+    @Override
+    public PeptideAssumption read(DataInputStream input, int version, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException {
+        checkVersion(version);
+        Peptide peptide = (Peptide) codecRegistry.readObject(input);
+        int rank = input.readInt();
+        int advocate = input.readInt();
+        Charge charge = null;
+        if (input.readBoolean()) {
+            int sign = input.readInt();
+            charge = new Charge(sign, input.readInt());
+        }
+        double score = input.readDouble();
+        String identificationFile = CodecRegistry.readString(input);
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, rank, advocate, charge, score, identificationFile);
+        if (input.readBoolean()) {
+            peptideAssumption.setRawScore(input.readDouble());
+        }
+        int nAminoAcidScores = input.readInt();
+        if (nAminoAcidScores >= 0) {
+            ArrayList<double[]> aminoAcidScores = new ArrayList<double[]>(nAminoAcidScores);
+            for (int i = 0; i < nAminoAcidScores; i++) {
+                double[] scores = new double[input.readInt()];
+                for (int j = 0; j < scores.length; j++) {
+                    scores[j] = input.readDouble();
+                }
+                aminoAcidScores.add(scores);
+            }
+            peptideAssumption.setAminoAcidScores(aminoAcidScores);
+        }
+        readUrParams(peptideAssumption, input, codecRegistry);
+        return peptideAssumption;
+    }
+}
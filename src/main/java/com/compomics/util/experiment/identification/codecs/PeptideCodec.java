@@ -0,0 +1,78 @@
+package com.compomics.util.experiment.identification.codecs;
+
+import com.compomics.util.db.CodecRegistry;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for peptides. The cached mass and modified sequence are not stored.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideCodec extends ExperimentObjectCodec<Peptide> {
+
+    /**
+     * The identifier of the codec in the registry.
+     */
+    public static final int ID = 3;
+
+    @Override
+    public Class<Peptide> getObjectClass() {
+        return Peptide.class;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(Peptide peptide, DataOutputStream output, CodecRegistry codecRegistry) throws IOException {
+        CodecRegistry.writeString(peptide.getSequence(), output);
+        ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+        if (modificationMatches == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(modificationMatches.size());
+            for (ModificationMatch modificationMatch : modificationMatches) {
+                CodecRegistry.writeString(modificationMatch.getTheoreticPtm(), output);
+                output.writeBoolean(modificationMatch.isVariable());
+                output.writeInt(modificationMatch.getModificationSite());
+                output.writeBoolean(modificationMatch.isConfident());
+                output.writeBoolean(modificationMatch.isInferred());
+                writeUrParams(modificationMatch, output, codecRegistry);
+            }
+        }
+        CodecRegistry.writeStrings(peptide.getParentProteinsNoRemapping(), output);
+        writeUrParams(peptide, output, codecRegistry);
+    }
+
+    @Override
+    public Peptide read(DataInputStream input, int version, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException {
+        checkVersion(version);
+        String sequence = CodecRegistry.readString(input);
+        Peptide peptide = sequence == null ? new Peptide() : new Peptide(sequence, null);
+        int nModifications = input.readInt();
+        if (nModifications >= 0) {
+            ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>(nModifications);
+            for (int i = 0; i < nModifications; i++) {
+                String theoreticPtm = CodecRegistry.readString(input);
+                boolean variable = input.readBoolean();
+                int site = input.readInt();
+                ModificationMatch modificationMatch = new ModificationMatch(theoreticPtm, variable, site);
+                modificationMatch.setConfident(input.readBoolean());
+                modificationMatch.setInferred(input.readBoolean());
+                readUrParams(modificationMatch, input, codecRegistry);
+                modificationMatches.add(modificationMatch);
+            }
+            peptide.setModificationMatches(modificationMatches);
+        }
+        peptide.setParentProteins(CodecRegistry.readStrings(input));
+        readUrParams(peptide, input, codecRegistry);
+        return peptide;
+    }
+}
@@ -0,0 +1,50 @@
+package com.compomics.util.experiment.identification.codecs;
+
+import com.compomics.util.db.CodecRegistry;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Codec for peptide matches.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMatchCodec extends ExperimentObjectCodec<PeptideMatch> {
+
+    /**
+     * The identifier of the codec in the registry.
+     */
+    public static final int ID = 1;
+
+    @Override
+    public Class<PeptideMatch> getObjectClass() {
+        return PeptideMatch.class;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(PeptideMatch peptideMatch, DataOutputStream output, CodecRegistry codecRegistry) throws IOException {
+        CodecRegistry.writeString(peptideMatch.getKey(), output);
+        codecRegistry.writeObject(peptideMatch.getTheoreticPeptide(), output);
+        CodecRegistry.writeStrings(peptideMatch.getSpectrumMatchesKeys(), output);
+        writeUrParams(peptideMatch, output, codecRegistry);
+    }
+
+    @Override
+    public PeptideMatch read(DataInputStream input, int version, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException {
+        checkVersion(version);
+        String key = CodecRegistry.readString(input);
+        Peptide peptide = (Peptide) codecRegistry.readObject(input);
+        PeptideMatch peptideMatch = new PeptideMatch(peptide, key);
+        peptideMatch.setSpectrumMatchesKeys(CodecRegistry.readStrings(input));
+        readUrParams(peptideMatch, input, codecRegistry);
+        return peptideMatch;
+    }
+}
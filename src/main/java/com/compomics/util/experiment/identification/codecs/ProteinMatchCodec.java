@@ -0,0 +1,53 @@
+package com.compomics.util.experiment.identification.codecs;
+
+import com.compomics.util.db.CodecRegistry;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for protein matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMatchCodec extends ExperimentObjectCodec<ProteinMatch> {
+
+    /**
+     * The identifier of the codec in the registry.
+     */
+    public static final int ID = 2;
+
+    @Override
+    public Class<ProteinMatch> getObjectClass() {
+        return ProteinMatch.class;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(ProteinMatch proteinMatch, DataOutputStream output, CodecRegistry codecRegistry) throws IOException {
+        CodecRegistry.writeStrings(proteinMatch.getTheoreticProteinsAccessions(), output);
+        CodecRegistry.writeString(proteinMatch.getMainMatch(), output);
+        CodecRegistry.writeStrings(proteinMatch.getPeptideMatchesKeys(), output);
+        writeUrParams(proteinMatch, output, codecRegistry);
+    }
+
+    @Override
+    public ProteinMatch read(DataInputStream input, int version, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException {
+        checkVersion(version);
+        ProteinMatch proteinMatch = new ProteinMatch();
+        ArrayList<String> accessions = CodecRegistry.readStrings(input);
+        for (String accession : accessions) {
+            proteinMatch.addTheoreticProtein(accession);
+        }
+        proteinMatch.setMainMatch(CodecRegistry.readString(input));
+        proteinMatch.setPeptideKeys(CodecRegistry.readStrings(input));
+        readUrParams(proteinMatch, input, codecRegistry);
+        return proteinMatch;
+    }
+}
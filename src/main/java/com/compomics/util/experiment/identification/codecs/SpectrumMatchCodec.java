@@ -0,0 +1,175 @@
+package com.compomics.util.experiment.identification.codecs;
+
+import com.compomics.util.db.CodecRegistry;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Codec for spectrum matches. The best peptide and tag assumptions are stored
+ * as references to the assumptions of the assumptions map when found there,
+ * such that they remain the same objects after reading like with Java
+ * serialization. The tag assumptions map is not stored, it is rebuilt upon
+ * request.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchCodec extends ExperimentObjectCodec<SpectrumMatch> {
+
+    /**
+     * The identifier of the codec in the registry.
+     */
+    public static final int ID = 5;
+    /**
+     * Reference to a null assumption.
+     */
+    private static final int NULL_REFERENCE = -1;
+    /**
+     * Reference to an assumption written inline.
+     */
+    private static final int INLINE_REFERENCE = -2;
+
+    @Override
+    public Class<SpectrumMatch> getObjectClass() {
+        return SpectrumMatch.class;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(SpectrumMatch spectrumMatch, DataOutputStream output, CodecRegistry codecRegistry) throws IOException {
+        CodecRegistry.writeString(spectrumMatch.getKey(), output);
+        Integer spectrumNumber = spectrumMatch.getSpectrumNumber();
+        output.writeBoolean(spectrumNumber != null);
+        if (spectrumNumber != null) {
+            output.writeInt(spectrumNumber);
+        }
+        IdentityHashMap<SpectrumIdentificationAssumption, Integer> references = new IdentityHashMap<SpectrumIdentificationAssumption, Integer>();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(assumptionsMap.size());
+            for (Integer advocateId : assumptionsMap.keySet()) {
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(advocateId);
+                output.writeInt(advocateId);
+                output.writeInt(advocateMap.size());
+                for (Double score : advocateMap.keySet()) {
+                    ArrayList<SpectrumIdentificationAssumption> assumptions = advocateMap.get(score);
+                    output.writeDouble(score);
+                    output.writeInt(assumptions.size());
+                    for (SpectrumIdentificationAssumption assumption : assumptions) {
+                        writeAssumption(assumption, references, output, codecRegistry);
+                    }
+                }
+            }
+        }
+        writeAssumption(spectrumMatch.getBestPeptideAssumption(), references, output, codecRegistry);
+        writeAssumption(spectrumMatch.getBestTagAssumption(), references, output, codecRegistry);
+        writeUrParams(spectrumMatch, output, codecRegistry);
+    }
+
+    @Override
+    public SpectrumMatch read(DataInputStream input, int version, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException {
+        checkVersion(version);
+        SpectrumMatch spectrumMatch = new SpectrumMatch(CodecRegistry.readString(input));
+        if (input.readBoolean()) {
+            spectrumMatch.setSpectrumNumber(input.readInt());
+        }
+        ArrayList<SpectrumIdentificationAssumption> references = new ArrayList<SpectrumIdentificationAssumption>();
+        int nAdvocates = input.readInt();
+        if (nAdvocates >= 0) {
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap
+                    = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(Math.max(1, 2 * nAdvocates));
+            for (int i = 0; i < nAdvocates; i++) {
+                int advocateId = input.readInt();
+                int nScores = input.readInt();
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap
+                        = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(Math.max(1, 2 * nScores));
+                for (int j = 0; j < nScores; j++) {
+                    double score = input.readDouble();
+                    int nAssumptions = input.readInt();
+                    ArrayList<SpectrumIdentificationAssumption> assumptions = new ArrayList<SpectrumIdentificationAssumption>(nAssumptions);
+                    for (int k = 0; k < nAssumptions; k++) {
+                        assumptions.add(readAssumption(references, input, codecRegistry));
+                    }
+                    advocateMap.put(score, assumptions);
+                }
+                assumptionsMap.put(advocateId, advocateMap);
+            }
+            spectrumMatch.setAssumptionsMap(assumptionsMap);
+        }
+        spectrumMatch.setBestPeptideAssumption((PeptideAssumption) readAssumption(references, input, codecRegistry));
+        spectrumMatch.setBestTagAssumption((TagAssumption) readAssumption(references, input, codecRegistry));
+        readUrParams(spectrumMatch, input, codecRegistry);
+        return spectrumMatch;
+    }
+
+    /**
+     * Writes an assumption, or a reference to it if it was already written.
+     *
+     * @param assumption the assumption, can be null
+     * @param references the indexes of the assumptions already written
+     * @param output the stream where to write the assumption
+     * @param codecRegistry the codec registry to use for the assumption
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the assumption
+     */
+    private void writeAssumption(SpectrumIdentificationAssumption assumption, IdentityHashMap<SpectrumIdentificationAssumption, Integer> references,
+            DataOutputStream output, CodecRegistry codecRegistry) throws IOException {
+        if (assumption == null) {
+            output.writeInt(NULL_REFERENCE);
+            return;
+        }
+        Integer reference = references.get(assumption);
+        if (reference != null) {
+            output.writeInt(reference);
+            return;
+        }
+        references.put(assumption, references.size());
+        output.writeInt(INLINE_REFERENCE);
+        codecRegistry.writeObject(assumption, output);
+    }
+
+    /**
+     * Reads an assumption written using writeAssumption.
+     *
+     * @param references the assumptions already read
+     * @param input the stream where to read the assumption
+     * @param codecRegistry the codec registry to use for the assumption
+     *
+     * @return the assumption, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the assumption
+     * @throws ClassNotFoundException exception thrown whenever the class of
+     * the assumption is not found
+     */
+    private SpectrumIdentificationAssumption readAssumption(ArrayList<SpectrumIdentificationAssumption> references,
+            DataInputStream input, CodecRegistry codecRegistry) throws IOException, ClassNotFoundException {
+        int reference = input.readInt();
+        if (reference == NULL_REFERENCE) {
+            return null;
+        }
+        if (reference != INLINE_REFERENCE) {
+            if (reference < 0 || reference >= references.size()) {
+                throw new IOException("Invalid assumption reference " + reference + ".");
+            }
+            return references.get(reference);
+        }
+        SpectrumIdentificationAssumption assumption = (SpectrumIdentificationAssumption) codecRegistry.readObject(input);
+        references.add(assumption);
+        return assumption;
+    }
+}
@@ -175,6 +175,18 @@ public class SpectrumMatch extends IdentificationMatch {
         return assumptionsMap;
     }
 
+    /**
+     * Sets the assumptions map: advocate id &gt; score &gt; list of
+     * assumptions.
+     *
+     * @param assumptionsMap the assumptions map
+     */
+    public void setAssumptionsMap(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+        this.assumptionsMap = assumptionsMap;
+        tagAssumptionsMap = null;
+        tagAssumptionsMapKeySize = -1;
+    }
+
     /**
      * Removes all assumptions but the best ones from the spectrum map.
      */
@@ -7,6 +7,7 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 
 /**
@@ -41,6 +42,53 @@ public interface PeptideMapper {
     public HashMap<String, HashMap<String, ArrayList<Integer>>> getProteinMapping(String peptideSequence, SequenceMatchingPreferences proteinInferencePreferences)
             throws IOException, InterruptedException, ClassNotFoundException, SQLException;
 
+    /**
+     * Returns the protein mapping in the FASTA file loaded in the sequence
+     * factory for the given peptide sequence as arrays of primitives. See
+     * getProteinMapping(String, SequenceMatchingPreferences) for the map
+     * format. Mappers storing the mapping as a map, like the protein tree,
+     * convert the map.
+     *
+     * @param peptideSequence the peptide sequence
+     * @param proteinInferencePreferences the sequence matching preferences
+     *
+     * @return the protein mapping of the peptide sequence
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database
+     */
+    public ProteinMapping getCompactProteinMapping(String peptideSequence, SequenceMatchingPreferences proteinInferencePreferences)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
+    /**
+     * Returns the protein mapping in the FASTA file loaded in the sequence
+     * factory for the given peptide sequences. The sequences are sorted and
+     * deduplicated, and mapped using the given number of threads.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param proteinInferencePreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     *
+     * @return the protein mapping of the peptide sequences
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database
+     */
+    public ProteinMappingBatch getProteinMapping(Collection<String> peptideSequences, SequenceMatchingPreferences proteinInferencePreferences, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
     /**
      * Returns the protein mappings for the given peptide sequence. Peptide
      * sequence | Protein accession | Index in the protein. An empty map if not
@@ -0,0 +1,224 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The protein mapping of a peptide stored in arrays of primitives. For every
+ * match the mapping stores the index of the sequence found in the database,
+ * the index of the protein in a protein table, and the index of the peptide
+ * on the protein sequence. 0 is the first amino acid. The protein table can
+ * be shared between mappings, e.g. the accessions of an index.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMapping {
+
+    /**
+     * Empty mapping.
+     */
+    public static final ProteinMapping EMPTY = new ProteinMapping(new String[0], new String[0], new int[0], new int[0], new int[0]);
+    /**
+     * The protein table.
+     */
+    private final String[] accessions;
+    /**
+     * The sequences found in the database.
+     */
+    private final String[] matchedSequences;
+    /**
+     * For every match, the index of the sequence found in the database.
+     */
+    private final int[] matchedSequenceIndexes;
+    /**
+     * For every match, the index of the protein in the protein table.
+     */
+    private final int[] proteinIndexes;
+    /**
+     * For every match, the index of the peptide on the protein sequence.
+     */
+    private final int[] positions;
+
+    /**
+     * Constructor. The arrays are used as such and should not be modified
+     * afterwards.
+     *
+     * @param accessions the protein table
+     * @param matchedSequences the sequences found in the database
+     * @param matchedSequenceIndexes for every match, the index of the
+     * sequence found in the database
+     * @param proteinIndexes for every match, the index of the protein in the
+     * protein table
+     * @param positions for every match, the index of the peptide on the
+     * protein sequence
+     */
+    public ProteinMapping(String[] accessions, String[] matchedSequences, int[] matchedSequenceIndexes, int[] proteinIndexes, int[] positions) {
+        if (matchedSequenceIndexes.length != proteinIndexes.length || proteinIndexes.length != positions.length) {
+            throw new IllegalArgumentException("Inconsistent number of matches in protein mapping.");
+        }
+        this.accessions = accessions;
+        this.matchedSequences = matchedSequences;
+        this.matchedSequenceIndexes = matchedSequenceIndexes;
+        this.proteinIndexes = proteinIndexes;
+        this.positions = positions;
+    }
+
+    /**
+     * Creates a mapping from a map: sequence found in the database &gt;
+     * protein accession &gt; indexes of the peptide on the protein sequence.
+     * The protein table of the mapping contains the accessions of the map.
+     *
+     * @param mapping the protein mapping as a map
+     *
+     * @return the protein mapping
+     */
+    public static ProteinMapping fromMap(HashMap<String, HashMap<String, ArrayList<Integer>>> mapping) {
+        if (mapping.isEmpty()) {
+            return EMPTY;
+        }
+        int nMatches = 0;
+        HashMap<String, Integer> accessionIndexes = new HashMap<String, Integer>();
+        ArrayList<String> accessionList = new ArrayList<String>();
+        for (HashMap<String, ArrayList<Integer>> proteinMapping : mapping.values()) {
+            for (String accession : proteinMapping.keySet()) {
+                nMatches += proteinMapping.get(accession).size();
+                if (!accessionIndexes.containsKey(accession)) {
+                    accessionIndexes.put(accession, accessionList.size());
+                    accessionList.add(accession);
+                }
+            }
+        }
+        String[] sequences = mapping.keySet().toArray(new String[mapping.size()]);
+        int[] sequenceIndexes = new int[nMatches];
+        int[] proteins = new int[nMatches];
+        int[] indexesOnProteins = new int[nMatches];
+        int match = 0;
+        for (int i = 0; i < sequences.length; i++) {
+            HashMap<String, ArrayList<Integer>> proteinMapping = mapping.get(sequences[i]);
+            for (String accession : proteinMapping.keySet()) {
+                int proteinIndex = accessionIndexes.get(accession);
+                for (int index : proteinMapping.get(accession)) {
+                    sequenceIndexes[match] = i;
+                    proteins[match] = proteinIndex;
+                    indexesOnProteins[match] = index;
+                    match++;
+                }
+            }
+        }
+        return new ProteinMapping(accessionList.toArray(new String[accessionList.size()]), sequences, sequenceIndexes, proteins, indexesOnProteins);
+    }
+
+    /**
+     * Returns the number of matches.
+     *
+     * @return the number of matches
+     */
+    public int getNMatches() {
+        return positions.length;
+    }
+
+    /**
+     * Indicates whether the peptide was found in the database.
+     *
+     * @return a boolean indicating whether the peptide was found in the
+     * database
+     */
+    public boolean isEmpty() {
+        return positions.length == 0;
+    }
+
+    /**
+     * Returns the number of sequences found in the database.
+     *
+     * @return the number of sequences found in the database
+     */
+    public int getNMatchedSequences() {
+        return matchedSequences.length;
+    }
+
+    /**
+     * Returns the sequence found in the database at the given index.
+     *
+     * @param matchedSequenceIndex the index of the sequence
+     *
+     * @return the sequence found in the database
+     */
+    public String getMatchedSequence(int matchedSequenceIndex) {
+        return matchedSequences[matchedSequenceIndex];
+    }
+
+    /**
+     * Returns the index of the sequence found in the database for the given
+     * match.
+     *
+     * @param match the index of the match
+     *
+     * @return the index of the sequence found in the database
+     */
+    public int getMatchedSequenceIndex(int match) {
+        return matchedSequenceIndexes[match];
+    }
+
+    /**
+     * Returns the index of the protein in the protein table for the given
+     * match.
+     *
+     * @param match the index of the match
+     *
+     * @return the index of the protein in the protein table
+     */
+    public int getProteinIndex(int match) {
+        return proteinIndexes[match];
+    }
+
+    /**
+     * Returns the accession of the protein for the given match.
+     *
+     * @param match the index of the match
+     *
+     * @return the accession of the protein
+     */
+    public String getAccession(int match) {
+        return accessions[proteinIndexes[match]];
+    }
+
+    /**
+     * Returns the index of the peptide on the protein sequence for the given
+     * match.
+     *
+     * @param match the index of the match
+     *
+     * @return the index of the peptide on the protein sequence
+     */
+    public int getPosition(int match) {
+        return positions[match];
+    }
+
+    /**
+     * Returns the mapping in the format of the PeptideMapper: sequence found
+     * in the database &gt; protein accession &gt; indexes of the peptide on
+     * the protein sequence. The map is created at every call.
+     *
+     * @return the protein mapping as a map
+     */
+    public HashMap<String, HashMap<String, ArrayList<Integer>>> getMapping() {
+        HashMap<String, HashMap<String, ArrayList<Integer>>> result = new HashMap<String, HashMap<String, ArrayList<Integer>>>(matchedSequences.length);
+        ArrayList<HashMap<String, ArrayList<Integer>>> sequenceMappings = new ArrayList<HashMap<String, ArrayList<Integer>>>(matchedSequences.length);
+        for (String sequence : matchedSequences) {
+            HashMap<String, ArrayList<Integer>> proteinMapping = new HashMap<String, ArrayList<Integer>>();
+            result.put(sequence, proteinMapping);
+            sequenceMappings.add(proteinMapping);
+        }
+        for (int i = 0; i < positions.length; i++) {
+            HashMap<String, ArrayList<Integer>> proteinMapping = sequenceMappings.get(matchedSequenceIndexes[i]);
+            String accession = accessions[proteinIndexes[i]];
+            ArrayList<Integer> indexes = proteinMapping.get(accession);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>(1);
+                proteinMapping.put(accession, indexes);
+            }
+            indexes.add(positions[i]);
+        }
+        return result;
+    }
+}
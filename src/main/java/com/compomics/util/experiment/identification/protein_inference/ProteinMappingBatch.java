@@ -0,0 +1,120 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * The protein mapping of a batch of peptide sequences. The peptide sequences
+ * are sorted and deduplicated, the mapping of every peptide is stored as a
+ * ProteinMapping.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMappingBatch {
+
+    /**
+     * The peptide sequences, sorted and without duplicates.
+     */
+    private final String[] peptideSequences;
+    /**
+     * The protein mapping of every peptide.
+     */
+    private final ProteinMapping[] mappings;
+
+    /**
+     * Constructor.
+     *
+     * @param peptideSequences the peptide sequences to map
+     */
+    public ProteinMappingBatch(Collection<String> peptideSequences) {
+        TreeSet<String> sortedSequences = new TreeSet<String>(peptideSequences);
+        this.peptideSequences = sortedSequences.toArray(new String[sortedSequences.size()]);
+        mappings = new ProteinMapping[this.peptideSequences.length];
+    }
+
+    /**
+     * Returns the number of peptide sequences in the batch.
+     *
+     * @return the number of peptide sequences in the batch
+     */
+    public int size() {
+        return peptideSequences.length;
+    }
+
+    /**
+     * Returns the peptide sequence at the given index.
+     *
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the peptide sequence at the given index
+     */
+    public String getPeptideSequence(int peptideIndex) {
+        return peptideSequences[peptideIndex];
+    }
+
+    /**
+     * Returns the index of the given peptide sequence, -1 if not in the
+     * batch.
+     *
+     * @param peptideSequence the peptide sequence
+     *
+     * @return the index of the given peptide sequence
+     */
+    public int getPeptideIndex(String peptideSequence) {
+        int index = Arrays.binarySearch(peptideSequences, peptideSequence);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Sets the mapping of a peptide. Mappings of different peptides can be
+     * set concurrently.
+     *
+     * @param peptideIndex the index of the peptide
+     * @param mapping the protein mapping
+     */
+    public void setMapping(int peptideIndex, ProteinMapping mapping) {
+        mappings[peptideIndex] = mapping;
+    }
+
+    /**
+     * Returns the mapping of the peptide at the given index.
+     *
+     * @param peptideIndex the index of the peptide
+     *
+     * @return the protein mapping of the peptide
+     */
+    public ProteinMapping getMapping(int peptideIndex) {
+        ProteinMapping mapping = mappings[peptideIndex];
+        return mapping == null ? ProteinMapping.EMPTY : mapping;
+    }
+
+    /**
+     * Returns the mapping of the given peptide, an empty mapping if the
+     * peptide is not in the batch.
+     *
+     * @param peptideSequence the peptide sequence
+     *
+     * @return the protein mapping of the peptide
+     */
+    public ProteinMapping getMapping(String peptideSequence) {
+        int peptideIndex = getPeptideIndex(peptideSequence);
+        return peptideIndex == -1 ? ProteinMapping.EMPTY : getMapping(peptideIndex);
+    }
+
+    /**
+     * Returns the mapping of the given peptide in the format of the
+     * PeptideMapper: sequence found in the database &gt; protein accession
+     * &gt; indexes of the peptide on the protein sequence. An empty map if the
+     * peptide was not found or is not in the batch.
+     *
+     * @param peptideSequence the peptide sequence
+     *
+     * @return the protein mapping of the given peptide
+     */
+    public HashMap<String, HashMap<String, ArrayList<Integer>>> getProteinMapping(String peptideSequence) {
+        return getMapping(peptideSequence).getMapping();
+    }
+}
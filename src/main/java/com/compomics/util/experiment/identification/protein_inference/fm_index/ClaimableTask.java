@@ -0,0 +1,81 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Task used for the parallel construction of the index. The task is run
+ * either by a thread of the pool it was submitted to or by the thread joining
+ * it, whichever claims it first. A thread joining a task therefore never
+ * waits for a task which is still queued, so that tasks can be forked from
+ * within other tasks of a pool with a fixed number of threads without risk of
+ * deadlock.
+ *
+ * @author Marc Vaudel
+ */
+public class ClaimableTask implements Runnable {
+
+    /**
+     * The work to do.
+     */
+    private final Runnable runnable;
+    /**
+     * Boolean indicating whether a thread claimed the task.
+     */
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    /**
+     * Latch released when the task is completed.
+     */
+    private final CountDownLatch completed = new CountDownLatch(1);
+    /**
+     * Exception or error thrown while running the task, null if none.
+     */
+    private volatile Throwable error = null;
+
+    /**
+     * Constructor.
+     *
+     * @param runnable the work to do
+     */
+    public ClaimableTask(Runnable runnable) {
+        this.runnable = runnable;
+    }
+
+    @Override
+    public void run() {
+        if (claimed.compareAndSet(false, true)) {
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                completed.countDown();
+            }
+        }
+    }
+
+    /**
+     * Runs the task in the current thread if no other thread claimed it,
+     * waits for its completion otherwise.
+     *
+     * @throws IllegalStateException exception thrown if the task threw an
+     * exception or if the thread was interrupted while waiting
+     */
+    public void join() {
+        run();
+        try {
+            completed.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted while waiting for the construction of the index.", e);
+        }
+        if (error != null) {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            throw new IllegalStateException(error);
+        }
+    }
+}
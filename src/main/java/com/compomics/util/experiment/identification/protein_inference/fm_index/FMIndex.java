@@ -14,16 +14,25 @@ import com.compomics.util.experiment.identification.amino_acid_tags.matchers.Tag
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMappingBatch;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.jsuffixarrays.*;
 
 /**
@@ -70,6 +79,14 @@ public class FMIndex implements PeptideMapper {
      * Bit shifting for fast multiplying / dividing operations.
      */
     private final int sampling = 1 << samplingShift;
+    /**
+     * Cache of intermediate tag to proteome mapping results.
+     */
+    private volatile TagCache tagCache = new TagCache(TagCache.DEFAULT_SIZE);
+    /**
+     * The number of chunks per thread a batch of peptides is split into.
+     */
+    private static final int BATCH_CHUNKS_PER_THREAD = 4;
     /**
      * Storing the starting positions of the protein sequences.
      */
@@ -189,6 +206,21 @@ public class FMIndex implements PeptideMapper {
      * @param ptmSettings contains modification parameters for identification
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings) {
+        this(waitingHandler, displayProgress, ptmSettings, 1);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. If more than one thread is
+     * used, the forward and reversed structures of the index are built
+     * concurrently.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param ptmSettings contains modification parameters for identification
+     * @param nThreads the number of threads to use to build the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, int nThreads) {
 
         if (ptmSettings != null) {
             // create masses table and modifications
@@ -551,6 +583,55 @@ public class FMIndex implements PeptideMapper {
         }
 
         SequenceFactory sf = SequenceFactory.getInstance(100000);
+        File fastaFile = sf.getCurrentFastaFile();
+        File indexFile = fastaFile != null ? FMIndexFile.getIndexFile(fastaFile) : null;
+        int settingsHash = getSettingsHash(ptmSettings);
+
+        if (indexFile != null && indexFile.exists()) {
+            try {
+                if (loadIndex(indexFile, fastaFile, settingsHash)) {
+                    return;
+                }
+                report(waitingHandler, "Reindexing: " + fastaFile.getName() + ". (changes in the file or in the modification settings detected)");
+            } catch (Exception e) {
+                report(waitingHandler, "Reindexing: " + fastaFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+            }
+        }
+
+        buildIndex(waitingHandler, displayProgress, sf, nThreads);
+
+        if (indexFile != null && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+            try {
+                saveIndex(indexFile, fastaFile, settingsHash);
+            } catch (Exception e) {
+                report(waitingHandler, "Failed to save the index of " + fastaFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+            }
+        }
+    }
+
+    /**
+     * Appends a message to the report of the waiting handler, if any.
+     *
+     * @param waitingHandler the waiting handler, can be null
+     * @param message the message
+     */
+    private static void report(WaitingHandler waitingHandler, String message) {
+        if (waitingHandler != null) {
+            waitingHandler.appendReport(message, true, true);
+        }
+    }
+
+    /**
+     * Builds the index for the proteins of the FASTA file loaded in the
+     * sequence factory.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param sf the sequence factory
+     * @param nThreads the number of threads to use
+     */
+    private void buildIndex(final WaitingHandler waitingHandler, final boolean displayProgress, SequenceFactory sf, int nThreads) {
+
         boolean deNovo = true; // @TODO: change it for de novo
         int maxProgressBar = 6 + ((deNovo) ? 4 : 0);
 
@@ -584,7 +665,7 @@ public class FMIndex implements PeptideMapper {
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
-        byte[] T = new byte[indexStringLength];
+        final byte[] T = new byte[indexStringLength];
         T[0] = '/';                     // adding delimiter at beginning
         T[indexStringLength - 2] = '/'; // adding delimiter at ending
         T[indexStringLength - 1] = '$'; // adding the sentinal
@@ -619,36 +700,68 @@ public class FMIndex implements PeptideMapper {
             waitingHandler.increaseSecondaryProgressCounter();
         }
 
-        int[] T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = T[i];
-        }
-        suffixArrayPrimary = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
-
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-        T_int = null;
-
         // Prepare alphabet
         char[] sortedAas = new char[AminoAcid.getAminoAcids().length + 2];
         System.arraycopy(AminoAcid.getAminoAcids(), 0, sortedAas, 0, AminoAcid.getAminoAcids().length);
         sortedAas[AminoAcid.getAminoAcids().length] = '$';
         sortedAas[AminoAcid.getAminoAcids().length + 1] = '/';
         Arrays.sort(sortedAas);
-        long[] alphabet = new long[]{0, 0};
+        final long[] alphabet = new long[]{0, 0};
         for (int i = 0; i < sortedAas.length; ++i) {
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
+        if (nThreads > 1) {
+            // the forward and reversed structures are built concurrently, the threads of the pool are shared for the construction of the wavelet trees
+            final ExecutorService executor = Executors.newFixedThreadPool(nThreads - 1);
+            try {
+                ClaimableTask reversedTask = null;
+                if (deNovo) {
+                    reversedTask = new ClaimableTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            buildReversedIndex(T, alphabet, waitingHandler, displayProgress, executor);
+                        }
+                    });
+                    executor.execute(reversedTask);
+                }
+                buildPrimaryIndex(T, alphabet, waitingHandler, displayProgress, executor);
+                if (reversedTask != null) {
+                    reversedTask.join();
+                }
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            buildPrimaryIndex(T, alphabet, waitingHandler, displayProgress, null);
+            if (deNovo) {
+                buildReversedIndex(T, alphabet, waitingHandler, displayProgress, null);
+            }
+        }
+    }
+
+    /**
+     * Builds the sampled suffix array, the occurrence table and the less table
+     * for the backward search over the forward text.
+     *
+     * @param T the text
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param executor the executor to use for the parallel construction of
+     * the wavelet tree, ignored if null
+     */
+    private void buildPrimaryIndex(byte[] T, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress, ExecutorService executor) {
+
+        int[] suffixArray = buildSuffixArray(T, false);
+        increaseProgress(waitingHandler, displayProgress);
+
         // create Burrows-Wheeler-Transform
         byte[] bwt = new byte[indexStringLength];
         for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayPrimary[i] != 0) ? T[suffixArrayPrimary[i] - 1] : T[indexStringLength - 1];
-        }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+            bwt[i] = (suffixArray[i] != 0) ? T[suffixArray[i] - 1] : T[indexStringLength - 1];
         }
+        increaseProgress(waitingHandler, displayProgress);
 
         // sampling suffix array
         int[] sampledSuffixArray = new int[((indexStringLength + 1) >> samplingShift) + 1];
@@ -657,63 +770,204 @@ public class FMIndex implements PeptideMapper {
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                 return;
             }
-            sampledSuffixArray[sampledIndex++] = suffixArrayPrimary[i];
+            sampledSuffixArray[sampledIndex++] = suffixArray[i];
         }
+        suffixArray = null;
         suffixArrayPrimary = sampledSuffixArray;
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+        increaseProgress(waitingHandler, displayProgress);
 
         // creating the occurrence table and less table for backward search over forward text
-        occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, hasPTMatTerminus);
+        occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, hasPTMatTerminus, executor);
         lessTablePrimary = occurrenceTablePrimary.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        increaseProgress(waitingHandler, displayProgress);
+    }
+
+    /**
+     * Builds the occurrence table and the less table for the backward search
+     * over the reversed text. The reversed text is not stored, it is read from
+     * the forward text.
+     *
+     * @param T the text
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param executor the executor to use for the parallel construction of
+     * the wavelet tree, ignored if null
+     */
+    private void buildReversedIndex(byte[] T, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress, ExecutorService executor) {
+
+        // create the inversed suffix array using at most 128 characters
+        int[] suffixArrayReversed = buildSuffixArray(T, true);
+        increaseProgress(waitingHandler, displayProgress);
+        increaseProgress(waitingHandler, displayProgress);
+
+        // create inversed Burrows-Wheeler-Transform, the character preceding position p in the reversed text is at position indexStringLength - 1 - p in the forward text
+        byte[] bwt = new byte[indexStringLength];
+        for (int i = 0; i < indexStringLength; ++i) {
+            bwt[i] = T[indexStringLength - 1 - suffixArrayReversed[i]];
         }
+        suffixArrayReversed = null;
+        increaseProgress(waitingHandler, displayProgress);
+
+        // create inversed less and occurrence table
+        occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, hasPTMatTerminus, executor);
+        lessTableReversed = occurrenceTableReversed.createLessTable();
+        increaseProgress(waitingHandler, displayProgress);
+    }
 
-        bwt = null;
-        if (deNovo) {
-            // create inversed text for inversed index
-            byte[] TReversed = new byte[indexStringLength];
+    /**
+     * Builds the suffix array of the text or of the reversed text. The
+     * reversed text contains the characters of the text except the sentinel
+     * in reversed order, followed by the sentinel.
+     *
+     * @param T the text
+     * @param reversed if true the suffix array of the reversed text is built
+     *
+     * @return the suffix array
+     */
+    private int[] buildSuffixArray(byte[] T, boolean reversed) {
+        int[] T_int = new int[indexStringLength];
+        if (reversed) {
             for (int i = 0; i < indexStringLength - 1; ++i) {
-                TReversed[indexStringLength - 2 - i] = T[i];
-            }
-            TReversed[indexStringLength - 1] = '$';
-            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-                waitingHandler.increaseSecondaryProgressCounter();
+                T_int[indexStringLength - 2 - i] = T[i];
             }
-
-            // create the inversed suffix array using at most 128 characters
-            T_int = new int[indexStringLength];
+            T_int[indexStringLength - 1] = '$';
+        } else {
             for (int i = 0; i < indexStringLength; ++i) {
-                T_int[i] = TReversed[i];
-            }
-            int[] suffixArrayReversed = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
-            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-                waitingHandler.increaseSecondaryProgressCounter();
+                T_int[i] = T[i];
             }
+        }
+        return (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+    }
 
-            // create inversed Burrows-Wheeler-Transform
-            bwt = new byte[indexStringLength];
-            for (int i = 0; i < indexStringLength; ++i) {
-                bwt[i] = (suffixArrayReversed[i] != 0) ? TReversed[suffixArrayReversed[i] - 1] : TReversed[indexStringLength - 1];
+    /**
+     * Increases the secondary progress counter of the waiting handler.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     */
+    private synchronized void increaseProgress(WaitingHandler waitingHandler, boolean displayProgress) {
+        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+            waitingHandler.increaseSecondaryProgressCounter();
+        }
+    }
+
+    /**
+     * Returns a hash of the modification settings affecting the content of the
+     * index.
+     *
+     * @param ptmSettings the modification settings, can be null
+     *
+     * @return a hash of the modification settings
+     */
+    private static int getSettingsHash(PtmSettings ptmSettings) {
+        if (ptmSettings == null) {
+            return 0;
+        }
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        StringBuilder settings = new StringBuilder();
+        ArrayList<String> modifications = new ArrayList<String>(ptmSettings.getFixedModifications());
+        Collections.sort(modifications);
+        for (String modification : modifications) {
+            PTM ptm = ptmFactory.getPTM(modification);
+            settings.append(modification).append('_').append(ptm.getType()).append('_').append(ptm.getMass()).append(';');
+        }
+        settings.append('|');
+        modifications = new ArrayList<String>(ptmSettings.getVariableModifications());
+        Collections.sort(modifications);
+        for (String modification : modifications) {
+            PTM ptm = ptmFactory.getPTM(modification);
+            settings.append(modification).append('_').append(ptm.getType()).append('_').append(ptm.getMass()).append(';');
+        }
+        return settings.toString().hashCode();
+    }
+
+    /**
+     * Loads the index from the given file if it corresponds to the given
+     * FASTA file and settings.
+     *
+     * @param indexFile the FM index file
+     * @param fastaFile the FASTA file
+     * @param settingsHash the hash of the modification settings
+     *
+     * @return a boolean indicating whether the index could be loaded
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private boolean loadIndex(File indexFile, File fastaFile, int settingsHash) throws IOException {
+        FMIndexFile.Reader reader = new FMIndexFile.Reader(indexFile);
+        try {
+            if (!reader.checkHeader(fastaFile.lastModified(), fastaFile.length(), settingsHash)
+                    || reader.readInt() != samplingShift) {
+                return false;
             }
-            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-                waitingHandler.increaseSecondaryProgressCounter();
+            int tempIndexStringLength = reader.readInt();
+            int[] tempSuffixArray = reader.readIntArray();
+            int[] tempLessTablePrimary = reader.readIntArray();
+            WaveletTree tempOccurrenceTablePrimary = new WaveletTree(reader);
+            int[] tempLessTableReversed = null;
+            WaveletTree tempOccurrenceTableReversed = null;
+            if (reader.readBoolean()) {
+                tempLessTableReversed = reader.readIntArray();
+                tempOccurrenceTableReversed = new WaveletTree(reader);
             }
+            int[] tempBoundaries = reader.readIntArray();
+            String[] tempAccessions = reader.readStringArray();
+
+            indexStringLength = tempIndexStringLength;
+            suffixArrayPrimary = tempSuffixArray;
+            lessTablePrimary = tempLessTablePrimary;
+            occurrenceTablePrimary = tempOccurrenceTablePrimary;
+            lessTableReversed = tempLessTableReversed;
+            occurrenceTableReversed = tempOccurrenceTableReversed;
+            boundaries = tempBoundaries;
+            accessions = tempAccessions;
+            return true;
+        } finally {
+            reader.close();
+        }
+    }
 
-            // create inversed less and occurrence table
-            occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, hasPTMatTerminus);
-            lessTableReversed = occurrenceTableReversed.createLessTable();
-            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-                waitingHandler.increaseSecondaryProgressCounter();
+    /**
+     * Saves the index to the given file. The index is first written to a
+     * temporary file which is then renamed.
+     *
+     * @param indexFile the FM index file
+     * @param fastaFile the FASTA file
+     * @param settingsHash the hash of the modification settings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void saveIndex(File indexFile, File fastaFile, int settingsHash) throws IOException {
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + "_temp");
+        FMIndexFile.Writer writer = new FMIndexFile.Writer(tempFile);
+        try {
+            writer.writeHeader(fastaFile.lastModified(), fastaFile.length(), settingsHash);
+            writer.writeInt(samplingShift);
+            writer.writeInt(indexStringLength);
+            writer.writeIntArray(suffixArrayPrimary);
+            writer.writeIntArray(lessTablePrimary);
+            occurrenceTablePrimary.write(writer);
+            writer.writeBoolean(occurrenceTableReversed != null);
+            if (occurrenceTableReversed != null) {
+                writer.writeIntArray(lessTableReversed);
+                occurrenceTableReversed.write(writer);
             }
-
-            TReversed = null;
+            writer.writeIntArray(boundaries);
+            writer.writeStringArray(accessions);
+        } finally {
+            writer.close();
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            tempFile.delete();
+            throw new IOException("Impossible to delete the former index file " + indexFile.getAbsolutePath() + ".");
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            tempFile.delete();
+            throw new IOException("Impossible to write the index file " + indexFile.getAbsolutePath() + ".");
         }
-
-        T = null;
-        bwt = null;
     }
 
     /**
@@ -859,6 +1113,46 @@ public class FMIndex implements PeptideMapper {
 
         HashMap<String, HashMap<String, ArrayList<Integer>>> allMatches = new HashMap<String, HashMap<String, ArrayList<Integer>>>();
 
+        // traceback
+        for (MatrixContent content : getLastRow(peptide, seqMatchPref)) {
+            String currentPeptide = getMatchedSequence(content);
+            HashMap<String, ArrayList<Integer>> matches = new HashMap<String, ArrayList<Integer>>();
+
+            for (int j = content.left; j <= content.right; ++j) {
+                int pos = getTextPosition(j);
+                int index = binarySearch(boundaries, pos);
+                String accession = accessions[index];
+
+                ArrayList<Integer> indexes = matches.get(accession);
+                if (indexes == null) {
+                    indexes = new ArrayList<Integer>(1);
+                    matches.put(accession, indexes);
+                }
+                indexes.add(pos - boundaries[index]);
+            }
+
+            allMatches.put(currentPeptide, matches);
+        }
+        return allMatches;
+    }
+
+    @Override
+    public ProteinMapping getCompactProteinMapping(String peptide, SequenceMatchingPreferences seqMatchPref) {
+        return getProteinMapping(getLastRow(peptide, seqMatchPref));
+    }
+
+    /**
+     * Runs the backward search of a peptide and returns the last row of the
+     * backward search matrix. The row is empty if the peptide was not found
+     * or contains too many X.
+     *
+     * @param peptide the peptide
+     * @param seqMatchPref the sequence matching preferences
+     *
+     * @return the last row of the backward search matrix
+     */
+    private ArrayList<MatrixContent> getLastRow(String peptide, SequenceMatchingPreferences seqMatchPref) {
+
         String pep_rev = new StringBuilder(peptide).reverse().toString();
         int lenPeptide = peptide.length();
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
@@ -874,70 +1168,265 @@ public class FMIndex implements PeptideMapper {
             }
         }
 
-        if (countX <= maxX) {
-            backwardList[0].add(new MatrixContent(0, indexStringLength - 1, '\0', null, 0)); // L, R, char, previous content, num of X
-            for (int j = 0; j < lenPeptide; ++j) {
-                String combinationSequence = combinations.get(j);
-                ArrayList<MatrixContent> cell = backwardList[j];
-                for (MatrixContent content : cell) {
-                    int leftIndexOld = content.left;
-                    int rightIndexOld = content.right;
-                    int numX = content.numX;
-
-                    for (int c = 0; c < combinationSequence.length(); ++c) {
-                        int aminoAcid = combinationSequence.charAt(c);
-
-                        int lessValue = lessTablePrimary[aminoAcid];
-                        int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
-                        final int leftIndex = lessValue + range[0];
-                        final int rightIndex = lessValue + range[1] - 1;
-
-                        if (leftIndex <= rightIndex) {
-                            int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
-                            if (newNumX > maxX) {
-                                continue;
-                            }
-                            backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
+        if (countX > maxX) {
+            return backwardList[lenPeptide];
+        }
+
+        backwardList[0].add(new MatrixContent(0, indexStringLength - 1, '\0', null, 0)); // L, R, char, previous content, num of X
+        backwardSearch(combinations, backwardList, 0, lenPeptide, maxX);
+
+        return backwardList[lenPeptide];
+    }
+
+    /**
+     * Traces back the sequence matched by a content of the last row of the
+     * backward search.
+     *
+     * @param content the content of the last row
+     *
+     * @return the sequence matched
+     */
+    private static String getMatchedSequence(MatrixContent content) {
+        StringBuilder currentPeptide = new StringBuilder();
+        MatrixContent currentContent = content;
+        while (currentContent.previousContent != null) {
+            currentPeptide.append((char) currentContent.character);
+            currentContent = currentContent.previousContent;
+        }
+        return currentPeptide.toString();
+    }
+
+    /**
+     * Fills the rows of the backward search matrix following the given row.
+     *
+     * @param combinations the amino acids possible at every position of the
+     * reversed peptide
+     * @param backwardList the rows of the backward search matrix
+     * @param firstRow the last row already filled
+     * @param lenPeptide the length of the peptide
+     * @param maxX the maximal number of X allowed
+     */
+    private void backwardSearch(ArrayList<String> combinations, ArrayList<MatrixContent>[] backwardList, int firstRow, int lenPeptide, int maxX) {
+        for (int j = firstRow; j < lenPeptide; ++j) {
+            String combinationSequence = combinations.get(j);
+            ArrayList<MatrixContent> cell = backwardList[j];
+            for (MatrixContent content : cell) {
+                int leftIndexOld = content.left;
+                int rightIndexOld = content.right;
+                int numX = content.numX;
+
+                for (int c = 0; c < combinationSequence.length(); ++c) {
+                    int aminoAcid = combinationSequence.charAt(c);
+
+                    int lessValue = lessTablePrimary[aminoAcid];
+                    int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
+                    final int leftIndex = lessValue + range[0];
+                    final int rightIndex = lessValue + range[1] - 1;
+
+                    if (leftIndex <= rightIndex) {
+                        int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
+                        if (newNumX > maxX) {
+                            continue;
                         }
+                        backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
                     }
                 }
             }
+        }
+    }
 
-            // traceback
-            for (MatrixContent content : backwardList[lenPeptide]) {
-                MatrixContent currentContent = content;
-                String currentPeptide = "";
+    @Override
+    public ProteinMappingBatch getProteinMapping(Collection<String> peptideSequences, final SequenceMatchingPreferences seqMatchPref, int nThreads) {
 
-                while (currentContent.previousContent != null) {
-                    currentPeptide += (char) currentContent.character;
-                    currentContent = currentContent.previousContent;
+        final ProteinMappingBatch batch = new ProteinMappingBatch(peptideSequences);
+        final int nPeptides = batch.size();
+
+        // Sort the peptides by reversed sequence so that consecutive peptides share the rows of the backward search
+        final String[] reversedSequences = new String[nPeptides];
+        Integer[] order = new Integer[nPeptides];
+        for (int i = 0; i < nPeptides; ++i) {
+            reversedSequences[i] = new StringBuilder(batch.getPeptideSequence(i)).reverse().toString();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return reversedSequences[o1].compareTo(reversedSequences[o2]);
+            }
+        });
+        final int[] sortedIndexes = new int[nPeptides];
+        for (int i = 0; i < nPeptides; ++i) {
+            sortedIndexes[i] = order[i];
+        }
+
+        int nChunks = nThreads > 1 ? Math.min(nPeptides, BATCH_CHUNKS_PER_THREAD * nThreads) : 1;
+        if (nChunks <= 1) {
+            mapPeptides(batch, reversedSequences, sortedIndexes, 0, nPeptides, seqMatchPref);
+            return batch;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nChunks);
+            for (int i = 0; i < nChunks; ++i) {
+                final int start = (int) (((long) nPeptides) * i / nChunks);
+                final int end = (int) (((long) nPeptides) * (i + 1) / nChunks);
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        mapPeptides(batch, reversedSequences, sortedIndexes, start, end, seqMatchPref);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("Interrupted while mapping the peptides.", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
                 }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
 
-                int leftIndex = content.left;
-                int rightIndex = content.right;
+        return batch;
+    }
 
-                HashMap<String, ArrayList<Integer>> matches = new HashMap<String, ArrayList<Integer>>();
+    /**
+     * Maps a range of peptides of a batch. The peptides are processed by
+     * order of reversed sequence and the rows of the backward search shared
+     * with the previous peptide are reused.
+     *
+     * @param batch the batch
+     * @param reversedSequences the reversed peptide sequences
+     * @param sortedIndexes the index of the peptides sorted by reversed
+     * sequence
+     * @param start the first index in the sorted indexes, inclusive
+     * @param end the last index in the sorted indexes, exclusive
+     * @param seqMatchPref the sequence matching preferences
+     */
+    private void mapPeptides(ProteinMappingBatch batch, String[] reversedSequences, int[] sortedIndexes, int start, int end, SequenceMatchingPreferences seqMatchPref) {
 
-                for (int j = leftIndex; j <= rightIndex; ++j) {
-                    int pos = getTextPosition(j);
-                    int index = binarySearch(boundaries, pos);
-                    String accession = accessions[index];
+        ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[0];
+        String previousSequence = null;
+        int previousMaxX = 0;
+        int previousFirstX = 0;
 
-                    if (!matches.containsKey(accession)) {
-                        matches.put(accession, new ArrayList<Integer>());
-                    }
-                    matches.get(accession).add(pos - boundaries[index]);
+        for (int k = start; k < end; ++k) {
+
+            int peptideIndex = sortedIndexes[k];
+            String pepRev = reversedSequences[peptideIndex];
+            int lenPeptide = pepRev.length();
+            int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
+
+            int countX = 0;
+            for (int i = 0; i < lenPeptide; ++i) {
+                if (pepRev.charAt(i) == 'X') {
+                    ++countX;
                 }
+            }
+            if (countX > maxX) {
+                previousSequence = null;
+                continue;
+            }
 
-                allMatches.put(currentPeptide, matches);
+            ArrayList<String> combinations = createPeptideCombinations(pepRev, seqMatchPref);
+            int firstX = 0;
+            while (firstX < lenPeptide && combinations.get(firstX).indexOf('X') == -1) {
+                ++firstX;
             }
+
+            // Rows are shared as long as the sequences are identical, and only until the first possible X if the number of X allowed differs
+            int sharedRows = 0;
+            if (previousSequence != null) {
+                int limit = Math.min(lenPeptide, previousSequence.length());
+                while (sharedRows < limit && pepRev.charAt(sharedRows) == previousSequence.charAt(sharedRows)) {
+                    ++sharedRows;
+                }
+                if (maxX != previousMaxX) {
+                    sharedRows = Math.min(sharedRows, previousFirstX);
+                }
+            }
+
+            if (backwardList.length <= lenPeptide) {
+                backwardList = Arrays.copyOf(backwardList, lenPeptide + 1);
+            }
+            for (int i = previousSequence == null ? 0 : sharedRows + 1; i <= lenPeptide; ++i) {
+                if (backwardList[i] == null) {
+                    backwardList[i] = new ArrayList<MatrixContent>(10);
+                } else {
+                    backwardList[i].clear();
+                }
+            }
+            if (previousSequence == null) {
+                backwardList[0].add(new MatrixContent(0, indexStringLength - 1, '\0', null, 0));
+            }
+
+            backwardSearch(combinations, backwardList, sharedRows, lenPeptide, maxX);
+            batch.setMapping(peptideIndex, getProteinMapping(backwardList[lenPeptide]));
+
+            previousSequence = pepRev;
+            previousMaxX = maxX;
+            previousFirstX = firstX;
         }
-        return allMatches;
+    }
+
+    /**
+     * Returns the protein mapping corresponding to the last row of the
+     * backward search. Every range of the last row is traced back to the
+     * sequence matched and the positions of the matches are given by the
+     * sampled suffix array.
+     *
+     * @param lastRow the last row of the backward search
+     *
+     * @return the protein mapping
+     */
+    private ProteinMapping getProteinMapping(ArrayList<MatrixContent> lastRow) {
+
+        if (lastRow.isEmpty()) {
+            return ProteinMapping.EMPTY;
+        }
+
+        int nMatches = 0;
+        for (MatrixContent content : lastRow) {
+            nMatches += content.right - content.left + 1;
+        }
+
+        String[] matchedSequences = new String[lastRow.size()];
+        int[] matchedSequenceIndexes = new int[nMatches];
+        int[] proteinIndexes = new int[nMatches];
+        int[] positions = new int[nMatches];
+        int match = 0;
+
+        for (int i = 0; i < matchedSequences.length; ++i) {
+            MatrixContent content = lastRow.get(i);
+            matchedSequences[i] = getMatchedSequence(content);
+
+            for (int j = content.left; j <= content.right; ++j) {
+                int pos = getTextPosition(j);
+                int index = binarySearch(boundaries, pos);
+                matchedSequenceIndexes[match] = i;
+                proteinIndexes[match] = index;
+                positions[match] = pos - boundaries[index];
+                ++match;
+            }
+        }
+
+        return new ProteinMapping(accessions, matchedSequences, matchedSequenceIndexes, proteinIndexes, positions);
     }
 
     @Override
     public void emptyCache() {
-        // No cache here
+        tagCache.clear();
     }
 
     @Override
@@ -1645,7 +2134,8 @@ public class FMIndex implements PeptideMapper {
             occurrenceReversed = occurrenceTableReversed;
         }
 
-        ArrayList<MatrixContent> cached = isCached(refTagContent);
+        TagCache.Key cacheKey = getCacheKey(refTagContent, sequenceMatchingPreferences, massTolerance);
+        List<MatrixContent> cached = cacheKey == null ? null : tagCache.get(cacheKey);
         if (cached != null && cached.isEmpty()) {
             return allMatches;
         }
@@ -1731,7 +2221,9 @@ public class FMIndex implements PeptideMapper {
                 }
             }
 
-            cacheIt(refTagContent, cachePrimary);
+            if (cacheKey != null) {
+                tagCache.put(cacheKey, cachePrimary);
+            }
         }
 
         if (!matrix.isEmpty()) {
@@ -1776,9 +2268,9 @@ public class FMIndex implements PeptideMapper {
             int leftIndex = content.left;
             int rightIndex = content.right;
 
+            // the content at the root can be cached, its modifications are copied
             for (ModificationMatch modificationMatch : currentContent.modifications) {
-                modificationMatch.setModificationSite(modificationMatch.getModificationSite() + currentPeptide.length());
-                modifications.add(modificationMatch);
+                modifications.add(new ModificationMatch(modificationMatch.getTheoreticPtm(), modificationMatch.isVariable(), modificationMatch.getModificationSite() + currentPeptide.length()));
             }
 
             String peptide = currentPeptide + currentContent.peptideSequence;
@@ -1859,83 +2351,38 @@ public class FMIndex implements PeptideMapper {
     }
 
     /**
-     * Class for caching intermediate tag to proteome mapping results.
+     * Returns the key of the tag cache for the given tag components, null if
+     * the results for this tag cannot be cached.
+     *
+     * @param tagComponents the tag components
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param massTolerance the mass tolerance
+     *
+     * @return the key of the tag cache
      */
-    private class CacheElement {
-
-        Double massFirst;
-        String sequence;
-        Double massSecond;
-        ArrayList<MatrixContent> cachedPrimary;
-
-        /**
-         * Constructor
-         *
-         * @param massFirst
-         * @param sequence
-         * @param massSecond
-         * @param cachedPrimary
-         */
-        public CacheElement(Double massFirst, String sequence, Double massSecond, ArrayList<MatrixContent> cachedPrimary) {
-            this.sequence = sequence;
-            this.massFirst = massFirst;
-            this.massSecond = massSecond;
-            this.cachedPrimary = cachedPrimary;
+    private TagCache.Key getCacheKey(TagElement[] tagComponents, SequenceMatchingPreferences sequenceMatchingPreferences, double massTolerance) {
+        if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
+            return null;
         }
+        return new TagCache.Key(tagComponents[1].sequence, tagComponents[2].mass, tagComponents[1].xNumLimit, massTolerance, sequenceMatchingPreferences.getSequenceMatchingType().ordinal());
     }
 
     /**
-     * List of cached intermediate tag to proteome mapping results.
-     */
-    private final LinkedList<CacheElement> cache = new LinkedList<CacheElement>();
-
-    /**
-     * Adding intermediate tag to proteome mapping results into the cache.
+     * Returns the cache of intermediate tag to proteome mapping results.
      *
-     * @param tagComponents
-     * @return
+     * @return the cache of intermediate tag to proteome mapping results
      */
-    private synchronized ArrayList<MatrixContent> isCached(TagElement[] tagComponents) {
-        if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
-            return null;
-        }
-        ArrayList<MatrixContent> cached = null;
-
-        ListIterator<CacheElement> listIterator = cache.listIterator();
-        while (listIterator.hasNext()) {
-            CacheElement cacheElement = listIterator.next();
-            if (cacheElement.sequence.compareTo(tagComponents[1].sequence) == 0) {
-                if (Math.abs(cacheElement.massSecond - tagComponents[2].mass) < 1e-5) {
-                    cached = new ArrayList<MatrixContent>();
-                    for (MatrixContent matrixContent : cacheElement.cachedPrimary) {
-                        cached.add(new MatrixContent(matrixContent));
-                    }
-                    break;
-                }
-            }
-        }
-        return cached;
+    public TagCache getTagCache() {
+        return tagCache;
     }
 
     /**
-     * Caching intermediate results of previous tag to proteome matches.
+     * Sets the number of intermediate tag to proteome mapping results to
+     * cache. The content of the cache is discarded.
      *
-     * @param tagComponents
-     * @param cachedPrimary
+     * @param size the number of results to cache
      */
-    private synchronized void cacheIt(TagElement[] tagComponents, ArrayList<MatrixContent> cachedPrimary) {
-        if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
-            return;
-        }
-
-        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>();
-        for (MatrixContent matrixContent : cachedPrimary) {
-            cacheContentPrimary.add(new MatrixContent(matrixContent));
-        }
-        CacheElement cacheElement = new CacheElement(tagComponents[0].mass, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
-        cache.addFirst(cacheElement);
-        if (cache.size() > 50) {
-            cache.removeLast();
-        }
+    public void setTagCacheSize(int size) {
+        tagCache = new TagCache(size);
     }
 }
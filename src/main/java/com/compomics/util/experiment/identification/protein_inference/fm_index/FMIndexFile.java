@@ -0,0 +1,417 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import com.compomics.util.Util;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary file storing an FM index next to the FASTA file it was built from.
+ * The file starts with a header allowing to verify that it was written by the
+ * same version of the index for the same database and modification settings,
+ * followed by the components of the index. Files are written sequentially and
+ * read back using memory-mapped buffers.
+ *
+ * @author Marc Vaudel
+ */
+public class FMIndexFile {
+
+    /**
+     * The extension of the FM index files.
+     */
+    public static final String EXTENSION = ".fmi";
+    /**
+     * The version of the file format. Increase when the structure of the
+     * index changes.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Number written at the beginning of every file ("FMIX").
+     */
+    private static final int MAGIC_NUMBER = 0x464D4958;
+    /**
+     * The maximal size in bytes of the memory-mapped windows.
+     */
+    private static final int MAPPING_WINDOW = 1 << 26;
+
+    /**
+     * Returns the FM index file corresponding to the given FASTA file.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the FM index file
+     */
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getParent(), fastaFile.getName() + EXTENSION);
+    }
+
+    /**
+     * Writer for an FM index file.
+     */
+    public static class Writer {
+
+        /**
+         * The stream to write to.
+         */
+        private final DataOutputStream outputStream;
+
+        /**
+         * Constructor.
+         *
+         * @param file the file to write to
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while opening the file
+         */
+        public Writer(File file) throws IOException {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+        }
+
+        /**
+         * Writes the header of the file.
+         *
+         * @param fastaLastModified the last modification time of the FASTA
+         * file
+         * @param fastaLength the length of the FASTA file
+         * @param settingsHash the hash of the settings used to build the index
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void writeHeader(long fastaLastModified, long fastaLength, int settingsHash) throws IOException {
+            outputStream.writeInt(MAGIC_NUMBER);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(fastaLastModified);
+            outputStream.writeLong(fastaLength);
+            outputStream.writeInt(settingsHash);
+        }
+
+        /**
+         * Writes a boolean.
+         *
+         * @param value the value to write
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void writeBoolean(boolean value) throws IOException {
+            outputStream.writeByte(value ? 1 : 0);
+        }
+
+        /**
+         * Writes an integer.
+         *
+         * @param value the value to write
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void writeInt(int value) throws IOException {
+            outputStream.writeInt(value);
+        }
+
+        /**
+         * Writes an array of bytes preceded by its length.
+         *
+         * @param array the array to write
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void writeByteArray(byte[] array) throws IOException {
+            outputStream.writeInt(array.length);
+            outputStream.write(array);
+        }
+
+        /**
+         * Writes an array of integers preceded by its length.
+         *
+         * @param array the array to write
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void writeIntArray(int[] array) throws IOException {
+            outputStream.writeInt(array.length);
+            for (int value : array) {
+                outputStream.writeInt(value);
+            }
+        }
+
+        /**
+         * Writes an array of longs preceded by its length.
+         *
+         * @param array the array to write
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void writeLongArray(long[] array) throws IOException {
+            outputStream.writeInt(array.length);
+            for (long value : array) {
+                outputStream.writeLong(value);
+            }
+        }
+
+        /**
+         * Writes an array of strings preceded by its length. Every string is
+         * written as UTF-8 bytes preceded by the number of bytes.
+         *
+         * @param array the array to write
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void writeStringArray(String[] array) throws IOException {
+            outputStream.writeInt(array.length);
+            for (String value : array) {
+                writeByteArray(value.getBytes("UTF-8"));
+            }
+        }
+
+        /**
+         * Closes the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while closing the file
+         */
+        public void close() throws IOException {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Reader for an FM index file. The file is mapped in memory by windows of
+     * at most MAPPING_WINDOW bytes so that files larger than 2 GB can be read.
+     */
+    public static class Reader {
+
+        /**
+         * The file to read from.
+         */
+        private final RandomAccessFile randomAccessFile;
+        /**
+         * The channel of the file.
+         */
+        private final FileChannel channel;
+        /**
+         * The length of the file.
+         */
+        private final long fileLength;
+        /**
+         * The position in the file of the start of the current window.
+         */
+        private long windowStart = 0;
+        /**
+         * The current window.
+         */
+        private MappedByteBuffer buffer;
+
+        /**
+         * Constructor.
+         *
+         * @param file the file to read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while mapping the file
+         */
+        public Reader(File file) throws IOException {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            channel = randomAccessFile.getChannel();
+            fileLength = channel.size();
+            map(0);
+        }
+
+        /**
+         * Maps a new window starting at the given position in the file.
+         *
+         * @param position the position in the file
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while mapping the file
+         */
+        private void map(long position) throws IOException {
+            Util.unmap(buffer);
+            windowStart = position;
+            long size = Math.min(MAPPING_WINDOW, fileLength - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+
+        /**
+         * Makes sure that the given number of bytes can be read from the
+         * current window, remaps the file otherwise.
+         *
+         * @param nBytes the number of bytes to read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while mapping the file or if the end of the file is reached
+         */
+        private void ensure(int nBytes) throws IOException {
+            if (buffer.remaining() < nBytes) {
+                long position = windowStart + buffer.position();
+                if (fileLength - position < nBytes) {
+                    throw new IOException("Unexpected end of the FM index file.");
+                }
+                map(position);
+            }
+        }
+
+        /**
+         * Reads the header of the file and indicates whether it corresponds
+         * to the given database and settings.
+         *
+         * @param fastaLastModified the last modification time of the FASTA
+         * file
+         * @param fastaLength the length of the FASTA file
+         * @param settingsHash the hash of the settings used to build the index
+         *
+         * @return a boolean indicating whether the file can be used
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public boolean checkHeader(long fastaLastModified, long fastaLength, int settingsHash) throws IOException {
+            if (fileLength < 28 || readInt() != MAGIC_NUMBER || readInt() != VERSION) {
+                return false;
+            }
+            return readLong() == fastaLastModified
+                    && readLong() == fastaLength
+                    && readInt() == settingsHash;
+        }
+
+        /**
+         * Reads a boolean.
+         *
+         * @return the value read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public boolean readBoolean() throws IOException {
+            ensure(1);
+            return buffer.get() != 0;
+        }
+
+        /**
+         * Reads an integer.
+         *
+         * @return the value read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public int readInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        /**
+         * Reads a long.
+         *
+         * @return the value read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public long readLong() throws IOException {
+            ensure(8);
+            return buffer.getLong();
+        }
+
+        /**
+         * Reads an array of bytes.
+         *
+         * @return the array read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public byte[] readByteArray() throws IOException {
+            byte[] array = new byte[readInt()];
+            int offset = 0;
+            while (offset < array.length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), array.length - offset);
+                buffer.get(array, offset, n);
+                offset += n;
+            }
+            return array;
+        }
+
+        /**
+         * Reads an array of integers.
+         *
+         * @return the array read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public int[] readIntArray() throws IOException {
+            int[] array = new int[readInt()];
+            int offset = 0;
+            while (offset < array.length) {
+                ensure(4);
+                int n = Math.min(buffer.remaining() >> 2, array.length - offset);
+                buffer.asIntBuffer().get(array, offset, n);
+                buffer.position(buffer.position() + (n << 2));
+                offset += n;
+            }
+            return array;
+        }
+
+        /**
+         * Reads an array of longs.
+         *
+         * @return the array read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public long[] readLongArray() throws IOException {
+            long[] array = new long[readInt()];
+            int offset = 0;
+            while (offset < array.length) {
+                ensure(8);
+                int n = Math.min(buffer.remaining() >> 3, array.length - offset);
+                buffer.asLongBuffer().get(array, offset, n);
+                buffer.position(buffer.position() + (n << 3));
+                offset += n;
+            }
+            return array;
+        }
+
+        /**
+         * Reads an array of strings.
+         *
+         * @return the array read
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        public String[] readStringArray() throws IOException {
+            String[] array = new String[readInt()];
+            for (int i = 0; i < array.length; ++i) {
+                array[i] = new String(readByteArray(), "UTF-8");
+            }
+            return array;
+        }
+
+        /**
+         * Closes the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while closing the file
+         */
+        public void close() throws IOException {
+            Util.unmap(buffer);
+            buffer = null;
+            channel.close();
+            randomAccessFile.close();
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+
 /**
  * Rank as used in the FM index.
  *
@@ -32,6 +36,12 @@ public class Rank {
      */
     private final int mask = 63;
 
+    /**
+     * Number of positions of the text processed by a task when the rank is
+     * built in parallel. Must be a multiple of 256.
+     */
+    private static final int BLOCK_SIZE = 1 << 22;
+
     /**
      * Constructor.
      *
@@ -39,37 +49,111 @@ public class Rank {
      * @param aAlphabet the alphabet
      */
     public Rank(byte[] text, long[] aAlphabet) {
+        this(text, aAlphabet, null);
+    }
+
+    /**
+     * Constructor. If an executor is given, blocks of the text are processed
+     * in parallel.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     * @param executor the executor to use to process blocks of the text in
+     * parallel, ignored if null
+     */
+    public Rank(final byte[] text, final long[] aAlphabet, ExecutorService executor) {
         length = text.length;
 
         int field_len = (length >> 6) + 1;
         bitfield = new long[field_len];
         sums = new int[(length >> 8) + 1];
-        sums[0] = 0;
         sumsSecondLevel = new byte[field_len];
-        sumsSecondLevel[0] = 0;
+        final int[] blockCounts = new int[sums.length];
 
-        for (int i = 0; i < length; ++i) {
-            int cell = i >> shift;
-            int pos = i & mask;
-            if (pos == 0) {
-                bitfield[cell] = 0;
+        if (executor == null || length <= BLOCK_SIZE) {
+            fillBitfield(text, aAlphabet, 0, length, blockCounts);
+        } else {
+            ArrayList<ClaimableTask> tasks = new ArrayList<ClaimableTask>();
+            for (int start = 0; start < length; start += BLOCK_SIZE) {
+                final int blockStart = start;
+                final int blockEnd = Math.min(start + BLOCK_SIZE, length);
+                ClaimableTask task = new ClaimableTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillBitfield(text, aAlphabet, blockStart, blockEnd, blockCounts);
+                    }
+                });
+                executor.execute(task);
+                tasks.add(task);
             }
-            long bit = (aAlphabet[text[i] >> shift] >> (text[i] & mask)) & 1L;
-            bitfield[cell] |= (bit << pos);
-
-            if (pos == 0 && i != 0) {
-                if ((i & 255) == 0) {
-                    sumsSecondLevel[cell] = 0;
-                } else {
-                    sumsSecondLevel[cell] = (byte) (sumsSecondLevel[cell - 1] + (byte) (Long.bitCount(bitfield[cell - 1])));
-                }
+            for (ClaimableTask task : tasks) {
+                task.join();
+            }
+        }
+
+        sums[0] = 0;
+        for (int i = 1; i <= (length - 1) >> 8; ++i) {
+            sums[i] = sums[i - 1] + blockCounts[i - 1];
+        }
+    }
+
+    /**
+     * Fills the bit field and the second level sums for the given range of
+     * the text and counts the ones of every block of 256 positions.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     * @param start the start of the range, must be a multiple of 256
+     * @param end the end of the range (exclusive)
+     * @param blockCounts the number of ones per block of 256 positions
+     */
+    private void fillBitfield(byte[] text, long[] aAlphabet, int start, int end, int[] blockCounts) {
+        for (int cell = start >> shift; (cell << shift) < end; ++cell) {
+            int from = cell << shift;
+            int to = Math.min(from + 64, end);
+            long word = 0;
+            for (int i = from; i < to; ++i) {
+                long bit = (aAlphabet[text[i] >> shift] >> (text[i] & mask)) & 1L;
+                word |= (bit << (i & mask));
             }
-            if (((i & 255) == 0) && i != 0) {
-                sums[i >> 8] = sums[(i >> 8) - 1] + (sumsSecondLevel[cell - 1] & 0xFF) + Long.bitCount(bitfield[cell - 1]);
+            bitfield[cell] = word;
+            if ((cell & 3) != 0) {
+                sumsSecondLevel[cell] = (byte) (sumsSecondLevel[cell - 1] + (byte) (Long.bitCount(bitfield[cell - 1])));
             }
+            blockCounts[cell >> 2] += Long.bitCount(word);
         }
     }
 
+    /**
+     * Constructor reading a rank previously written to an FM index file.
+     *
+     * @param reader the reader of the FM index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public Rank(FMIndexFile.Reader reader) throws IOException {
+        length = reader.readInt();
+        bitfield = reader.readLongArray();
+        sums = reader.readIntArray();
+        sumsSecondLevel = reader.readByteArray();
+    }
+
+    /**
+     * Writes the rank to an FM index file.
+     *
+     * @param writer the writer of the FM index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(FMIndexFile.Writer writer) throws IOException {
+        writer.writeInt(length);
+        writer.writeLongArray(bitfield);
+        writer.writeIntArray(sums);
+        writer.writeByteArray(sumsSecondLevel);
+    }
+
     /**
      * Returns the rank.
      *
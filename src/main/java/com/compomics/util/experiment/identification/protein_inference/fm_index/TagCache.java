@@ -0,0 +1,279 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of the intermediate results of the mapping of
+ * tags of the type mass - sequence - mass. The cache is split in segments
+ * locked independently, every segment evicting its least recently used
+ * entries. Cached entries are unmodifiable and shared between the threads
+ * mapping tags.
+ *
+ * @author Marc Vaudel
+ */
+public class TagCache {
+
+    /**
+     * The default number of entries in the cache.
+     */
+    public static final int DEFAULT_SIZE = 50;
+    /**
+     * The maximal number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+    /**
+     * Factor used to quantize the masses, corresponds to the 1e-5 tolerance
+     * used to compare the masses of tags.
+     */
+    private static final double MASS_QUANTIZATION = 1e5;
+    /**
+     * The segments of the cache.
+     */
+    private final Segment[] segments;
+    /**
+     * The number of cache hits.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * The number of cache misses.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * The number of entries evicted from the cache.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+    /**
+     * The number of entries in the cache.
+     */
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param size the maximal number of entries in the cache
+     */
+    public TagCache(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative cache size: " + size + ".");
+        }
+        this.size = size;
+        int nSegments = Math.max(1, Math.min(MAX_SEGMENTS, size / 4));
+        segments = new Segment[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            int segmentSize = size / nSegments + (i < size % nSegments ? 1 : 0);
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Returns the maximal number of entries in the cache.
+     *
+     * @return the maximal number of entries in the cache
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the segment where the given key is stored.
+     *
+     * @param key the key
+     *
+     * @return the segment where the given key is stored
+     */
+    private Segment getSegment(Key key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * Returns the cached content for the given key, null if not in cache.
+     *
+     * @param key the key
+     *
+     * @return the cached content
+     */
+    public List<MatrixContent> get(Key key) {
+        Segment segment = getSegment(key);
+        List<MatrixContent> result;
+        synchronized (segment) {
+            result = segment.get(key);
+        }
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Adds content to the cache. The content is copied to an unmodifiable
+     * list, the matrix contents are not copied and should not be modified
+     * afterwards.
+     *
+     * @param key the key
+     * @param content the content
+     */
+    public void put(Key key, List<MatrixContent> content) {
+        if (size == 0) {
+            return;
+        }
+        List<MatrixContent> cachedContent = Collections.unmodifiableList(new ArrayList<MatrixContent>(content));
+        Segment segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, cachedContent);
+        }
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted from the cache.
+     *
+     * @return the number of entries evicted from the cache
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Segment of the cache, a map in access order evicting its eldest entry
+     * when full. Access must be synchronized on the segment.
+     */
+    private class Segment extends LinkedHashMap<Key, List<MatrixContent>> {
+
+        /**
+         * The maximal number of entries in the segment.
+         */
+        private final int segmentSize;
+
+        /**
+         * Constructor.
+         *
+         * @param segmentSize the maximal number of entries in the segment
+         */
+        Segment(int segmentSize) {
+            super(16, 0.75f, true);
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, List<MatrixContent>> eldest) {
+            if (size() > segmentSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Key of the cache: the sequence and the quantized mass of the tag
+     * together with the parameters influencing the mapping.
+     */
+    public static class Key {
+
+        /**
+         * The amino acid sequence of the tag.
+         */
+        private final String sequence;
+        /**
+         * The quantized mass of the tag.
+         */
+        private final long mass;
+        /**
+         * The maximal number of X allowed in the sequence.
+         */
+        private final int xNumLimit;
+        /**
+         * The quantized mass tolerance.
+         */
+        private final long massTolerance;
+        /**
+         * The ordinal of the sequence matching type.
+         */
+        private final int matchingType;
+        /**
+         * The hash code of the key.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param sequence the amino acid sequence of the tag
+         * @param mass the mass of the tag
+         * @param xNumLimit the maximal number of X allowed in the sequence
+         * @param massTolerance the mass tolerance
+         * @param matchingType the ordinal of the sequence matching type
+         */
+        public Key(String sequence, double mass, int xNumLimit, double massTolerance, int matchingType) {
+            this.sequence = sequence;
+            this.mass = Math.round(mass * MASS_QUANTIZATION);
+            this.xNumLimit = xNumLimit;
+            this.massTolerance = Math.round(massTolerance * MASS_QUANTIZATION);
+            this.matchingType = matchingType;
+            int hash = sequence.hashCode();
+            hash = 31 * hash + (int) (this.mass ^ (this.mass >>> 32));
+            hash = 31 * hash + xNumLimit;
+            hash = 31 * hash + (int) (this.massTolerance ^ (this.massTolerance >>> 32));
+            hash = 31 * hash + matchingType;
+            hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mass == other.mass
+                    && xNumLimit == other.xNumLimit
+                    && massTolerance == other.massTolerance
+                    && matchingType == other.matchingType
+                    && sequence.equals(other.sequence);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Wavelet tree.
@@ -71,6 +73,11 @@ public class WaveletTree {
      * Mask for fast bitwise modulo operations.
      */
     private final int mask = 63;
+    /**
+     * Minimal length of a text for its subtree to be built in a separate task
+     * when building the tree in parallel.
+     */
+    private static final int PARALLEL_TEXT_LENGTH = 1 << 20;
 
     /**
      * Class for huffman nodes.
@@ -122,7 +129,22 @@ public class WaveletTree {
      * @param hasPTMatTerminus indicates how to handle / sign
      */
     public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, boolean hasPTMatTerminus) {
-        prepareWaveletTree(text, aAlphabet, waitingHandler, hasPTMatTerminus);
+        prepareWaveletTree(text, aAlphabet, waitingHandler, hasPTMatTerminus, null);
+    }
+
+    /**
+     * Constructor. If an executor is given, the subtrees and the ranks of
+     * large texts are built in parallel.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param hasPTMatTerminus indicates how to handle / sign
+     * @param executor the executor to use for the parallel construction,
+     * ignored if null
+     */
+    public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, boolean hasPTMatTerminus, ExecutorService executor) {
+        prepareWaveletTree(text, aAlphabet, waitingHandler, hasPTMatTerminus, executor);
     }
 
     /**
@@ -133,7 +155,62 @@ public class WaveletTree {
      * @param waitingHandler the waiting handler
      */
     public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler) {
-        prepareWaveletTree(text, aAlphabet, waitingHandler, false);
+        prepareWaveletTree(text, aAlphabet, waitingHandler, false, null);
+    }
+
+    /**
+     * Constructor reading a wavelet tree previously written to an FM index
+     * file.
+     *
+     * @param reader the reader of the FM index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public WaveletTree(FMIndexFile.Reader reader) throws IOException {
+        rank = new Rank(reader);
+        alphabet = reader.readLongArray();
+        alphabetDirections = reader.readLongArray();
+        alphabetExcluded = reader.readLongArray();
+        lenAlphabet = reader.readInt();
+        firstChar = reader.readInt();
+        lastChar = reader.readInt();
+        lenText = reader.readInt();
+        continueLeftRangeQuery = reader.readBoolean();
+        continueRightRangeQuery = reader.readBoolean();
+        charAlphabetField = reader.readByteArray();
+        leftChild = reader.readBoolean() ? new WaveletTree(reader) : null;
+        rightChild = reader.readBoolean() ? new WaveletTree(reader) : null;
+    }
+
+    /**
+     * Writes the wavelet tree and its children to an FM index file.
+     *
+     * @param writer the writer of the FM index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(FMIndexFile.Writer writer) throws IOException {
+        rank.write(writer);
+        writer.writeLongArray(alphabet);
+        writer.writeLongArray(alphabetDirections);
+        writer.writeLongArray(alphabetExcluded);
+        writer.writeInt(lenAlphabet);
+        writer.writeInt(firstChar);
+        writer.writeInt(lastChar);
+        writer.writeInt(lenText);
+        writer.writeBoolean(continueLeftRangeQuery);
+        writer.writeBoolean(continueRightRangeQuery);
+        writer.writeByteArray(charAlphabetField);
+        writer.writeBoolean(leftChild != null);
+        if (leftChild != null) {
+            leftChild.write(writer);
+        }
+        writer.writeBoolean(rightChild != null);
+        if (rightChild != null) {
+            rightChild.write(writer);
+        }
     }
 
     /**
@@ -143,8 +220,10 @@ public class WaveletTree {
      * @param aAlphabet the alphabet
      * @param waitingHandler the waiting handler
      * @param hasPTMatTerminus indicates how to handle / sign
+     * @param executor the executor to use for the parallel construction,
+     * ignored if null
      */
-    private void prepareWaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, boolean hasPTMatTerminus) {
+    private void prepareWaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, boolean hasPTMatTerminus, ExecutorService executor) {
 
         int[] counts = new int[128];
         for (byte c : text) {
@@ -165,7 +244,7 @@ public class WaveletTree {
             huffmanNodes.add(new HuffmanNode(first, second));
         }
 
-        createWaveletTreeHuffman(text, waitingHandler, huffmanNodes.get(0), hasPTMatTerminus);
+        createWaveletTreeHuffman(text, waitingHandler, huffmanNodes.get(0), hasPTMatTerminus, executor);
     }
 
     /**
@@ -177,7 +256,21 @@ public class WaveletTree {
      * @param hasPTMatTerminus if there is a PTM at the terminus
      */
     public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, boolean hasPTMatTerminus) {
-        createWaveletTreeHuffman(text, waitingHandler, root, hasPTMatTerminus);
+        createWaveletTreeHuffman(text, waitingHandler, root, hasPTMatTerminus, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param waitingHandler the waiting handler
+     * @param root the root
+     * @param hasPTMatTerminus if there is a PTM at the terminus
+     * @param executor the executor to use for the parallel construction,
+     * ignored if null
+     */
+    public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, boolean hasPTMatTerminus, ExecutorService executor) {
+        createWaveletTreeHuffman(text, waitingHandler, root, hasPTMatTerminus, executor);
     }
 
     /**
@@ -189,6 +282,21 @@ public class WaveletTree {
      * @param hasPTMatTerminus if there is a PTM at the terminus
      */
     public void createWaveletTreeHuffman(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, boolean hasPTMatTerminus) {
+        createWaveletTreeHuffman(text, waitingHandler, root, hasPTMatTerminus, null);
+    }
+
+    /**
+     * Create wavelet tree huffman. If an executor is given, the left subtree
+     * of a large text is built in parallel to the right subtree.
+     *
+     * @param text the text
+     * @param waitingHandler the waiting handler
+     * @param root the root
+     * @param hasPTMatTerminus if there is a PTM at the terminus
+     * @param executor the executor to use for the parallel construction,
+     * ignored if null
+     */
+    private void createWaveletTreeHuffman(byte[] text, final WaitingHandler waitingHandler, final HuffmanNode root, final boolean hasPTMatTerminus, final ExecutorService executor) {
 
         alphabet[0] = root.alphabet[0];
         alphabet[1] = root.alphabet[1];
@@ -211,7 +319,7 @@ public class WaveletTree {
         continueRightRangeQuery = (((alphabet_right[0] & (~alphabetExcluded[0])) + (alphabet_right[1] & (~alphabetExcluded[1]))) > 0);
 
         lenText = text.length;
-        rank = new Rank(text, alphabet_right);
+        rank = new Rank(text, alphabet_right, executor);
         leftChild = null;
         rightChild = null;
 
@@ -227,6 +335,7 @@ public class WaveletTree {
         int len_alphabet_left = Long.bitCount(alphabet_left[0]) + Long.bitCount(alphabet_left[1]);
         int len_alphabet_right = Long.bitCount(alphabet_right[0]) + Long.bitCount(alphabet_right[1]);
 
+        ClaimableTask leftTask = null;
         if (len_alphabet_left > 1) {
             int len_text_left = 0;
             for (int i = 0; i < text.length; ++i) {
@@ -245,10 +354,24 @@ public class WaveletTree {
                         text_left[j++] = text[i];
                     }
                 }
-                leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, hasPTMatTerminus);
+                if (executor != null && len_text_left > PARALLEL_TEXT_LENGTH) {
+                    final byte[] leftText = text_left;
+                    leftTask = new ClaimableTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            leftChild = new WaveletTree(leftText, waitingHandler, root.leftChild, hasPTMatTerminus, executor);
+                        }
+                    });
+                    executor.execute(leftTask);
+                } else {
+                    leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, hasPTMatTerminus, executor);
+                }
             }
         }
         if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            if (leftTask != null) {
+                leftTask.join();
+            }
             return;
         }
 
@@ -270,9 +393,12 @@ public class WaveletTree {
                         text_right[j++] = text[i];
                     }
                 }
-                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, hasPTMatTerminus);
+                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, hasPTMatTerminus, executor);
             }
         }
+        if (leftTask != null) {
+            leftTask.join();
+        }
     }
 
     /**
@@ -0,0 +1,59 @@
+package com.compomics.util.experiment.identification.protein_inference.proteintree;
+
+import com.compomics.util.db.ObjectSizes;
+import com.compomics.util.db.SizeEstimator;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Estimates the memory retained by a node of the protein tree, including its
+ * subtree.
+ *
+ * @author Marc Vaudel
+ */
+public class NodeSizeEstimator implements SizeEstimator<Node> {
+
+    @Override
+    public Class<Node> getObjectClass() {
+        return Node.class;
+    }
+
+    @Override
+    public long getSize(Node node) {
+        long size = ObjectSizes.align(ObjectSizes.OBJECT_HEADER + 8 + 3 * ObjectSizes.REFERENCE);
+        size += getMappingSize(node.getAccessions());
+        size += getMappingSize(node.getTermini());
+        HashMap<Character, Node> subtree = node.getSubtree();
+        if (subtree != null) {
+            // the characters are cached by the virtual machine
+            size += ObjectSizes.getMapSize(subtree);
+            for (Node subNode : subtree.values()) {
+                size += getSize(subNode);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the estimated size of a map of protein accession to indexes.
+     *
+     * @param mapping the mapping
+     *
+     * @return the estimated size of the mapping
+     */
+    private long getMappingSize(HashMap<String, ArrayList<Integer>> mapping) {
+        if (mapping == null) {
+            return 0;
+        }
+        long size = ObjectSizes.getMapSize(mapping);
+        for (String accession : mapping.keySet()) {
+            size += ObjectSizes.getStringSize(accession);
+            ArrayList<Integer> indexes = mapping.get(accession);
+            size += ObjectSizes.getListSize(indexes);
+            if (indexes != null) {
+                size += ((long) indexes.size()) * ObjectSizes.BOXED_PRIMITIVE;
+            }
+        }
+        return size;
+    }
+}
@@ -16,6 +16,8 @@ import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMappingBatch;
 import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences.MatchingType;
@@ -28,13 +30,17 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class sorts the proteins into groups.
@@ -128,6 +134,10 @@ public class ProteinTree implements PeptideMapper {
      * The number of proteins which should be imported at a time.
      */
     public static final int proteinBatchSize = 100;
+    /**
+     * The number of chunks per thread a batch of peptides is split into.
+     */
+    private static final int batchChunksPerThread = 4;
     /**
      * Cache for the protein lengths.
      */
@@ -955,7 +965,7 @@ public class ProteinTree implements PeptideMapper {
             time0 = System.currentTimeMillis();
         }
 
-        HashMap<String, HashMap<String, ArrayList<Integer>>> result = getProteinMapping(peptideSequence, proteinInferencePreferences, false);
+        HashMap<String, HashMap<String, ArrayList<Integer>>> result = getProteinMapping(peptideSequence, proteinInferencePreferences, false, null);
 
         if (debugSpeed) {
             long time1 = System.currentTimeMillis();
@@ -968,6 +978,103 @@ public class ProteinTree implements PeptideMapper {
         return result;
     }
 
+    @Override
+    public ProteinMapping getCompactProteinMapping(String peptideSequence, SequenceMatchingPreferences proteinInferencePreferences)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        return ProteinMapping.fromMap(getProteinMapping(peptideSequence, proteinInferencePreferences));
+    }
+
+    @Override
+    public ProteinMappingBatch getProteinMapping(Collection<String> peptideSequences, final SequenceMatchingPreferences proteinInferencePreferences, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        final ProteinMappingBatch batch = new ProteinMappingBatch(peptideSequences);
+        int nPeptides = batch.size();
+        int nChunks = nThreads > 1 ? Math.min(nPeptides, batchChunksPerThread * nThreads) : 1;
+
+        if (nChunks <= 1) {
+            mapPeptides(batch, 0, nPeptides, proteinInferencePreferences);
+            return batch;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nChunks);
+            for (int i = 0; i < nChunks; i++) {
+                final int start = (int) (((long) nPeptides) * i / nChunks);
+                final int end = (int) (((long) nPeptides) * (i + 1) / nChunks);
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        mapPeptides(batch, start, end, proteinInferencePreferences);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof SQLException) {
+                        throw (SQLException) cause;
+                    } else if (cause instanceof ClassNotFoundException) {
+                        throw (ClassNotFoundException) cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return batch;
+    }
+
+    /**
+     * Maps a range of the peptides of a batch. The peptides being sorted, the
+     * nodes are shared between consecutive peptides starting with the same
+     * tag.
+     *
+     * @param batch the batch
+     * @param start the index of the first peptide, inclusive
+     * @param end the index of the last peptide, exclusive
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    private void mapPeptides(ProteinMappingBatch batch, int start, int end, SequenceMatchingPreferences sequenceMatchingPreferences) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        int initialTagSize = componentsFactory.getInitialSize();
+        HashMap<String, Node> batchNodes = new HashMap<String, Node>();
+        String currentTag = null;
+
+        for (int i = start; i < end; i++) {
+            String peptideSequence = batch.getPeptideSequence(i);
+            String tag = peptideSequence.length() < initialTagSize ? peptideSequence : peptideSequence.substring(0, initialTagSize);
+            if (!tag.equals(currentTag)) {
+                batchNodes.clear();
+                currentTag = tag;
+            }
+            batch.setMapping(i, ProteinMapping.fromMap(getProteinMapping(peptideSequence, sequenceMatchingPreferences, false, batchNodes)));
+        }
+    }
+
     /**
      * Returns the protein mapping in the sequence factory for the given peptide
      * sequence. peptide sequence &gt; protein accession &gt; index in the
@@ -977,6 +1084,9 @@ public class ProteinTree implements PeptideMapper {
      * @param sequenceMatchingPreferences the sequence matching preferences
      * @param reversed boolean indicating whether we are looking at a reversed
      * peptide sequence
+     * @param batchNodes the nodes already used when mapping a batch of
+     * peptides, null if not mapping a batch. The peptide caches are not used
+     * for batches.
      *
      * @return the peptide to protein mapping: Accession &gt; list of indexes
      * where the peptide can be found on the sequence
@@ -990,24 +1100,26 @@ public class ProteinTree implements PeptideMapper {
      * @throws SQLException if an SQLException exception thrown whenever a
      * problem occurred while interacting with the tree database.
      */
-    private HashMap<String, HashMap<String, ArrayList<Integer>>> getProteinMapping(String peptideSequence, SequenceMatchingPreferences sequenceMatchingPreferences, boolean reversed) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+    private HashMap<String, HashMap<String, ArrayList<Integer>>> getProteinMapping(String peptideSequence, SequenceMatchingPreferences sequenceMatchingPreferences, boolean reversed, HashMap<String, Node> batchNodes) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        boolean useQueryCache = useCache && batchNodes == null;
 
-        if (useCache && this.cacheSequenceMatchingPreferences != null && !this.cacheSequenceMatchingPreferences.isSameAs(sequenceMatchingPreferences)) {
+        if (useQueryCache && this.cacheSequenceMatchingPreferences != null && !this.cacheSequenceMatchingPreferences.isSameAs(sequenceMatchingPreferences)) {
             emptyCache();
             this.cacheSequenceMatchingPreferences = sequenceMatchingPreferences;
         }
 
         HashMap<String, HashMap<String, ArrayList<Integer>>> result = null;
-        if (useCache) {
+        if (useQueryCache) {
             result = lastQueriedPeptidesCache.get(peptideSequence);
         }
 
         if (result == null) {
-            if (useCache) {
+            if (useQueryCache) {
                 result = lastSlowQueriedPeptidesCache.get(peptideSequence);
             }
             if (result == null) {
-                if (sequenceFactory.isDefaultReversed() && useCache) {
+                if (sequenceFactory.isDefaultReversed() && useQueryCache) {
                     String reversedSequence = SequenceFactory.reverseSequence(peptideSequence);
                     result = lastQueriedPeptidesCache.get(reversedSequence);
                     if (result == null) {
@@ -1035,7 +1147,7 @@ public class ProteinTree implements PeptideMapper {
                 HashSet<String> initialTags = getInitialTags(peptideAminoAcidSequence, sequenceMatchingPreferences, limitX);
 
                 for (String tag : initialTags) {
-                    Node node = getNode(tag);
+                    Node node = getNode(tag, batchNodes);
                     if (node != null) {
                         HashMap<String, HashMap<String, ArrayList<Integer>>> tagResults = node.getProteinMapping(peptideAminoAcidSequence, tag, sequenceMatchingPreferences);
                         for (String tagSequence : tagResults.keySet()) {
@@ -1067,7 +1179,7 @@ public class ProteinTree implements PeptideMapper {
                     String reversedSequence = SequenceFactory.reverseSequence(peptideSequence);
                     HashMap<String, HashMap<String, ArrayList<Integer>>> reversedResult;
                     if (!reversedSequence.equals(peptideSequence)) {
-                        reversedResult = getProteinMapping(reversedSequence, sequenceMatchingPreferences, true);
+                        reversedResult = getProteinMapping(reversedSequence, sequenceMatchingPreferences, true, batchNodes);
                         reversedResult = getReversedResults(reversedResult);
                     } else {
                         reversedResult = getReversedResults(result);
@@ -1082,7 +1194,7 @@ public class ProteinTree implements PeptideMapper {
                     }
                 }
 
-                if (!reversed && useCache) {
+                if (!reversed && useQueryCache) {
                     long timeEnd = System.currentTimeMillis();
                     long queryTime = timeEnd - timeStart;
                     addToCache(peptideSequence, result, queryTime);
@@ -1379,6 +1491,41 @@ public class ProteinTree implements PeptideMapper {
         return results;
     }
 
+    /**
+     * Returns a node related to a tag, looking first in the nodes of the
+     * batch. Null if not found.
+     *
+     * @param tag the tag of interest
+     * @param batchNodes the nodes already used for the batch, null if not
+     * mapping a batch
+     *
+     * @return the corresponding node
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    private Node getNode(String tag, HashMap<String, Node> batchNodes) throws SQLException, ClassNotFoundException, IOException, InterruptedException {
+
+        if (batchNodes == null) {
+            return getNode(tag);
+        }
+
+        Node result = batchNodes.get(tag);
+
+        if (result == null && !batchNodes.containsKey(tag)) {
+            result = getNode(tag);
+            batchNodes.put(tag, result);
+        }
+
+        return result;
+    }
+
     /**
      * Returns a node related to a tag and updates the cache. Null if not found.
      *
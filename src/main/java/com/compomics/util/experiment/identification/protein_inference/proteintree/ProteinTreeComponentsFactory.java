@@ -69,6 +69,7 @@ public class ProteinTreeComponentsFactory {
         objectsCache.setAutomatedMemoryManagement(false); // Change this to true if large objects are stored
         objectsCache.setCacheSize(1000);
         objectsCache.setBatchSize(100); // @TODO: why 100 and not higher?
+        objectsCache.setSizeEstimator(new NodeSizeEstimator());
     }
 
     /**
@@ -169,6 +170,7 @@ public class ProteinTreeComponentsFactory {
         if (objectsDB != null) {
             objectsDB.close();
             objectsCache = new ObjectsCache();
+            objectsCache.setSizeEstimator(new NodeSizeEstimator());
         }
     }
 
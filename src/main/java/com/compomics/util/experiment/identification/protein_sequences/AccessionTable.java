@@ -0,0 +1,434 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.Util;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Table of the accessions of a FASTA file sorted by accession, with the
+ * position of every protein in the file and whether it is a decoy. The table
+ * is stored in buffers which can be written to and read from a file, memory
+ * mapping large tables, and queried by binary search without creating
+ * objects. Once created the table cannot be modified and can be queried
+ * concurrently.
+ *
+ * @author Marc Vaudel
+ */
+public class AccessionTable {
+
+    /**
+     * The encoding of the accessions.
+     */
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+    /**
+     * The size in bytes above which a table read from a file is memory mapped
+     * instead of being loaded in memory.
+     */
+    private static final long MAPPING_THRESHOLD = 16 * 1024 * 1024;
+    /**
+     * The number of accessions.
+     */
+    private final int size;
+    /**
+     * The offsets of the accessions in the pool, the accession i ends at the
+     * offset of accession i + 1.
+     */
+    private final ByteBuffer accessionOffsets;
+    /**
+     * Int view of the offsets of the accessions.
+     */
+    private final IntBuffer accessionOffsetsView;
+    /**
+     * The positions of the proteins in the FASTA file.
+     */
+    private final ByteBuffer fileIndexes;
+    /**
+     * Long view of the positions of the proteins.
+     */
+    private final LongBuffer fileIndexesView;
+    /**
+     * The bits indicating the decoy proteins.
+     */
+    private final ByteBuffer decoys;
+    /**
+     * Long view of the bits indicating the decoy proteins.
+     */
+    private final LongBuffer decoysView;
+    /**
+     * The encoded accessions in sorted order.
+     */
+    private final ByteBuffer pool;
+
+    /**
+     * Constructor.
+     *
+     * @param size the number of accessions
+     * @param accessionOffsets the offsets of the accessions in the pool
+     * @param fileIndexes the positions of the proteins in the FASTA file
+     * @param decoys the bits indicating the decoy proteins
+     * @param pool the encoded accessions in sorted order
+     */
+    private AccessionTable(int size, ByteBuffer accessionOffsets, ByteBuffer fileIndexes, ByteBuffer decoys, ByteBuffer pool) {
+        this.size = size;
+        this.accessionOffsets = accessionOffsets;
+        this.accessionOffsetsView = accessionOffsets.asIntBuffer();
+        this.fileIndexes = fileIndexes;
+        this.fileIndexesView = fileIndexes.asLongBuffer();
+        this.decoys = decoys;
+        this.decoysView = decoys.asLongBuffer();
+        this.pool = pool;
+    }
+
+    /**
+     * Builds a table from the maps of a FASTA index.
+     *
+     * @param indexes the positions of the proteins in the FASTA file indexed
+     * by accession
+     * @param decoyAccessions the decoy accessions
+     *
+     * @return the table
+     */
+    public static AccessionTable build(HashMap<String, Long> indexes, HashSet<String> decoyAccessions) {
+
+        int size = indexes.size();
+        String[] accessions = indexes.keySet().toArray(new String[size]);
+        final byte[][] encodedAccessions = new byte[size][];
+        Integer[] order = new Integer[size];
+        long poolLength = 0;
+        for (int i = 0; i < size; i++) {
+            encodedAccessions[i] = accessions[i].getBytes(ENCODING);
+            poolLength += encodedAccessions[i].length;
+            order[i] = i;
+        }
+        if (poolLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Accessions too long to be stored in an accession table.");
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareBytes(encodedAccessions[o1], encodedAccessions[o2]);
+            }
+        });
+
+        ByteBuffer accessionOffsets = ByteBuffer.allocate(4 * (size + 1));
+        ByteBuffer fileIndexes = ByteBuffer.allocate(8 * size);
+        long[] decoyBits = new long[getNDecoyWords(size)];
+        ByteBuffer pool = ByteBuffer.allocate((int) poolLength);
+        for (int i = 0; i < size; i++) {
+            int index = order[i];
+            String accession = accessions[index];
+            accessionOffsets.putInt(pool.position());
+            fileIndexes.putLong(indexes.get(accession));
+            pool.put(encodedAccessions[index]);
+            if (decoyAccessions.contains(accession)) {
+                decoyBits[i >> 6] |= 1L << (i & 63);
+            }
+        }
+        accessionOffsets.putInt(pool.position());
+        ByteBuffer decoys = ByteBuffer.allocate(8 * decoyBits.length);
+        decoys.asLongBuffer().put(decoyBits);
+        accessionOffsets.flip();
+        fileIndexes.flip();
+        pool.flip();
+
+        return new AccessionTable(size, accessionOffsets, fileIndexes, decoys, pool);
+    }
+
+    /**
+     * Returns the number of long words needed to store the decoy bits.
+     *
+     * @param size the number of accessions
+     *
+     * @return the number of long words needed to store the decoy bits
+     */
+    private static int getNDecoyWords(int size) {
+        return (size + 63) >> 6;
+    }
+
+    /**
+     * Compares two encoded accessions byte by byte, bytes being unsigned.
+     *
+     * @param bytes1 the first accession
+     * @param bytes2 the second accession
+     *
+     * @return a negative integer, zero, or a positive integer as the first
+     * accession is less than, equal to, or greater than the second
+     */
+    private static int compareBytes(byte[] bytes1, byte[] bytes2) {
+        int length = Math.min(bytes1.length, bytes2.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (bytes1[i] & 0xff) - (bytes2[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return bytes1.length - bytes2.length;
+    }
+
+    /**
+     * Returns the number of accessions.
+     *
+     * @return the number of accessions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the rank of the given accession in the table, -1 if not found.
+     *
+     * @param accession the accession
+     *
+     * @return the rank of the given accession in the table
+     */
+    public int getRank(String accession) {
+        byte[] key = accession.getBytes(ENCODING);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int start = accessionOffsetsView.get(middle);
+            int end = accessionOffsetsView.get(middle + 1);
+            int comparison = compareToPool(key, start, end);
+            if (comparison > 0) {
+                low = middle + 1;
+            } else if (comparison < 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares an encoded accession to an accession of the pool.
+     *
+     * @param key the encoded accession
+     * @param start the start of the pool accession
+     * @param end the end of the pool accession
+     *
+     * @return a negative integer, zero, or a positive integer as the key is
+     * less than, equal to, or greater than the pool accession
+     */
+    private int compareToPool(byte[] key, int start, int end) {
+        int length = Math.min(key.length, end - start);
+        for (int i = 0; i < length; i++) {
+            int difference = (key[i] & 0xff) - (pool.get(start + i) & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return key.length - (end - start);
+    }
+
+    /**
+     * Returns the accession at the given rank.
+     *
+     * @param rank the rank in the table
+     *
+     * @return the accession
+     */
+    public String getAccession(int rank) {
+        int start = accessionOffsetsView.get(rank);
+        byte[] bytes = new byte[accessionOffsetsView.get(rank + 1) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = pool.get(start + i);
+        }
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Returns the position in the FASTA file of the protein at the given rank.
+     *
+     * @param rank the rank in the table
+     *
+     * @return the position in the FASTA file
+     */
+    public long getIndex(int rank) {
+        return fileIndexesView.get(rank);
+    }
+
+    /**
+     * Returns the position in the FASTA file of the protein with the given
+     * accession, null if not found.
+     *
+     * @param accession the accession
+     *
+     * @return the position in the FASTA file
+     */
+    public Long getIndex(String accession) {
+        int rank = getRank(accession);
+        return rank == -1 ? null : fileIndexesView.get(rank);
+    }
+
+    /**
+     * Indicates whether the protein at the given rank is a decoy.
+     *
+     * @param rank the rank in the table
+     *
+     * @return a boolean indicating whether the protein is a decoy
+     */
+    public boolean isDecoy(int rank) {
+        return (decoysView.get(rank >> 6) & (1L << (rank & 63))) != 0;
+    }
+
+    /**
+     * Indicates whether the protein with the given accession is a decoy, false
+     * if not found.
+     *
+     * @param accession the accession
+     *
+     * @return a boolean indicating whether the protein is a decoy
+     */
+    public boolean isDecoy(String accession) {
+        int rank = getRank(accession);
+        return rank != -1 && isDecoy(rank);
+    }
+
+    /**
+     * Returns the number of bytes needed to store the table.
+     *
+     * @return the number of bytes needed to store the table
+     */
+    long getLength() {
+        return (long) accessionOffsets.capacity() + fileIndexes.capacity() + decoys.capacity() + pool.capacity();
+    }
+
+    /**
+     * Returns the number of bytes of the accession pool.
+     *
+     * @return the number of bytes of the accession pool
+     */
+    int getPoolLength() {
+        return pool.capacity();
+    }
+
+    /**
+     * Writes the table to a channel at its current position.
+     *
+     * @param channel the channel
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing
+     */
+    void write(FileChannel channel) throws IOException {
+        for (ByteBuffer buffer : new ByteBuffer[]{accessionOffsets, fileIndexes, decoys, pool}) {
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+
+    /**
+     * Reads a table from a channel. Large tables are memory mapped.
+     *
+     * @param channel the channel
+     * @param position the position of the table in the channel
+     * @param size the number of accessions
+     * @param poolLength the number of bytes of the accession pool
+     *
+     * @return the table
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading
+     */
+    static AccessionTable read(FileChannel channel, long position, int size, int poolLength) throws IOException {
+        long offsetsLength = 4L * (size + 1);
+        long indexesLength = 8L * size;
+        long decoysLength = 8L * getNDecoyWords(size);
+        boolean map = offsetsLength + indexesLength + decoysLength + poolLength > MAPPING_THRESHOLD;
+        ByteBuffer accessionOffsets = readBuffer(channel, position, offsetsLength, map);
+        position += offsetsLength;
+        ByteBuffer fileIndexes = readBuffer(channel, position, indexesLength, map);
+        position += indexesLength;
+        ByteBuffer decoys = readBuffer(channel, position, decoysLength, map);
+        position += decoysLength;
+        ByteBuffer pool = readBuffer(channel, position, poolLength, map);
+        return new AccessionTable(size, accessionOffsets, fileIndexes, decoys, pool);
+    }
+
+    /**
+     * Releases the memory mapped buffers of the table such that the file it
+     * was read from can be replaced. The table must not be used afterwards.
+     */
+    void release() {
+        for (ByteBuffer buffer : new ByteBuffer[]{accessionOffsets, fileIndexes, decoys, pool}) {
+            if (buffer instanceof MappedByteBuffer) {
+                Util.unmap((MappedByteBuffer) buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the table in memory if the table is memory mapped,
+     * the table itself otherwise.
+     *
+     * @return a table which is not memory mapped
+     */
+    AccessionTable copyToHeap() {
+        if (!(accessionOffsets instanceof MappedByteBuffer || fileIndexes instanceof MappedByteBuffer
+                || decoys instanceof MappedByteBuffer || pool instanceof MappedByteBuffer)) {
+            return this;
+        }
+        return new AccessionTable(size, copyToHeap(accessionOffsets), copyToHeap(fileIndexes), copyToHeap(decoys), copyToHeap(pool));
+    }
+
+    /**
+     * Copies the content of a buffer to a new heap buffer.
+     *
+     * @param buffer the buffer to copy
+     *
+     * @return the copy
+     */
+    private static ByteBuffer copyToHeap(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        ByteBuffer copy = ByteBuffer.allocate(source.capacity());
+        copy.put(source);
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Reads a section of a channel in a buffer.
+     *
+     * @param channel the channel
+     * @param position the position of the section
+     * @param length the length of the section
+     * @param map boolean indicating whether the section should be memory
+     * mapped
+     *
+     * @return the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading
+     */
+    private static ByteBuffer readBuffer(FileChannel channel, long position, long length, boolean map) throws IOException {
+        if (position + length > channel.size()) {
+            throw new IOException("Unexpected end of file.");
+        }
+        if (map) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,520 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
+import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generator of concatenated target-decoy FASTA files. The target file is read
+ * in batches of entries by a reader thread, the decoys of the batches are
+ * built in parallel, and the batches are written in the order of the file.
+ * The index of the new file is built while writing, no indexing of the new
+ * file is needed.
+ *
+ * @author Marc Vaudel
+ */
+public class DecoyDatabaseGenerator {
+
+    /**
+     * The encoding of the files, same as the one used to index the files.
+     */
+    private static final Charset ENCODING = Charset.forName("ISO-8859-1");
+    /**
+     * The number of entries per batch.
+     */
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * The number of batches per thread which can be waiting to be written.
+     */
+    private static final int BATCHES_PER_THREAD = 4;
+    /**
+     * The time in milliseconds to wait for space in the queue before checking
+     * whether the writer is still running when queuing the end of the file.
+     */
+    private static final long END_OFFER_TIMEOUT = 100;
+    /**
+     * The line break to use.
+     */
+    private static final String LINE_BREAK = System.getProperty("line.separator");
+    /**
+     * The target FASTA file.
+     */
+    private final File fastaFile;
+    /**
+     * The index of the target FASTA file used to skip decoy entries, can be
+     * null.
+     */
+    private final FastaIndex fastaIndex;
+    /**
+     * The strategy used to build the decoys.
+     */
+    private final DecoyStrategy decoyStrategy;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the target FASTA file
+     * @param fastaIndex the index of the target FASTA file used to skip decoy
+     * entries, can be null
+     * @param decoyStrategy the strategy used to build the decoys
+     */
+    private DecoyDatabaseGenerator(File fastaFile, FastaIndex fastaIndex, DecoyStrategy decoyStrategy) {
+        this.fastaFile = fastaFile;
+        this.fastaIndex = fastaIndex;
+        this.decoyStrategy = decoyStrategy;
+    }
+
+    /**
+     * Writes the target proteins of a FASTA file followed by their decoy in a
+     * new FASTA file, and returns the index of the new file. The new file is
+     * deleted if the process is canceled or fails.
+     *
+     * @param fastaFile the target FASTA file
+     * @param fastaIndex the index of the target FASTA file used to skip decoy
+     * entries, can be null
+     * @param destinationFile the file where to write the target-decoy
+     * database
+     * @param decoyStrategy the strategy used to build the decoys
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     * @param nThreads the number of threads to use to build the decoys
+     *
+     * @return the index of the new file, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted
+     */
+    public static FastaIndex generate(File fastaFile, FastaIndex fastaIndex, File destinationFile, DecoyStrategy decoyStrategy,
+            WaitingHandler waitingHandler, int nThreads) throws IOException, InterruptedException {
+        DecoyDatabaseGenerator generator = new DecoyDatabaseGenerator(fastaFile, fastaIndex, decoyStrategy);
+        return generator.generate(destinationFile, waitingHandler, Math.max(nThreads, 1));
+    }
+
+    /**
+     * Writes the target proteins followed by their decoy in a new FASTA file,
+     * and returns the index of the new file. The new file is deleted if the
+     * process is canceled or fails.
+     *
+     * @param destinationFile the file where to write the target-decoy
+     * database
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     * @param nThreads the number of threads to use to build the decoys
+     *
+     * @return the index of the new file, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted
+     */
+    private FastaIndex generate(File destinationFile, WaitingHandler waitingHandler, int nThreads) throws IOException, InterruptedException {
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            if (fastaIndex != null) {
+                waitingHandler.setMaxSecondaryProgressCounter(fastaIndex.getNTarget());
+            } else {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+            }
+        }
+
+        final BlockingQueue<Future<DecoyBatch>> queue = new ArrayBlockingQueue<Future<DecoyBatch>>(nThreads * BATCHES_PER_THREAD);
+        final ExecutorService builders = Executors.newFixedThreadPool(nThreads);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        IndexBuilder indexBuilder = new IndexBuilder();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        boolean canceled = false;
+        boolean completed = false;
+
+        try {
+            Future<Object> readerFuture = reader.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        read(queue, builders);
+                    } finally {
+                        FutureTask<DecoyBatch> end = new FutureTask<DecoyBatch>(new Callable<DecoyBatch>() {
+                            @Override
+                            public DecoyBatch call() throws Exception {
+                                return null;
+                            }
+                        });
+                        end.run();
+                        // the queue is not emptied anymore once the writer stopped
+                        while (writing.get() && !queue.offer(end, END_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        }
+                    }
+                    return null;
+                }
+            });
+
+            FileOutputStream outputStream = new FileOutputStream(destinationFile);
+            try {
+                while (true) {
+                    DecoyBatch batch = get(queue.take());
+                    if (batch == null) {
+                        break;
+                    }
+                    indexBuilder.add(batch);
+                    outputStream.write(batch.content);
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter(batch.size);
+                        if (waitingHandler.isRunCanceled()) {
+                            canceled = true;
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                writing.set(false);
+                outputStream.close();
+            }
+
+            if (!canceled) {
+                get(readerFuture);
+                completed = true;
+            }
+
+        } finally {
+            writing.set(false);
+            reader.shutdownNow();
+            builders.shutdownNow();
+            if (!completed) {
+                destinationFile.delete();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (canceled) {
+            return null;
+        }
+
+        return indexBuilder.getFastaIndex(destinationFile);
+    }
+
+    /**
+     * Reads the target file and submits the batches of entries to the
+     * builders. The futures of the batches are queued in the order of the
+     * file.
+     *
+     * @param queue the queue of the batches to write
+     * @param builders the executor building the decoys
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted
+     */
+    private void read(BlockingQueue<Future<DecoyBatch>> queue, ExecutorService builders) throws IOException, InterruptedException {
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fastaFile), ENCODING));
+        try {
+            ArrayList<String> headers = new ArrayList<String>(BATCH_SIZE);
+            ArrayList<StringBuilder> sequences = new ArrayList<StringBuilder>(BATCH_SIZE);
+            StringBuilder sequence = null;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(">")) {
+                    if (headers.size() == BATCH_SIZE) {
+                        submit(headers, sequences, queue, builders);
+                        headers = new ArrayList<String>(BATCH_SIZE);
+                        sequences = new ArrayList<StringBuilder>(BATCH_SIZE);
+                    }
+                    sequence = new StringBuilder();
+                    headers.add(line);
+                    sequences.add(sequence);
+                } else if (sequence != null) {
+                    sequence.append(line.trim());
+                }
+            }
+            if (!headers.isEmpty()) {
+                submit(headers, sequences, queue, builders);
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Submits a batch of entries to the builders and queues its future.
+     *
+     * @param headers the headers of the entries
+     * @param sequences the sequences of the entries as found in the file
+     * @param queue the queue of the batches to write
+     * @param builders the executor building the decoys
+     *
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted
+     */
+    private void submit(final ArrayList<String> headers, final ArrayList<StringBuilder> sequences,
+            BlockingQueue<Future<DecoyBatch>> queue, ExecutorService builders) throws InterruptedException {
+        queue.put(builders.submit(new Callable<DecoyBatch>() {
+            @Override
+            public DecoyBatch call() throws Exception {
+                return new DecoyBatch(headers, sequences);
+            }
+        }));
+    }
+
+    /**
+     * Returns the result of a future, rethrowing the exception thrown by the
+     * task if any.
+     *
+     * @param <T> the type of result
+     * @param future the future
+     *
+     * @return the result of the future
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted
+     */
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * A batch of target entries and their decoys ready to be written.
+     */
+    private class DecoyBatch {
+
+        /**
+         * The number of target entries in the batch.
+         */
+        private int size = 0;
+        /**
+         * The content to write.
+         */
+        private final byte[] content;
+        /**
+         * The accessions of the targets.
+         */
+        private final String[] targetAccessions;
+        /**
+         * The accessions of the decoys.
+         */
+        private final String[] decoyAccessions;
+        /**
+         * The positions of the target headers in the content.
+         */
+        private final int[] targetIndexes;
+        /**
+         * The positions of the decoy headers in the content.
+         */
+        private final int[] decoyIndexes;
+        /**
+         * The database types of the targets.
+         */
+        private final Header.DatabaseType[] databaseTypes;
+        /**
+         * The taxonomies of the targets.
+         */
+        private final String[] taxonomies;
+
+        /**
+         * Constructor. Parses the headers, builds the decoys, and encodes the
+         * entries.
+         *
+         * @param headers the headers of the entries
+         * @param sequences the sequences of the entries as found in the file
+         */
+        DecoyBatch(ArrayList<String> headers, ArrayList<StringBuilder> sequences) {
+
+            int capacity = headers.size();
+            targetAccessions = new String[capacity];
+            decoyAccessions = new String[capacity];
+            targetIndexes = new int[capacity];
+            decoyIndexes = new int[capacity];
+            databaseTypes = new Header.DatabaseType[capacity];
+            taxonomies = new String[capacity];
+
+            StringBuilder stringBuilder = new StringBuilder();
+            String decoyFlag = decoyStrategy.getDecoyFlag();
+
+            for (int i = 0; i < headers.size(); i++) {
+
+                Header header = Header.parseFromFASTA(headers.get(i));
+                String accession = header.getAccessionOrRest();
+                if (accession == null) {
+                    throw new IllegalArgumentException("No accession found for header " + headers.get(i) + ".");
+                }
+                if (fastaIndex != null && fastaIndex.isDecoy(accession)) {
+                    continue;
+                }
+                String sequence = SequenceFactory.importSequenceFromFasta(sequences.get(i));
+
+                // replace the accession number and add decoy to the description
+                String decoyAccession = accession + "_" + decoyFlag;
+                String rawHeader = header.getRawHeader();
+                String decoyHeader = rawHeader.replace(accession, decoyAccession);
+                String description = header.getDescription();
+                if (description != null && !description.isEmpty()) {
+                    decoyHeader = decoyHeader.replace(description, description + "-" + decoyFlag);
+                }
+
+                targetAccessions[size] = accession;
+                decoyAccessions[size] = decoyAccession;
+                databaseTypes[size] = header.getDatabaseType();
+                taxonomies[size] = header.getTaxonomy();
+
+                targetIndexes[size] = stringBuilder.length();
+                stringBuilder.append(rawHeader).append(LINE_BREAK);
+                stringBuilder.append(sequence).append(LINE_BREAK);
+                decoyIndexes[size] = stringBuilder.length();
+                stringBuilder.append(decoyHeader).append(LINE_BREAK);
+                stringBuilder.append(decoyStrategy.getDecoySequence(accession, sequence)).append(LINE_BREAK);
+                size++;
+            }
+
+            // one byte per character: the positions in the content are the positions in the string
+            content = stringBuilder.toString().getBytes(ENCODING);
+        }
+    }
+
+    /**
+     * Builds the index of the target-decoy file as the batches are written.
+     */
+    private class IndexBuilder {
+
+        /**
+         * The positions of the entries indexed by accession.
+         */
+        private final HashMap<String, Long> indexes = new HashMap<String, Long>();
+        /**
+         * The decoy accessions.
+         */
+        private final HashSet<String> decoyAccessions = new HashSet<String>();
+        /**
+         * The occurrence of the database types among the targets.
+         */
+        private final HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
+        /**
+         * The occurrence of the species among the targets.
+         */
+        private final HashMap<String, Integer> species = new HashMap<String, Integer>();
+        /**
+         * The number of bytes written.
+         */
+        private long position = 0;
+        /**
+         * The number of target entries.
+         */
+        private int nTarget = 0;
+
+        /**
+         * Adds a batch to the index. The batch is expected to be written at
+         * the current position.
+         *
+         * @param batch the batch
+         */
+        void add(DecoyBatch batch) {
+
+            for (int i = 0; i < batch.size; i++) {
+
+                indexes.put(batch.targetAccessions[i], position + batch.targetIndexes[i]);
+                indexes.put(batch.decoyAccessions[i], position + batch.decoyIndexes[i]);
+                decoyAccessions.add(batch.decoyAccessions[i]);
+                nTarget++;
+
+                // get the database type
+                Header.DatabaseType tempDatabaseType = batch.databaseTypes[i];
+                Integer typeCounter = databaseTypes.get(tempDatabaseType);
+                if (typeCounter == null) {
+                    databaseTypes.put(tempDatabaseType, 1);
+                } else {
+                    databaseTypes.put(tempDatabaseType, typeCounter + 1);
+                }
+
+                // get the species
+                String taxonomy = batch.taxonomies[i];
+                if (taxonomy == null || taxonomy.equals("")) {
+                    taxonomy = SpeciesFactory.UNKNOWN;
+                }
+                Integer occurrence = species.get(taxonomy);
+                if (occurrence == null) {
+                    species.put(taxonomy, 1);
+                } else {
+                    species.put(taxonomy, occurrence + 1);
+                }
+            }
+
+            position += batch.content.length;
+        }
+
+        /**
+         * Returns the index of the written file.
+         *
+         * @param destinationFile the written file
+         *
+         * @return the index of the written file
+         */
+        FastaIndex getFastaIndex(File destinationFile) {
+
+            long lastModified = destinationFile.lastModified();
+            String version = FastaIndex.getDefaultVersion(lastModified);
+            String fileName = destinationFile.getName();
+            String name = Util.removeExtension(fileName);
+
+            // find the main database type
+            Header.DatabaseType mainDatabaseType = null;
+            int maxCounter = 0;
+            for (Header.DatabaseType tempDatabaseType : databaseTypes.keySet()) {
+                if (databaseTypes.get(tempDatabaseType) > maxCounter) {
+                    maxCounter = databaseTypes.get(tempDatabaseType);
+                    mainDatabaseType = tempDatabaseType;
+                }
+            }
+
+            boolean decoy = !decoyAccessions.isEmpty();
+            boolean defaultReversed = decoy && decoyStrategy.isDefaultReversed();
+            String decoyTag = decoy ? decoyStrategy.getDecoyFlag() : null;
+
+            return new FastaIndex(indexes, decoyAccessions, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species);
+        }
+    }
+}
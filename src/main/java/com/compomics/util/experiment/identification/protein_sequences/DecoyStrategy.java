@@ -0,0 +1,42 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+/**
+ * Strategy used to build the decoy sequence of a target protein.
+ * Implementations are used by multiple threads simultaneously and must be
+ * thread safe. The decoy sequence of a given target must not depend on the
+ * order in which the targets are processed.
+ *
+ * @author Marc Vaudel
+ */
+public interface DecoyStrategy {
+
+    /**
+     * Returns the flag used to tag the decoy accessions and descriptions. The
+     * flag should be one of the decoy flags recognized by the sequence
+     * factory in order to allow the inference of the decoy tag when indexing
+     * the file.
+     *
+     * @return the decoy flag
+     */
+    public String getDecoyFlag();
+
+    /**
+     * Indicates whether the decoy sequences are the reversed target sequences
+     * with the default decoy accessions, in which case the decoy proteins can
+     * be inferred from their target by the sequence factory.
+     *
+     * @return a boolean indicating whether the decoys are reversed with the
+     * default accessions
+     */
+    public boolean isDefaultReversed();
+
+    /**
+     * Returns the decoy sequence of a target protein.
+     *
+     * @param accession the accession of the target protein
+     * @param sequence the sequence of the target protein
+     *
+     * @return the decoy sequence
+     */
+    public String getDecoySequence(String accession, String sequence);
+}
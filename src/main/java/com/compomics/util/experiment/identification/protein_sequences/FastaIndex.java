@@ -3,6 +3,8 @@ package com.compomics.util.experiment.identification.protein_sequences;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.protein.Header;
 import com.compomics.util.protein.Header.DatabaseType;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -15,13 +17,20 @@ import java.util.HashSet;
 public class FastaIndex extends ExperimentObject {
 
     /**
-     * The indexes of the inspected FASTA file.
+     * The indexes of the inspected FASTA file. Null until needed if the index
+     * is backed by an accession table.
      */
     private HashMap<String, Long> indexes;
     /**
-     * The decoy accessions.
+     * The decoy accessions. Null until needed if the index is backed by an
+     * accession table.
      */
     private HashSet<String> decoyAccessions;
+    /**
+     * The accession table backing the index, null if the index is backed by
+     * the maps.
+     */
+    private transient volatile AccessionTable accessionTable = null;
     /**
      * The FASTA file name.
      */
@@ -114,12 +123,111 @@ public class FastaIndex extends ExperimentObject {
         this.speciesOccurrence = speciesOccurrence;
     }
 
+    /**
+     * Constructor for an index backed by an accession table.
+     *
+     * @param accessionTable the accession table of the inspected FASTA file
+     * @param fileName The FASTA file name
+     * @param name the name of the database
+     * @param concatenatedTargetDecoy If the FASTA file is a concatenated
+     * target/decoy database
+     * @param isDefaultReversed is this a default reversed database
+     * @param nTarget Number of target sequences found in the database
+     * @param lastModified the last time the indexed file was modified, can be
+     * null
+     * @param mainDatabaseType the main database type
+     * @param databaseTypes map of all the database types and how often they
+     * occur
+     * @param decoyTag the decoy tag
+     * @param version the database version
+     * @param speciesOccurrence the species occurrence in the database
+     */
+    public FastaIndex(AccessionTable accessionTable, String fileName, String name,
+            boolean concatenatedTargetDecoy, boolean isDefaultReversed, int nTarget, Long lastModified,
+            DatabaseType mainDatabaseType, HashMap<Header.DatabaseType, Integer> databaseTypes, String decoyTag, String version, HashMap<String, Integer> speciesOccurrence) {
+        this.accessionTable = accessionTable;
+        this.fileName = fileName;
+        this.name = name;
+        this.concatenatedTargetDecoy = concatenatedTargetDecoy;
+        this.isDefaultReversed = isDefaultReversed;
+        this.nTarget = nTarget;
+        this.lastModified = lastModified;
+        this.mainDatabaseType = mainDatabaseType;
+        this.databaseTypes = databaseTypes;
+        this.decoyTag = decoyTag;
+        this.version = version;
+        this.speciesOccurrence = speciesOccurrence;
+    }
+
+    /**
+     * Returns the accession table of the index. If the index is backed by
+     * maps, a new table is built from the maps.
+     *
+     * @return the accession table of the index
+     */
+    public AccessionTable getAccessionTable() {
+        if (accessionTable != null) {
+            return accessionTable;
+        }
+        return AccessionTable.build(indexes, decoyAccessions);
+    }
+
+    /**
+     * Releases the memory mapped accession table of an index read from a file
+     * such that the file can be replaced. The index must not be used
+     * afterwards.
+     */
+    void release() {
+        if (accessionTable != null) {
+            accessionTable.release();
+        }
+    }
+
+    /**
+     * Copies the accession table of an index read from a file to memory and
+     * releases the memory mapped table, such that the file can be replaced
+     * while the index is in use. The index must not be read concurrently.
+     */
+    void detach() {
+        AccessionTable mappedTable = accessionTable;
+        if (mappedTable != null) {
+            AccessionTable heapTable = mappedTable.copyToHeap();
+            if (heapTable != mappedTable) {
+                accessionTable = heapTable;
+                mappedTable.release();
+            }
+        }
+    }
+
+    /**
+     * Fills the maps from the accession table if not done already.
+     */
+    private synchronized void loadMaps() {
+        if (indexes == null) {
+            int size = accessionTable.size();
+            HashMap<String, Long> tempIndexes = new HashMap<String, Long>(size);
+            HashSet<String> tempDecoyAccessions = new HashSet<String>();
+            for (int rank = 0; rank < size; rank++) {
+                String accession = accessionTable.getAccession(rank);
+                tempIndexes.put(accession, accessionTable.getIndex(rank));
+                if (accessionTable.isDecoy(rank)) {
+                    tempDecoyAccessions.add(accession);
+                }
+            }
+            decoyAccessions = tempDecoyAccessions;
+            indexes = tempIndexes;
+        }
+    }
+
     /**
      * Returns a map of all indexes of the FASTA file (accession &gt; index).
+     * If the index is backed by an accession table, the map is created upon
+     * first call.
      *
      * @return a map of all indexes of the FASTA file (accession &gt; index)
      */
     public HashMap<String, Long> getIndexes() {
+        loadMaps();
         return indexes;
     }
 
@@ -131,15 +239,20 @@ public class FastaIndex extends ExperimentObject {
      * @return true if the given accession number is a decoy
      */
     public boolean isDecoy(String accession) {
+        if (accessionTable != null) {
+            return accessionTable.isDecoy(accession);
+        }
         return decoyAccessions.contains(accession);
     }
 
     /**
-     * Returns the list of decoy accessions.
+     * Returns the list of decoy accessions. If the index is backed by an
+     * accession table, the list is created upon first call.
      *
      * @return the list of decoy accessions
      */
     public HashSet<String> getDecoyAccesions() {
+        loadMaps();
         return decoyAccessions;
     }
 
@@ -150,6 +263,9 @@ public class FastaIndex extends ExperimentObject {
      * @return the index of the accession of interest
      */
     public Long getIndex(String accession) {
+        if (accessionTable != null) {
+            return accessionTable.getIndex(accession);
+        }
         return indexes.get(accession);
     }
 
@@ -189,6 +305,9 @@ public class FastaIndex extends ExperimentObject {
      * @return the number of sequences in the databases.
      */
     public int getNSequences() {
+        if (accessionTable != null) {
+            return accessionTable.size();
+        }
         return indexes.size();
     }
 
@@ -381,4 +500,20 @@ public class FastaIndex extends ExperimentObject {
     public void setSpecies(HashMap<String, Integer> species) {
         this.speciesOccurrence = species;
     }
+
+    /**
+     * Serializes the index, filling the maps first if the index is backed by
+     * an accession table.
+     *
+     * @param oos the object output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        if (accessionTable != null) {
+            loadMaps();
+        }
+        oos.defaultWriteObject();
+    }
 }
@@ -0,0 +1,282 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.protein.Header.DatabaseType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Binary file format of the FASTA index. The file contains the statistics of
+ * the index followed by the accession table, which is loaded or memory mapped
+ * as it is, without deserialization of the accessions.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexFile {
+
+    /**
+     * The magic number at the start of the file.
+     */
+    private static final long MAGIC_NUMBER = 0x4355494E44455831L;
+    /**
+     * The version of the format.
+     */
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * The length of the beginning of the file: magic number, format version
+     * and header length.
+     */
+    private static final int PREAMBLE_LENGTH = 16;
+
+    /**
+     * Empty default constructor.
+     */
+    private FastaIndexFile() {
+    }
+
+    /**
+     * Indicates whether the given file is a FASTA index in the binary format.
+     *
+     * @param file the file
+     *
+     * @return a boolean indicating whether the given file is a FASTA index in
+     * the binary format
+     */
+    public static boolean isFastaIndexFile(File file) {
+        if (file.length() < PREAMBLE_LENGTH) {
+            return false;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new FileInputStream(file));
+            try {
+                return dis.readLong() == MAGIC_NUMBER;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a FASTA index to a file. The index is written to a temporary file
+     * which then replaces the destination file.
+     *
+     * @param fastaIndex the FASTA index
+     * @param file the destination file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static void write(FastaIndex fastaIndex, File file) throws IOException {
+
+        AccessionTable accessionTable = fastaIndex.getAccessionTable();
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        writeString(header, fastaIndex.getFileName());
+        writeString(header, fastaIndex.getName());
+        writeString(header, fastaIndex.getVersion());
+        writeString(header, fastaIndex.getDescription());
+        writeString(header, fastaIndex.getAccessionParsingRule());
+        writeString(header, fastaIndex.getDecoyTag());
+        header.writeBoolean(fastaIndex.isConcatenatedTargetDecoy());
+        header.writeBoolean(fastaIndex.isDefaultReversed());
+        header.writeInt(fastaIndex.getNTarget());
+        Long lastModified = fastaIndex.getLastModified();
+        header.writeBoolean(lastModified != null);
+        header.writeLong(lastModified == null ? 0 : lastModified);
+        DatabaseType mainDatabaseType = fastaIndex.getMainDatabaseType();
+        writeString(header, mainDatabaseType == null ? null : mainDatabaseType.name());
+        HashMap<DatabaseType, Integer> databaseTypes = fastaIndex.getDatabaseTypes();
+        header.writeInt(databaseTypes == null ? -1 : databaseTypes.size());
+        if (databaseTypes != null) {
+            for (DatabaseType databaseType : databaseTypes.keySet()) {
+                writeString(header, databaseType.name());
+                header.writeInt(databaseTypes.get(databaseType));
+            }
+        }
+        HashMap<String, Integer> species = fastaIndex.getSpecies();
+        header.writeInt(species == null ? -1 : species.size());
+        if (species != null) {
+            for (String speciesName : species.keySet()) {
+                writeString(header, speciesName);
+                header.writeInt(species.get(speciesName));
+            }
+        }
+        header.writeInt(accessionTable.size());
+        header.writeInt(accessionTable.getPoolLength());
+        header.close();
+
+        File tempFile = new File(file.getParentFile(), file.getName() + "_temp");
+        RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_LENGTH);
+            preamble.putLong(MAGIC_NUMBER);
+            preamble.putInt(FORMAT_VERSION);
+            preamble.putInt(headerBytes.size());
+            preamble.flip();
+            ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes.toByteArray());
+            while (preamble.hasRemaining()) {
+                channel.write(preamble);
+            }
+            while (headerBuffer.hasRemaining()) {
+                channel.write(headerBuffer);
+            }
+            accessionTable.write(channel);
+        } finally {
+            raf.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Impossible to replace " + file.getAbsolutePath() + ".");
+            }
+        }
+    }
+
+    /**
+     * Reads a FASTA index from a file.
+     *
+     * @param file the file
+     *
+     * @return the FASTA index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not a FASTA index in a supported
+     * format
+     */
+    public static FastaIndex read(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_LENGTH);
+            readFully(channel, preamble, 0);
+            if (preamble.getLong() != MAGIC_NUMBER) {
+                throw new IOException(file.getName() + " is not a FASTA index.");
+            }
+            int formatVersion = preamble.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("FASTA index format version " + formatVersion + " not supported.");
+            }
+            int headerLength = preamble.getInt();
+            if (headerLength < 0 || PREAMBLE_LENGTH + (long) headerLength > channel.size()) {
+                throw new IOException("Unexpected end of file.");
+            }
+            ByteBuffer headerBuffer = ByteBuffer.allocate(headerLength);
+            readFully(channel, headerBuffer, PREAMBLE_LENGTH);
+
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBuffer.array()));
+            String fileName = readString(header);
+            String name = readString(header);
+            String version = readString(header);
+            String description = readString(header);
+            String accessionParsingRule = readString(header);
+            String decoyTag = readString(header);
+            boolean concatenatedTargetDecoy = header.readBoolean();
+            boolean defaultReversed = header.readBoolean();
+            int nTarget = header.readInt();
+            boolean hasLastModified = header.readBoolean();
+            long lastModified = header.readLong();
+            String mainDatabaseTypeName = readString(header);
+            DatabaseType mainDatabaseType = mainDatabaseTypeName == null ? null : DatabaseType.valueOf(mainDatabaseTypeName);
+            HashMap<DatabaseType, Integer> databaseTypes = null;
+            int nDatabaseTypes = header.readInt();
+            if (nDatabaseTypes >= 0) {
+                databaseTypes = new HashMap<DatabaseType, Integer>(nDatabaseTypes);
+                for (int i = 0; i < nDatabaseTypes; i++) {
+                    databaseTypes.put(DatabaseType.valueOf(readString(header)), header.readInt());
+                }
+            }
+            HashMap<String, Integer> species = null;
+            int nSpecies = header.readInt();
+            if (nSpecies >= 0) {
+                species = new HashMap<String, Integer>(nSpecies);
+                for (int i = 0; i < nSpecies; i++) {
+                    species.put(readString(header), header.readInt());
+                }
+            }
+            int size = header.readInt();
+            int poolLength = header.readInt();
+
+            AccessionTable accessionTable = AccessionTable.read(channel, PREAMBLE_LENGTH + headerLength, size, poolLength);
+
+            FastaIndex fastaIndex = new FastaIndex(accessionTable, fileName, name, concatenatedTargetDecoy, defaultReversed, nTarget,
+                    hasLastModified ? lastModified : null, mainDatabaseType, databaseTypes, decoyTag, version, species);
+            fastaIndex.setDescription(description);
+            fastaIndex.setAccessionParsingRule(accessionParsingRule);
+            return fastaIndex;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Fills a buffer from a channel.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param position the position where to start reading
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Writes a string which can be null.
+     *
+     * @param dos the output stream
+     * @param value the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing
+     */
+    private static void writeString(DataOutputStream dos, String value) throws IOException {
+        if (value == null) {
+            dos.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a string written using writeString.
+     *
+     * @param dis the input stream
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading
+     */
+    private static String readString(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,731 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
+import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Indexer of FASTA files. The file is split in chunks starting with a header
+ * line. The headers of the chunks are parsed and the sequences validated in
+ * parallel, and the chunks are merged in the order of the file. The index is
+ * identical to the one obtained using a single thread.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexer {
+
+    /**
+     * The encoding of the lines, same as the BufferedRandomAccessFile.
+     */
+    private static final Charset ENCODING = Charset.forName("ISO-8859-1");
+    /**
+     * The number of chunks per thread.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * The size of the buffer used to read the file.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The FASTA file.
+     */
+    private final File fastaFile;
+    /**
+     * The channel of the FASTA file.
+     */
+    private final FileChannel channel;
+    /**
+     * The length of the file.
+     */
+    private final long length;
+    /**
+     * The decoy flags to test the accessions against: the decoy tag if
+     * provided, the default decoy flags otherwise.
+     */
+    private final String[] decoyFlags;
+    /**
+     * The patterns matching accessions starting and ending with the decoy
+     * flags as done by SequenceFactory.isDecoy, null for empty flags.
+     */
+    private final Pattern[][] decoyPatterns;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file
+     * @param channel the channel of the FASTA file
+     * @param decoyFlags the decoy flags to test the accessions against
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private FastaIndexer(File fastaFile, FileChannel channel, String[] decoyFlags) throws IOException {
+        this.fastaFile = fastaFile;
+        this.channel = channel;
+        this.length = channel.size();
+        this.decoyFlags = decoyFlags;
+        decoyPatterns = new Pattern[decoyFlags.length][];
+        for (int i = 0; i < decoyFlags.length; i++) {
+            String decoyFlag = decoyFlags[i];
+            if (!decoyFlag.isEmpty()) {
+                decoyPatterns[i] = new Pattern[]{Pattern.compile(decoyFlag + ".*"), Pattern.compile(".*" + decoyFlag)};
+            }
+        }
+    }
+
+    /**
+     * Creates the index of a FASTA file. Non-valid FASTA files will throw an
+     * exception.
+     *
+     * @param fastaFile the FASTA file
+     * @param name the name of the database, set to the file name if null
+     * @param decoyTag the decoy tag, inferred if null
+     * @param version the version, the last modification of the file is used
+     * if null
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     * @param nThreads the number of threads to use
+     *
+     * @return the index of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static FastaIndex createFastaIndex(File fastaFile, String name, String decoyTag, String version,
+            WaitingHandler waitingHandler, int nThreads) throws IOException {
+        String[] decoyFlags = decoyTag != null ? new String[]{decoyTag} : SequenceFactory.DECOY_FLAGS;
+        RandomAccessFile raf = new RandomAccessFile(fastaFile, "r");
+        try {
+            FastaIndexer fastaIndexer = new FastaIndexer(fastaFile, raf.getChannel(), decoyFlags);
+            return fastaIndexer.createFastaIndex(name, decoyTag, version, waitingHandler, nThreads);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Creates the index of the FASTA file.
+     *
+     * @param name the name of the database, set to the file name if null
+     * @param decoyTag the decoy tag, inferred if null
+     * @param version the version, the last modification of the file is used
+     * if null
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     * @param nThreads the number of threads to use
+     *
+     * @return the index of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private FastaIndex createFastaIndex(String name, String decoyTag, String version, WaitingHandler waitingHandler, int nThreads) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+        }
+
+        long[] boundaries = nThreads <= 1 ? new long[]{0, length} : getChunkBoundaries(nThreads * CHUNKS_PER_THREAD);
+        ArrayList<IndexChunk> chunks = new ArrayList<IndexChunk>(boundaries.length - 1);
+        for (int i = 0; i < boundaries.length - 1; i++) {
+            chunks.add(new IndexChunk(boundaries[i], boundaries[i + 1], i == boundaries.length - 2));
+        }
+
+        Merger merger = new Merger(decoyTag);
+
+        if (chunks.size() == 1) {
+            IndexChunk chunk = chunks.get(0);
+            chunk.index();
+            merger.merge(chunk, waitingHandler);
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            try {
+                ArrayList<Future<IndexChunk>> futures = new ArrayList<Future<IndexChunk>>(chunks.size());
+                for (final IndexChunk chunk : chunks) {
+                    futures.add(pool.submit(new Callable<IndexChunk>() {
+                        @Override
+                        public IndexChunk call() throws Exception {
+                            chunk.index();
+                            return chunk;
+                        }
+                    }));
+                }
+                chunks = null;
+                for (int i = 0; i < futures.size(); i++) {
+                    IndexChunk chunk;
+                    try {
+                        chunk = futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                    futures.set(i, null);
+                    if (!merger.merge(chunk, waitingHandler)) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while indexing " + fastaFile.getName() + ".");
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return merger.getFastaIndex(name, version);
+    }
+
+    /**
+     * Splits the file in chunks starting with a header line.
+     *
+     * @param nChunks the targeted number of chunks
+     *
+     * @return the positions of the starts of the chunks followed by the
+     * length of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private long[] getChunkBoundaries(int nChunks) throws IOException {
+        ArrayList<Long> boundaries = new ArrayList<Long>(nChunks + 1);
+        boundaries.add(0L);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (int i = 1; i < nChunks; i++) {
+            long target = i * (length / nChunks);
+            long previous = boundaries.get(boundaries.size() - 1);
+            if (target <= previous) {
+                continue;
+            }
+            long boundary = findHeaderLine(target, buffer);
+            if (boundary == -1) {
+                break;
+            }
+            if (boundary > previous) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(length);
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the start of the first header line starting at or after the
+     * given position, -1 if none.
+     *
+     * @param position the position where to start looking
+     * @param buffer a buffer to use to read the file
+     *
+     * @return the start of the first header line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private long findHeaderLine(long position, ByteBuffer buffer) throws IOException {
+        long bufferStart = position - 1;
+        byte previous = 0;
+        while (bufferStart < length) {
+            buffer.clear();
+            int nRead = channel.read(buffer, bufferStart);
+            if (nRead <= 0) {
+                break;
+            }
+            buffer.flip();
+            for (int i = 0; i < nRead; i++) {
+                byte current = buffer.get(i);
+                if (current == '>' && (previous == '\n' || previous == '\r') && bufferStart + i >= position) {
+                    return bufferStart + i;
+                }
+                previous = current;
+            }
+            bufferStart += nRead;
+        }
+        return -1;
+    }
+
+    /**
+     * A chunk of the file starting with a header line, or at the start of the
+     * file.
+     */
+    private class IndexChunk {
+
+        /**
+         * The start of the chunk.
+         */
+        private final long start;
+        /**
+         * The end of the chunk.
+         */
+        private final long end;
+        /**
+         * Indicates whether this is the last chunk of the file.
+         */
+        private final boolean last;
+        /**
+         * The number of lines in the chunk.
+         */
+        private int nLines = 0;
+        /**
+         * The number of entries found.
+         */
+        private int size = 0;
+        /**
+         * The accessions of the entries.
+         */
+        private String[] accessions = new String[16];
+        /**
+         * The positions of the entries in the file.
+         */
+        private long[] indexes = new long[16];
+        /**
+         * The line numbers of the headers in the chunk.
+         */
+        private int[] lineNumbers = new int[16];
+        /**
+         * The decoy flags matched by the accessions as bits.
+         */
+        private int[] decoyMatches = new int[16];
+        /**
+         * The database types of the entries.
+         */
+        private Header.DatabaseType[] databaseTypes = new Header.DatabaseType[16];
+        /**
+         * The taxonomies of the entries.
+         */
+        private String[] taxonomies = new String[16];
+        /**
+         * The errors found while validating the sequences of the entries,
+         * null if none.
+         */
+        private String[] sequenceErrors = new String[16];
+        /**
+         * The exception thrown while parsing a header, null if none. The
+         * chunk is not indexed further.
+         */
+        private RuntimeException headerException = null;
+        /**
+         * Indicates whether no accession was found for a header. The chunk is
+         * not indexed further.
+         */
+        private boolean accessionMissing = false;
+        /**
+         * The line number of the header which could not be parsed.
+         */
+        private int errorLineNumber;
+
+        /**
+         * Constructor.
+         *
+         * @param start the start of the chunk
+         * @param end the end of the chunk
+         * @param last boolean indicating whether this is the last chunk of the
+         * file
+         */
+        IndexChunk(long start, long end, boolean last) {
+            this.start = start;
+            this.end = end;
+            this.last = last;
+        }
+
+        /**
+         * Indexes the chunk.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        void index() throws IOException {
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, end - start)));
+            buffer.flip();
+            long bufferStart = start;
+            byte[] line = new byte[256];
+            byte[] sequence = new byte[1024];
+            int sequenceLength = 0;
+            boolean inEntry = false;
+
+            long lineStart = start;
+            int lineLength = 0;
+            boolean carriageReturn = false;
+
+            while (true) {
+
+                // read a line the way RandomAccessFile.readLine does
+                boolean endOfLine = false;
+                boolean endOfChunk = false;
+                while (!endOfLine) {
+                    if (!buffer.hasRemaining()) {
+                        bufferStart += buffer.limit();
+                        if (bufferStart >= end) {
+                            endOfChunk = true;
+                            break;
+                        }
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), end - bufferStart));
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, bufferStart + buffer.position()) == -1) {
+                                throw new IOException("Unexpected end of file.");
+                            }
+                        }
+                        buffer.flip();
+                    }
+                    byte b = buffer.get();
+                    if (carriageReturn) {
+                        carriageReturn = false;
+                        if (b == '\n') {
+                            lineStart++;
+                            continue;
+                        }
+                    }
+                    if (b == '\n') {
+                        endOfLine = true;
+                    } else if (b == '\r') {
+                        endOfLine = true;
+                        carriageReturn = true;
+                    } else {
+                        if (lineLength == line.length) {
+                            line = Arrays.copyOf(line, 2 * line.length);
+                        }
+                        line[lineLength++] = b;
+                    }
+                }
+                if (endOfChunk && lineLength == 0) {
+                    break;
+                }
+
+                nLines++;
+
+                if (lineLength > 0 && line[0] == '>') {
+
+                    if (inEntry && sequenceLength != 0) {
+                        sequenceErrors[size - 1] = validate(sequence, sequenceLength);
+                    }
+
+                    Header fastaHeader;
+                    try {
+                        fastaHeader = Header.parseFromFASTA(new String(line, 0, lineLength, ENCODING));
+                    } catch (RuntimeException e) {
+                        headerException = e;
+                        errorLineNumber = nLines;
+                        return;
+                    }
+                    String accession = fastaHeader.getAccessionOrRest();
+                    if (accession == null) {
+                        accessionMissing = true;
+                        errorLineNumber = nLines;
+                        return;
+                    }
+                    add(accession, lineStart, fastaHeader);
+                    inEntry = true;
+                    sequenceLength = 0;
+
+                } else {
+
+                    // trim the way String.trim does
+                    int trimStart = 0, trimEnd = lineLength;
+                    while (trimStart < trimEnd && (line[trimStart] & 0xff) <= ' ') {
+                        trimStart++;
+                    }
+                    while (trimEnd > trimStart && (line[trimEnd - 1] & 0xff) <= ' ') {
+                        trimEnd--;
+                    }
+                    int trimmedLength = trimEnd - trimStart;
+                    if (sequenceLength + trimmedLength > sequence.length) {
+                        sequence = Arrays.copyOf(sequence, Math.max(2 * sequence.length, sequenceLength + trimmedLength));
+                    }
+                    System.arraycopy(line, trimStart, sequence, sequenceLength, trimmedLength);
+                    sequenceLength += trimmedLength;
+                }
+
+                if (endOfChunk) {
+                    break;
+                }
+                lineStart = bufferStart + buffer.position();
+                lineLength = 0;
+            }
+
+            // the last sequence of the file is not validated, the next chunk starts with a header
+            if (!last && inEntry && sequenceLength != 0) {
+                sequenceErrors[size - 1] = validate(sequence, sequenceLength);
+            }
+        }
+
+        /**
+         * Validates a sequence.
+         *
+         * @param sequence the sequence as found in the file
+         * @param sequenceLength the length of the sequence
+         *
+         * @return the error found, null if none
+         */
+        private String validate(byte[] sequence, int sequenceLength) {
+            try {
+                SequenceFactory.validateSequence(SequenceFactory.importSequenceFromFasta(new StringBuilder(new String(sequence, 0, sequenceLength, ENCODING))));
+                return null;
+            } catch (Exception e) {
+                return e.toString();
+            }
+        }
+
+        /**
+         * Adds an entry to the chunk.
+         *
+         * @param accession the accession
+         * @param index the position of the entry in the file
+         * @param fastaHeader the header
+         */
+        private void add(String accession, long index, Header fastaHeader) {
+            if (size == accessions.length) {
+                int capacity = 2 * size;
+                accessions = Arrays.copyOf(accessions, capacity);
+                indexes = Arrays.copyOf(indexes, capacity);
+                lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+                decoyMatches = Arrays.copyOf(decoyMatches, capacity);
+                databaseTypes = Arrays.copyOf(databaseTypes, capacity);
+                taxonomies = Arrays.copyOf(taxonomies, capacity);
+                sequenceErrors = Arrays.copyOf(sequenceErrors, capacity);
+            }
+            int decoyMatch = 0;
+            for (int i = 0; i < decoyPatterns.length; i++) {
+                Pattern[] patterns = decoyPatterns[i];
+                if (patterns != null && (patterns[0].matcher(accession).matches() || patterns[1].matcher(accession).matches())) {
+                    decoyMatch |= 1 << i;
+                }
+            }
+            accessions[size] = accession;
+            indexes[size] = index;
+            lineNumbers[size] = nLines;
+            decoyMatches[size] = decoyMatch;
+            databaseTypes[size] = fastaHeader.getDatabaseType();
+            taxonomies[size] = fastaHeader.getTaxonomy();
+            size++;
+        }
+    }
+
+    /**
+     * Merges the chunks in the order of the file.
+     */
+    private class Merger {
+
+        /**
+         * The positions of the entries indexed by accession.
+         */
+        private final HashMap<String, Long> indexes = new HashMap<String, Long>();
+        /**
+         * The decoy accessions.
+         */
+        private final HashSet<String> decoyAccessions = new HashSet<String>();
+        /**
+         * The occurrence of the database types among the targets.
+         */
+        private final HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
+        /**
+         * The occurrence of the species among the targets.
+         */
+        private final HashMap<String, Integer> species = new HashMap<String, Integer>();
+        /**
+         * The decoy tag.
+         */
+        private String decoyTag;
+        /**
+         * The index of the decoy tag in the decoy flags, -1 if not set.
+         */
+        private int decoyFlagIndex;
+        /**
+         * Indicates whether decoys were found.
+         */
+        private boolean decoy = false;
+        /**
+         * Indicates whether the decoys are reversed with default accessions.
+         */
+        private boolean defaultReversed = false;
+        /**
+         * The number of target entries.
+         */
+        private int nTarget = 0;
+        /**
+         * The number of lines merged.
+         */
+        private int nLines = 0;
+        /**
+         * The accession of the last entry merged.
+         */
+        private String lastAccession = null;
+        /**
+         * The error found when validating the sequence of the last entry
+         * merged, null if none.
+         */
+        private String lastSequenceError = null;
+
+        /**
+         * Constructor.
+         *
+         * @param decoyTag the decoy tag, inferred if null
+         */
+        Merger(String decoyTag) {
+            this.decoyTag = decoyTag;
+            decoyFlagIndex = decoyTag == null ? -1 : 0;
+        }
+
+        /**
+         * Merges a chunk.
+         *
+         * @param chunk the chunk
+         * @param waitingHandler a waiting handler showing the progress, can
+         * be null
+         *
+         * @return false if the process was canceled
+         */
+        boolean merge(IndexChunk chunk, WaitingHandler waitingHandler) {
+
+            for (int i = 0; i < chunk.size; i++) {
+
+                checkLastSequence(nLines + chunk.lineNumbers[i]);
+
+                String accession = chunk.accessions[i];
+                indexes.put(accession, chunk.indexes[i]);
+                int decoyMatch = chunk.decoyMatches[i];
+                if (decoyTag == null && decoyMatch != 0) {
+                    decoyFlagIndex = Integer.numberOfTrailingZeros(decoyMatch);
+                    decoyTag = decoyFlags[decoyFlagIndex];
+                }
+                if (decoyFlagIndex == -1 || (decoyMatch & (1 << decoyFlagIndex)) == 0) {
+                    nTarget++;
+
+                    // get the database type
+                    Header.DatabaseType tempDatabaseType = chunk.databaseTypes[i];
+                    Integer typeCounter = databaseTypes.get(tempDatabaseType);
+                    if (typeCounter == null) {
+                        databaseTypes.put(tempDatabaseType, 1);
+                    } else {
+                        databaseTypes.put(tempDatabaseType, typeCounter + 1);
+                    }
+
+                    // get the species
+                    String taxonomy = chunk.taxonomies[i];
+                    if (taxonomy == null || taxonomy.equals("")) {
+                        taxonomy = SpeciesFactory.UNKNOWN;
+                    }
+                    Integer occurrence = species.get(taxonomy);
+                    if (occurrence == null) {
+                        species.put(taxonomy, 1);
+                    } else {
+                        species.put(taxonomy, occurrence + 1);
+                    }
+
+                } else {
+                    decoyAccessions.add(accession);
+                    if (!decoy) {
+                        decoy = true;
+                        if (accession.endsWith(SequenceFactory.getDefaultDecoyAccessionSuffix())) {
+                            defaultReversed = true;
+                        }
+                    }
+                }
+
+                lastAccession = accession;
+                lastSequenceError = chunk.sequenceErrors[i];
+            }
+
+            if (chunk.headerException != null || chunk.accessionMissing) {
+                int lineNumber = nLines + chunk.errorLineNumber;
+                checkLastSequence(lineNumber);
+                if (chunk.headerException != null) {
+                    throw chunk.headerException;
+                }
+                throw new IllegalArgumentException("No accession found for header at line " + lineNumber + ".");
+            }
+
+            nLines += chunk.nLines;
+
+            if (waitingHandler != null && length != 0) {
+                waitingHandler.setSecondaryProgressCounter((int) (100 * chunk.end / length));
+                if (waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Throws an exception if the sequence of the last entry merged is not
+         * valid.
+         *
+         * @param lineNumber the line number of the next header
+         */
+        private void checkLastSequence(int lineNumber) {
+            if (lastSequenceError != null) {
+                throw new IllegalArgumentException("An error occurred while parsing the sequence of " + lastAccession + " at line " + lineNumber + ": " + lastSequenceError);
+            }
+        }
+
+        /**
+         * Returns the FASTA index of the merged chunks.
+         *
+         * @param name the name of the database, set to the file name if null
+         * @param version the version, the last modification of the file is
+         * used if null
+         *
+         * @return the FASTA index
+         */
+        FastaIndex getFastaIndex(String name, String version) {
+
+            long lastModified = fastaFile.lastModified();
+
+            if (version == null) {
+                version = FastaIndex.getDefaultVersion(lastModified);
+            }
+
+            String fileName = fastaFile.getName();
+            if (name == null) {
+                name = Util.removeExtension(fileName);
+            }
+
+            // find the main database type
+            Header.DatabaseType mainDatabaseType = null;
+            int maxCounter = 0;
+            for (Header.DatabaseType tempDatabaseType : databaseTypes.keySet()) {
+                if (databaseTypes.get(tempDatabaseType) > maxCounter) {
+                    maxCounter = databaseTypes.get(tempDatabaseType);
+                    mainDatabaseType = tempDatabaseType;
+                }
+            }
+
+            return new FastaIndex(indexes, decoyAccessions, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.protein.Header;
+import com.compomics.util.protein.Header.DatabaseType;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * The protein sequences of a FASTA file packed in memory. The residues of all
+ * proteins are stored in a single array and retrieved using a table of
+ * offsets indexed by protein ordinal, the order of the proteins in the FASTA
+ * file. Once loaded the sequences cannot be modified and can be retrieved
+ * concurrently without locking.
+ *
+ * @author Marc Vaudel
+ */
+public class PackedProteinSequences {
+
+    /**
+     * The encoding of the residues.
+     */
+    private static final Charset ENCODING = Charset.forName("US-ASCII");
+    /**
+     * The residues of all proteins.
+     */
+    private final byte[] residues;
+    /**
+     * The offsets of the sequences in the residues array indexed by protein
+     * ordinal. The sequence of protein i ends at the offset of protein i + 1.
+     */
+    private final int[] offsets;
+    /**
+     * The accessions indexed by protein ordinal.
+     */
+    private final String[] accessions;
+    /**
+     * The protein ordinals indexed by accession.
+     */
+    private final HashMap<String, Integer> ordinals;
+    /**
+     * The indexes of the database types indexed by protein ordinal.
+     */
+    private final byte[] databaseTypes;
+    /**
+     * The ordinals of the decoy proteins.
+     */
+    private final BitSet decoys;
+
+    /**
+     * Constructor.
+     *
+     * @param residues the residues of all proteins
+     * @param offsets the offsets of the sequences
+     * @param accessions the accessions
+     * @param ordinals the protein ordinals indexed by accession
+     * @param databaseTypes the indexes of the database types
+     * @param decoys the ordinals of the decoy proteins
+     */
+    private PackedProteinSequences(byte[] residues, int[] offsets, String[] accessions, HashMap<String, Integer> ordinals, byte[] databaseTypes, BitSet decoys) {
+        this.residues = residues;
+        this.offsets = offsets;
+        this.accessions = accessions;
+        this.ordinals = ordinals;
+        this.databaseTypes = databaseTypes;
+        this.decoys = decoys;
+    }
+
+    /**
+     * Reads the protein sequences of a FASTA file and packs them in memory.
+     *
+     * @param fastaFile the FASTA file
+     * @param fastaIndex the index of the FASTA file
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return the packed sequences, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     */
+    public static PackedProteinSequences load(File fastaFile, FastaIndex fastaIndex, WaitingHandler waitingHandler) throws IOException {
+
+        long fileLength = fastaFile.length();
+        if (fileLength > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The FASTA file " + fastaFile.getName() + " is too large to be packed in memory.");
+        }
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+        }
+        long progressUnit = fileLength / 100;
+
+        int nProteins = fastaIndex.getNSequences();
+        byte[] residues = new byte[(int) fileLength];
+        int[] offsets = new int[nProteins + 1];
+        String[] accessions = new String[nProteins];
+        byte[] databaseTypes = new byte[nProteins];
+        HashMap<String, Integer> ordinals = new HashMap<String, Integer>(nProteins);
+        BitSet decoys = new BitSet(nProteins);
+
+        int ordinal = -1;
+        int length = 0;
+        long nRead = 0;
+        BufferedReader br = new BufferedReader(new FileReader(fastaFile));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                nRead += line.length() + 1;
+                if (line.startsWith(">")) {
+                    if (ordinal >= 0 && length > offsets[ordinal] && residues[length - 1] == '*') {
+                        length--;
+                    }
+                    Header header = Header.parseFromFASTA(line);
+                    String accession = header.getAccessionOrRest();
+                    if (accession == null) {
+                        throw new IllegalArgumentException("No accession found for header " + line + ".");
+                    }
+                    ordinal++;
+                    if (ordinal == accessions.length) {
+                        int capacity = 2 * accessions.length + 1;
+                        offsets = Arrays.copyOf(offsets, capacity + 1);
+                        accessions = Arrays.copyOf(accessions, capacity);
+                        databaseTypes = Arrays.copyOf(databaseTypes, capacity);
+                    }
+                    offsets[ordinal] = length;
+                    accessions[ordinal] = accession;
+                    databaseTypes[ordinal] = (byte) header.getDatabaseType().ordinal();
+                    ordinals.put(accession, ordinal);
+                    if (fastaIndex.isDecoy(accession)) {
+                        decoys.set(ordinal);
+                    }
+                    if (waitingHandler != null && progressUnit != 0) {
+                        waitingHandler.setSecondaryProgressCounter((int) (nRead / progressUnit));
+                        if (waitingHandler.isRunCanceled()) {
+                            return null;
+                        }
+                    }
+                } else if (ordinal >= 0) {
+                    String sequence = line.trim();
+                    for (int i = 0; i < sequence.length(); i++) {
+                        residues[length++] = (byte) sequence.charAt(i);
+                    }
+                }
+            }
+        } finally {
+            br.close();
+        }
+        if (ordinal >= 0 && length > offsets[ordinal] && residues[length - 1] == '*') {
+            length--;
+        }
+        nProteins = ordinal + 1;
+        offsets[nProteins] = length;
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return new PackedProteinSequences(Arrays.copyOf(residues, length), Arrays.copyOf(offsets, nProteins + 1),
+                Arrays.copyOf(accessions, nProteins), ordinals, Arrays.copyOf(databaseTypes, nProteins), decoys);
+    }
+
+    /**
+     * Returns the number of proteins.
+     *
+     * @return the number of proteins
+     */
+    public int size() {
+        return accessions.length;
+    }
+
+    /**
+     * Returns the ordinal of the protein with the given accession, -1 if not
+     * found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the ordinal of the protein
+     */
+    public int getOrdinal(String accession) {
+        Integer ordinal = ordinals.get(accession);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Returns the accession of the protein at the given ordinal.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the accession of the protein
+     */
+    public String getAccession(int ordinal) {
+        return accessions[ordinal];
+    }
+
+    /**
+     * Returns the length of the sequence of the protein at the given ordinal.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the length of the sequence
+     */
+    public int getLength(int ordinal) {
+        return offsets[ordinal + 1] - offsets[ordinal];
+    }
+
+    /**
+     * Returns the sequence of the protein at the given ordinal.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the sequence of the protein
+     */
+    public String getSequence(int ordinal) {
+        return new String(residues, offsets[ordinal], getLength(ordinal), ENCODING);
+    }
+
+    /**
+     * Returns the protein with the given accession, null if not found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the protein
+     */
+    public Protein getProtein(String accession) {
+        Integer ordinal = ordinals.get(accession);
+        if (ordinal == null) {
+            return null;
+        }
+        return new Protein(accession, DatabaseType.values()[databaseTypes[ordinal]], getSequence(ordinal), decoys.get(ordinal));
+    }
+}
@@ -0,0 +1,69 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+/**
+ * Decoy strategy reversing the target sequences between cleavage sites. The
+ * cleavage residues stay in place such that the decoy peptides have the same
+ * masses and cleavage sites as the target peptides. For example, with the
+ * trypsin cleavage residues, PEPTIDEKAGSR becomes EDITPEPKSGAR.
+ *
+ * @author Marc Vaudel
+ */
+public class PseudoReversedDecoyStrategy implements DecoyStrategy {
+
+    /**
+     * The residues after which the protein is cleaved.
+     */
+    private final String cleavageResidues;
+
+    /**
+     * Constructor using the cleavage residues of trypsin.
+     */
+    public PseudoReversedDecoyStrategy() {
+        this("KR");
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param cleavageResidues the residues after which the protein is cleaved
+     */
+    public PseudoReversedDecoyStrategy(String cleavageResidues) {
+        this.cleavageResidues = cleavageResidues;
+    }
+
+    /**
+     * Returns the residues after which the protein is cleaved.
+     *
+     * @return the residues after which the protein is cleaved
+     */
+    public String getCleavageResidues() {
+        return cleavageResidues;
+    }
+
+    @Override
+    public String getDecoyFlag() {
+        return SequenceFactory.DECOY_FLAGS[3];
+    }
+
+    @Override
+    public boolean isDefaultReversed() {
+        return false;
+    }
+
+    @Override
+    public String getDecoySequence(String accession, String sequence) {
+        char[] residues = sequence.toCharArray();
+        int start = 0;
+        for (int i = 0; i <= residues.length; i++) {
+            if (i == residues.length || cleavageResidues.indexOf(residues[i]) != -1) {
+                for (int left = start, right = i - 1; left < right; left++, right--) {
+                    char residue = residues[left];
+                    residues[left] = residues[right];
+                    residues[right] = residue;
+                }
+                start = i + 1;
+            }
+        }
+        return new String(residues);
+    }
+}
@@ -0,0 +1,31 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+/**
+ * Decoy strategy reversing the target sequences. The decoys use the default
+ * decoy accessions and descriptions of the sequence factory.
+ *
+ * @author Marc Vaudel
+ */
+public class ReversedDecoyStrategy implements DecoyStrategy {
+
+    /**
+     * Constructor.
+     */
+    public ReversedDecoyStrategy() {
+    }
+
+    @Override
+    public String getDecoyFlag() {
+        return SequenceFactory.DECOY_FLAGS[0];
+    }
+
+    @Override
+    public boolean isDefaultReversed() {
+        return true;
+    }
+
+    @Override
+    public String getDecoySequence(String accession, String sequence) {
+        return SequenceFactory.reverseSequence(sequence);
+    }
+}
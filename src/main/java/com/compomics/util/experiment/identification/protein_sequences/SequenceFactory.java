@@ -4,7 +4,6 @@ import com.compomics.util.Util;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.biology.Protein;
-import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
@@ -21,7 +20,6 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import javax.swing.JProgressBar;
 import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
@@ -47,6 +45,10 @@ public class SequenceFactory {
      * Map of the currently loaded proteins.
      */
     private HashMap<String, Protein> currentProteinMap = new HashMap<String, Protein>();
+    /**
+     * The protein sequences packed in memory, null if not loaded.
+     */
+    private volatile PackedProteinSequences packedSequences = null;
     /**
      * Index of the FASTA file.
      */
@@ -70,7 +72,7 @@ public class SequenceFactory {
     /**
      * Recognized flags for a decoy protein.
      */
-    private static final String[] DECOY_FLAGS = {"REVERSED", "RND", "SHUFFLED", "DECOY"};
+    static final String[] DECOY_FLAGS = {"REVERSED", "RND", "SHUFFLED", "DECOY"};
     /**
      * HashMap of the currently calculated protein molecular weights.
      */
@@ -149,6 +151,7 @@ public class SequenceFactory {
     public void clearFactory() throws IOException, SQLException {
         closeFile();
         defaultPeptideMapper = null;
+        packedSequences = null;
         currentHeaderMap.clear();
         currentProteinMap.clear();
         fastaIndex = null;
@@ -208,6 +211,20 @@ public class SequenceFactory {
             throw new IllegalArgumentException("Protein sequences not loaded in the sequence factory.");
         }
 
+        PackedProteinSequences sequences = packedSequences;
+        if (sequences != null) {
+            Protein protein = sequences.getProtein(accession);
+            if (protein != null) {
+                return protein;
+            }
+            if (isDefaultReversed() && isDecoyAccession(accession)) {
+                Protein targetProtein = sequences.getProtein(getDefaultTargetAccession(accession));
+                if (targetProtein != null) {
+                    return new Protein(accession, targetProtein.getDatabaseType(), reverseSequence(targetProtein.getSequence()), true);
+                }
+            }
+        }
+
         Protein currentProtein = currentProteinMap.get(accession);
 
         if (currentProtein == null && isDefaultReversed() && isDecoyAccession(accession)) {
@@ -568,11 +585,49 @@ public class SequenceFactory {
         }
 
         defaultPeptideMapper = null;
+        packedSequences = null;
         currentFastaFile = fastaFile;
         currentRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
         fastaIndex = getFastaIndex(false, waitingHandler);
     }
 
+    /**
+     * Packs the protein sequences of the loaded FASTA file in memory. The
+     * proteins are then retrieved from memory without reading the file or
+     * locking the factory. Requires enough memory to hold all residues.
+     *
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the FASTA file
+     */
+    public void loadSequencesInMemory(WaitingHandler waitingHandler) throws IOException {
+        if (fastaIndex == null) {
+            throw new IllegalArgumentException("Protein sequences not loaded in the sequence factory.");
+        }
+        packedSequences = PackedProteinSequences.load(currentFastaFile, fastaIndex, waitingHandler);
+    }
+
+    /**
+     * Indicates whether the protein sequences are packed in memory.
+     *
+     * @return a boolean indicating whether the protein sequences are packed in
+     * memory
+     */
+    public boolean isSequencesInMemory() {
+        return packedSequences != null;
+    }
+
+    /**
+     * Returns the protein sequences packed in memory, null if not loaded.
+     *
+     * @return the protein sequences packed in memory
+     */
+    public PackedProteinSequences getPackedSequences() {
+        return packedSequences;
+    }
+
     /**
      * Indicates whether the connection to the random access file has been
      * closed.
@@ -651,7 +706,32 @@ public class SequenceFactory {
      * @throws IllegalArgumentException if non unique accession numbers are
      * found
      */
-    public static synchronized FastaIndex getFastaIndex(File fastaFile, boolean overwrite, WaitingHandler waitingHandler) throws IOException, StringIndexOutOfBoundsException {
+    public static FastaIndex getFastaIndex(File fastaFile, boolean overwrite, WaitingHandler waitingHandler) throws IOException, StringIndexOutOfBoundsException {
+        return getFastaIndex(fastaFile, overwrite, waitingHandler, Math.max(Runtime.getRuntime().availableProcessors(), 1));
+    }
+
+    /**
+     * Returns the file index of the given FASTA file. If a problem occurs while
+     * reading an older index the file will be automatically overwritten and the
+     * stacktrace printed. The file is indexed in parallel using the given
+     * number of threads.
+     *
+     * @param fastaFile the FASTA file to index
+     * @param overwrite boolean indicating whether the index .cui file shall be
+     * overwritten if present, even if the file has not been changed
+     * @param waitingHandler a waitingHandler showing the progress
+     * @param nThreads the number of threads to use
+     *
+     * @return the index of the FASTA file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the FASTA file
+     * @throws StringIndexOutOfBoundsException thrown if issues occur during the
+     * parsing of the protein headers
+     * @throws IllegalArgumentException if non unique accession numbers are
+     * found
+     */
+    public static synchronized FastaIndex getFastaIndex(File fastaFile, boolean overwrite, WaitingHandler waitingHandler, int nThreads) throws IOException, StringIndexOutOfBoundsException {
 
         FastaIndex tempFastaIndex;
         String fileName = fastaFile.getName();
@@ -659,7 +739,7 @@ public class SequenceFactory {
             File indexFile = new File(fastaFile.getParent(), fastaFile.getName() + ".cui");
             if (indexFile.exists()) {
                 try {
-                    tempFastaIndex = (FastaIndex) SerializationUtils.readObject(indexFile);
+                    tempFastaIndex = readIndex(indexFile);
                     Long indexLastModified = tempFastaIndex.getLastModified();
                     if (indexLastModified != null) {
                         long fileLastModified = fastaFile.lastModified();
@@ -669,6 +749,8 @@ public class SequenceFactory {
                             System.err.println("Reindexing: " + fileName + ". (changes in the file detected)");
                         }
                     }
+                    // the index file will be replaced
+                    tempFastaIndex.release();
                 } catch (InvalidClassException e) {
                     System.err.println("Reindexing: " + fileName + ". (Reason: " + e.getLocalizedMessage() + ")");
                 } catch (Exception e) {
@@ -687,19 +769,21 @@ public class SequenceFactory {
 
         if (indexFile.exists()) {
             try {
-                tempFastaIndex = (FastaIndex) SerializationUtils.readObject(indexFile);
+                tempFastaIndex = readIndex(indexFile);
                 decoyTag = tempFastaIndex.getDecoyTag();
                 version = tempFastaIndex.getVersion();
                 name = tempFastaIndex.getName();
                 description = tempFastaIndex.getDescription();
                 accessionParsingRule = tempFastaIndex.getAccessionParsingRule();
+                // the index file will be replaced
+                tempFastaIndex.release();
             } catch (Exception e) {
                 // Fail silently
             }
         }
 
         System.out.println("Reindexing: " + fileName + ".");
-        tempFastaIndex = createFastaIndex(fastaFile, name, decoyTag, version, waitingHandler);
+        tempFastaIndex = createFastaIndex(fastaFile, name, decoyTag, version, waitingHandler, nThreads);
         tempFastaIndex.setDescription(description);
         tempFastaIndex.setAccessionParsingRule(accessionParsingRule);
 
@@ -716,15 +800,16 @@ public class SequenceFactory {
 
     /**
      * Static method to create a FASTA index for a FASTA file. Non-valid fasta
-     * files will throw an exception.
+     * files will throw an exception. The file is indexed in parallel using
+     * the given number of threads.
      *
      * @param fastaFile the FASTA file
-     * @param progressBar a progress bar showing the progress
+     * @param name the name of the database. Set to file name if null.
      * @param decoyTag the decoy tag. Will be inferred if null.
-     * @param mainDatabaseType the main database type. Will be inferred if null.
      * @param version the version. last modification of the file will be used if
      * null.
-     * @param name the name of the database. Set to file name if null.
+     * @param waitingHandler a waiting handler showing the progress
+     * @param nThreads the number of threads to use
      *
      * @return the corresponding FASTA index
      *
@@ -732,148 +817,12 @@ public class SequenceFactory {
      * reading the file
      */
     private static FastaIndex createFastaIndex(File fastaFile, String name, String decoyTag, String version,
-            WaitingHandler waitingHandler) throws IOException {
-
-        HashMap<String, Long> indexes = new HashMap<String, Long>();
-        HashSet<String> decoyAccessions = new HashSet<String>();
-        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
-
-        if (waitingHandler != null) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(100);
-        }
-
-        long progressUnit = bufferedRandomAccessFile.length() / 100;
-
-        String line;
-        boolean decoy = false, defaultReversed = false;
-        int nTarget = 0;
-        long index = bufferedRandomAccessFile.getFilePointer();
-
-        // a map of the database header types
-        HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
-
-        // a map of the species
-        HashMap<String, Integer> species = new HashMap<String, Integer>();
-
-        StringBuilder sequenceBuilder = new StringBuilder();
-        String accession = null;
-        int lineNumber = 0;
-
-        while ((line = bufferedRandomAccessFile.readLine()) != null) {
-
-            lineNumber++;
-
-            if (line.startsWith(">")) {
-
-                if (sequenceBuilder.length() != 0 && accession != null) {
-                    String sequence = importSequenceFromFasta(sequenceBuilder);
-                    try {
-                        validateSequence(sequence);
-                    } catch (Exception e) {
-                        throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + " at line " + lineNumber + ": " + e.toString());
-                    }
-                }
-
-                Header fastaHeader = Header.parseFromFASTA(line);
-                accession = fastaHeader.getAccessionOrRest();
-                if (accession == null) {
-                    throw new IllegalArgumentException("No accession found for header at line " + lineNumber + ".");
-                }
-
-//                if (fastaHeader.getStartLocation() != -1) {
-//                    accession += " (" + fastaHeader.getStartLocation() + "-" + fastaHeader.getEndLocation() + ")"; // special dbtoolkit pattern
-//                }
-//                if (indexes.containsKey(accession)) {
-//                    throw new IllegalArgumentException("Non unique accession number found \'" + accession + "\'!\nPlease check the FASTA file.");
-//                }
-                indexes.put(accession, index);
-                if (decoyTag == null) {
-                    decoyTag = getDecoyFlag(accession);
-                }
-                if (decoyTag == null || !isDecoy(accession, decoyTag)) {
-                    nTarget++;
-
-                    // get the database type
-                    Header.DatabaseType tempDatabaseType = fastaHeader.getDatabaseType();
-                    Integer typeCounter = databaseTypes.get(tempDatabaseType);
-
-                    if (typeCounter == null) {
-                        databaseTypes.put(tempDatabaseType, 1);
-                    } else {
-                        databaseTypes.put(tempDatabaseType, typeCounter + 1);
-                    }
-
-                    // get the species
-                    String taxonomy = fastaHeader.getTaxonomy();
-                    if (taxonomy == null || taxonomy.equals("")) {
-                        taxonomy = SpeciesFactory.UNKNOWN;
-                    }
-                    Integer occurrence = species.get(taxonomy);
-                    if (occurrence == null) {
-                        species.put(taxonomy, 1);
-                    } else {
-                        species.put(taxonomy, occurrence + 1);
-                    }
-
-                } else {
-                    decoyAccessions.add(accession);
-                    if (!decoy) {
-                        decoy = true;
-                        if (accession.endsWith(getDefaultDecoyAccessionSuffix())) {
-                            defaultReversed = true;
-                        }
-                    }
-                }
-
-                if (waitingHandler != null && progressUnit != 0) {
-                    waitingHandler.setSecondaryProgressCounter((int) (index / progressUnit));
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                }
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder = new StringBuilder();
-            } else {
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder.append(line.trim());
-            }
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        bufferedRandomAccessFile.close();
-
-        long lastModified = fastaFile.lastModified();
-
-        if (version == null) {
-            version = FastaIndex.getDefaultVersion(lastModified);
-        }
-
-        String fileName = fastaFile.getName();
-        if (name == null) {
-            name = Util.removeExtension(fileName);
-        }
-
-        // find the main database type
-        Header.DatabaseType mainDatabaseType = null;
-        int maxCounter = 0;
-        Iterator<Header.DatabaseType> iterator = databaseTypes.keySet().iterator();
-        while (iterator.hasNext()) {
-            Header.DatabaseType tempDatabaseType = iterator.next();
-            if (databaseTypes.get(tempDatabaseType) > maxCounter) {
-                maxCounter = databaseTypes.get(tempDatabaseType);
-                mainDatabaseType = tempDatabaseType;
-            }
-        }
-
-        return new FastaIndex(indexes, decoyAccessions, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species);
+            WaitingHandler waitingHandler, int nThreads) throws IOException {
+        return FastaIndexer.createFastaIndex(fastaFile, name, decoyTag, version, waitingHandler, nThreads);
     }
 
     /**
-     * Serializes the FASTA file index in a given directory.
+     * Writes the FASTA file index in a given directory.
      *
      * @param fastaIndex the index of the FASTA file
      * @param directory the directory where to write the file
@@ -882,9 +831,29 @@ public class SequenceFactory {
      * writing the file
      */
     public static void writeIndex(FastaIndex fastaIndex, File directory) throws IOException {
-        // Serialize the file index as compomics utilities index
         File destinationFile = new File(directory, getIndexName(fastaIndex.getFileName()));
-        SerializationUtils.writeObject(fastaIndex, destinationFile);
+        FastaIndexFile.write(fastaIndex, destinationFile);
+    }
+
+    /**
+     * Reads a FASTA file index. Indexes in the binary format are read without
+     * deserializing the accessions, indexes serialized by older versions are
+     * deserialized.
+     *
+     * @param indexFile the index file
+     *
+     * @return the index of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the file
+     */
+    public static FastaIndex readIndex(File indexFile) throws IOException, ClassNotFoundException {
+        if (FastaIndexFile.isFastaIndexFile(indexFile)) {
+            return FastaIndexFile.read(indexFile);
+        }
+        return (FastaIndex) SerializationUtils.readObject(indexFile);
     }
 
     /**
@@ -904,7 +873,9 @@ public class SequenceFactory {
      *
      * @throws IOException if an IOException occurs
      */
-    public void saveIndex() throws IOException {
+    public synchronized void saveIndex() throws IOException {
+        // the index might be mapped from the file to replace
+        fastaIndex.detach();
         writeIndex(fastaIndex, currentFastaFile.getParentFile());
     }
 
@@ -920,6 +891,7 @@ public class SequenceFactory {
             currentRandomAccessFile.close();
             currentFastaFile = null;
         }
+        packedSequences = null;
         if (defaultPeptideMapper != null) {
             defaultPeptideMapper.close();
         }
@@ -1030,6 +1002,7 @@ public class SequenceFactory {
 
     /**
      * Appends decoy sequences to the desired file while displaying progress.
+     * The decoys are the reversed target sequences.
      *
      * @param destinationFile the destination file
      * @param waitingHandler the waiting handler
@@ -1041,94 +1014,63 @@ public class SequenceFactory {
      */
     public void appendDecoySequences(File destinationFile, WaitingHandler waitingHandler)
             throws IOException, InterruptedException, ClassNotFoundException {
+        appendDecoySequences(destinationFile, new ReversedDecoyStrategy(), waitingHandler);
+    }
 
-        if (waitingHandler != null) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(fastaIndex.getNTarget());
-        }
-
-        // first create the new target-decoy file
-        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(destinationFile));
-        String lineBreak = System.getProperty("line.separator");
-
-        try {
-            ProteinIterator proteinIterator = getProteinIterator(true);
+    /**
+     * Appends decoy sequences built using the given strategy to the desired
+     * file while displaying progress. The decoys are built in parallel and
+     * the index of the new file is written along with the file. The new file
+     * is then loaded in the factory.
+     *
+     * @param destinationFile the destination file
+     * @param decoyStrategy the strategy used to build the decoys
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException if an InterruptedException occurs
+     * @throws ClassNotFoundException if an ClassNotFoundException occurs
+     */
+    public void appendDecoySequences(File destinationFile, DecoyStrategy decoyStrategy, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException {
 
-            while (proteinIterator.hasNext()) {
+        FastaIndex newIndex = DecoyDatabaseGenerator.generate(currentFastaFile, fastaIndex, destinationFile, decoyStrategy,
+                waitingHandler, Math.max(Runtime.getRuntime().availableProcessors(), 1));
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+        if (newIndex == null) {
+            destinationFile.delete();
+            return;
+        }
 
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
+        // try to rescue user settings
+        File indexFile = new File(destinationFile.getParentFile(), getIndexName(destinationFile.getName()));
+        if (indexFile.exists()) {
+            try {
+                FastaIndex oldIndex = readIndex(indexFile);
+                if (oldIndex.getName() != null) {
+                    newIndex.setName(oldIndex.getName());
                 }
-
-                Protein currentProtein = proteinIterator.getNextProtein();
-                String accession = currentProtein.getAccession();
-                Header currentHeader = getHeader(accession);
-
-                String decoyAccession = getDefaultDecoyAccession(currentProtein.getAccession());
-//                String decoyAccession ="rev_" + currentProtein.getAccession(); Header for the TPP
-                String currentRawHeader = currentHeader.getRawHeader();
-
-                // replace the accession number
-                String escapedString = java.util.regex.Pattern.quote(accession);
-                currentRawHeader = currentRawHeader.replaceAll(escapedString, decoyAccession);
-
-                // add decoy to the description
-                if (currentHeader.getDescription() != null && !currentHeader.getDescription().isEmpty()) {
-                    escapedString = java.util.regex.Pattern.quote(currentHeader.getDescription());
-                    currentRawHeader = currentRawHeader.replaceAll(escapedString, getDefaultDecoyDescription(currentHeader.getDescription()));
+                if (oldIndex.getVersion() != null) {
+                    newIndex.setVersion(oldIndex.getVersion());
                 }
-
-                // write the target protein to the fasta file
-                bufferedWriter.write(currentHeader.getRawHeader() + lineBreak);
-                bufferedWriter.write(currentProtein.getSequence() + lineBreak);
-
-                // write the decoy protein to the fasta file
-                bufferedWriter.write(currentRawHeader + lineBreak);
-                bufferedWriter.write(reverseSequence(currentProtein.getSequence()) + lineBreak);
-
-                // possible fix for the dbtoolkit uniprot format
-//            Protein currentProtein = getProtein(accession);
-//            Header currentHeader = getHeader(accession);
-//            String reversedSequence = reverseSequence(currentProtein.getSequence());
-//
-//            bufferedWriter.write(currentHeader.toString() + System.getProperty("line.separator"));
-//            bufferedWriter.write(currentProtein.getSequence() + System.getProperty("line.separator"));
-//
-//            // @TODO: this might not be the best way of doing this, but was easier than trying to change the parsing in the Header class...
-//            if (currentHeader.toString("_" + decoyFlags[0]).equalsIgnoreCase(currentHeader.toString())) {
-//                currentHeader.setRest(currentProtein.getAccession() + "_" + decoyFlags[0]);
-//            }
-//
-//            bufferedWriter.write(currentHeader.toString("_" + decoyFlags[0]) + System.getProperty("line.separator"));
-//            bufferedWriter.write(reversedSequence + System.getProperty("line.separator"));
+                newIndex.setDescription(oldIndex.getDescription());
+                newIndex.setAccessionParsingRule(oldIndex.getAccessionParsingRule());
+                // the index file will be replaced
+                oldIndex.release();
+            } catch (Exception e) {
+                // Fail silently
             }
-
-        } finally {
-            bufferedWriter.close();
         }
 
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        boolean indexFile = true;
-
-        if (waitingHandler != null) {
-            if (waitingHandler.isRunCanceled()) {
-                indexFile = false;
-            }
+        try {
+            writeIndex(newIndex, destinationFile.getParentFile());
+        } catch (Exception e) {
+            e.printStackTrace();
         }
 
-        if (indexFile) {
-            // now (re-)index the new target-decoy file
-            loadFastaFile(destinationFile, waitingHandler);
-        } else {
-            destinationFile.delete();
-        }
+        // the index written is loaded with the new file
+        loadFastaFile(destinationFile, waitingHandler);
     }
 
     /**
@@ -1428,7 +1370,7 @@ public class SequenceFactory {
             PeptideMapperType peptideMapperType = sequenceMatchingPreferences.getPeptideMapperType();
             switch (peptideMapperType) {
                 case fm_index:
-                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, ptmSettings);
+                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, ptmSettings, nThreads);
                     break;
                 case tree:
 
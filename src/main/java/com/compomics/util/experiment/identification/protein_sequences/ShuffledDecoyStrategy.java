@@ -0,0 +1,60 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import java.util.Random;
+
+/**
+ * Decoy strategy shuffling the target sequences. The random generator of
+ * every protein is seeded using the given seed and the accession of the
+ * protein, such that the decoys are reproducible whatever the number of
+ * threads used.
+ *
+ * @author Marc Vaudel
+ */
+public class ShuffledDecoyStrategy implements DecoyStrategy {
+
+    /**
+     * The seed of the random generators.
+     */
+    private final long seed;
+
+    /**
+     * Constructor.
+     *
+     * @param seed the seed of the random generators
+     */
+    public ShuffledDecoyStrategy(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the seed of the random generators.
+     *
+     * @return the seed of the random generators
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public String getDecoyFlag() {
+        return SequenceFactory.DECOY_FLAGS[2];
+    }
+
+    @Override
+    public boolean isDefaultReversed() {
+        return false;
+    }
+
+    @Override
+    public String getDecoySequence(String accession, String sequence) {
+        Random random = new Random(31 * seed + accession.hashCode());
+        char[] residues = sequence.toCharArray();
+        for (int i = residues.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            char residue = residues[i];
+            residues[i] = residues[j];
+            residues[j] = residue;
+        }
+        return new String(residues);
+    }
+}
@@ -1,11 +1,13 @@
 package com.compomics.util.experiment.identification.ptm.ptmscores;
 
 import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.FragmentTable;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.IonFactory;
 import com.compomics.util.experiment.biology.NeutralLoss;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.spectrum_annotation.FragmentIonsCache;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
@@ -60,6 +62,16 @@ public class PhosphoRS {
      * The binomial distributions cache.
      */
     private static HashMap<Double, HashMap<Integer, BinomialDistribution>> distributionCache = new HashMap<Double, HashMap<Integer, BinomialDistribution>>();
+    /**
+     * The fragment table of every thread, reused for the peptides of every
+     * modification profile.
+     */
+    private static final ThreadLocal<FragmentTable> fragmentTables = new ThreadLocal<FragmentTable>() {
+        @Override
+        protected FragmentTable initialValue() {
+            return new FragmentTable();
+        }
+    };
 
     /**
      * Returns the PhosphoRS sequence probabilities for the PTM possible
@@ -338,8 +350,7 @@ public class PhosphoRS {
                         for (ArrayList<Ion> expectedIons : expectedFragmentIons.values()) {
                             nExpectedFragmentIons += expectedIons.size();
                         }
-                        IonFactory fragmentFactory = IonFactory.getInstance();
-                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings);
+                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = FragmentIonsCache.getInstance().getFragmentIons(peptide, scoringAnnotationSetttings);
                         for (int i = 0; i < spectra.size(); i++) {
                             MSnSpectrum currentSpectrum = spectra.get(i);
                             double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
@@ -513,7 +524,7 @@ public class PhosphoRS {
         if (w == 0.0) {
             return 1.0;
         }
-        int N = spectrum.getPeakMap().size();
+        int N = spectrum.getNPeaks();
         if (N <= 1) {
             return 1.0;
         }
@@ -603,10 +614,10 @@ public class PhosphoRS {
      */
     private static HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> getPossiblePeptideFragments(HashMap<String, Peptide> possiblePeptides, SpecificAnnotationSettings scoringAnnotationSetttings) {
         HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> result = new HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>>(possiblePeptides.size());
-        IonFactory fragmentFactory = IonFactory.getInstance();
+        FragmentIonsCache fragmentIonsCache = FragmentIonsCache.getInstance();
         for (String profileKey : possiblePeptides.keySet()) {
             Peptide peptide = possiblePeptides.get(profileKey);
-            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings);
+            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentIonsCache.getFragmentIons(peptide, scoringAnnotationSetttings);
             result.put(profileKey, possibleFragmentIons);
         }
         return result;
@@ -676,6 +687,15 @@ public class PhosphoRS {
         HashMap<Double, ArrayList<String>> siteDeterminingIons = new HashMap<Double, ArrayList<String>>();
         HashMap<Double, ArrayList<String>> commonIons = new HashMap<Double, ArrayList<String>>();
 
+        // the expected peptide fragment ions, as given by the spectrum annotator
+        IonFactory fragmentFactory = IonFactory.getInstance();
+        FragmentTable fragmentTable = fragmentTables.get();
+        int fragmentIonType = Ion.IonType.PEPTIDE_FRAGMENT_ION.index;
+        NeutralLossesMap neutralLossesMap = scoringAnnotationSetttings.getNeutralLossesMap();
+        ArrayList<Integer> selectedCharges = scoringAnnotationSetttings.getSelectedCharges();
+        int precursorCharge = scoringAnnotationSetttings.getPrecursorCharge();
+        boolean massShifts = spectrumAnnotator.getMassShift() != 0 || spectrumAnnotator.getMassShiftNTerm() != 0 || spectrumAnnotator.getMassShiftCTerm() != 0;
+
         for (ArrayList<Integer> modificationProfile : possibleProfiles) {
 
             for (int pos : modificationProfile) {
@@ -692,12 +712,34 @@ public class PhosphoRS {
 
             HashSet<Double> mzs = new HashSet<Double>(2);
 
-            for (ArrayList<Ion> ions : spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide).values()) {
-                for (Ion ion : ions) {
-                    if (ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
-                        for (int charge : scoringAnnotationSetttings.getSelectedCharges()) {
-                            double mz = ion.getTheoreticMz(charge);
-                            mzs.add(mz);
+            if (massShifts) {
+                // the annotator shifts its ions, use them as they are
+                for (ArrayList<Ion> ions : spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide).values()) {
+                    for (Ion ion : ions) {
+                        if (ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
+                            for (int charge : selectedCharges) {
+                                mzs.add(ion.getTheoreticMz(charge));
+                            }
+                        }
+                    }
+                }
+            } else {
+                fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings, fragmentTable);
+                for (int i = 0; i < fragmentTable.size(); i++) {
+                    if (fragmentTable.getType(i) == fragmentIonType
+                            && (fragmentTable.getNeutralLosses(i) == null || spectrumAnnotator.lossesValidated(neutralLossesMap, fragmentTable.getIon(i)))) {
+                        int number = fragmentTable.getNumber(i);
+                        boolean chargeValidated = false;
+                        for (int charge : selectedCharges) {
+                            if (charge == 1 || charge <= number && charge < precursorCharge) {
+                                chargeValidated = true;
+                                break;
+                            }
+                        }
+                        if (chargeValidated) {
+                            for (int charge : selectedCharges) {
+                                mzs.add(fragmentTable.getMz(i, charge));
+                            }
                         }
                     }
                 }
@@ -748,7 +790,7 @@ public class PhosphoRS {
         }
 
         ArrayList<MSnSpectrum> reducedSpectra = new ArrayList<MSnSpectrum>(MAX_DEPTH);
-        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<Double, ArrayList<Peak>>(spectrum.getPeakMap().size());
+        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<Double, ArrayList<Peak>>(spectrum.getNPeaks());
 
         for (Peak peak : spectrum.getPeakList()) {
             double intensity = peak.intensity;
@@ -0,0 +1,111 @@
+package com.compomics.util.experiment.identification.size_estimators;
+
+import com.compomics.util.db.ObjectSizes;
+import com.compomics.util.db.SizeEstimator;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Base class for the size estimators of experiment objects, providing the
+ * estimates of the objects shared by the different matches.
+ *
+ * @param <T> the class of objects estimated
+ *
+ * @author Marc Vaudel
+ */
+public abstract class ExperimentObjectSizeEstimator<T extends ExperimentObject> implements SizeEstimator<T> {
+
+    /**
+     * The estimated size of a user refinement parameter.
+     */
+    public static final int UR_PARAMETER_SIZE = 128;
+    /**
+     * The estimated size of a tag component.
+     */
+    public static final int TAG_COMPONENT_SIZE = 64;
+    /**
+     * The size of an experiment object without its fields.
+     */
+    protected static final int EXPERIMENT_OBJECT_SIZE = ObjectSizes.OBJECT_HEADER + ObjectSizes.REFERENCE;
+
+    /**
+     * Returns the estimated size of the user refinement parameters of an
+     * object.
+     *
+     * @param object the object
+     *
+     * @return the estimated size of the user refinement parameters
+     */
+    protected long getUrParamsSize(ExperimentObject object) {
+        HashMap<?, ?> urParams = object.getUrParams();
+        if (urParams == null) {
+            return 0;
+        }
+        return ObjectSizes.getMapSize(urParams) + ((long) urParams.size()) * UR_PARAMETER_SIZE;
+    }
+
+    /**
+     * Returns the estimated size of a peptide.
+     *
+     * @param peptide the peptide
+     *
+     * @return the estimated size of the peptide
+     */
+    protected long getPeptideSize(Peptide peptide) {
+        if (peptide == null) {
+            return 0;
+        }
+        long size = ObjectSizes.align(EXPERIMENT_OBJECT_SIZE + 5 * ObjectSizes.REFERENCE) + getUrParamsSize(peptide);
+        size += ObjectSizes.getStringSize(peptide.getSequence());
+        // the mass, estimated upon first use
+        size += ObjectSizes.BOXED_PRIMITIVE;
+        size += ObjectSizes.getStringListSize(peptide.getParentProteinsNoRemapping());
+        ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+        if (modificationMatches != null) {
+            // the modification names are shared with the factory
+            size += ObjectSizes.getListSize(modificationMatches)
+                    + modificationMatches.size() * ObjectSizes.align(EXPERIMENT_OBJECT_SIZE + ObjectSizes.REFERENCE + 7);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the estimated size of a spectrum identification assumption.
+     *
+     * @param assumption the assumption
+     *
+     * @return the estimated size of the assumption
+     */
+    protected long getAssumptionSize(SpectrumIdentificationAssumption assumption) {
+        if (assumption == null) {
+            return 0;
+        }
+        long size = ObjectSizes.align(EXPERIMENT_OBJECT_SIZE + 8 + 6 * ObjectSizes.REFERENCE) + getUrParamsSize(assumption);
+        // score, raw score and charge
+        size += 3 * ObjectSizes.BOXED_PRIMITIVE;
+        ArrayList<double[]> aminoAcidScores = assumption.getAminoAcidScores();
+        if (aminoAcidScores != null) {
+            size += ObjectSizes.getListSize(aminoAcidScores);
+            for (double[] scores : aminoAcidScores) {
+                size += ObjectSizes.getArraySize(scores.length, 8);
+            }
+        }
+        if (assumption instanceof PeptideAssumption) {
+            size += getPeptideSize(((PeptideAssumption) assumption).getPeptide());
+        } else if (assumption instanceof TagAssumption) {
+            Tag tag = ((TagAssumption) assumption).getTag();
+            if (tag != null && tag.getContent() != null) {
+                size += ObjectSizes.align(EXPERIMENT_OBJECT_SIZE + ObjectSizes.REFERENCE) + ObjectSizes.getListSize(tag.getContent())
+                        + ((long) tag.getContent().size()) * TAG_COMPONENT_SIZE;
+            }
+        }
+        return size;
+    }
+}
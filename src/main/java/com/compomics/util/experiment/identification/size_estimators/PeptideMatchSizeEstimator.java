@@ -0,0 +1,26 @@
+package com.compomics.util.experiment.identification.size_estimators;
+
+import com.compomics.util.db.ObjectSizes;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+
+/**
+ * Estimates the memory retained by a peptide match.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMatchSizeEstimator extends ExperimentObjectSizeEstimator<PeptideMatch> {
+
+    @Override
+    public Class<PeptideMatch> getObjectClass() {
+        return PeptideMatch.class;
+    }
+
+    @Override
+    public long getSize(PeptideMatch peptideMatch) {
+        long size = ObjectSizes.align(EXPERIMENT_OBJECT_SIZE + 4 * ObjectSizes.REFERENCE) + getUrParamsSize(peptideMatch);
+        size += ObjectSizes.getStringSize(peptideMatch.getKey());
+        size += getPeptideSize(peptideMatch.getTheoreticPeptide());
+        size += ObjectSizes.getStringListSize(peptideMatch.getSpectrumMatchesKeys());
+        return size;
+    }
+}
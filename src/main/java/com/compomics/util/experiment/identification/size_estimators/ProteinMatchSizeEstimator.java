@@ -0,0 +1,26 @@
+package com.compomics.util.experiment.identification.size_estimators;
+
+import com.compomics.util.db.ObjectSizes;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+
+/**
+ * Estimates the memory retained by a protein match.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMatchSizeEstimator extends ExperimentObjectSizeEstimator<ProteinMatch> {
+
+    @Override
+    public Class<ProteinMatch> getObjectClass() {
+        return ProteinMatch.class;
+    }
+
+    @Override
+    public long getSize(ProteinMatch proteinMatch) {
+        long size = ObjectSizes.align(EXPERIMENT_OBJECT_SIZE + 3 * ObjectSizes.REFERENCE) + getUrParamsSize(proteinMatch);
+        size += ObjectSizes.getStringListSize(proteinMatch.getTheoreticProteinsAccessions());
+        size += ObjectSizes.getStringListSize(proteinMatch.getPeptideMatchesKeys());
+        // the main match is one of the accessions
+        return size;
+    }
+}
@@ -0,0 +1,47 @@
+package com.compomics.util.experiment.identification.size_estimators;
+
+import com.compomics.util.db.ObjectSizes;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Estimates the memory retained by a spectrum match. The best assumptions are
+ * assumed to be shared with the assumptions map.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchSizeEstimator extends ExperimentObjectSizeEstimator<SpectrumMatch> {
+
+    @Override
+    public Class<SpectrumMatch> getObjectClass() {
+        return SpectrumMatch.class;
+    }
+
+    @Override
+    public long getSize(SpectrumMatch spectrumMatch) {
+        long size = ObjectSizes.align(EXPERIMENT_OBJECT_SIZE + 4 + 6 * ObjectSizes.REFERENCE) + getUrParamsSize(spectrumMatch);
+        size += ObjectSizes.getStringSize(spectrumMatch.getKey());
+        if (spectrumMatch.getSpectrumNumber() != null) {
+            size += ObjectSizes.BOXED_PRIMITIVE;
+        }
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap != null) {
+            size += ObjectSizes.getMapSize(assumptionsMap) + assumptionsMap.size() * ObjectSizes.BOXED_PRIMITIVE;
+            for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap : assumptionsMap.values()) {
+                size += ObjectSizes.getMapSize(advocateMap) + advocateMap.size() * ObjectSizes.BOXED_PRIMITIVE;
+                for (ArrayList<SpectrumIdentificationAssumption> assumptions : advocateMap.values()) {
+                    size += ObjectSizes.getListSize(assumptions);
+                    for (SpectrumIdentificationAssumption assumption : assumptions) {
+                        size += getAssumptionSize(assumption);
+                    }
+                }
+            }
+        } else {
+            size += getAssumptionSize(spectrumMatch.getBestPeptideAssumption());
+            size += getAssumptionSize(spectrumMatch.getBestTagAssumption());
+        }
+        return size;
+    }
+}
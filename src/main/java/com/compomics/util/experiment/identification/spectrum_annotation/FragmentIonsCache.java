@@ -0,0 +1,211 @@
+package com.compomics.util.experiment.identification.spectrum_annotation;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.massspectrometry.SpectrumCache;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the theoretic fragment ions of peptides shared by all
+ * annotators and threads. The ions are indexed by peptide sequence,
+ * modifications and the annotation settings they depend on, i.e., the ion
+ * types and whether neutral losses are accounted. The ions do not depend on
+ * the charge. Warning: the ions returned are shared, they must not be
+ * modified.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonsCache {
+
+    /**
+     * The default maximal number of peptides in cache.
+     */
+    public static final int DEFAULT_SIZE = 10000;
+    /**
+     * The instance of the cache.
+     */
+    private static FragmentIonsCache instance = null;
+    /**
+     * The cache of fragment ions indexed by peptide and settings key.
+     */
+    private final SpectrumCache<HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> cache;
+    /**
+     * The ion factory.
+     */
+    private final IonFactory fragmentFactory = IonFactory.getInstance();
+    /**
+     * The number of requests answered from the cache.
+     */
+    private final AtomicLong nHits = new AtomicLong();
+    /**
+     * The number of requests where the ions had to be generated.
+     */
+    private final AtomicLong nMisses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param size the maximal number of peptides in cache
+     */
+    public FragmentIonsCache(int size) {
+        cache = new SpectrumCache<HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>>(size);
+    }
+
+    /**
+     * Returns the instance of the cache shared by all annotators.
+     *
+     * @return the instance of the cache
+     */
+    public static synchronized FragmentIonsCache getInstance() {
+        if (instance == null) {
+            instance = new FragmentIonsCache(DEFAULT_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the theoretic fragment ions of a peptide as returned by the ion
+     * factory. The ions are generated if not in cache. Warning: the ions are
+     * shared, they must not be modified.
+     *
+     * @param peptide the peptide
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     *
+     * @return the theoretic fragment ions of the peptide
+     */
+    public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getFragmentIons(final Peptide peptide, final SpecificAnnotationSettings specificAnnotationSettings) {
+        String key = getKey(peptide, specificAnnotationSettings);
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons = cache.get(key);
+        if (fragmentIons != null) {
+            nHits.incrementAndGet();
+            return fragmentIons;
+        }
+        nMisses.incrementAndGet();
+        try {
+            return cache.get(key, new Callable<HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>>() {
+                @Override
+                public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> call() {
+                    return fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings);
+                }
+            }, true);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException("Failed to generate the fragment ions of " + peptide.getSequence() + ".", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings);
+        }
+    }
+
+    /**
+     * Returns the key of the fragment ions of a peptide in the cache. The
+     * peptide key is not used as it does not contain the sites of all
+     * modifications.
+     *
+     * @param peptide the peptide
+     * @param specificAnnotationSettings the annotation settings, can be null
+     *
+     * @return the key of the fragment ions of the peptide
+     */
+    private String getKey(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        StringBuilder key = new StringBuilder(peptide.getSequence());
+        if (peptide.isModified()) {
+            ArrayList<String> modifications = new ArrayList<String>(peptide.getNModifications());
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                modifications.add(modificationMatch.getModificationSite() + ":" + modificationMatch.getTheoreticPtm());
+            }
+            Collections.sort(modifications);
+            for (String modification : modifications) {
+                key.append('_').append(modification);
+            }
+        }
+        key.append('|');
+        if (specificAnnotationSettings == null) {
+            key.append("all");
+        } else {
+            HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+            for (Ion.IonType ionType : Ion.IonType.values()) {
+                if (ionTypes.containsKey(ionType)) {
+                    key.append(ionType.index).append(',');
+                }
+            }
+            if (ionTypes.containsKey(Ion.IonType.PEPTIDE_FRAGMENT_ION)) {
+                ArrayList<Integer> fragmentIonTypes = new ArrayList<Integer>(specificAnnotationSettings.getFragmentIonTypes());
+                Collections.sort(fragmentIonTypes);
+                key.append(fragmentIonTypes);
+            }
+            key.append(specificAnnotationSettings.getNeutralLossesMap().isEmpty() ? "" : "nl");
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the maximal number of peptides in cache.
+     *
+     * @return the maximal number of peptides in cache
+     */
+    public int getSize() {
+        return cache.getSize();
+    }
+
+    /**
+     * Sets the maximal number of peptides in cache.
+     *
+     * @param size the maximal number of peptides in cache
+     */
+    public void setSize(int size) {
+        cache.setSize(size);
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     *
+     * @return the number of requests answered from the cache
+     */
+    public long getNHits() {
+        return nHits.get();
+    }
+
+    /**
+     * Returns the number of requests where the ions had to be generated.
+     *
+     * @return the number of requests where the ions had to be generated
+     */
+    public long getNMisses() {
+        return nMisses.get();
+    }
+
+    /**
+     * Returns the share of requests answered from the cache, 0 if no request
+     * was made.
+     *
+     * @return the share of requests answered from the cache
+     */
+    public double getHitRate() {
+        long hits = nHits.get();
+        long total = hits + nMisses.get();
+        return total == 0 ? 0 : ((double) hits) / total;
+    }
+
+    /**
+     * Empties the cache and resets the statistics. Called by the PTM factory
+     * whenever its modifications change.
+     */
+    public void clear() {
+        cache.clear();
+        nHits.set(0);
+        nMisses.set(0);
+    }
+}
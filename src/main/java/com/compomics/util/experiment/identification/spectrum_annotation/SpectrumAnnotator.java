@@ -24,7 +24,7 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Vector;
@@ -58,13 +58,14 @@ public abstract class SpectrumAnnotator {
      */
     protected double intensityLimit = 0;
     /**
-     * A list of the mz of the peak in the loaded spectrum.
+     * The m/z of the peaks in the loaded spectrum in ascending order.
      */
-    private ArrayList<Double> mz;
+    private double[] mz;
     /**
-     * A map of all peaks mz &gt; peak.
+     * The intensities of the peaks of the loaded spectrum in the order of the
+     * m/z array.
      */
-    private HashMap<Double, Peak> peakMap;
+    private double[] intensities;
     /**
      * The spectrum annotation as a map: theoretic fragment key &gt; ionmatch.
      */
@@ -164,96 +165,40 @@ public abstract class SpectrumAnnotator {
             deltaMz = mzTolerance;
         }
 
-        if (!mz.isEmpty()
-                && (fragmentMz >= mz.get(0) - deltaMz)
-                && (fragmentMz <= mz.get(mz.size() - 1) + deltaMz)) {
+        if (mz.length > 0
+                && (fragmentMz >= mz[0] - deltaMz)
+                && (fragmentMz <= mz[mz.length - 1] + deltaMz)) {
 
             Peak tempPeak = new Peak(0, 0);
             IonMatch tempMatch = new IonMatch(tempPeak, theoreticIon, charge);
 
-            // iterate all the peaks and find the best matching peak, if any
-            for (int i = 0; i < mz.size(); i++) {
-
-                tempPeak.setMz(mz.get(i));
-                tempMatch.peak = tempPeak;
-
-                if (Math.abs(tempMatch.getError(isPpm, minIsotopicCorrection, maxIsotopicCorrection)) <= mzTolerance) {
+            // the error is monotonic in m/z, the matching peaks are therefore consecutive around the fragment m/z
+            int index = Arrays.binarySearch(mz, fragmentMz);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            int indexMin = index;
+            while (indexMin > 0 && isMatching(tempMatch, tempPeak, mz[indexMin - 1])) {
+                indexMin--;
+            }
+            int indexMax = index;
+            while (indexMax < mz.length && isMatching(tempMatch, tempPeak, mz[indexMax])) {
+                indexMax++;
+            }
 
-                    Peak currentPeak = peakMap.get(mz.get(i));
+            // find the best matching peak, if any
+            for (int i = indexMin; i < indexMax; i++) {
 
-                    if (pickMostAccuratePeak) {
-                        double tempAccuracy = Math.abs(currentPeak.mz - theoreticIon.getTheoreticMz(inspectedCharge));
-                        if (bestMatch == null || tempAccuracy < bestAccuracy) {
-                            bestMatch = new IonMatch(currentPeak, theoreticIon, charge);
-                            bestAccuracy = tempAccuracy;
-                        }
-                    } else if (bestMatch == null || bestMatch.peak.intensity < currentPeak.intensity) {
-                        bestMatch = new IonMatch(currentPeak, theoreticIon, charge);
+                if (pickMostAccuratePeak) {
+                    double tempAccuracy = Math.abs(mz[i] - theoreticIon.getTheoreticMz(inspectedCharge));
+                    if (bestMatch == null || tempAccuracy < bestAccuracy) {
+                        bestMatch = new IonMatch(new Peak(mz[i], intensities[i]), theoreticIon, charge);
+                        bestAccuracy = tempAccuracy;
                     }
+                } else if (bestMatch == null || bestMatch.peak.intensity < intensities[i]) {
+                    bestMatch = new IonMatch(new Peak(mz[i], intensities[i]), theoreticIon, charge);
                 }
             }
-
-            // below is the original unstable code that depends on the number of peaks // @TODO: can this code be resuced?
-//            
-//            int indexMin = 0;
-//            int indexMax = mz.size() - 1;
-//
-//            IonMatch tempMatch = new IonMatch(new Peak(mz.get(indexMax), 0), theoreticIon, charge);
-//
-//            if (Math.abs(tempMatch.getError(isPpm, subtractIsotope)) <= mzTolerance) {
-//                Peak currentPeak = peakMap.get(mz.get(indexMax));
-//                bestMatch = new IonMatch(currentPeak, theoreticIon, charge);
-//                bestAccuracy = Math.abs(currentPeak.mz - theoreticIon.getTheoreticMz(inspectedCharge));
-//            }
-//
-//            tempMatch = new IonMatch(new Peak(mz.get(indexMin), 0), theoreticIon, charge);
-//
-//            if (Math.abs(tempMatch.getError(isPpm, subtractIsotope)) <= mzTolerance) {
-//
-//                Peak currentPeak = peakMap.get(mz.get(indexMin));
-//
-//                if (pickMostAccuratePeak) {
-//                    double tempAccuracy = Math.abs(currentPeak.mz - theoreticIon.getTheoreticMz(inspectedCharge));
-//                    if (bestMatch == null || tempAccuracy < bestAccuracy) {
-//                        bestMatch = new IonMatch(currentPeak, theoreticIon, charge);
-//                        bestAccuracy = tempAccuracy;
-//                    }
-//                } else {
-//                    if (bestMatch == null || bestMatch.peak.intensity < currentPeak.intensity) {
-//                        bestMatch = new IonMatch(currentPeak, theoreticIon, charge);
-//                    }
-//                }
-//            }
-//
-//            while (indexMax - indexMin > 1) {
-//
-//                int index = (indexMax - indexMin) / 2 + indexMin; // @TODO: this depends on the number of peaks and uses floating values, hence is unstable!!
-//                double currentMz = mz.get(index);
-//                tempMatch = new IonMatch(new Peak(currentMz, 0), theoreticIon, charge);
-//
-//                if (Math.abs(tempMatch.getError(isPpm, subtractIsotope)) <= mzTolerance) {
-//
-//                    Peak currentPeak = peakMap.get(mz.get(index));
-//
-//                    if (pickMostAccuratePeak) {
-//                        double tempAccuracy = Math.abs(currentPeak.mz - theoreticIon.getTheoreticMz(inspectedCharge));
-//                        if (bestMatch == null || tempAccuracy < bestAccuracy) {
-//                            bestMatch = new IonMatch(currentPeak, theoreticIon, charge);
-//                            bestAccuracy = tempAccuracy;
-//                        }
-//                    } else {
-//                        if (bestMatch == null || bestMatch.peak.intensity < currentPeak.intensity) {
-//                            bestMatch = new IonMatch(currentPeak, theoreticIon, charge);
-//                        }
-//                    }
-//                }
-//
-//                if (currentMz < fragmentMz) {
-//                    indexMin = index;
-//                } else {
-//                    indexMax = index;
-//                }
-//            }
         }
 
         if (bestMatch != null) {
@@ -265,6 +210,23 @@ public abstract class SpectrumAnnotator {
         return bestMatch != null;
     }
 
+    /**
+     * Indicates whether a peak at the given m/z matches the ion of the given
+     * ion match within the m/z tolerance.
+     *
+     * @param tempMatch an ion match of the ion of interest on the temporary
+     * peak
+     * @param tempPeak the temporary peak
+     * @param peakMz the m/z of the peak
+     *
+     * @return a boolean indicating whether the peak matches the ion
+     */
+    private boolean isMatching(IonMatch tempMatch, Peak tempPeak, double peakMz) {
+        tempPeak.setMz(peakMz);
+        tempMatch.peak = tempPeak;
+        return Math.abs(tempMatch.getError(isPpm, minIsotopicCorrection, maxIsotopicCorrection)) <= mzTolerance;
+    }
+
     /**
      * Sets a new spectrum to annotate.
      *
@@ -276,22 +238,28 @@ public abstract class SpectrumAnnotator {
             spectrumKey = spectrum.getSpectrumKey();
             this.intensityLimit = intensityLimit;
 
-            ArrayList<Double> tempMz;
+            // the arrays of the spectrum are used as such when no peak is filtered out
+            double[] orderedMz = spectrum.getOrderedMzValues();
+            double[] orderedIntensities = spectrum.getOrderedIntensityValues();
             if (intensityLimit == 0) {
-                peakMap = spectrum.getPeakMap();
-                tempMz = new ArrayList<Double>(peakMap.keySet());
+                mz = orderedMz;
+                intensities = orderedIntensities;
             } else {
-                peakMap = new HashMap<Double, Peak>();
-                tempMz = new ArrayList<Double>();
-                for (Peak peak : spectrum.getPeakList()) {
-                    if (peak.intensity > intensityLimit) {
-                        peakMap.put(peak.mz, peak);
-                        tempMz.add(peak.mz);
+                int nPeaks = 0;
+                mz = new double[orderedMz.length];
+                intensities = new double[orderedMz.length];
+                for (int i = 0; i < orderedMz.length; i++) {
+                    if (orderedIntensities[i] > intensityLimit) {
+                        mz[nPeaks] = orderedMz[i];
+                        intensities[nPeaks] = orderedIntensities[i];
+                        nPeaks++;
                     }
                 }
+                if (nPeaks < mz.length) {
+                    mz = Arrays.copyOf(mz, nPeaks);
+                    intensities = Arrays.copyOf(intensities, nPeaks);
+                }
             }
-            Collections.sort(tempMz);
-            mz = tempMz;
             spectrumAnnotation.clear();
             unmatchedIons.clear();
         }
@@ -475,7 +443,7 @@ public abstract class SpectrumAnnotator {
      * @return the C-terminal m/z shift applied to all reverse ions
      */
     public double getMassShiftCTerm() {
-        return massShiftNTerm;
+        return massShiftCTerm;
     }
 
     /**
@@ -527,79 +495,37 @@ public abstract class SpectrumAnnotator {
         unmatchedIons.clear();
         if (theoreticalFragmentIons != null) {
             HashMap<Integer, ArrayList<Ion>> peptideFragmentIons = theoreticalFragmentIons.get(IonType.PEPTIDE_FRAGMENT_ION.index);
-            ArrayList<Ion> ions = peptideFragmentIons.get(PeptideFragmentIon.A_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftNTerm);
-                }
-            }
-            ions = peptideFragmentIons.get(PeptideFragmentIon.B_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftNTerm);
-                }
-            }
-            ions = peptideFragmentIons.get(PeptideFragmentIon.C_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftNTerm);
-                }
-            }
-            ions = peptideFragmentIons.get(PeptideFragmentIon.X_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftCTerm);
-                }
-            }
-            ions = peptideFragmentIons.get(PeptideFragmentIon.Y_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftCTerm);
-                }
-            }
-            ions = peptideFragmentIons.get(PeptideFragmentIon.Z_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftCTerm);
-                }
+            if (peptideFragmentIons != null) {
+                shiftIons(peptideFragmentIons.get(PeptideFragmentIon.A_ION), massShift + massShiftNTerm);
+                shiftIons(peptideFragmentIons.get(PeptideFragmentIon.B_ION), massShift + massShiftNTerm);
+                shiftIons(peptideFragmentIons.get(PeptideFragmentIon.C_ION), massShift + massShiftNTerm);
+                shiftIons(peptideFragmentIons.get(PeptideFragmentIon.X_ION), massShift + massShiftCTerm);
+                shiftIons(peptideFragmentIons.get(PeptideFragmentIon.Y_ION), massShift + massShiftCTerm);
+                shiftIons(peptideFragmentIons.get(PeptideFragmentIon.Z_ION), massShift + massShiftCTerm);
             }
 
             HashMap<Integer, ArrayList<Ion>> tagFragmentIons = theoreticalFragmentIons.get(IonType.TAG_FRAGMENT_ION.index);
-            ions = tagFragmentIons.get(TagFragmentIon.A_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftNTerm);
-                }
-            }
-            ions = tagFragmentIons.get(TagFragmentIon.B_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftNTerm);
-                }
-            }
-            ions = tagFragmentIons.get(TagFragmentIon.C_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftNTerm);
-                }
-            }
-            ions = tagFragmentIons.get(TagFragmentIon.X_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftCTerm);
-                }
+            if (tagFragmentIons != null) {
+                shiftIons(tagFragmentIons.get(TagFragmentIon.A_ION), massShift + massShiftNTerm);
+                shiftIons(tagFragmentIons.get(TagFragmentIon.B_ION), massShift + massShiftNTerm);
+                shiftIons(tagFragmentIons.get(TagFragmentIon.C_ION), massShift + massShiftNTerm);
+                shiftIons(tagFragmentIons.get(TagFragmentIon.X_ION), massShift + massShiftCTerm);
+                shiftIons(tagFragmentIons.get(TagFragmentIon.Y_ION), massShift + massShiftCTerm);
+                shiftIons(tagFragmentIons.get(TagFragmentIon.Z_ION), massShift + massShiftCTerm);
             }
-            ions = tagFragmentIons.get(TagFragmentIon.Y_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftCTerm);
-                }
-            }
-            ions = tagFragmentIons.get(TagFragmentIon.Z_ION);
-            if (ions != null) {
-                for (Ion ion : ions) {
-                    ion.setTheoreticMass(ion.getTheoreticMass() + massShift + massShiftCTerm);
-                }
+        }
+    }
+
+    /**
+     * Adds a mass shift to the theoretic mass of the given ions.
+     *
+     * @param ions the ions, can be null
+     * @param shift the mass shift
+     */
+    private static void shiftIons(ArrayList<Ion> ions, double shift) {
+        if (ions != null) {
+            for (Ion ion : ions) {
+                ion.setTheoreticMass(ion.getTheoreticMass() + shift);
             }
         }
     }
@@ -742,12 +668,11 @@ public abstract class SpectrumAnnotator {
     public static ArrayList<IonMatch> matchReporterIon(Ion theoreticIon, int charge, Spectrum spectrum, double massTolerance) {
         ArrayList<IonMatch> result = new ArrayList<IonMatch>(1);
         double targetMass = theoreticIon.getTheoreticMz(charge);
-        for (double mz : spectrum.getOrderedMzValues()) {
-            if (Math.abs(mz - targetMass) <= massTolerance) {
-                result.add(new IonMatch(spectrum.getPeakMap().get(mz), theoreticIon, new Charge(Charge.PLUS, 1)));
-            }
-            if (mz > targetMass + massTolerance) {
-                break;
+        double[] mz = spectrum.getOrderedMzValues();
+        double[] intensities = spectrum.getOrderedIntensityValues();
+        for (int i = spectrum.getPeakIndex(targetMass - massTolerance); i < mz.length && mz[i] <= targetMass + massTolerance; i++) {
+            if (Math.abs(mz[i] - targetMass) <= massTolerance) {
+                result.add(new IonMatch(new Peak(mz[i], intensities[i]), theoreticIon, new Charge(Charge.PLUS, 1)));
             }
         }
         return result;
@@ -7,6 +7,7 @@ import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.spectrum_annotation.FragmentIonsCache;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
 import com.compomics.util.experiment.identification.matches.IonMatch;
@@ -35,6 +36,12 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
      * The theoretic peptide to match.
      */
     private Peptide peptide;
+    /**
+     * The theoretic fragment ions of the peptide without mass shift. These
+     * can be shared with the fragment ions cache or the caller and are never
+     * modified, the ions are copied before applying mass shifts.
+     */
+    private HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> unshiftedFragmentIons;
 
     /**
      * Constructor.
@@ -75,10 +82,11 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
             this.peptide = peptide;
             this.precursorCharge = precursorCharge;
             if (possibleFragmentIons == null) {
-                theoreticalFragmentIons = fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings);
+                unshiftedFragmentIons = FragmentIonsCache.getInstance().getFragmentIons(peptide, specificAnnotationSettings);
             } else {
-                theoreticalFragmentIons = possibleFragmentIons;
+                unshiftedFragmentIons = possibleFragmentIons;
             }
+            theoreticalFragmentIons = unshiftedFragmentIons;
             if (massShift != 0 || massShiftNTerm != 0 || massShiftCTerm != 0) {
                 updateMassShifts();
             }
@@ -87,6 +95,46 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
         }
     }
 
+    @Override
+    protected void updateMassShifts() {
+        if (unshiftedFragmentIons != null) {
+            if (massShift != 0 || massShiftNTerm != 0 || massShiftCTerm != 0) {
+                theoreticalFragmentIons = copyFragmentIons(unshiftedFragmentIons);
+            } else {
+                theoreticalFragmentIons = unshiftedFragmentIons;
+            }
+        }
+        super.updateMassShifts();
+    }
+
+    /**
+     * Returns a copy of the given fragment ions where the peptide fragment
+     * ions, the ions affected by mass shifts, are new objects. The other ions
+     * are not copied.
+     *
+     * @param fragmentIons the fragment ions to copy
+     *
+     * @return a copy of the fragment ions
+     */
+    private static HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> copyFragmentIons(HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons) {
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> result = new HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>(fragmentIons);
+        HashMap<Integer, ArrayList<Ion>> peptideFragmentIons = fragmentIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index);
+        if (peptideFragmentIons != null) {
+            HashMap<Integer, ArrayList<Ion>> peptideFragmentIonsCopy = new HashMap<Integer, ArrayList<Ion>>(peptideFragmentIons.size());
+            for (Integer subType : peptideFragmentIons.keySet()) {
+                ArrayList<Ion> ions = peptideFragmentIons.get(subType);
+                ArrayList<Ion> ionsCopy = new ArrayList<Ion>(ions.size());
+                for (Ion ion : ions) {
+                    PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ion;
+                    ionsCopy.add(new PeptideFragmentIon(peptideFragmentIon.getSubType(), peptideFragmentIon.getNumber(), peptideFragmentIon.getTheoreticMass(), peptideFragmentIon.getNeutralLosses()));
+                }
+                peptideFragmentIonsCopy.put(subType, ionsCopy);
+            }
+            result.put(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, peptideFragmentIonsCopy);
+        }
+        return result;
+    }
+
     /**
      * This method matches the potential fragment ions of a given peptide with a
      * given peak according to the annotation settings.
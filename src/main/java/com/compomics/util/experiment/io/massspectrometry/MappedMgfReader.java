@@ -0,0 +1,1221 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Reader for MGF files mapping the file in memory. The file is mapped in
+ * overlapping windows so that files larger than 2 GB can be read, every line
+ * being contained in a window. Peaks are parsed directly from the mapped
+ * bytes into primitive arrays, other lines are parsed like in the MgfReader.
+ * The mapped windows are only read using absolute positions, a reader can
+ * therefore be used by different threads concurrently. The windows are
+ * unmapped when closing the reader, after the ongoing reads completed.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedMgfReader {
+
+    /**
+     * The default distance in bytes between the start of two windows.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+    /**
+     * The default maximal length of a line in bytes. Windows overlap by this
+     * length.
+     */
+    public static final int DEFAULT_MAX_LINE_LENGTH = 1 << 20;
+    /**
+     * The encoding of the lines, same as the BufferedRandomAccessFile.
+     */
+    private static final Charset ENCODING = Charset.forName("ISO-8859-1");
+    /**
+     * The powers of ten which can be represented exactly as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * The largest mantissa which can be represented exactly as a double.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /**
+     * The number of chunks per thread when indexing in parallel.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * The BEGIN IONS tag.
+     */
+    private static final byte[] BEGIN_IONS = "BEGIN IONS".getBytes(Charset.forName("ISO-8859-1"));
+    /**
+     * The mgf file.
+     */
+    private final File mgfFile;
+    /**
+     * The length of the file.
+     */
+    private final long length;
+    /**
+     * The distance in bytes between the start of two windows.
+     */
+    private final int windowSize;
+    /**
+     * The maximal length of a line in bytes.
+     */
+    private final int maxLineLength;
+    /**
+     * The mapped windows.
+     */
+    private MappedByteBuffer[] windows;
+    /**
+     * Lock preventing the windows from being unmapped while being read.
+     */
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    /**
+     * Boolean indicating whether the reader is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the mgf file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public MappedMgfReader(File mgfFile) throws IOException {
+        this(mgfFile, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the mgf file
+     * @param windowSize the distance in bytes between the start of two
+     * windows
+     * @param maxLineLength the maximal length of a line in bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public MappedMgfReader(File mgfFile, int windowSize, int maxLineLength) throws IOException {
+        if (windowSize <= 0 || maxLineLength <= 0 || (long) windowSize + maxLineLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid window size (" + windowSize + ") or maximal line length (" + maxLineLength + ").");
+        }
+        this.mgfFile = mgfFile;
+        this.windowSize = windowSize;
+        this.maxLineLength = maxLineLength;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            length = channel.size();
+            int nWindows = (int) ((length + windowSize - 1) / windowSize);
+            windows = new MappedByteBuffer[nWindows];
+            for (int i = 0; i < nWindows; i++) {
+                long start = (long) i * windowSize;
+                long size = Math.min((long) windowSize + maxLineLength, length - start);
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        } finally {
+            // the mapping remains valid after closing the file
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the length of the file.
+     *
+     * @return the length of the file
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Closes the reader and unmaps the file, such that it is not locked
+     * anymore. Waits for the ongoing reads to complete, subsequent reads throw
+     * an exception.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (!closed) {
+                closed = true;
+                MappedByteBuffer[] mappedWindows = windows;
+                windows = new MappedByteBuffer[0];
+                for (MappedByteBuffer window : mappedWindows) {
+                    Util.unmap(window);
+                }
+            }
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Acquires the lock preventing the reader from being closed while
+     * reading.
+     *
+     * @throws IOException exception thrown if the reader is closed
+     */
+    private void startReading() throws IOException {
+        closeLock.readLock().lock();
+        if (closed) {
+            closeLock.readLock().unlock();
+            throw new IOException("The reader of " + mgfFile.getName() + " is closed.");
+        }
+    }
+
+    /**
+     * Releases the lock acquired when starting to read.
+     */
+    private void endReading() {
+        closeLock.readLock().unlock();
+    }
+
+    /**
+     * Returns the next spectrum starting from the given index.
+     *
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the MGF file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public MSnSpectrum getSpectrum(long index, String fileName) throws IOException, IllegalArgumentException {
+        startReading();
+        try {
+            return readSpectrum(index, fileName);
+        } finally {
+            endReading();
+        }
+    }
+
+    /**
+     * Reads the next spectrum starting from the given index.
+     *
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the MGF file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    private MSnSpectrum readSpectrum(long index, String fileName) throws IOException, IllegalArgumentException {
+
+        LineCursor cursor = new LineCursor(index);
+        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>();
+        String scanNumber = "", spectrumTitle = "";
+        double[] mzValues = new double[256];
+        double[] intensityValues = new double[256];
+        double[] peak = new double[2];
+        int nPeaks = 0;
+        boolean insideSpectrum = false;
+
+        while (cursor.nextLine()) {
+
+            if (cursor.isPeakLine()) {
+                if (insideSpectrum && cursor.parsePeak(peak, true)) {
+                    if (nPeaks == mzValues.length) {
+                        mzValues = Arrays.copyOf(mzValues, 2 * nPeaks);
+                        intensityValues = Arrays.copyOf(intensityValues, 2 * nPeaks);
+                    }
+                    mzValues[nPeaks] = peak[0];
+                    intensityValues[nPeaks] = peak[1];
+                    nPeaks++;
+                }
+                continue;
+            }
+
+            String line = cursor.getLine();
+
+            // fix for lines ending with \r
+            if (line.endsWith("\r")) {
+                line = line.replace("\r", "");
+            }
+
+            if (line.startsWith("BEGIN IONS")) {
+                insideSpectrum = true;
+                nPeaks = 0;
+            } else if (line.startsWith("TITLE")) {
+                insideSpectrum = true;
+                spectrumTitle = decodeTitle(line.substring(line.indexOf('=') + 1), null);
+            } else if (line.startsWith("CHARGE")) {
+                precursorCharges = MgfReader.parseCharges(line);
+            } else if (line.startsWith("PEPMASS")) {
+                String temp = line.substring(line.indexOf("=") + 1);
+                String[] values = temp.split("\\s");
+                precursorMz = Double.parseDouble(values[0]);
+                if (values.length > 1) {
+                    precursorIntensity = Double.parseDouble(values[1]);
+                } else {
+                    precursorIntensity = 0.0;
+                }
+            } else if (line.startsWith("RTINSECONDS")) {
+                try {
+                    String rtInput = line.substring(line.indexOf('=') + 1);
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        // possible fix for values like RTINSECONDS=PT121.250000S
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = new Double(tempRt);
+                    } else if (rtWindow.length == 2) {
+                        rt1 = new Double(rtWindow[0]);
+                        rt2 = new Double(rtWindow[1]);
+                    }
+                } catch (Exception e) {
+                    System.out.println("An exception was thrown when trying to decode the retention time: " + spectrumTitle);
+                    e.printStackTrace();
+                    // ignore exception, RT will not be parsed
+                }
+            } else if (line.startsWith("TOLU")) {
+                // peptide tolerance unit not implemented
+            } else if (line.startsWith("TOL")) {
+                // peptide tolerance not implemented
+            } else if (line.startsWith("SEQ")) {
+                // sequence qualifier not implemented
+            } else if (line.startsWith("COMP")) {
+                // composition qualifier not implemented
+            } else if (line.startsWith("ETAG")) {
+                // error tolerant search sequence tag not implemented
+            } else if (line.startsWith("TAG")) {
+                // sequence tag not implemented
+            } else if (line.startsWith("SCANS")) {
+                scanNumber = line.substring(line.indexOf('=') + 1);
+            } else if (line.startsWith("INSTRUMENT")) {
+                // ion series not implemented
+            } else if (line.startsWith("END IONS")) {
+                Precursor precursor;
+                if (rt1 != -1 && rt2 != -1) {
+                    precursor = new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+                } else {
+                    precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+                }
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, Arrays.copyOf(mzValues, nPeaks), Arrays.copyOf(intensityValues, nPeaks), fileName);
+                msnSpectrum.setScanNumber(scanNumber);
+                return msnSpectrum;
+            } else if (insideSpectrum && !line.equals("")) {
+                try {
+                    String values[] = line.split("\\s+");
+                    double mz = Double.parseDouble(values[0]);
+                    double intensity = Double.parseDouble(values[1]);
+                    if (nPeaks == mzValues.length) {
+                        mzValues = Arrays.copyOf(mzValues, 2 * nPeaks);
+                        intensityValues = Arrays.copyOf(intensityValues, 2 * nPeaks);
+                    }
+                    mzValues[nPeaks] = mz;
+                    intensityValues[nPeaks] = intensity;
+                    nPeaks++;
+                } catch (Exception e1) {
+                    // ignore comments and all other lines
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\".");
+    }
+
+    /**
+     * Returns the next precursor starting from the given index.
+     *
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the mgf file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public Precursor getPrecursor(long index, String fileName) throws IOException, IllegalArgumentException {
+        startReading();
+        try {
+            return readPrecursor(index, fileName);
+        } finally {
+            endReading();
+        }
+    }
+
+    /**
+     * Reads the next precursor starting from the given index.
+     *
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the mgf file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    private Precursor readPrecursor(long index, String fileName) throws IOException, IllegalArgumentException {
+
+        LineCursor cursor = new LineCursor(index);
+        String line, title = null;
+        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>(1);
+
+        while (cursor.nextLine()) {
+
+            line = cursor.getLine();
+
+            // fix for lines ending with \r
+            if (line.endsWith("\r")) {
+                line = line.replace("\r", "");
+            }
+
+            if (line.startsWith("TITLE")) {
+                title = decodeTitle(line.substring(line.indexOf("=") + 1), null);
+            } else if (line.startsWith("CHARGE")) {
+                precursorCharges = MgfReader.parseCharges(line);
+            } else if (line.startsWith("PEPMASS")) {
+                String temp = line.substring(line.indexOf("=") + 1);
+                String[] values = temp.split("\\s");
+                precursorMz = Double.parseDouble(values[0]);
+                if (values.length > 1) {
+                    precursorIntensity = Double.parseDouble(values[1]);
+                } else {
+                    precursorIntensity = 0.0;
+                }
+            } else if (line.startsWith("RTINSECONDS")) {
+                try {
+                    String rtInput = line.substring(line.indexOf('=') + 1);
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) { // possible fix for values like RTINSECONDS=PT121.250000S
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = new Double(tempRt);
+                    } else if (rtWindow.length == 2) {
+                        rt1 = new Double(rtWindow[0]);
+                        rt2 = new Double(rtWindow[1]);
+                    }
+                } catch (Exception e) {
+                    System.out.println("An exception was thrown when trying to decode the retention time: " + title);
+                    e.printStackTrace(); // ignore exception, RT will not be parsed
+                }
+            } else if (!line.isEmpty()) {
+                if (line.startsWith("END IONS") || (!line.contains("#") && !line.contains("="))) {
+                    if (rt1 != -1 && rt2 != -1) {
+                        return new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+                    }
+                    return new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\". File: " + fileName + ", title: " + title);
+    }
+
+    /**
+     * Returns the index of all spectra in the file.
+     *
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     * @return the index of all spectra
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public MgfIndex getIndexMap(WaitingHandler waitingHandler) throws IOException {
+        return getIndexMap(waitingHandler, 1);
+    }
+
+    /**
+     * Returns the index of all spectra in the file. The file is split in
+     * chunks starting with a BEGIN IONS line which are indexed in parallel.
+     * The index is identical to the one obtained using a single thread.
+     *
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     * @param nThreads the number of threads to use
+     * @return the index of all spectra
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public MgfIndex getIndexMap(WaitingHandler waitingHandler, int nThreads) throws IOException {
+        startReading();
+        try {
+            return readIndexMap(waitingHandler, nThreads);
+        } finally {
+            endReading();
+        }
+    }
+
+    /**
+     * Reads the index of all spectra in the file.
+     *
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     * @param nThreads the number of threads to use
+     * @return the index of all spectra
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    private MgfIndex readIndexMap(final WaitingHandler waitingHandler, int nThreads) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        ArrayList<IndexChunk> chunks = new ArrayList<IndexChunk>();
+
+        if (nThreads <= 1) {
+
+            IndexChunk chunk = new IndexChunk(0, length);
+            chunk.index(waitingHandler, true);
+            chunks.add(chunk);
+
+        } else {
+
+            long[] boundaries = getChunkBoundaries(nThreads * CHUNKS_PER_THREAD);
+            for (int i = 0; i < boundaries.length - 1; i++) {
+                chunks.add(new IndexChunk(boundaries[i], boundaries[i + 1]));
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            try {
+                ArrayList<Future<?>> futures = new ArrayList<Future<?>>(chunks.size());
+                for (final IndexChunk chunk : chunks) {
+                    futures.add(pool.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            chunk.index(waitingHandler, false);
+                            return null;
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                    if (waitingHandler != null) {
+                        waitingHandler.setSecondaryProgressCounter((int) (100 * chunks.get(i).end / Math.max(1, length)));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while indexing " + mgfFile.getName() + ".");
+            } finally {
+                pool.shutdownNow();
+                // the windows must not be unmapped while being indexed
+                try {
+                    while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // merge the chunks in the order of the file
+        HashMap<String, Long> indexes = new HashMap<String, Long>();
+        HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
+        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
+        LinkedHashSet<String> spectrumTitles = new LinkedHashSet<String>();
+        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
+        int spectrumCounter = 0;
+        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        int maxCharge = 0, maxPeakCount = 0;
+        boolean peakPicked = true;
+        boolean precursorChargesMissing = false;
+        boolean titleSet = false;
+
+        for (IndexChunk chunk : chunks) {
+
+            for (int i = 0; i < chunk.titles.size(); i++) {
+                String title = chunk.titles.get(i);
+                Integer nDuplicates = duplicateTitles.get(title);
+                if (nDuplicates != null || spectrumTitles.contains(title)) {
+                    if (nDuplicates == null) {
+                        nDuplicates = 0;
+                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
+                    }
+                    duplicateTitles.put(title, ++nDuplicates);
+                    title += "_" + nDuplicates;
+                }
+                spectrumTitles.add(title);
+                indexes.put(title, chunk.titleIndexes.get(i));
+                spectrumIndexes.put(title, spectrumCounter + chunk.titleSpectrumNumbers.get(i));
+            }
+            for (Integer spectrumNumber : chunk.precursorMzMap.keySet()) {
+                precursorMzMap.put(spectrumCounter + spectrumNumber, chunk.precursorMzMap.get(spectrumNumber));
+            }
+            spectrumCounter += chunk.spectrumCounter;
+
+            if (chunk.maxRT > maxRT) {
+                maxRT = chunk.maxRT;
+            }
+            if (chunk.minRT < minRT) {
+                minRT = chunk.minRT;
+            }
+            if (chunk.maxMz > maxMz) {
+                maxMz = chunk.maxMz;
+            }
+            if (chunk.maxIntensity > maxIntensity) {
+                maxIntensity = chunk.maxIntensity;
+            }
+            if (chunk.maxCharge > maxCharge) {
+                maxCharge = chunk.maxCharge;
+            }
+            if (chunk.maxPeakCount > maxPeakCount) {
+                maxPeakCount = chunk.maxPeakCount;
+            }
+            if (titleSet && chunk.firstPeakCount > maxPeakCount) {
+                // the first spectrum of the chunk has the title of the previous chunk
+                maxPeakCount = chunk.firstPeakCount;
+            }
+            if (chunk.titleStateSet) {
+                titleSet = chunk.titleSet;
+            }
+            peakPicked = peakPicked && chunk.peakPicked;
+            precursorChargesMissing = precursorChargesMissing || chunk.precursorChargesMissing;
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (minRT == Double.MAX_VALUE) {
+            minRT = 0;
+        }
+
+        return new MgfIndex(new ArrayList<String>(spectrumTitles), duplicateTitles, indexes, spectrumIndexes, precursorMzMap, mgfFile.getName(), minRT, maxRT,
+                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCounter);
+    }
+
+    /**
+     * Splits the file in chunks starting with a BEGIN IONS line.
+     *
+     * @param nChunks the targeted number of chunks
+     *
+     * @return the positions of the starts of the chunks followed by the
+     * length of the file
+     *
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    private long[] getChunkBoundaries(int nChunks) throws IOException {
+        ArrayList<Long> boundaries = new ArrayList<Long>(nChunks + 1);
+        boundaries.add(0L);
+        for (int i = 1; i < nChunks; i++) {
+            long target = i * (length / nChunks);
+            long previous = boundaries.get(boundaries.size() - 1);
+            if (target <= previous) {
+                continue;
+            }
+            // skip the end of the line containing the target
+            LineCursor cursor = new LineCursor(target - 1);
+            cursor.nextLine();
+            long lineStart = cursor.getPosition();
+            while (cursor.nextLine()) {
+                if (cursor.isLine(BEGIN_IONS)) {
+                    if (lineStart > previous) {
+                        boundaries.add(lineStart);
+                    }
+                    break;
+                }
+                lineStart = cursor.getPosition();
+            }
+        }
+        boundaries.add(length);
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Decodes a spectrum title.
+     *
+     * @param title the title as found in the file
+     * @param waitingHandler a waiting handler where to report errors, can be
+     * null
+     *
+     * @return the decoded title
+     */
+    private static String decodeTitle(String title, WaitingHandler waitingHandler) {
+        // titles without escape character are not changed by the decoding
+        if (title.indexOf('%') == -1 && title.indexOf('+') == -1) {
+            return title;
+        }
+        try {
+            return URLDecoder.decode(title, "utf-8");
+        } catch (UnsupportedEncodingException e) {
+            if (waitingHandler != null) {
+                waitingHandler.appendReport("An exception was thrown when trying to decode an mgf title: " + title, true, true);
+            }
+            System.out.println("An exception was thrown when trying to decode an mgf title: " + title);
+            e.printStackTrace();
+            return title;
+        }
+    }
+
+    /**
+     * Indicates whether the given byte is a white space as matched by the
+     * regular expression \s.
+     *
+     * @param b the byte
+     *
+     * @return a boolean indicating whether the byte is a white space
+     */
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * Cursor iterating the lines of the file. A cursor is not thread safe.
+     */
+    private class LineCursor {
+
+        /**
+         * The position in the file of the next line.
+         */
+        private long position;
+        /**
+         * The window containing the current line.
+         */
+        private MappedByteBuffer window;
+        /**
+         * The index of the start of the current line in the window.
+         */
+        private int lineStart;
+        /**
+         * The index of the end of the current line in the window, exclusive,
+         * without line termination characters.
+         */
+        private int lineEnd;
+
+        /**
+         * Constructor.
+         *
+         * @param position the position in the file of the first line
+         */
+        LineCursor(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Moves the cursor to the next line.
+         *
+         * @return a boolean indicating whether a line was found, false if the
+         * end of the file is reached
+         *
+         * @throws IOException exception thrown if a line is longer than the
+         * maximal line length
+         */
+        boolean nextLine() throws IOException {
+            if (position >= length) {
+                return false;
+            }
+            int windowIndex = (int) (position / windowSize);
+            long windowStart = (long) windowIndex * windowSize;
+            window = windows[windowIndex];
+            int start = (int) (position - windowStart);
+            int limit = window.limit();
+            int i = start;
+            while (i < limit && window.get(i) != '\n') {
+                i++;
+            }
+            if (i == limit && windowStart + limit < length) {
+                throw new IOException("Line longer than " + maxLineLength + " bytes at position " + position + " in " + mgfFile.getName() + ".");
+            }
+            position = windowStart + i + 1;
+            lineStart = start;
+            lineEnd = i;
+            if (lineEnd > lineStart && window.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the position in the file of the next line.
+         *
+         * @return the position in the file of the next line
+         */
+        long getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns the current line as a string.
+         *
+         * @return the current line
+         */
+        String getLine() {
+            byte[] bytes = new byte[lineEnd - lineStart];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = window.get(lineStart + i);
+            }
+            return new String(bytes, ENCODING);
+        }
+
+        /**
+         * Indicates whether the current line starts like a peak, i.e. with a
+         * digit, a sign or a decimal point. Such lines cannot be mistaken for
+         * a tag.
+         *
+         * @return a boolean indicating whether the current line starts like a
+         * peak
+         */
+        boolean isPeakLine() {
+            if (lineStart == lineEnd) {
+                return false;
+            }
+            byte b = window.get(lineStart);
+            return b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.';
+        }
+
+        /**
+         * Indicates whether the current line is equal to the given bytes.
+         *
+         * @param bytes the bytes
+         *
+         * @return a boolean indicating whether the current line is equal to
+         * the given bytes
+         */
+        boolean isLine(byte[] bytes) {
+            int end = lineEnd;
+            while (end > lineStart && window.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end - lineStart != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (window.get(lineStart + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parses the m/z and intensity of the peak on the current line. Lines
+         * which cannot be parsed like in the MgfReader are parsed using
+         * strings.
+         *
+         * @param peak array where to store the m/z and the intensity
+         * @param parseMz boolean indicating whether the m/z should be parsed
+         *
+         * @return a boolean indicating whether the line could be parsed
+         */
+        boolean parsePeak(double[] peak, boolean parseMz) {
+            int mzEnd = lineStart;
+            while (mzEnd < lineEnd && !isWhiteSpace(window.get(mzEnd))) {
+                mzEnd++;
+            }
+            int intensityStart = mzEnd;
+            while (intensityStart < lineEnd && isWhiteSpace(window.get(intensityStart))) {
+                intensityStart++;
+            }
+            int intensityEnd = intensityStart;
+            while (intensityEnd < lineEnd && !isWhiteSpace(window.get(intensityEnd))) {
+                intensityEnd++;
+            }
+            try {
+                for (int i = lineStart; i < lineEnd; i++) {
+                    if (window.get(i) == '\r') {
+                        // lines with carriage returns are processed as strings
+                        String line = getLine();
+                        if (line.endsWith("\r")) {
+                            line = line.replace("\r", "");
+                        }
+                        String[] values = line.split("\\s+");
+                        if (parseMz) {
+                            peak[0] = Double.parseDouble(values[0]);
+                        }
+                        peak[1] = Double.parseDouble(values[1]);
+                        return true;
+                    }
+                }
+                if (intensityStart == intensityEnd) {
+                    return false;
+                }
+                if (parseMz) {
+                    peak[0] = parseDouble(lineStart, mzEnd);
+                }
+                peak[1] = parseDouble(intensityStart, intensityEnd);
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        /**
+         * Parses a double from the bytes of the current window. Decimal
+         * numbers whose digits fit in the mantissa of a double and with a
+         * small exponent are parsed directly, others are parsed using
+         * Double.parseDouble. The result is always identical to
+         * Double.parseDouble.
+         *
+         * @param start the index of the first byte
+         * @param end the index of the last byte, exclusive
+         *
+         * @return the parsed value
+         *
+         * @throws NumberFormatException exception thrown if the bytes do not
+         * represent a number
+         */
+        private double parseDouble(int start, int end) throws NumberFormatException {
+            int i = start;
+            boolean negative = false;
+            if (i < end && (window.get(i) == '-' || window.get(i) == '+')) {
+                negative = window.get(i) == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int exponent = 0;
+            int nDigits = 0;
+            boolean exact = true;
+            boolean decimal = false;
+            for (; i < end; i++) {
+                byte b = window.get(i);
+                if (b >= '0' && b <= '9') {
+                    nDigits++;
+                    mantissa = 10 * mantissa + (b - '0');
+                    if (mantissa > MAX_EXACT_MANTISSA) {
+                        exact = false;
+                        break;
+                    }
+                    if (decimal) {
+                        exponent--;
+                    }
+                } else if (b == '.' && !decimal) {
+                    decimal = true;
+                } else {
+                    break;
+                }
+            }
+            if (exact && nDigits > 0 && i < end && (window.get(i) == 'e' || window.get(i) == 'E')) {
+                i++;
+                boolean negativeExponent = false;
+                if (i < end && (window.get(i) == '-' || window.get(i) == '+')) {
+                    negativeExponent = window.get(i) == '-';
+                    i++;
+                }
+                int exponentValue = 0;
+                int nExponentDigits = 0;
+                for (; i < end && nExponentDigits < 4; i++, nExponentDigits++) {
+                    byte b = window.get(i);
+                    if (b < '0' || b > '9') {
+                        break;
+                    }
+                    exponentValue = 10 * exponentValue + (b - '0');
+                }
+                exact = nExponentDigits > 0;
+                exponent += negativeExponent ? -exponentValue : exponentValue;
+            }
+            if (exact && nDigits > 0 && i == end && exponent >= -22 && exponent <= 22) {
+                double value = (double) mantissa;
+                if (exponent > 0) {
+                    value *= POWERS_OF_TEN[exponent];
+                } else if (exponent < 0) {
+                    value /= POWERS_OF_TEN[-exponent];
+                }
+                return negative ? -value : value;
+            }
+            byte[] bytes = new byte[end - start];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = window.get(start + j);
+            }
+            return Double.parseDouble(new String(bytes, ENCODING));
+        }
+    }
+
+    /**
+     * The index of a chunk of the file. Spectrum numbers are relative to the
+     * start of the chunk and duplicate titles are not renamed, this is done
+     * when merging the chunks.
+     */
+    private class IndexChunk {
+
+        /**
+         * The position of the start of the chunk.
+         */
+        private final long start;
+        /**
+         * The position of the end of the chunk, exclusive.
+         */
+        private final long end;
+        /**
+         * The titles in the order of the file.
+         */
+        private final ArrayList<String> titles = new ArrayList<String>();
+        /**
+         * The index of the spectrum of every title.
+         */
+        private final ArrayList<Long> titleIndexes = new ArrayList<Long>();
+        /**
+         * The number of the spectrum of every title in the chunk.
+         */
+        private final ArrayList<Integer> titleSpectrumNumbers = new ArrayList<Integer>();
+        /**
+         * The precursor m/z indexed by spectrum number in the chunk.
+         */
+        private final HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
+        /**
+         * The number of spectra started in the chunk.
+         */
+        private int spectrumCounter = 0;
+        /**
+         * The maximal retention time.
+         */
+        private double maxRT = -1;
+        /**
+         * The minimal retention time.
+         */
+        private double minRT = Double.MAX_VALUE;
+        /**
+         * The maximal precursor m/z.
+         */
+        private double maxMz = -1;
+        /**
+         * The maximal precursor intensity.
+         */
+        private double maxIntensity = 0;
+        /**
+         * The maximal precursor charge.
+         */
+        private int maxCharge = 0;
+        /**
+         * The maximal number of peaks of a spectrum with title.
+         */
+        private int maxPeakCount = 0;
+        /**
+         * The number of peaks at the first END IONS if no title was found
+         * before in the chunk, -1 otherwise.
+         */
+        private int firstPeakCount = -1;
+        /**
+         * Indicates whether a title or the end of a spectrum was found, i.e.
+         * whether the title state at the end of the chunk does not depend on
+         * the previous chunks.
+         */
+        private boolean titleStateSet = false;
+        /**
+         * Indicates whether a title is set at the end of the chunk.
+         */
+        private boolean titleSet = false;
+        /**
+         * Indicates whether the spectra are peak picked.
+         */
+        private boolean peakPicked = true;
+        /**
+         * Indicates whether precursor charges are missing.
+         */
+        private boolean precursorChargesMissing = false;
+
+        /**
+         * Constructor.
+         *
+         * @param start the position of the start of the chunk
+         * @param end the position of the end of the chunk, exclusive
+         */
+        IndexChunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Indexes the chunk.
+         *
+         * @param waitingHandler a waitingHandler showing the progress, can be
+         * null
+         * @param showProgress boolean indicating whether the progress should
+         * be displayed while indexing
+         *
+         * @throws IOException Exception thrown whenever an error occurs while
+         * reading the file
+         */
+        void index(WaitingHandler waitingHandler, boolean showProgress) throws IOException {
+
+            LineCursor cursor = new LineCursor(start);
+            double[] peak = new double[2];
+            long currentIndex = 0;
+            String title = null;
+            int peakCount = 0;
+            long progressUnit = Math.max(1, length / 100);
+            boolean insideSpectrum = false;
+            boolean chargeTagFound = false;
+
+            while (cursor.getPosition() < end && cursor.nextLine()) {
+
+                if (cursor.isPeakLine()) {
+                    if (insideSpectrum && cursor.parsePeak(peak, false)) {
+                        if (peakPicked && peak[1] == 0) {
+                            peakPicked = false;
+                        }
+                        peakCount++;
+                    }
+                    continue;
+                }
+
+                String line = cursor.getLine();
+
+                // fix for lines ending with \r
+                if (line.endsWith("\r")) {
+                    line = line.replace("\r", "");
+                }
+
+                if (line.equals("BEGIN IONS")) {
+                    insideSpectrum = true;
+                    chargeTagFound = false;
+                    currentIndex = cursor.getPosition();
+                    spectrumCounter++;
+                    peakCount = 0;
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+                        if (showProgress) {
+                            waitingHandler.setSecondaryProgressCounter((int) (currentIndex / progressUnit));
+                        }
+                    }
+                } else if (line.startsWith("TITLE")) {
+                    title = decodeTitle(line.substring(line.indexOf('=') + 1), waitingHandler);
+                    titles.add(title);
+                    titleIndexes.add(currentIndex);
+                    titleSpectrumNumbers.add(spectrumCounter - 1);
+                    titleStateSet = true;
+                } else if (line.startsWith("CHARGE")) {
+                    ArrayList<Charge> precursorCharges = MgfReader.parseCharges(line);
+                    for (Charge charge : precursorCharges) {
+                        if (charge.value > maxCharge) {
+                            maxCharge = charge.value;
+                        }
+                    }
+                    chargeTagFound = true;
+                } else if (line.startsWith("PEPMASS")) {
+                    String temp = line.substring(line.indexOf("=") + 1);
+                    String[] values = temp.split("\\s");
+                    double precursorMz = Double.parseDouble(values[0]);
+
+                    if (precursorMz > maxMz) {
+                        maxMz = precursorMz;
+                    }
+
+                    if (values.length > 1) {
+                        double precursorIntensity = Double.parseDouble(values[1]);
+
+                        if (precursorIntensity > maxIntensity) {
+                            maxIntensity = precursorIntensity;
+                        }
+                    }
+
+                    precursorMzMap.put(spectrumCounter - 1, precursorMz);
+
+                } else if (line.startsWith("RTINSECONDS")) {
+
+                    String rtInput = "";
+
+                    try {
+                        rtInput = line.substring(line.indexOf('=') + 1);
+                        String[] rtWindow = rtInput.split("-");
+
+                        if (rtWindow.length == 1) {
+                            String tempRt = rtWindow[0];
+                            // possible fix for values like RTINSECONDS=PT121.250000S
+                            if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                                tempRt = tempRt.substring(2, tempRt.length() - 1);
+                            }
+                            double rt = new Double(tempRt);
+                            if (rt > maxRT) {
+                                maxRT = rt;
+                            }
+                            if (rt < minRT) {
+                                minRT = rt;
+                            }
+                        } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                            double rt1 = new Double(rtWindow[0]);
+                            if (rt1 > maxRT) {
+                                maxRT = rt1;
+                            }
+                            if (rt1 < minRT) {
+                                minRT = rt1;
+                            }
+                            double rt2 = new Double(rtWindow[1]);
+                            if (rt2 > maxRT) {
+                                maxRT = rt2;
+                            }
+                            if (rt2 < minRT) {
+                                minRT = rt2;
+                            }
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
+                    }
+                } else if (line.startsWith("END IONS")) {
+                    insideSpectrum = false;
+                    if (title != null) {
+                        if (peakCount > maxPeakCount) {
+                            maxPeakCount = peakCount;
+                        }
+                    } else if (!titleStateSet) {
+                        // the title might have been set in a previous chunk
+                        firstPeakCount = peakCount;
+                    }
+                    title = null;
+                    titleStateSet = true;
+                    if (!chargeTagFound) {
+                        precursorChargesMissing = true;
+                    }
+                } else if (insideSpectrum && !line.equals("")) {
+                    try {
+                        String values[] = line.split("\\s+");
+                        Double intensity = new Double(values[1]);
+                        if (peakPicked && intensity == 0) {
+                            peakPicked = false;
+                        }
+                        peakCount++;
+                    } catch (Exception e1) {
+                        // ignore comments and all other lines
+                    }
+                }
+            }
+
+            titleSet = title != null;
+        }
+    }
+}
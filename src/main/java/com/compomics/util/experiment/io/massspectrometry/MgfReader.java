@@ -10,9 +10,9 @@ import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
@@ -23,6 +23,11 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  */
 public class MgfReader {
 
+    /**
+     * The initial capacity of the peak arrays when reading a spectrum.
+     */
+    private static final int INITIAL_PEAK_CAPACITY = 256;
+
     /**
      * General constructor for an mgf reader.
      */
@@ -42,7 +47,9 @@ public class MgfReader {
     public static MSnSpectrum getSpectrum(BufferedReader br, String fileName) throws IOException {
 
         String line;
-        HashMap<Double, Peak> spectrum = new HashMap<Double, Peak>();
+        double[] mzValues = new double[INITIAL_PEAK_CAPACITY];
+        double[] intensityValues = new double[INITIAL_PEAK_CAPACITY];
+        int nPeaks = 0;
         double precursorMz = 0;
         double precursorIntensity = 0;
         double rt = -1.0;
@@ -132,7 +139,7 @@ public class MgfReader {
                 } else {
                     precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
                 }
-                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, spectrum, fileName);
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, Arrays.copyOf(mzValues, nPeaks), Arrays.copyOf(intensityValues, nPeaks), fileName);
                 if (scanNumber.length() > 0) {
                     msnSpectrum.setScanNumber(scanNumber);
                 }
@@ -140,9 +147,15 @@ public class MgfReader {
             } else if (insideSpectrum && !line.equals("")) {
                 try {
                     String values[] = line.split("\\s+");
-                    Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    spectrum.put(mz, new Peak(mz, intensity));
+                    double mz = Double.parseDouble(values[0]);
+                    double intensity = Double.parseDouble(values[1]);
+                    if (nPeaks == mzValues.length) {
+                        mzValues = Arrays.copyOf(mzValues, 2 * nPeaks);
+                        intensityValues = Arrays.copyOf(intensityValues, 2 * nPeaks);
+                    }
+                    mzValues[nPeaks] = mz;
+                    intensityValues[nPeaks] = intensity;
+                    nPeaks++;
                 } catch (Exception e1) {
                     // ignore comments and all other lines
                 }
@@ -205,188 +218,34 @@ public class MgfReader {
      * reading the file
      */
     public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler) throws FileNotFoundException, IOException {
+        return getIndexMap(mgfFile, waitingHandler, 1);
+    }
 
-        HashMap<String, Long> indexes = new HashMap<String, Long>();
-        HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
-        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
-        LinkedHashSet<String> spectrumTitles = new LinkedHashSet<String>();
-        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
-        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024 * 100);
-        long currentIndex = 0;
-        String title = null;
-        int spectrumCounter = 0;
-        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
-        int maxCharge = 0, maxPeakCount = 0, peakCount = 0;
-        boolean peakPicked = true;
-        boolean precursorChargesMissing = false;
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(100);
-            waitingHandler.setSecondaryProgressCounter(0);
-        }
-
-        long progressUnit = bufferedRandomAccessFile.length() / 100;
-
-        String line;
-        boolean insideSpectrum = false;
-        boolean chargeTagFound = false;
-
-        while ((line = bufferedRandomAccessFile.getNextLine()) != null) {
-
-            // fix for lines ending with \r
-            if (line.endsWith("\r")) {
-                line = line.replace("\r", "");
-            }
-            
-            if (line.equals("BEGIN IONS")) {
-                insideSpectrum = true;
-                chargeTagFound = false;
-                currentIndex = bufferedRandomAccessFile.getFilePointer();
-                spectrumCounter++;
-                peakCount = 0;
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                    waitingHandler.setSecondaryProgressCounter((int) (currentIndex / progressUnit));
-                }
-            } else if (line.startsWith("TITLE")) {
-                
-                title = line.substring(line.indexOf('=') + 1);
-
-                try {
-                    title = URLDecoder.decode(title, "utf-8");
-                } catch (UnsupportedEncodingException e) {
-                    if (waitingHandler != null) {
-                        waitingHandler.appendReport("An exception was thrown when trying to decode an mgf title: " + title, true, true);
-                    }
-                    System.out.println("An exception was thrown when trying to decode an mgf title: " + title);
-                    e.printStackTrace();
-                }
-                Integer nDuplicates = duplicateTitles.get(title);
-                if (nDuplicates != null || spectrumTitles.contains(title)) {
-                    if (nDuplicates == null) {
-                        nDuplicates = 0;
-                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
-                    }
-                    duplicateTitles.put(title, ++nDuplicates);
-                    title += "_" + nDuplicates;
-                }
-                spectrumTitles.add(title);
-                indexes.put(title, currentIndex);
-                spectrumIndexes.put(title, spectrumCounter - 1);
-            } else if (line.startsWith("CHARGE")) {
-                ArrayList<Charge> precursorCharges = parseCharges(line);
-                for (Charge charge : precursorCharges) {
-                    if (charge.value > maxCharge) {
-                        maxCharge = charge.value;
-                    }
-                }
-                chargeTagFound = true;
-            } else if (line.startsWith("PEPMASS")) {
-                String temp = line.substring(line.indexOf("=") + 1);
-                String[] values = temp.split("\\s");
-                double precursorMz = Double.parseDouble(values[0]);
-
-                if (precursorMz > maxMz) {
-                    maxMz = precursorMz;
-                }
-
-                if (values.length > 1) {
-                    double precursorIntensity = Double.parseDouble(values[1]);
-
-                    if (precursorIntensity > maxIntensity) {
-                        maxIntensity = precursorIntensity;
-                    }
-                }
-
-                precursorMzMap.put(spectrumCounter - 1, precursorMz);
-
-            } else if (line.startsWith("RTINSECONDS")) {
-
-                String rtInput = "";
-
-                try {
-                    rtInput = line.substring(line.indexOf('=') + 1);
-                    String[] rtWindow = rtInput.split("-");
-
-                    if (rtWindow.length == 1) {
-                        String tempRt = rtWindow[0];
-                        // possible fix for values like RTINSECONDS=PT121.250000S
-                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
-                            tempRt = tempRt.substring(2, tempRt.length() - 1);
-                        }
-                        double rt = new Double(tempRt);
-                        if (rt > maxRT) {
-                            maxRT = rt;
-                        }
-                        if (rt < minRT) {
-                            minRT = rt;
-                        }
-                    } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
-                        double rt1 = new Double(rtWindow[0]);
-                        if (rt1 > maxRT) {
-                            maxRT = rt1;
-                        }
-                        if (rt1 < minRT) {
-                            minRT = rt1;
-                        }
-                        double rt2 = new Double(rtWindow[1]);
-                        if (rt2 > maxRT) {
-                            maxRT = rt2;
-                        }
-                        if (rt2 < minRT) {
-                            minRT = rt2;
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
-                }
-            } else if (line.startsWith("END IONS")) {
-                insideSpectrum = false;
-                if (title != null) {
-                    if (peakCount > maxPeakCount) {
-                        maxPeakCount = peakCount;
-                    }
-                }
-                title = null;
-                if (!chargeTagFound) {
-                    precursorChargesMissing = true;
-                }
-            } else if (insideSpectrum && !line.equals("")) {
-                try {
-                    String values[] = line.split("\\s+");
-                    //Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    if (peakPicked && intensity == 0) {
-                        peakPicked = false;
-                    }
-                    peakCount++;
-                } catch (Exception e1) {
-                    // ignore comments and all other lines
-                }
-            }
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        bufferedRandomAccessFile.close();
+    /**
+     * Returns the index of all spectra in the given MGF file. The file is
+     * indexed in chunks processed in parallel.
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress
+     * @param nThreads the number of threads to use
+     * @return the index of all spectra
+     * @throws FileNotFoundException Exception thrown whenever the file is not
+     * found
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler, int nThreads) throws FileNotFoundException, IOException {
 
-        if (minRT == Double.MAX_VALUE) {
-            minRT = 0;
+        if (!mgfFile.exists()) {
+            throw new FileNotFoundException(mgfFile.getAbsolutePath() + " not found.");
         }
 
-        // convert the spectrum titles to an arraylist
-        ArrayList<String> spectrumTitlesAsArrayList = new ArrayList<String>(); // @TODO: is there a faster way of doing this?
-        for (String temp : spectrumTitles) {
-            spectrumTitlesAsArrayList.add(temp);
+        MappedMgfReader mappedMgfReader = new MappedMgfReader(mgfFile);
+        try {
+            return mappedMgfReader.getIndexMap(waitingHandler, nThreads);
+        } finally {
+            mappedMgfReader.close();
         }
-
-        return new MgfIndex(spectrumTitlesAsArrayList, duplicateTitles, indexes, spectrumIndexes, precursorMzMap, mgfFile.getName(), minRT, maxRT,
-                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCounter);
     }
 
     /**
@@ -1049,7 +908,9 @@ public class MgfReader {
         double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
         ArrayList<Charge> precursorCharges = new ArrayList<Charge>();
         String scanNumber = "", spectrumTitle = "";
-        HashMap<Double, Peak> spectrum = new HashMap<Double, Peak>();
+        double[] mzValues = new double[INITIAL_PEAK_CAPACITY];
+        double[] intensityValues = new double[INITIAL_PEAK_CAPACITY];
+        int nPeaks = 0;
         String line;
         boolean insideSpectrum = false;
 
@@ -1062,7 +923,7 @@ public class MgfReader {
             
             if (line.startsWith("BEGIN IONS")) {
                 insideSpectrum = true;
-                spectrum = new HashMap<Double, Peak>();
+                nPeaks = 0;
             } else if (line.startsWith("TITLE")) {
                 insideSpectrum = true;
                 spectrumTitle = line.substring(line.indexOf('=') + 1);
@@ -1131,15 +992,21 @@ public class MgfReader {
                 } else {
                     precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
                 }
-                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, spectrum, fileName);
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, Arrays.copyOf(mzValues, nPeaks), Arrays.copyOf(intensityValues, nPeaks), fileName);
                 msnSpectrum.setScanNumber(scanNumber);
                 return msnSpectrum;
             } else if (insideSpectrum && !line.equals("")) {
                 try {
                     String values[] = line.split("\\s+");
-                    Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    spectrum.put(mz, new Peak(mz, intensity));
+                    double mz = Double.parseDouble(values[0]);
+                    double intensity = Double.parseDouble(values[1]);
+                    if (nPeaks == mzValues.length) {
+                        mzValues = Arrays.copyOf(mzValues, 2 * nPeaks);
+                        intensityValues = Arrays.copyOf(intensityValues, 2 * nPeaks);
+                    }
+                    mzValues[nPeaks] = mz;
+                    intensityValues[nPeaks] = intensity;
+                    nPeaks++;
                 } catch (Exception e1) {
                     // ignore comments and all other lines
                 }
@@ -1156,7 +1023,7 @@ public class MgfReader {
      * @return the possible charges found
      * @throws IllegalArgumentException
      */
-    private static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
+    static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
 
         ArrayList<Charge> result = new ArrayList<Charge>(1);
         String tempLine = chargeLine.substring(chargeLine.indexOf("=") + 1);
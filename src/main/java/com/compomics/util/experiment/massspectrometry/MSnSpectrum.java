@@ -59,6 +59,25 @@ public class MSnSpectrum extends Spectrum {
         this.fileName = fileName;
     }
 
+    /**
+     * Constructor for the spectrum. The peaks do not need to be sorted, see
+     * Spectrum.setPeaks(double[], double[]).
+     *
+     * @param level MS level
+     * @param precursor precursor
+     * @param spectrumTitle spectrum title
+     * @param mzValues the m/z of the peaks
+     * @param intensityValues the intensities of the peaks
+     * @param fileName file name
+     */
+    public MSnSpectrum(int level, Precursor precursor, String spectrumTitle, double[] mzValues, double[] intensityValues, String fileName) {
+        this.level = level;
+        this.precursor = precursor;
+        this.spectrumTitle = spectrumTitle;
+        this.fileName = fileName;
+        setPeaks(mzValues, intensityValues);
+    }
+
     /**
      * Constructor for the spectrum.
      *
@@ -156,15 +175,12 @@ public class MSnSpectrum extends Spectrum {
             results.append("SCANS=").append(scanNumber).append(lineBreak);
         }
 
-        // add the values to a tree map to get them sorted in mz    
-        TreeMap<Double, Double> sortedPeakList = new TreeMap<Double, Double>();
-
-        for (Peak peak : peakList.values()) {
-            sortedPeakList.put(peak.mz, peak.intensity);
-        }
+        // the peaks are sorted in mz
+        double[] mzValues = getOrderedMzValues();
+        double[] intensityValues = getOrderedIntensityValues();
 
-        for (Map.Entry<Double, Double> entry : sortedPeakList.entrySet()) {
-            results.append(entry.getKey()).append(" ").append(entry.getValue()).append(lineBreak);
+        for (int i = 0; i < mzValues.length; i++) {
+            results.append(mzValues[i]).append(" ").append(intensityValues[i]).append(lineBreak);
         }
 
         results.append("END IONS").append(lineBreak).append(lineBreak);
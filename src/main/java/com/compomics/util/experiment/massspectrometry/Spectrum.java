@@ -7,7 +7,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class models a spectrum.
@@ -34,9 +37,36 @@ public abstract class Spectrum extends ExperimentObject {
      */
     protected int level;
     /**
-     * mz indexed Peak list.
+     * mz indexed Peak list. Null when the peaks are stored as arrays.
      */
-    protected HashMap<Double, Peak> peakList;
+    protected volatile HashMap<Double, Peak> peakList;
+    /**
+     * The m/z of the peaks in ascending order. Null if the peaks are stored
+     * in the peak map only, built on demand from the map.
+     */
+    private volatile double[] mzArray = null;
+    /**
+     * The intensities of the peaks in the order of the m/z array.
+     */
+    private volatile double[] intensityArray = null;
+    /**
+     * The m/z of the peaks added to the arrays and not merged yet, in the
+     * order of addition.
+     */
+    private double[] addedMz = null;
+    /**
+     * The intensities of the peaks added to the arrays and not merged yet.
+     */
+    private double[] addedIntensities = null;
+    /**
+     * The number of peaks added to the arrays and not merged yet.
+     */
+    private volatile int nAddedPeaks = 0;
+    /**
+     * Read only peak map built from the peak arrays. Null until set by the
+     * getter.
+     */
+    private transient volatile HashMap<Double, Peak> peakMapView = null;
     /**
      * Intensity indexed Peak map.
      */
@@ -59,15 +89,7 @@ public abstract class Spectrum extends ExperimentObject {
      */
     private double[][] jFreePeakList = null;
     /**
-     * The mz values as array. Null until set by the getter.
-     */
-    private double[] mzValuesAsArray = null;
-    /**
-     * Boolean indicating whether the mzValuesAsArray is sorted.
-     */
-    private Boolean mzOrdered = false;
-    /**
-     * The intensity values as array. Null until set by the getter.
+     * The intensity values as array. Null unless set.
      */
     private double[] intensityValuesAsArray = null;
     /**
@@ -163,14 +185,8 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double[][] getJFreePeakList() {
         if (jFreePeakList == null) {
-            double[] mz = new double[peakList.size()];
-            double[] intensity = new double[peakList.size()];
-            int cpt = 0;
-            for (Peak currentPeak : peakList.values()) {
-                mz[cpt] = currentPeak.mz;
-                intensity[cpt] = currentPeak.intensity;
-                cpt++;
-            }
+            double[] mz = getOrderedMzValues();
+            double[] intensity = getOrderedIntensityValues();
 
             jFreePeakList = new double[6][mz.length];
             jFreePeakList[0] = mz;
@@ -184,24 +200,99 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns a peak map where peaks are indexed by their m/z.
+     * Returns a peak map where peaks are indexed by their m/z. When the peaks
+     * are stored as arrays, the map is built once and is read only: the
+     * methods modifying the map throw an UnsupportedOperationException and
+     * the peaks must not be modified. Peaks are added using addPeak or
+     * setPeaks. Prefer the ordered m/z and intensity arrays.
      *
      * @return a peak map
      */
     public HashMap<Double, Peak> getPeakMap() {
-        return peakList;
+        HashMap<Double, Peak> result = peakList;
+        if (result == null) {
+            result = peakMapView;
+            if (result == null && (mzArray != null || nAddedPeaks > 0)) {
+                result = new PeakMapView(getOrderedMzValues(), getOrderedIntensityValues());
+                peakMapView = result;
+            }
+        }
+        return result;
     }
 
     /**
-     * Adds a peak to the spectrum peak list.
+     * Adds a peak to the spectrum peak list. When the peaks are stored as
+     * arrays, the peak is buffered and merged into the arrays upon the next
+     * read.
      *
      * @param aPeak the peak to add
      */
-    public void addPeak(Peak aPeak) {
-        if (peakList == null) {
-            peakList = new HashMap<Double, Peak>();
+    public synchronized void addPeak(Peak aPeak) {
+        if (peakList == null && mzArray != null) {
+            int nAdded = nAddedPeaks;
+            if (addedMz == null) {
+                addedMz = new double[16];
+                addedIntensities = new double[16];
+            } else if (nAdded == addedMz.length) {
+                addedMz = Arrays.copyOf(addedMz, 2 * nAdded);
+                addedIntensities = Arrays.copyOf(addedIntensities, 2 * nAdded);
+            }
+            addedMz[nAdded] = aPeak.mz;
+            addedIntensities[nAdded] = aPeak.intensity;
+            nAddedPeaks = nAdded + 1;
+            resetCaches();
+        } else {
+            if (peakList == null) {
+                peakList = new HashMap<Double, Peak>();
+            }
+            peakList.put(aPeak.mz, aPeak);
+            mzArray = null;
+            intensityArray = null;
+            resetCaches();
+        }
+    }
+
+    /**
+     * Merges the peaks added since the last read into the peak arrays.
+     */
+    private synchronized void mergeAddedPeaks() {
+        int nAdded = nAddedPeaks;
+        if (nAdded == 0) {
+            return;
+        }
+        double[][] added = sortPeaks(Arrays.copyOf(addedMz, nAdded), Arrays.copyOf(addedIntensities, nAdded));
+        double[] newMz = added[0];
+        double[] newIntensity = added[1];
+        double[] mz = mzArray;
+        double[] intensity = intensityArray;
+        double[] mergedMz = new double[mz.length + newMz.length];
+        double[] mergedIntensity = new double[mergedMz.length];
+        int i = 0, j = 0, nPeaks = 0;
+        while (i < mz.length || j < newMz.length) {
+            if (j == newMz.length || i < mz.length && mz[i] < newMz[j]) {
+                mergedMz[nPeaks] = mz[i];
+                mergedIntensity[nPeaks] = intensity[i];
+                i++;
+            } else {
+                if (i < mz.length && mz[i] == newMz[j]) {
+                    // the added peak replaces the peak of same m/z
+                    i++;
+                }
+                mergedMz[nPeaks] = newMz[j];
+                mergedIntensity[nPeaks] = newIntensity[j];
+                j++;
+            }
+            nPeaks++;
+        }
+        if (nPeaks < mergedMz.length) {
+            mergedMz = Arrays.copyOf(mergedMz, nPeaks);
+            mergedIntensity = Arrays.copyOf(mergedIntensity, nPeaks);
         }
-        this.peakList.put(aPeak.mz, aPeak);
+        addedMz = null;
+        addedIntensities = null;
+        intensityArray = mergedIntensity;
+        mzArray = mergedMz;
+        nAddedPeaks = 0;
     }
 
     /**
@@ -209,20 +300,142 @@ public abstract class Spectrum extends ExperimentObject {
      *
      * @param peaks the peaks to set
      */
-    public void setPeaks(ArrayList<Peak> peaks) {
+    public synchronized void setPeaks(ArrayList<Peak> peaks) {
 
-        if (peakList != null) {
-            this.peakList.clear();
-        } else {
-            peakList = new HashMap<Double, Peak>();
-        }
+        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>(peaks.size());
 
         for (Peak p : peaks) {
             double mz = p.mz;
-            peakList.put(mz, p);
+            peakMap.put(mz, p);
+        }
+
+        setPeakList(peakMap);
+    }
+
+    /**
+     * Sets the peaks as arrays of m/z and intensities. The arrays do not need
+     * to be sorted, for peaks of identical m/z the last one is retained. The
+     * arrays are used as such if sorted and without duplicates and should not
+     * be modified afterwards.
+     *
+     * @param mzValues the m/z of the peaks
+     * @param intensityValues the intensities of the peaks
+     */
+    public synchronized void setPeaks(double[] mzValues, double[] intensityValues) {
+
+        if (mzValues.length != intensityValues.length) {
+            throw new IllegalArgumentException("Different number of m/z (" + mzValues.length + ") and intensity (" + intensityValues.length + ") values.");
+        }
+
+        double[][] peaks = sortPeaks(mzValues, intensityValues);
+
+        peakList = null;
+        addedMz = null;
+        addedIntensities = null;
+        nAddedPeaks = 0;
+        intensityArray = peaks[1];
+        mzArray = peaks[0];
+        resetCaches();
+    }
+
+    /**
+     * Sorts peaks by ascending m/z, for peaks of identical m/z the last one
+     * is retained. The arrays are returned as such if sorted and without
+     * duplicates.
+     *
+     * @param mzValues the m/z of the peaks
+     * @param intensityValues the intensities of the peaks
+     *
+     * @return the m/z and intensities of the peaks sorted by ascending m/z
+     */
+    private static double[][] sortPeaks(double[] mzValues, double[] intensityValues) {
+
+        boolean ordered = true;
+        for (int i = 1; i < mzValues.length && ordered; i++) {
+            ordered = mzValues[i - 1] < mzValues[i];
+        }
+
+        double[] mz = mzValues;
+        double[] intensity = intensityValues;
+
+        if (!ordered) {
+            Integer[] order = new Integer[mzValues.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final double[] unorderedMz = mzValues;
+            // the sort is stable, the last of peaks with identical m/z comes last
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(unorderedMz[o1], unorderedMz[o2]);
+                }
+            });
+            int nPeaks = 0;
+            mz = new double[order.length];
+            intensity = new double[order.length];
+            for (int i = 0; i < order.length; i++) {
+                int index = order[i];
+                if (nPeaks > 0 && mz[nPeaks - 1] == mzValues[index]) {
+                    nPeaks--;
+                }
+                mz[nPeaks] = mzValues[index];
+                intensity[nPeaks] = intensityValues[index];
+                nPeaks++;
+            }
+            if (nPeaks < mz.length) {
+                mz = Arrays.copyOf(mz, nPeaks);
+                intensity = Arrays.copyOf(intensity, nPeaks);
+            }
+        }
+
+        return new double[][]{mz, intensity};
+    }
+
+    /**
+     * Builds the peak arrays from the peak map if not done already, merges
+     * the added peaks otherwise.
+     */
+    private void buildPeakArrays() {
+        if (nAddedPeaks > 0) {
+            mergeAddedPeaks();
+        }
+        if (mzArray == null) {
+            HashMap<Double, Peak> peakMap = peakList;
+            if (peakMap == null) {
+                peakMap = new HashMap<Double, Peak>(0);
+            }
+            double[] mz = new double[peakMap.size()];
+            int i = 0;
+            for (double currentMz : peakMap.keySet()) {
+                mz[i++] = currentMz;
+            }
+            Arrays.sort(mz);
+            double[] intensity = new double[mz.length];
+            for (i = 0; i < mz.length; i++) {
+                intensity[i] = peakMap.get(mz[i]).intensity;
+            }
+            intensityArray = intensity;
+            mzArray = mz;
         }
     }
 
+    /**
+     * Resets the values derived from the peaks.
+     */
+    private void resetCaches() {
+        peakMapView = null;
+        intensityPeakMap = null;
+        jFreePeakList = null;
+        intensityValuesAsArray = null;
+        intensityValuesNormaizedAsArray = null;
+        mzAndIntensityAsArray = null;
+        totalIntensity = null;
+        maxIntensity = null;
+        maxMz = null;
+        minMz = null;
+    }
+
     /**
      * Getter for the scan number.
      *
@@ -265,7 +478,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the peak list
      */
     public Collection<Peak> getPeakList() {
-        return peakList.values();
+        return getPeakMap().values();
     }
 
     /**
@@ -273,8 +486,14 @@ public abstract class Spectrum extends ExperimentObject {
      *
      * @param peakList HashSet of peaks containing the peaks of the spectrum
      */
-    public void setPeakList(HashMap<Double, Peak> peakList) {
+    public synchronized void setPeakList(HashMap<Double, Peak> peakList) {
         this.peakList = peakList;
+        addedMz = null;
+        addedIntensities = null;
+        nAddedPeaks = 0;
+        mzArray = null;
+        intensityArray = null;
+        resetCaches();
     }
 
     /**
@@ -299,10 +518,18 @@ public abstract class Spectrum extends ExperimentObject {
      * This method will remove the peak list in order to reduce memory
      * consumption of the model.
      */
-    public void removePeakList() {
+    public synchronized void removePeakList() {
         if (peakList != null) {
             peakList.clear();
         }
+        addedMz = null;
+        addedIntensities = null;
+        nAddedPeaks = 0;
+        if (mzArray != null) {
+            intensityArray = new double[0];
+            mzArray = new double[0];
+        }
+        resetCaches();
     }
 
     /**
@@ -312,43 +539,54 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the mz values as an array
      */
     public double[] getMzValuesAsArray() {
-
-        if (mzValuesAsArray == null) {
-            mzValuesAsArray = new double[peakList.size()];
-
-            int counter = 0;
-
-            for (double currentMz : peakList.keySet()) {
-                mzValuesAsArray[counter] = currentMz;
-                counter++;
-            }
-        }
-
-        return mzValuesAsArray;
+        return getOrderedMzValues();
     }
 
     /**
-     * Returns a list of the m/z values sorted in ascending order.
+     * Returns a list of the m/z values sorted in ascending order. The array
+     * should not be modified.
      *
      * @return a list of the m/z values sorted in ascending order
      */
     public double[] getOrderedMzValues() {
-        if (mzOrdered == null || !mzOrdered) {
-            getMzValuesAsArray();
-            Arrays.sort(mzValuesAsArray);
-            mzOrdered = true;
-        }
-        return mzValuesAsArray;
+        buildPeakArrays();
+        return mzArray;
     }
 
     /**
      * Setter for the boolean that indicates whether the mzValuesAsArray is
-     * sorted.
+     * sorted. Has no effect, the m/z values are always sorted.
      *
      * @param mzOrdered whether the mzValuesAsArray is sorted
+     *
+     * @deprecated the m/z values are always sorted
      */
     public void setMzOrdered(boolean mzOrdered) {
-        this.mzOrdered = mzOrdered;
+    }
+
+    /**
+     * Returns the intensities of the peaks in the order of the m/z values
+     * sorted in ascending order. The array should not be modified.
+     *
+     * @return the intensities of the peaks sorted by ascending m/z
+     */
+    public double[] getOrderedIntensityValues() {
+        buildPeakArrays();
+        return intensityArray;
+    }
+
+    /**
+     * Returns the index in the ordered m/z values of the first peak with an
+     * m/z larger than or equal to the given m/z. The number of peaks if none.
+     *
+     * @param mz the m/z of interest
+     *
+     * @return the index of the first peak at or above the given m/z
+     */
+    public int getPeakIndex(double mz) {
+        double[] orderedMz = getOrderedMzValues();
+        int index = Arrays.binarySearch(orderedMz, mz);
+        return index >= 0 ? index : -index - 1;
     }
 
     /**
@@ -367,18 +605,13 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double[] getIntensityValuesAsArray() {
 
-        if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-            intensityValuesAsArray = new double[peakList.size()];
-
-            int counter = 0;
+        double[] intensities = getOrderedIntensityValues();
 
-            for (Peak currentPeak : peakList.values()) {
-                intensityValuesAsArray[counter] = currentPeak.intensity;
-                counter++;
-            }
+        if (intensityValuesAsArray != null && intensityValuesAsArray.length == intensities.length) {
+            return intensityValuesAsArray;
         }
 
-        return intensityValuesAsArray;
+        return intensities;
     }
 
     /**
@@ -391,16 +624,17 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (intensityValuesNormaizedAsArray == null) {
 
-            intensityValuesNormaizedAsArray = new double[peakList.size()];
+            double[] intensities = getOrderedIntensityValues();
+            intensityValuesNormaizedAsArray = new double[intensities.length];
 
             double highestIntensity = 0.0;
             int counter = 0;
 
-            for (Peak currentPeak : peakList.values()) {
-                intensityValuesNormaizedAsArray[counter++] = currentPeak.intensity;
+            for (double intensity : intensities) {
+                intensityValuesNormaizedAsArray[counter++] = intensity;
 
-                if (currentPeak.intensity > highestIntensity) {
-                    highestIntensity = currentPeak.intensity;
+                if (intensity > highestIntensity) {
+                    highestIntensity = intensity;
                 }
             }
 
@@ -423,14 +657,11 @@ public abstract class Spectrum extends ExperimentObject {
     public double[][] getMzAndIntensityAsArray() {
 
         if (mzAndIntensityAsArray == null) {
-            mzAndIntensityAsArray = new double[2][peakList.size()];
-            int i = 0;
-            for (double mz : getOrderedMzValues()) {
-                Peak currentPeak = peakList.get(mz);
-                mzAndIntensityAsArray[0][i] = currentPeak.mz;
-                mzAndIntensityAsArray[1][i] = currentPeak.intensity;
-                i++;
-            }
+            double[] mz = getOrderedMzValues();
+            double[] intensity = getOrderedIntensityValues();
+            mzAndIntensityAsArray = new double[2][];
+            mzAndIntensityAsArray[0] = Arrays.copyOf(mz, mz.length);
+            mzAndIntensityAsArray[1] = Arrays.copyOf(intensity, intensity.length);
         }
         return mzAndIntensityAsArray;
     }
@@ -443,11 +674,13 @@ public abstract class Spectrum extends ExperimentObject {
     public double getTotalIntensity() {
 
         if (totalIntensity == null) {
-            totalIntensity = 0.0;
+            double total = 0.0;
 
-            for (Peak currentPeak : peakList.values()) {
-                totalIntensity += currentPeak.intensity;
+            for (double intensity : getOrderedIntensityValues()) {
+                total += intensity;
             }
+
+            totalIntensity = total;
         }
 
         return totalIntensity;
@@ -461,13 +694,15 @@ public abstract class Spectrum extends ExperimentObject {
     public double getMaxIntensity() {
 
         if (maxIntensity == null) {
-            maxIntensity = 0.0;
+            double max = 0.0;
 
-            for (Peak currentPeak : peakList.values()) {
-                if (currentPeak.intensity > maxIntensity) {
-                    maxIntensity = currentPeak.intensity;
+            for (double intensity : getOrderedIntensityValues()) {
+                if (intensity > max) {
+                    max = intensity;
                 }
             }
+
+            maxIntensity = max;
         }
 
         return maxIntensity;
@@ -481,10 +716,11 @@ public abstract class Spectrum extends ExperimentObject {
     public double getMaxMz() {
 
         if (maxMz == null) {
-            if (peakList.keySet().isEmpty()) {
+            double[] mz = getOrderedMzValues();
+            if (mz.length == 0) {
                 maxMz = 0.0;
             } else {
-                maxMz = Collections.max(peakList.keySet());
+                maxMz = mz[mz.length - 1];
             }
         }
 
@@ -499,10 +735,11 @@ public abstract class Spectrum extends ExperimentObject {
     public double getMinMz() {
 
         if (minMz == null) {
-            if (peakList.keySet().isEmpty()) {
+            double[] mz = getOrderedMzValues();
+            if (mz.length == 0) {
                 minMz = 0.0;
             } else {
-                minMz = Collections.min(peakList.keySet());
+                minMz = mz[0];
             }
         }
 
@@ -521,9 +758,9 @@ public abstract class Spectrum extends ExperimentObject {
 
         ArrayList<Double> peakIntensities = new ArrayList<Double>();
 
-        for (Peak currentPeak : peakList.values()) {
-            if (currentPeak.intensity > threshold) {
-                peakIntensities.add(currentPeak.intensity);
+        for (double intensity : getOrderedIntensityValues()) {
+            if (intensity > threshold) {
+                peakIntensities.add(intensity);
             }
         }
 
@@ -540,14 +777,13 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double getIntensityLimit(double intensityFraction) {
 
-        ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
+        double[] mz = getOrderedMzValues();
+        double[] intensity = getOrderedIntensityValues();
+        ArrayList<Double> intensities = new ArrayList<Double>(mz.length);
 
-        for (Peak peak : peakList.values()) {
-            double mz = peak.mz;
-            // Skip the low mass region of the spectrum @TODO: skip precursor as well
-            if (mz > 200) {
-                intensities.add(peak.intensity);
-            }
+        // Skip the low mass region of the spectrum @TODO: skip precursor as well
+        for (int i = mz.length - 1; i >= 0 && mz[i] > 200; i--) {
+            intensities.add(intensity[i]);
         }
 
         if (intensities.isEmpty()) {
@@ -566,6 +802,7 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getRecalibratedPeakList(HashMap<Double, Double> mzCorrections) throws IllegalArgumentException {
 
+        HashMap<Double, Peak> peakList = getPeakMap();
         HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList.size());
         ArrayList<Double> keys = new ArrayList<Double>(mzCorrections.keySet());
         Collections.sort(keys);
@@ -612,7 +849,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return a peak list which does not contain the peak matched
      */
     public HashMap<Double, Peak> getDesignaledPeakList(ArrayList<IonMatch> matches) {
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList);
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(getPeakMap());
         for (IonMatch ionMatch : matches) {
             result.remove(ionMatch.peak.mz);
         }
@@ -630,12 +867,12 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getSubSpectrum(double mzMin, double mzMax) {
         HashMap<Double, Peak> result = new HashMap<Double, Peak>();
-        for (double mz : getOrderedMzValues()) {
-            if (mz >= mzMin && mz < mzMax) {
-                result.put(mz, peakList.get(mz));
-            } else if (mz >= mzMax) {
-                break;
-            }
+        HashMap<Double, Peak> peakMap = peakList;
+        double[] orderedMz = getOrderedMzValues();
+        double[] orderedIntensities = getOrderedIntensityValues();
+        for (int i = getPeakIndex(mzMin); i < orderedMz.length && orderedMz[i] < mzMax; i++) {
+            Peak peak = peakMap != null ? peakMap.get(orderedMz[i]) : new Peak(orderedMz[i], orderedIntensities[i]);
+            result.put(orderedMz[i], peak);
         }
         return result;
     }
@@ -648,8 +885,9 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, ArrayList<Peak>> getIntensityMap() {
         if (intensityPeakMap == null) {
-            intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakList.size());
-            for (Peak peak : peakList.values()) {
+            HashMap<Double, Peak> peakMap = getPeakMap();
+            intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakMap.size());
+            for (Peak peak : peakMap.values()) {
                 double intensity = peak.intensity;
                 ArrayList<Peak> peaksAtIntensity = intensityPeakMap.get(intensity);
                 if (peaksAtIntensity == null) {
@@ -668,10 +906,18 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the number of peaks in the spectrum
      */
     public int getNPeaks() {
-        if (peakList == null) {
+        if (nAddedPeaks > 0) {
+            mergeAddedPeaks();
+        }
+        double[] mz = mzArray;
+        if (mz != null) {
+            return mz.length;
+        }
+        HashMap<Double, Peak> peakMap = peakList;
+        if (peakMap == null) {
             return 0;
         }
-        return peakList.size();
+        return peakMap.size();
     }
 
     /**
@@ -682,4 +928,63 @@ public abstract class Spectrum extends ExperimentObject {
     public boolean isEmpty() {
         return getNPeaks() == 0;
     }
+
+    /**
+     * Read only map of the peaks stored as arrays.
+     */
+    private static class PeakMapView extends HashMap<Double, Peak> {
+
+        /**
+         * The version UID for Serialization/Deserialization compatibility.
+         */
+        static final long serialVersionUID = -2403530271960421768L;
+
+        /**
+         * Constructor.
+         *
+         * @param mz the m/z of the peaks
+         * @param intensity the intensities of the peaks
+         */
+        private PeakMapView(double[] mz, double[] intensity) {
+            super(Math.max(4 * mz.length / 3 + 1, 16));
+            for (int i = 0; i < mz.length; i++) {
+                super.put(mz[i], new Peak(mz[i], intensity[i]));
+            }
+        }
+
+        @Override
+        public Peak put(Double key, Peak value) {
+            throw new UnsupportedOperationException("The peak map of the spectrum is read only.");
+        }
+
+        @Override
+        public void putAll(Map<? extends Double, ? extends Peak> m) {
+            throw new UnsupportedOperationException("The peak map of the spectrum is read only.");
+        }
+
+        @Override
+        public Peak remove(Object key) {
+            throw new UnsupportedOperationException("The peak map of the spectrum is read only.");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("The peak map of the spectrum is read only.");
+        }
+
+        @Override
+        public Set<Double> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<Peak> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public Set<Map.Entry<Double, Peak>> entrySet() {
+            return Collections.unmodifiableSet(super.entrySet());
+        }
+    }
 }
@@ -0,0 +1,209 @@
+package com.compomics.util.experiment.massspectrometry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Bounded cache of the objects loaded from spectrum files, indexed by
+ * spectrum key. The cache is split in segments locked independently, every
+ * segment evicting its least recently used entries. Objects are loaded only
+ * once when requested concurrently by different threads.
+ *
+ * @param <V> the type of object cached
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumCache<V> {
+
+    /**
+     * The number of segments.
+     */
+    private static final int N_SEGMENTS = 16;
+    /**
+     * The segments of the cache.
+     */
+    private final Segment<V>[] segments;
+    /**
+     * The objects being loaded indexed by key.
+     */
+    private final ConcurrentHashMap<String, FutureTask<V>> loading = new ConcurrentHashMap<String, FutureTask<V>>();
+    /**
+     * The maximal number of objects in cache.
+     */
+    private volatile int size;
+
+    /**
+     * Constructor.
+     *
+     * @param size the maximal number of objects in cache
+     */
+    @SuppressWarnings("unchecked")
+    public SpectrumCache(int size) {
+        segments = new Segment[N_SEGMENTS];
+        for (int i = 0; i < N_SEGMENTS; i++) {
+            segments[i] = new Segment<V>();
+        }
+        setSize(size);
+    }
+
+    /**
+     * Returns the maximal number of objects in cache.
+     *
+     * @return the maximal number of objects in cache
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the maximal number of objects in cache. Every segment can hold an
+     * equal share of the objects.
+     *
+     * @param size the maximal number of objects in cache
+     */
+    public void setSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative cache size: " + size + ".");
+        }
+        this.size = size;
+        int segmentSize = (size + N_SEGMENTS - 1) / N_SEGMENTS;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.segmentSize = segmentSize;
+                Iterator<String> keys = segment.keySet().iterator();
+                while (segment.size() > segmentSize && keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the segment where the given key is stored.
+     *
+     * @param key the key
+     *
+     * @return the segment where the given key is stored
+     */
+    private Segment<V> getSegment(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & Integer.MAX_VALUE) % N_SEGMENTS];
+    }
+
+    /**
+     * Returns the object of the given key, null if not in cache.
+     *
+     * @param key the key
+     *
+     * @return the cached object
+     */
+    public V get(String key) {
+        Segment<V> segment = getSegment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Returns the object of the given key. If not in cache, the object is
+     * loaded using the given loader. If the object is being loaded by another
+     * thread, the method waits for this thread to finish loading.
+     *
+     * @param key the key
+     * @param loader the loader of the object
+     * @param save boolean indicating whether a loaded object should be stored
+     * in cache
+     *
+     * @return the object
+     *
+     * @throws ExecutionException exception thrown whenever an exception was
+     * thrown by the loader
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting for another thread to load the object
+     */
+    public V get(final String key, final Callable<V> loader, boolean save) throws ExecutionException, InterruptedException {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                // the object might have been loaded since the cache was checked
+                V cachedValue = get(key);
+                return cachedValue != null ? cachedValue : loader.call();
+            }
+        });
+        FutureTask<V> runningTask = loading.putIfAbsent(key, task);
+        if (runningTask != null) {
+            return runningTask.get();
+        }
+        try {
+            task.run();
+            value = task.get();
+            if (save && value != null) {
+                put(key, value);
+            }
+            return value;
+        } finally {
+            loading.remove(key, task);
+        }
+    }
+
+    /**
+     * Adds an object to the cache.
+     *
+     * @param key the key
+     * @param value the object
+     */
+    public void put(String key, V value) {
+        Segment<V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Segment of the cache, a map in access order evicting its eldest entry
+     * when full. Access must be synchronized on the segment.
+     *
+     * @param <V> the type of object cached
+     */
+    private static class Segment<V> extends LinkedHashMap<String, V> {
+
+        /**
+         * The maximal number of entries in the segment.
+         */
+        private int segmentSize = 0;
+
+        /**
+         * Constructor.
+         */
+        Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > segmentSize;
+        }
+    }
+}
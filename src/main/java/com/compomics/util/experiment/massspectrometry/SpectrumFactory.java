@@ -1,5 +1,6 @@
 package com.compomics.util.experiment.massspectrometry;
 
+import com.compomics.util.experiment.io.massspectrometry.MappedMgfReader;
 import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
 import com.compomics.util.experiment.io.massspectrometry.MgfReader;
 import com.compomics.util.waiting.WaitingHandler;
@@ -9,7 +10,9 @@ import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
 import uk.ac.ebi.jmzml.model.mzml.CVParam;
 import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
@@ -17,7 +20,6 @@ import uk.ac.ebi.jmzml.model.mzml.ScanList;
 import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
-import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
  * This factory will provide the spectra when needed.
@@ -32,43 +34,43 @@ public class SpectrumFactory {
      */
     private static SpectrumFactory instance = null;
     /**
-     * Map of already loaded spectra.
+     * Maximal number of spectra in cache.
      */
-    private HashMap<String, HashMap<String, Spectrum>> currentSpectrumMap = new HashMap<String, HashMap<String, Spectrum>>();
+    private static int nSpectraCache = 10000;
     /**
-     * Map of already loaded precursors.
+     * Maximal number of precursors in cache.
      */
-    private HashMap<String, HashMap<String, Precursor>> loadedPrecursorsMap = new HashMap<String, HashMap<String, Precursor>>();
+    private static int nPrecursorsCache = 100000;
     /**
-     * Maximal number of spectra in cache.
+     * Cache of the already loaded spectra indexed by spectrum key.
      */
-    private static int nSpectraCache = 10000;
+    private final SpectrumCache<Spectrum> spectrumCache = new SpectrumCache<Spectrum>(nSpectraCache);
     /**
-     * List of the loaded spectra.
+     * Cache of the already loaded precursors indexed by spectrum key.
      */
-    private LinkedBlockingDeque<String> loadedSpectra = new LinkedBlockingDeque<String>();
+    private final SpectrumCache<Precursor> precursorCache = new SpectrumCache<Precursor>(nPrecursorsCache);
     /**
      * Map to the different files.
      */
-    private HashMap<String, File> filesMap = new HashMap<String, File>();
+    private ConcurrentHashMap<String, File> filesMap = new ConcurrentHashMap<String, File>();
     /**
-     * Map of the random access files of the loaded mgf files (filename &gt;
-     * random access file).
+     * Map of the memory-mapped readers of the loaded mgf files (filename &gt;
+     * reader). The readers can be shared between threads.
      */
-    private HashMap<String, BufferedRandomAccessFile> mgfRandomAccessFilesMap = new HashMap<String, BufferedRandomAccessFile>();
+    private ConcurrentHashMap<String, MappedMgfReader> mgfReadersMap = new ConcurrentHashMap<String, MappedMgfReader>();
     /**
      * Map of the mgf indexes (fileName &gt; mgf index).
      */
-    private HashMap<String, MgfIndex> mgfIndexesMap = new HashMap<String, MgfIndex>();
+    private ConcurrentHashMap<String, MgfIndex> mgfIndexesMap = new ConcurrentHashMap<String, MgfIndex>();
     /**
      * Map of the mzML unmarshallers (fileName &gt; unmarshaller).
      */
-    private HashMap<String, MzMLUnmarshaller> mzMLUnmarshallers = new HashMap<String, MzMLUnmarshaller>();
+    private ConcurrentHashMap<String, MzMLUnmarshaller> mzMLUnmarshallers = new ConcurrentHashMap<String, MzMLUnmarshaller>();
     /**
      * Map of the spectrum file mapped according to the name used by the search
      * engine.
      */
-    private HashMap<String, File> idToSpectrumName = new HashMap<String, File>();
+    private ConcurrentHashMap<String, File> idToSpectrumName = new ConcurrentHashMap<String, File>();
     /**
      * The time out in milliseconds when querying the file.
      */
@@ -111,11 +113,13 @@ public class SpectrumFactory {
      * Clears the factory getInstance() needs to be called afterwards.
      */
     public void clearFactory() {
-        currentSpectrumMap.clear();
-        loadedPrecursorsMap.clear();
-        loadedSpectra.clear();
+        spectrumCache.clear();
+        precursorCache.clear();
         filesMap.clear();
-        mgfRandomAccessFilesMap.clear();
+        for (MappedMgfReader mgfReader : mgfReadersMap.values()) {
+            mgfReader.close();
+        }
+        mgfReadersMap.clear();
         mgfIndexesMap.clear();
         mzMLUnmarshallers.clear();
         idToSpectrumName.clear();
@@ -125,9 +129,8 @@ public class SpectrumFactory {
      * Empties the cache.
      */
     public void emptyCache() {
-        currentSpectrumMap.clear();
-        loadedPrecursorsMap.clear();
-        loadedSpectra.clear();
+        spectrumCache.clear();
+        precursorCache.clear();
     }
 
     /**
@@ -137,6 +140,7 @@ public class SpectrumFactory {
      */
     public void setCacheSize(int nCache) {
         SpectrumFactory.nSpectraCache = nCache;
+        spectrumCache.setSize(nCache);
     }
 
     /**
@@ -148,6 +152,25 @@ public class SpectrumFactory {
         return nSpectraCache;
     }
 
+    /**
+     * Sets the precursor cache size.
+     *
+     * @param nCache the new cache size
+     */
+    public void setPrecursorCacheSize(int nCache) {
+        SpectrumFactory.nPrecursorsCache = nCache;
+        precursorCache.setSize(nCache);
+    }
+
+    /**
+     * Returns the precursor cache size.
+     *
+     * @return the cache size
+     */
+    public int getPrecursorCacheSize() {
+        return nPrecursorsCache;
+    }
+
     /**
      * Add spectra to the factory.
      *
@@ -208,7 +231,7 @@ public class SpectrumFactory {
             }
 
             if (mgfIndex == null) {
-                mgfIndex = MgfReader.getIndexMap(spectrumFile, waitingHandler);
+                mgfIndex = MgfReader.getIndexMap(spectrumFile, waitingHandler, Runtime.getRuntime().availableProcessors());
 
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                     return; // return without saving the partial index
@@ -221,7 +244,10 @@ public class SpectrumFactory {
                 throw new IllegalArgumentException("An error occurred while indexing " + spectrumFile.getAbsolutePath());
             }
 
-            mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            MappedMgfReader oldReader = mgfReadersMap.put(fileName, new MappedMgfReader(spectrumFile));
+            if (oldReader != null) {
+                oldReader.close();
+            }
             mgfIndexesMap.put(fileName, mgfIndex);
 
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
@@ -275,22 +301,18 @@ public class SpectrumFactory {
      * @throws MzMLUnmarshallerException exception thrown whenever the file was
      * not parsed correctly
      */
-    public Precursor getPrecursor(String fileName, String spectrumTitle, boolean save) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileSpectrumMap = currentSpectrumMap.get(fileName);
-        if (fileSpectrumMap != null) {
-            Spectrum spectrum = fileSpectrumMap.get(spectrumTitle);
-            if (spectrum != null) {
-                return ((MSnSpectrum) spectrum).getPrecursor();
-            }
+    public Precursor getPrecursor(final String fileName, final String spectrumTitle, boolean save) throws IOException, MzMLUnmarshallerException {
+        String spectrumKey = Spectrum.getSpectrumKey(fileName, spectrumTitle);
+        Spectrum spectrum = spectrumCache.get(spectrumKey);
+        if (spectrum != null) {
+            return ((MSnSpectrum) spectrum).getPrecursor();
         }
-        HashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
-        if (filePrecursorMap != null) {
-            Precursor currentPrecursor = filePrecursorMap.get(spectrumTitle);
-            if (currentPrecursor != null) {
-                return currentPrecursor;
+        return getFromCache(precursorCache, spectrumKey, new Callable<Precursor>() {
+            @Override
+            public Precursor call() throws Exception {
+                return getPrecursor(fileName, spectrumTitle, 1);
             }
-        }
-        return getPrecursor(fileName, spectrumTitle, save, 1);
+        }, save);
     }
 
     /**
@@ -599,9 +621,8 @@ public class SpectrumFactory {
      * The waitingTime is doubled for the next try. The method throws an
      * exception after timeout (see timeOut attribute).
      *
-     * @param spectrumKey the key of the spectrum
-     * @param save boolean indicating whether the loaded precursor should be
-     * stored in the factory
+     * @param fileName the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
      * @param waitingTime the waiting time before retry
      *
      * @return the corresponding precursor
@@ -613,7 +634,7 @@ public class SpectrumFactory {
      * @throws IllegalArgumentException exception thrown whenever the file was
      * not parsed correctly
      */
-    private synchronized Precursor getPrecursor(String fileName, String spectrumTitle, boolean save, long waitingTime) throws IOException, MzMLUnmarshallerException, IllegalArgumentException {
+    private Precursor getPrecursor(String fileName, String spectrumTitle, long waitingTime) throws IOException, MzMLUnmarshallerException, IllegalArgumentException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
@@ -633,21 +654,25 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found.");
             }
             try {
-                currentPrecursor = MgfReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
+                currentPrecursor = getMgfReader(fileName).getPrecursor(mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
                     try {
-                        wait(waitingTime);
+                        Thread.sleep(waitingTime);
                     } catch (InterruptedException ie) {
                     }
-                    return getPrecursor(fileName, spectrumTitle, save, 2 * waitingTime);
+                    return getPrecursor(fileName, spectrumTitle, 2 * waitingTime);
                 } else {
                     e.printStackTrace();
                     throw new IllegalArgumentException("Error while loading precursor of spectrum " + spectrumTitle + " of file " + fileName + ".");
                 }
             }
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
-            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(fileName).getSpectrumById(spectrumTitle);
+            MzMLUnmarshaller mzMLUnmarshaller = mzMLUnmarshallers.get(fileName);
+            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum;
+            synchronized (mzMLUnmarshaller) {
+                mzMLSpectrum = mzMLUnmarshaller.getSpectrumById(spectrumTitle);
+            }
             int level = 2;
             double mzPrec = 0.0;
             double scanTime = -1.0;
@@ -694,14 +719,6 @@ public class SpectrumFactory {
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
-        if (save) {
-            HashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
-            if (fileMap == null) {
-                fileMap = new HashMap<String, Precursor>();
-                loadedPrecursorsMap.put(fileName, fileMap);
-            }
-            fileMap.put(spectrumTitle, currentPrecursor);
-        }
 
         return currentPrecursor;
     }
@@ -717,15 +734,14 @@ public class SpectrumFactory {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while parsing the mzML file
      */
-    public Spectrum getSpectrum(String spectrumFile, String spectrumTitle) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
-        if (fileMap != null) {
-            Spectrum currentSpectrum = fileMap.get(spectrumTitle);
-            if (currentSpectrum != null) {
-                return currentSpectrum;
+    public Spectrum getSpectrum(final String spectrumFile, final String spectrumTitle) throws IOException, MzMLUnmarshallerException {
+        String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
+        return getFromCache(spectrumCache, spectrumKey, new Callable<Spectrum>() {
+            @Override
+            public Spectrum call() throws Exception {
+                return getSpectrum(spectrumFile, spectrumTitle, 1);
             }
-        }
-        return getSpectrum(spectrumFile, spectrumTitle, 1);
+        }, true);
     }
 
     /**
@@ -766,7 +782,7 @@ public class SpectrumFactory {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while parsing the file
      */
-    private synchronized Spectrum getSpectrum(String spectrumFile, String spectrumTitle, long waitingTime) throws IOException, MzMLUnmarshallerException {
+    private Spectrum getSpectrum(String spectrumFile, String spectrumTitle, long waitingTime) throws IOException, MzMLUnmarshallerException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
@@ -786,11 +802,11 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + spectrumFile + "\' not found!");
             }
             try {
-                currentSpectrum = MgfReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
+                currentSpectrum = getMgfReader(spectrumFile).getSpectrum(mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
                     try {
-                        wait(waitingTime);
+                        Thread.sleep(waitingTime);
                     } catch (InterruptedException ie) {
                     }
                     return getSpectrum(spectrumFile, spectrumTitle, 2 * waitingTime);
@@ -801,14 +817,18 @@ public class SpectrumFactory {
             }
         } else if (spectrumFile.toLowerCase().endsWith(".mzml")) {
 
-            if (mzMLUnmarshallers.get(spectrumFile) == null) {
+            MzMLUnmarshaller mzMLUnmarshaller = mzMLUnmarshallers.get(spectrumFile);
+            if (mzMLUnmarshaller == null) {
                 throw new IOException("mzML file not found: \'" + spectrumFile + "\'!");
             }
-            if (mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle) == null) {
+            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum;
+            synchronized (mzMLUnmarshaller) {
+                mzMLSpectrum = mzMLUnmarshaller.getSpectrumById(spectrumTitle);
+            }
+            if (mzMLSpectrum == null) {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mzML file \'" + spectrumFile + "\' not found!");
             }
 
-            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle);
             int level = 2;
             double mzPrec = 0.0;
             double scanTime = -1.0;
@@ -865,24 +885,68 @@ public class SpectrumFactory {
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
-        if (loadedSpectra.size() == nSpectraCache) {
-            String tempKey = loadedSpectra.pollFirst();
-            String tempFile = Spectrum.getSpectrumFile(tempKey);
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(tempFile);
-            if (fileMap != null) {
-                String tempTitle = Spectrum.getSpectrumTitle(tempKey);
-                fileMap.remove(tempTitle);
+        return currentSpectrum;
+    }
+
+    /**
+     * Returns an object from the given cache, loading it if needed. An
+     * object requested concurrently by different threads is loaded only
+     * once.
+     *
+     * @param <V> the type of object
+     * @param cache the cache
+     * @param spectrumKey the key of the spectrum
+     * @param loader the loader of the object
+     * @param save boolean indicating whether a loaded object should be stored
+     * in cache
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while parsing the file
+     */
+    private <V> V getFromCache(SpectrumCache<V> cache, String spectrumKey, Callable<V> loader, boolean save) throws IOException, MzMLUnmarshallerException {
+        try {
+            return cache.get(spectrumKey, loader, save);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for spectrum " + spectrumKey + ".");
         }
-        HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
-        if (fileMap == null) {
-            fileMap = new HashMap<String, Spectrum>();
-            currentSpectrumMap.put(spectrumFile, fileMap);
+    }
+
+    /**
+     * Returns the reader of the given mgf file.
+     *
+     * @param fileName the name of the mgf file
+     *
+     * @return the reader of the mgf file
+     *
+     * @throws FileNotFoundException exception thrown whenever the file was not
+     * loaded
+     */
+    private MappedMgfReader getMgfReader(String fileName) throws FileNotFoundException {
+        MappedMgfReader mgfReader = mgfReadersMap.get(fileName);
+        if (mgfReader == null) {
+            throw new FileNotFoundException("Mgf file not found: \'" + fileName + "\'!");
         }
-        fileMap.put(spectrumTitle, currentSpectrum);
-        String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-        loadedSpectra.add(spectrumKey);
-        return currentSpectrum;
+        return mgfReader;
     }
 
     /**
@@ -915,14 +979,16 @@ public class SpectrumFactory {
     }
 
     /**
-     * Closes all opened files.
+     * Closes all opened files. The mgf files are unmapped, spectra and
+     * precursors which are not in cache cannot be retrieved from them
+     * anymore.
      *
      * @throws IOException exception thrown whenever an error occurred while
      * closing the files
      */
     public void closeFiles() throws IOException {
-        for (BufferedRandomAccessFile randomAccessFile : mgfRandomAccessFilesMap.values()) {
-            randomAccessFile.close();
+        for (MappedMgfReader mgfReader : mgfReadersMap.values()) {
+            mgfReader.close();
         }
     }
 
@@ -932,7 +998,7 @@ public class SpectrumFactory {
      * @return a list of loaded mgf files
      */
     public ArrayList<String> getMgfFileNames() {
-        return new ArrayList<String>(mgfRandomAccessFilesMap.keySet());
+        return new ArrayList<String>(mgfReadersMap.keySet());
     }
 
     /**
@@ -54,6 +54,25 @@ public abstract class ExperimentObject implements Serializable, Cloneable {
         return urParams.get(getParameterKey(parameter));
     }
 
+    /**
+     * Returns the map of user refinement parameters indexed by parameter key,
+     * null if no parameter was set.
+     *
+     * @return the map of user refinement parameters
+     */
+    public HashMap<String, UrParameter> getUrParams() {
+        return urParams;
+    }
+
+    /**
+     * Sets the map of user refinement parameters indexed by parameter key.
+     *
+     * @param urParams the map of user refinement parameters
+     */
+    public void setUrParams(HashMap<String, UrParameter> urParams) {
+        this.urParams = urParams;
+    }
+
     /**
      * Returns the key of a personalization parameter.
      *
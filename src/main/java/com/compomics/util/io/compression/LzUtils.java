@@ -0,0 +1,221 @@
+package com.compomics.util.io.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast compression of byte arrays using a block format of the LZ77 family.
+ * A block is a sequence of literal runs followed by back references of at
+ * least four bytes in the previous 64 kB, the last run having no reference.
+ * Favors speed over compression ratio, meant for small blocks like database
+ * entries.
+ *
+ * @author Marc Vaudel
+ */
+public class LzUtils {
+
+    /**
+     * The minimal length of a match.
+     */
+    private static final int MIN_MATCH = 4;
+    /**
+     * The maximal offset of a match.
+     */
+    private static final int MAX_OFFSET = 65535;
+    /**
+     * The number of bits of the hash of four bytes.
+     */
+    private static final int HASH_LOG = 12;
+    /**
+     * Value of a length nibble indicating that the length continues on the
+     * next bytes.
+     */
+    private static final int RUN_MASK = 15;
+
+    /**
+     * Empty constructor, static methods only.
+     */
+    private LzUtils() {
+    }
+
+    /**
+     * Returns the maximal size of the compression of the given number of
+     * bytes.
+     *
+     * @param length the number of bytes to compress
+     *
+     * @return the maximal size of the compressed bytes
+     */
+    public static int getMaxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses the given bytes.
+     *
+     * @param input the bytes to compress
+     *
+     * @return the compressed bytes
+     */
+    public static byte[] compress(byte[] input) {
+
+        int length = input.length;
+        byte[] output = new byte[getMaxCompressedLength(length)];
+        int[] hashTable = new int[1 << HASH_LOG];
+        int anchor = 0;
+        int position = 0;
+        int outputPosition = 0;
+
+        while (position + MIN_MATCH <= length) {
+            int sequence = readInt(input, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int reference = hashTable[hash] - 1;
+            hashTable[hash] = position + 1;
+            if (reference >= 0 && position - reference <= MAX_OFFSET && readInt(input, reference) == sequence) {
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < length && input[reference + matchLength] == input[position + matchLength]) {
+                    matchLength++;
+                }
+                outputPosition = writeLiterals(input, anchor, position - anchor, matchLength - MIN_MATCH, output, outputPosition);
+                int offset = position - reference;
+                output[outputPosition++] = (byte) offset;
+                output[outputPosition++] = (byte) (offset >>> 8);
+                if (matchLength - MIN_MATCH >= RUN_MASK) {
+                    outputPosition = writeLength(matchLength - MIN_MATCH - RUN_MASK, output, outputPosition);
+                }
+                position += matchLength;
+                anchor = position;
+            } else {
+                position++;
+            }
+        }
+
+        outputPosition = writeLiterals(input, anchor, length - anchor, 0, output, outputPosition);
+
+        return Arrays.copyOf(output, outputPosition);
+    }
+
+    /**
+     * Decompresses the given bytes.
+     *
+     * @param input the array containing the compressed bytes
+     * @param offset the index of the first compressed byte
+     * @param length the number of compressed bytes
+     * @param originalLength the length of the uncompressed bytes
+     *
+     * @return the uncompressed bytes
+     *
+     * @throws IOException exception thrown whenever the compressed bytes are
+     * corrupted
+     */
+    public static byte[] decompress(byte[] input, int offset, int length, int originalLength) throws IOException {
+
+        byte[] output = new byte[originalLength];
+        int position = offset;
+        int end = offset + length;
+        int outputPosition = 0;
+
+        try {
+            while (true) {
+                int token = input[position++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = input[position++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(input, position, output, outputPosition, literalLength);
+                position += literalLength;
+                outputPosition += literalLength;
+                if (outputPosition == originalLength) {
+                    break;
+                }
+                int matchOffset = (input[position++] & 0xFF) | (input[position++] & 0xFF) << 8;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = input[position++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int reference = outputPosition - matchOffset;
+                if (matchOffset == 0 || reference < 0 || outputPosition + matchLength > originalLength) {
+                    throw new IOException("Corrupted compressed block.");
+                }
+                // the match can overlap the bytes being written
+                for (int i = 0; i < matchLength; i++) {
+                    output[outputPosition++] = output[reference + i];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted compressed block.", e);
+        }
+
+        if (position != end) {
+            throw new IOException("Corrupted compressed block.");
+        }
+
+        return output;
+    }
+
+    /**
+     * Writes a token followed by a run of literals.
+     *
+     * @param input the input bytes
+     * @param start the index of the first literal
+     * @param literalLength the number of literals
+     * @param matchLength the length of the following match minus the minimal
+     * match length
+     * @param output the output bytes
+     * @param outputPosition the position where to write in the output
+     *
+     * @return the position in the output after the literals
+     */
+    private static int writeLiterals(byte[] input, int start, int literalLength, int matchLength, byte[] output, int outputPosition) {
+        int token = (Math.min(literalLength, RUN_MASK) << 4) | Math.min(matchLength, RUN_MASK);
+        output[outputPosition++] = (byte) token;
+        if (literalLength >= RUN_MASK) {
+            outputPosition = writeLength(literalLength - RUN_MASK, output, outputPosition);
+        }
+        System.arraycopy(input, start, output, outputPosition, literalLength);
+        return outputPosition + literalLength;
+    }
+
+    /**
+     * Writes the remainder of a length as a sequence of bytes, every byte
+     * equal to 255 indicating that the length continues.
+     *
+     * @param length the remainder of the length
+     * @param output the output bytes
+     * @param outputPosition the position where to write in the output
+     *
+     * @return the position in the output after the length
+     */
+    private static int writeLength(int length, byte[] output, int outputPosition) {
+        while (length >= 255) {
+            output[outputPosition++] = (byte) 255;
+            length -= 255;
+        }
+        output[outputPosition++] = (byte) length;
+        return outputPosition;
+    }
+
+    /**
+     * Reads four bytes as an integer.
+     *
+     * @param bytes the bytes
+     * @param position the index of the first byte
+     *
+     * @return the integer
+     */
+    private static int readInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF)
+                | (bytes[position + 1] & 0xFF) << 8
+                | (bytes[position + 2] & 0xFF) << 16
+                | (bytes[position + 3] & 0xFF) << 24;
+    }
+}
@@ -4,7 +4,6 @@ import com.compomics.util.protein_sequences_manager.enums.SequenceInputType;
 import com.compomics.util.Util;
 import com.compomics.util.experiment.identification.protein_sequences.FastaIndex;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
-import com.compomics.util.io.SerializationUtils;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.File;
@@ -104,7 +103,7 @@ public class ProteinSequencesManager {
                         for (File subFile : versionFolder.listFiles()) {
                             if (subFile.getName().endsWith(".cui")) {
                                 try {
-                                    FastaIndex tempIndex = (FastaIndex) SerializationUtils.readObject(subFile);
+                                    FastaIndex tempIndex = SequenceFactory.readIndex(subFile);
                                     String correctedName = correctFastaName(tempIndex.getName());
                                     if (correctedName.equals(name)) {
                                         File fastaFile = new File(versionFolder, tempIndex.getFileName());
@@ -1,5 +1,6 @@
 package com.compomics.util.test.experiment;
 
+import com.compomics.util.Util;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
 import com.compomics.util.experiment.biology.AminoAcid;
@@ -11,7 +12,10 @@ import com.compomics.util.experiment.identification.protein_sequences.SequenceFa
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMappingBatch;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndexFile;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.protein.Protein;
@@ -35,6 +39,41 @@ import org.xmlpull.v1.XmlPullParserException;
  */
 public class FMIndexTest extends TestCase {
 
+    /**
+     * The temporary folder where the FASTA files are copied, such that the
+     * indexes are not written in the test resources.
+     */
+    private File folder;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("fmIndex", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SequenceFactory.getInstance().clearFactory();
+        Util.deleteDir(folder);
+    }
+
+    /**
+     * Copies a FASTA file of the test resources to the temporary folder.
+     *
+     * @param name the name of the FASTA file in the test resources
+     *
+     * @return the copy of the FASTA file
+     *
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     */
+    private File getFastaFile(String name) throws IOException {
+        File fastaFile = new File(folder, name);
+        Util.copyFile(new File("src/test/resources/experiment", name), fastaFile);
+        return fastaFile;
+    }
+
     /**
      * Tests the import and the mapping of a few peptide sequences.
      *
@@ -52,7 +91,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        File sequences = getFastaFile("proteinTreeTestSequences");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
 
@@ -119,7 +158,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences_1");
+        File sequences = getFastaFile("proteinTreeTestSequences_1");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
         
@@ -602,4 +641,239 @@ public class FMIndexTest extends TestCase {
         
     }
 
+
+    /**
+     * Tests that an index saved next to the FASTA file is loaded and gives
+     * the same mapping as the index built from the FASTA file.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testIndexPersistence() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getFastaFile("proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+
+        File indexFile = FMIndexFile.getIndexFile(sequences);
+        indexFile.delete();
+
+        try {
+            FMIndex builtIndex = new FMIndex(null, false, null);
+            Assert.assertTrue(indexFile.exists());
+            FMIndex loadedIndex = new FMIndex(null, false, null);
+
+            SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+            sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+            sequenceMatchingPreferences.setLimitX(0.25);
+            String[] peptides = {"SSS", "ECTQDRGKTAFTEAVLLP", "LLL", "KPEPTIDE"};
+            for (String peptide : peptides) {
+                Assert.assertEquals(builtIndex.getProteinMapping(peptide, sequenceMatchingPreferences), loadedIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+                Assert.assertEquals(builtIndex.getProteinMapping(peptide, SequenceMatchingPreferences.defaultStringMatching), loadedIndex.getProteinMapping(peptide, SequenceMatchingPreferences.defaultStringMatching));
+            }
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+
+    /**
+     * Tests that the index built using multiple threads gives the same
+     * mapping as the index built sequentially.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testParallelConstruction() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getFastaFile("proteinTreeTestSequences_1");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+
+        File indexFile = FMIndexFile.getIndexFile(sequences);
+
+        try {
+            indexFile.delete();
+            FMIndex sequentialIndex = new FMIndex(null, false, new PtmSettings(), 1);
+            indexFile.delete();
+            FMIndex parallelIndex = new FMIndex(null, false, new PtmSettings(), 4);
+
+            SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+            sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+            String[] peptides = {"TEST", "TESTMRITESTCK", "TCKTESTK", "LRM"};
+            for (String peptide : peptides) {
+                Assert.assertEquals(sequentialIndex.getProteinMapping(peptide, sequenceMatchingPreferences), parallelIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            }
+
+            AminoAcidSequence aminoAcidPattern = new AminoAcidSequence("TEST");
+            double nTermGap = AminoAcid.L.getMonoisotopicMass() + AminoAcid.R.getMonoisotopicMass() + AminoAcid.M.getMonoisotopicMass() + AminoAcid.T.getMonoisotopicMass();
+            double cTermGap = AminoAcid.C.getMonoisotopicMass() + AminoAcid.K.getMonoisotopicMass();
+            Tag tag = new Tag(nTermGap, aminoAcidPattern, cTermGap);
+            HashMap<Peptide, HashMap<String, ArrayList<Integer>>> sequentialMapping = sequentialIndex.getProteinMapping(tag, null, sequenceMatchingPreferences, 0.02);
+            HashMap<Peptide, HashMap<String, ArrayList<Integer>>> parallelMapping = parallelIndex.getProteinMapping(tag, null, sequenceMatchingPreferences, 0.02);
+            Assert.assertEquals(sequentialMapping.size(), parallelMapping.size());
+            Assert.assertTrue(!parallelMapping.isEmpty());
+            Assert.assertTrue(parallelMapping.keySet().iterator().next().getSequence().compareTo("TMRITESTCK") == 0);
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+
+    /**
+     * Tests that the mapping of a batch of peptides is the same as the
+     * mapping of the peptides one by one.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testBatchMapping() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getFastaFile("proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+
+        FMIndex fmIndex = new FMIndex(null, false, null);
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+
+        ArrayList<String> peptides = new ArrayList<String>();
+        peptides.add("ECTQDRGKTAFTEAVLLP");
+        peptides.add("TAFTEAVLLP");
+        peptides.add("AVLLP");
+        peptides.add("SSS");
+        peptides.add("ASSS");
+        peptides.add("SSS");
+        peptides.add("LLL");
+        peptides.add("XLL");
+        peptides.add("KPEPTIDE");
+
+        for (int nThreads = 1; nThreads <= 3; nThreads += 2) {
+            ProteinMappingBatch batch = fmIndex.getProteinMapping(peptides, sequenceMatchingPreferences, nThreads);
+            Assert.assertEquals(8, batch.size());
+            for (String peptide : peptides) {
+                Assert.assertEquals(fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences), batch.getProteinMapping(peptide));
+            }
+        }
+        Assert.assertTrue(!fmIndex.getProteinMapping(peptides, sequenceMatchingPreferences, 1).getProteinMapping("SSS").isEmpty());
+    }
+
+
+    /**
+     * Tests the compact protein mapping and its conversion from and to maps.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testCompactMapping() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getFastaFile("proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+
+        FMIndex fmIndex = new FMIndex(null, false, null);
+
+        ProteinMapping proteinMapping = fmIndex.getCompactProteinMapping("SSS", SequenceMatchingPreferences.defaultStringMatching);
+        Assert.assertEquals(1, proteinMapping.getNMatchedSequences());
+        Assert.assertEquals("SSS", proteinMapping.getMatchedSequence(0));
+        for (int i = 0; i < proteinMapping.getNMatches(); i++) {
+            Assert.assertEquals(0, proteinMapping.getMatchedSequenceIndex(i));
+            String sequence = sequenceFactory.getProtein(proteinMapping.getAccession(i)).getSequence();
+            int position = proteinMapping.getPosition(i);
+            Assert.assertEquals("SSS", sequence.substring(position, position + 3));
+        }
+
+        HashMap<String, HashMap<String, ArrayList<Integer>>> mapping = proteinMapping.getMapping();
+        Assert.assertEquals(6, mapping.get("SSS").get("Q9FHX5").size() + mapping.get("SSS").get("Q9FHX5_REVERSED").size());
+        Assert.assertEquals(mapping, ProteinMapping.fromMap(mapping).getMapping());
+        Assert.assertEquals(fmIndex.getProteinMapping("SSS", SequenceMatchingPreferences.defaultStringMatching), mapping);
+
+        Assert.assertTrue(fmIndex.getCompactProteinMapping("WWWWWWWWWW", SequenceMatchingPreferences.defaultStringMatching).isEmpty());
+    }
+
+
+    /**
+     * Tests that the mapping of tags is not altered by the tag cache.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testTagCache() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getFastaFile("proteinTreeTestSequences_1");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+
+        FMIndex fmIndex = new FMIndex(null, false, new PtmSettings());
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+
+        AminoAcidSequence aminoAcidPattern = new AminoAcidSequence("TEST");
+        double nTermGap = AminoAcid.L.getMonoisotopicMass() + AminoAcid.R.getMonoisotopicMass() + AminoAcid.M.getMonoisotopicMass() + AminoAcid.T.getMonoisotopicMass();
+        double cTermGap = AminoAcid.C.getMonoisotopicMass() + AminoAcid.K.getMonoisotopicMass();
+        Tag tag = new Tag(nTermGap, aminoAcidPattern, cTermGap);
+
+        HashMap<Peptide, HashMap<String, ArrayList<Integer>>> firstMapping = fmIndex.getProteinMapping(tag, null, sequenceMatchingPreferences, 0.02);
+        long hits = fmIndex.getTagCache().getHits();
+        HashMap<Peptide, HashMap<String, ArrayList<Integer>>> secondMapping = fmIndex.getProteinMapping(tag, null, sequenceMatchingPreferences, 0.02);
+        Assert.assertEquals(hits + 1, fmIndex.getTagCache().getHits());
+
+        Assert.assertEquals(1, firstMapping.size());
+        Assert.assertEquals(firstMapping.size(), secondMapping.size());
+        Peptide firstPeptide = firstMapping.keySet().iterator().next();
+        Peptide secondPeptide = secondMapping.keySet().iterator().next();
+        Assert.assertEquals(firstPeptide.getSequence(), secondPeptide.getSequence());
+        Assert.assertEquals(firstPeptide.getNModifications(), secondPeptide.getNModifications());
+        Assert.assertEquals(firstMapping.get(firstPeptide), secondMapping.get(secondPeptide));
+
+        fmIndex.setTagCacheSize(0);
+        fmIndex.getProteinMapping(tag, null, sequenceMatchingPreferences, 0.02);
+        fmIndex.getProteinMapping(tag, null, sequenceMatchingPreferences, 0.02);
+        Assert.assertEquals(0, fmIndex.getTagCache().getHits());
+        Assert.assertEquals(2, fmIndex.getTagCache().getMisses());
+    }
+
 }
@@ -0,0 +1,398 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.identification.protein_sequences.AccessionTable;
+import com.compomics.util.experiment.identification.protein_sequences.DecoyDatabaseGenerator;
+import com.compomics.util.experiment.identification.protein_sequences.DecoyStrategy;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndex;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndexFile;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndexer;
+import com.compomics.util.experiment.identification.protein_sequences.PseudoReversedDecoyStrategy;
+import com.compomics.util.experiment.identification.protein_sequences.ReversedDecoyStrategy;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.protein_sequences.ShuffledDecoyStrategy;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerDummy;
+import com.compomics.util.io.SerializationUtils;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the writing and reading of FASTA indexes.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexTest extends TestCase {
+
+    /**
+     * Tests that an index read from the binary format is the same as the
+     * index created from the FASTA file and that serialized indexes can still
+     * be read.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testBinaryIndex() throws Exception {
+
+        File folder = File.createTempFile("fastaIndex", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            File fastaFile = new File(folder, "test.fasta");
+            BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+            for (int i = 0; i < 100; i++) {
+                bw.write(">generic|PROT" + i + "|Protein " + i);
+                bw.newLine();
+                bw.write("MKPEPTIDERAAAK");
+                bw.newLine();
+                bw.write(">generic|PROT" + i + SequenceFactory.getDefaultDecoyAccessionSuffix() + "|Protein " + i);
+                bw.newLine();
+                bw.write("KAAARE");
+                bw.newLine();
+                bw.write("DITPEPKM");
+                bw.newLine();
+            }
+            bw.close();
+
+            FastaIndex fastaIndex = SequenceFactory.getFastaIndex(fastaFile, true, null);
+            File indexFile = new File(folder, SequenceFactory.getIndexName(fastaFile.getName()));
+            Assert.assertTrue(FastaIndexFile.isFastaIndexFile(indexFile));
+            Assert.assertFalse(FastaIndexFile.isFastaIndexFile(fastaFile));
+
+            FastaIndex readIndex = SequenceFactory.readIndex(indexFile);
+            Assert.assertEquals(200, readIndex.getNSequences());
+            Assert.assertEquals(fastaIndex.getNTarget(), readIndex.getNTarget());
+            Assert.assertEquals(fastaIndex.getFileName(), readIndex.getFileName());
+            Assert.assertEquals(fastaIndex.getName(), readIndex.getName());
+            Assert.assertEquals(fastaIndex.getVersion(), readIndex.getVersion());
+            Assert.assertEquals(fastaIndex.getDecoyTag(), readIndex.getDecoyTag());
+            Assert.assertEquals(fastaIndex.getLastModified(), readIndex.getLastModified());
+            Assert.assertEquals(fastaIndex.getMainDatabaseType(), readIndex.getMainDatabaseType());
+            Assert.assertEquals(fastaIndex.getDatabaseTypes(), readIndex.getDatabaseTypes());
+            Assert.assertTrue(readIndex.isDefaultReversed());
+            Assert.assertTrue(readIndex.isConcatenatedTargetDecoy());
+
+            HashMap<String, Long> indexes = fastaIndex.getIndexes();
+            for (String accession : indexes.keySet()) {
+                Assert.assertEquals(indexes.get(accession), readIndex.getIndex(accession));
+                Assert.assertEquals(fastaIndex.isDecoy(accession), readIndex.isDecoy(accession));
+            }
+            Assert.assertNull(readIndex.getIndex("PROT100"));
+            Assert.assertFalse(readIndex.isDecoy("PROT100"));
+            Assert.assertEquals(indexes, readIndex.getIndexes());
+            Assert.assertEquals(fastaIndex.getDecoyAccesions(), readIndex.getDecoyAccesions());
+
+            AccessionTable accessionTable = readIndex.getAccessionTable();
+            for (int rank = 1; rank < accessionTable.size(); rank++) {
+                Assert.assertTrue(accessionTable.getAccession(rank - 1).compareTo(accessionTable.getAccession(rank)) < 0);
+            }
+
+            SerializationUtils.writeObject(readIndex, indexFile);
+            Assert.assertFalse(FastaIndexFile.isFastaIndexFile(indexFile));
+            FastaIndex serializedIndex = SequenceFactory.readIndex(indexFile);
+            Assert.assertEquals(indexes, serializedIndex.getIndexes());
+            Assert.assertEquals(200, serializedIndex.getNSequences());
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that an index file is replaced when the FASTA file changed and
+     * that the user settings of the previous index are kept.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testReindexing() throws Exception {
+
+        File folder = File.createTempFile("fastaIndex", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            File fastaFile = new File(folder, "test.fasta");
+            BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+            for (int i = 0; i < 10; i++) {
+                bw.write(">generic|PROT" + i + "|Protein " + i);
+                bw.newLine();
+                bw.write("MKPEPTIDERAAAK");
+                bw.newLine();
+            }
+            bw.close();
+
+            FastaIndex fastaIndex = SequenceFactory.getFastaIndex(fastaFile, false, null);
+            Assert.assertEquals(10, fastaIndex.getNSequences());
+            fastaIndex.setDescription("test description");
+            SequenceFactory.writeIndex(fastaIndex, folder);
+
+            bw = new BufferedWriter(new FileWriter(fastaFile, true));
+            bw.write(">generic|PROT10|Protein 10");
+            bw.newLine();
+            bw.write("MKPEPTIDERAAAK");
+            bw.newLine();
+            bw.close();
+            fastaFile.setLastModified(fastaIndex.getLastModified() + 10000);
+
+            fastaIndex = SequenceFactory.getFastaIndex(fastaFile, false, null);
+            Assert.assertEquals(11, fastaIndex.getNSequences());
+            Assert.assertEquals("test description", fastaIndex.getDescription());
+            FastaIndex readIndex = SequenceFactory.readIndex(new File(folder, SequenceFactory.getIndexName(fastaFile.getName())));
+            Assert.assertEquals(11, readIndex.getNSequences());
+            Assert.assertEquals(fastaFile.lastModified(), readIndex.getLastModified().longValue());
+            Assert.assertNotNull(readIndex.getIndex("PROT10"));
+            Assert.assertEquals("test description", readIndex.getDescription());
+
+            SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+            sequenceFactory.loadFastaFile(fastaFile, null);
+            try {
+                sequenceFactory.getCurrentFastaIndex().setDescription("new description");
+                sequenceFactory.saveIndex();
+                Assert.assertEquals("PROT10", sequenceFactory.getProtein("PROT10").getAccession());
+                readIndex = SequenceFactory.readIndex(new File(folder, SequenceFactory.getIndexName(fastaFile.getName())));
+                Assert.assertEquals("new description", readIndex.getDescription());
+                Assert.assertEquals(11, readIndex.getNSequences());
+            } finally {
+                sequenceFactory.clearFactory();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the index obtained in parallel is the same as the one
+     * obtained using a single thread.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testParallelIndexing() throws Exception {
+
+        File fastaFile = File.createTempFile("fastaIndex", ".fasta");
+        try {
+            BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+            for (int i = 0; i < 1000; i++) {
+                if (i % 3 == 0) {
+                    bw.write(">sp|P" + i + "|PROT" + i + "_HUMAN Protein " + i + " OS=Homo sapiens GN=G" + i + " PE=1 SV=1");
+                } else {
+                    bw.write(">generic|PROT" + i + "|Protein " + i);
+                }
+                bw.write("\r\n");
+                for (int j = 0; j <= i % 4; j++) {
+                    bw.write("MKPEPTIDERAAAKDITPEPKM");
+                    bw.write("\r\n");
+                }
+                bw.write(">generic|PROT" + i + "_REVERSED|Protein " + i);
+                bw.write("\r\n");
+                bw.write("MKPEPTIDKAAAREPEPTKM*");
+                bw.write("\r\n");
+            }
+            bw.close();
+
+            FastaIndex fastaIndex = FastaIndexer.createFastaIndex(fastaFile, null, null, null, null, 1);
+            Assert.assertEquals(2000, fastaIndex.getNSequences());
+            Assert.assertEquals(1000, fastaIndex.getNTarget());
+            Assert.assertEquals("REVERSED", fastaIndex.getDecoyTag());
+
+            for (int nThreads : new int[]{2, 3, 8}) {
+                FastaIndex parallelIndex = FastaIndexer.createFastaIndex(fastaFile, null, null, null, null, nThreads);
+                Assert.assertEquals(fastaIndex.getIndexes(), parallelIndex.getIndexes());
+                Assert.assertEquals(fastaIndex.getDecoyAccesions(), parallelIndex.getDecoyAccesions());
+                Assert.assertEquals(fastaIndex.getNTarget(), parallelIndex.getNTarget());
+                Assert.assertEquals(fastaIndex.getDecoyTag(), parallelIndex.getDecoyTag());
+                Assert.assertEquals(fastaIndex.isDefaultReversed(), parallelIndex.isDefaultReversed());
+                Assert.assertEquals(fastaIndex.getMainDatabaseType(), parallelIndex.getMainDatabaseType());
+                Assert.assertEquals(fastaIndex.getDatabaseTypes(), parallelIndex.getDatabaseTypes());
+                Assert.assertEquals(fastaIndex.getSpecies(), parallelIndex.getSpecies());
+            }
+        } finally {
+            fastaFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the index written along with a target-decoy database is the
+     * same as the index created from the new file.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testDecoyGeneration() throws Exception {
+
+        File folder = File.createTempFile("decoyDatabase", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            File fastaFile = new File(folder, "target.fasta");
+            BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+            for (int i = 0; i < 2500; i++) {
+                if (i % 3 == 0) {
+                    bw.write(">sp|P" + i + "|PROT" + i + "_HUMAN Protein " + i + " OS=Homo sapiens GN=G" + i + " PE=1 SV=1");
+                } else {
+                    bw.write(">generic|PROT" + i + "|Protein " + i);
+                }
+                bw.newLine();
+                for (int j = 0; j <= i % 4; j++) {
+                    bw.write("MKPEPTIDERAAAKDITPEPKM");
+                    bw.newLine();
+                }
+            }
+            bw.close();
+
+            DecoyStrategy[] decoyStrategies = new DecoyStrategy[]{new ReversedDecoyStrategy(), new ShuffledDecoyStrategy(42), new PseudoReversedDecoyStrategy()};
+            for (DecoyStrategy decoyStrategy : decoyStrategies) {
+
+                File destinationFile = new File(folder, "target_decoy.fasta");
+                FastaIndex fastaIndex = DecoyDatabaseGenerator.generate(fastaFile, null, destinationFile, decoyStrategy, null, 3);
+                FastaIndex newIndex = FastaIndexer.createFastaIndex(destinationFile, null, null, null, null, 1);
+                Assert.assertEquals(5000, fastaIndex.getNSequences());
+                Assert.assertEquals(2500, fastaIndex.getNTarget());
+                Assert.assertEquals(newIndex.getIndexes(), fastaIndex.getIndexes());
+                Assert.assertEquals(newIndex.getDecoyAccesions(), fastaIndex.getDecoyAccesions());
+                Assert.assertEquals(newIndex.getNTarget(), fastaIndex.getNTarget());
+                Assert.assertEquals(newIndex.getDecoyTag(), fastaIndex.getDecoyTag());
+                Assert.assertEquals(newIndex.isDefaultReversed(), fastaIndex.isDefaultReversed());
+                Assert.assertEquals(newIndex.getMainDatabaseType(), fastaIndex.getMainDatabaseType());
+                Assert.assertEquals(newIndex.getDatabaseTypes(), fastaIndex.getDatabaseTypes());
+                Assert.assertEquals(newIndex.getSpecies(), fastaIndex.getSpecies());
+                Assert.assertEquals(newIndex.getLastModified(), fastaIndex.getLastModified());
+
+                // the decoys must not depend on the number of threads
+                byte[] content = getContent(destinationFile);
+                DecoyDatabaseGenerator.generate(fastaFile, null, destinationFile, decoyStrategy, null, 1);
+                Assert.assertTrue(Arrays.equals(content, getContent(destinationFile)));
+            }
+
+            Assert.assertEquals("EDITPEPKSGAR", new PseudoReversedDecoyStrategy().getDecoySequence("PROT", "PEPTIDEKAGSR"));
+            char[] shuffled = new ShuffledDecoyStrategy(42).getDecoySequence("PROT", "PEPTIDEKAGSR").toCharArray();
+            char[] sorted = "PEPTIDEKAGSR".toCharArray();
+            Arrays.sort(shuffled);
+            Arrays.sort(sorted);
+            Assert.assertTrue(Arrays.equals(sorted, shuffled));
+
+            SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+            sequenceFactory.loadFastaFile(fastaFile, null);
+            File destinationFile = new File(folder, "target_concatenated_target_decoy.fasta");
+            sequenceFactory.appendDecoySequences(destinationFile);
+            Assert.assertEquals(destinationFile, sequenceFactory.getCurrentFastaFile());
+            Assert.assertEquals(5000, sequenceFactory.getNSequences());
+            String decoyAccession = SequenceFactory.getDefaultDecoyAccession("PROT1");
+            Assert.assertTrue(sequenceFactory.isDecoyAccession(decoyAccession));
+            Assert.assertEquals("Protein 1-REVERSED", sequenceFactory.getHeader(decoyAccession).getDescription());
+            Assert.assertEquals(SequenceFactory.reverseSequence(sequenceFactory.getProtein("PROT1").getSequence()), sequenceFactory.getProtein(decoyAccession).getSequence());
+            sequenceFactory.clearFactory();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the generation of a target-decoy database stops all threads
+     * and deletes the new file when canceled or when building a decoy fails.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testDecoyGenerationStop() throws Exception {
+
+        File folder = File.createTempFile("decoyDatabase", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            File fastaFile = new File(folder, "target.fasta");
+            BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+            for (int i = 0; i < 50000; i++) {
+                bw.write(">generic|PROT" + i + "|Protein " + i);
+                bw.newLine();
+                bw.write("MKPEPTIDERAAAK");
+                bw.newLine();
+            }
+            bw.close();
+            File destinationFile = new File(folder, "target_decoy.fasta");
+
+            DecoyStrategy failingStrategy = new ReversedDecoyStrategy() {
+                @Override
+                public String getDecoySequence(String accession, String sequence) {
+                    if (accession.equals("PROT2000")) {
+                        throw new IllegalStateException("Decoy failure.");
+                    }
+                    return super.getDecoySequence(accession, sequence);
+                }
+            };
+            try {
+                DecoyDatabaseGenerator.generate(fastaFile, null, destinationFile, failingStrategy, null, 1);
+                fail("No exception thrown.");
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("Decoy failure.", e.getMessage());
+            }
+            Assert.assertFalse(destinationFile.exists());
+            Assert.assertTrue(waitForGeneratorThreads());
+
+            WaitingHandlerDummy waitingHandler = new WaitingHandlerDummy() {
+
+                private int progress = 0;
+
+                @Override
+                public synchronized void increaseSecondaryProgressCounter(int amount) {
+                    progress += amount;
+                }
+
+                @Override
+                public synchronized boolean isRunCanceled() {
+                    return progress > 0;
+                }
+            };
+            Assert.assertNull(DecoyDatabaseGenerator.generate(fastaFile, null, destinationFile, new ReversedDecoyStrategy(), waitingHandler, 1));
+            Assert.assertFalse(destinationFile.exists());
+            Assert.assertTrue(waitForGeneratorThreads());
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Waits for the threads of the decoy database generator to stop.
+     *
+     * @return true if no thread of the generator is running after waiting at
+     * most ten seconds
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    private boolean waitForGeneratorThreads() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            boolean running = false;
+            for (StackTraceElement[] stackTrace : Thread.getAllStackTraces().values()) {
+                for (StackTraceElement element : stackTrace) {
+                    if (element.getClassName().startsWith(DecoyDatabaseGenerator.class.getName())) {
+                        running = true;
+                    }
+                }
+            }
+            if (!running) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the content of a file.
+     *
+     * @param file the file
+     *
+     * @return the content of the file
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    private byte[] getContent(File file) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] content = new byte[(int) raf.length()];
+            raf.readFully(content);
+            return content;
+        } finally {
+            raf.close();
+        }
+    }
+}
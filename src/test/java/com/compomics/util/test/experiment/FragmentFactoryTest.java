@@ -1,15 +1,24 @@
 package com.compomics.util.test.experiment;
 
 import com.compomics.util.experiment.biology.AminoAcidPattern;
+import com.compomics.util.experiment.biology.FragmentTable;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.IonFactory;
 import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.biology.ions.TagFragmentIon;
+import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.spectrum_annotation.FragmentIonsCache;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Peak;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
@@ -706,4 +715,221 @@ public class FragmentFactoryTest extends TestCase {
             }
         }
     }
+
+    /**
+     * Tests the ions written in a fragment table reused for different
+     * peptides against the expected names and masses, with modifications,
+     * neutral losses and annotation settings.
+     */
+    public void testFragmentTable() {
+
+        FragmentTable fragmentTable = new FragmentTable();
+        Peptide longPeptide = new Peptide("ACDEFGHIKLMNPQRSTVWYACDEFGHIKLMNPQRSTVWY", new ArrayList<ModificationMatch>());
+        fragmentFactory.getFragmentIons(longPeptide, null, fragmentTable);
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 1));
+        modificationMatches.add(new ModificationMatch("Oxidation of M", true, 3));
+        Peptide peptide = new Peptide("SAMPLER", modificationMatches);
+
+        // all ions, with the neutral losses of the modifications
+        fragmentFactory.getFragmentIons(peptide, null, fragmentTable);
+        Assert.assertEquals(415, fragmentTable.size());
+        HashMap<String, Double> masses = getMasses(fragmentTable);
+        Assert.assertEquals(415, masses.size());
+        checkMasses(masses, new String[]{
+            "a1", "a1-H3PO4", "a1-CH4OS", "a6", "a6-H3PO4", "a6-CH4OS",
+            "b1", "b1-H3PO4", "b1-CH4OS", "b6", "b6-H3PO4", "b6-CH4OS",
+            "c1", "c1-H3PO4", "c6", "x1", "x1-H3PO4", "x6",
+            "y1", "y1-H3PO4", "y1-CH4OS", "y6", "y6-H3PO4", "y6-CH4OS",
+            "z1", "z6-H3PO4", "a1-H2O-NH3", "a1-CH4OS-H3PO4",
+            "Prec", "Prec-H2O", "Prec-H3PO4", "Prec-CH4OS", "Prec-CH4OS-H3PO4",
+            "iA", "iE", "iL", "iM", "iP", "iS", "rE", "rM"},
+                new double[]{
+                    139.0034, 41.0265, 75.0052, 696.2554, 598.2785, 632.2571,
+                    166.9984, 69.0215, 103.0001, 724.2503, 626.2734, 660.2520,
+                    184.0249, 86.0480, 741.2768, 200.0909, 102.1140, 757.3429,
+                    174.1117, 76.1348, 110.1134, 731.3636, 633.3867, 667.3653,
+                    158.0930, 617.3680, 103.9663, -22.9717,
+                    898.3620, 880.3514, 800.3851, 834.3637, 736.3868,
+                    43.0422, 101.0477, 85.0891, 103.0456, 69.0578, 59.0371, 83.0371, 60.0034});
+
+        // b and y ions and precursor without neutral losses
+        SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings(null, null);
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+        specificAnnotationSettings.addIonType(Ion.IonType.PRECURSOR_ION);
+        fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings, fragmentTable);
+        masses = getMasses(fragmentTable);
+        Assert.assertEquals(13, fragmentTable.size());
+        Assert.assertEquals(13, masses.size());
+        checkMasses(masses, new String[]{"b1", "b2", "b3", "b4", "b5", "b6", "y1", "y2", "y3", "y4", "y5", "y6", "Prec"},
+                new double[]{166.9984, 238.0355, 385.0709, 482.1236, 595.2077, 724.2503,
+                    174.1117, 303.1543, 416.2383, 513.2911, 660.3265, 731.3636, 897.3541});
+        for (int i = 0; i < fragmentTable.size(); i++) {
+            Assert.assertNull(fragmentTable.getNeutralLosses(i));
+            if (fragmentTable.getType(i) == Ion.IonType.PEPTIDE_FRAGMENT_ION.index) {
+                Assert.assertEquals(((PeptideFragmentIon) fragmentTable.getIon(i)).getNumber(), fragmentTable.getNumber(i));
+            }
+            double protonMass = ElementaryIon.proton.getTheoreticMass();
+            Assert.assertEquals((fragmentTable.getMass(i) + 2 * protonMass) / 2, fragmentTable.getMz(i, 2), 1e-10);
+        }
+
+        // same with neutral losses
+        specificAnnotationSettings.addNeutralLoss(NeutralLoss.H3PO4);
+        fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings, fragmentTable);
+        masses = getMasses(fragmentTable);
+        Assert.assertEquals(143, fragmentTable.size());
+        Assert.assertEquals(143, masses.size());
+        checkMasses(masses, new String[]{"b1", "b1-H2O", "b1-H3PO4", "y6", "y6-H2O-H3PO4", "y6-CH4OS-H3PO4", "Prec", "Prec-H3PO4-NH3"},
+                new double[]{166.9984, 148.9878, 69.0215, 731.3636, 615.3762, 569.3884, 898.3620, 783.3585});
+        Assert.assertFalse(masses.containsKey("a1"));
+        Assert.assertFalse(masses.containsKey("iS"));
+    }
+
+    /**
+     * Returns the theoretic masses of the ions of a fragment table indexed by
+     * ion name, followed by the number for peptide fragment ions.
+     *
+     * @param fragmentTable the fragment table
+     *
+     * @return the theoretic masses of the ions
+     */
+    private HashMap<String, Double> getMasses(FragmentTable fragmentTable) {
+        HashMap<String, Double> masses = new HashMap<String, Double>();
+        for (int i = 0; i < fragmentTable.size(); i++) {
+            Ion ion = fragmentTable.getIon(i);
+            Assert.assertEquals(fragmentTable.getType(i), ion.getType().index);
+            Assert.assertEquals(fragmentTable.getSubType(i), ion.getSubType());
+            Assert.assertEquals(fragmentTable.getMass(i), ion.getTheoreticMass());
+            String name = ion.getName();
+            if (fragmentTable.getType(i) == Ion.IonType.PEPTIDE_FRAGMENT_ION.index) {
+                name = name.substring(0, 1) + fragmentTable.getNumber(i) + name.substring(1);
+            }
+            masses.put(name, fragmentTable.getMass(i));
+        }
+        return masses;
+    }
+
+    /**
+     * Checks the masses of the given ions.
+     *
+     * @param masses the theoretic masses indexed by ion name
+     * @param names the names of the ions to check
+     * @param expectedMasses the expected masses
+     */
+    private void checkMasses(HashMap<String, Double> masses, String[] names, double[] expectedMasses) {
+        Assert.assertEquals(names.length, expectedMasses.length);
+        for (int i = 0; i < names.length; i++) {
+            Double mass = masses.get(names[i]);
+            Assert.assertNotNull("Ion " + names[i] + " not found.", mass);
+            Assert.assertEquals(names[i], expectedMasses[i], mass, 0.0001);
+        }
+    }
+
+    /**
+     * Tests that the fragment ions cache returns the ions of the fragment
+     * factory and counts hits and misses.
+     */
+    public void testFragmentIonsCache() {
+
+        FragmentIonsCache fragmentIonsCache = new FragmentIonsCache(100);
+
+        Peptide peptide = new Peptide("PEPTIDEK", new ArrayList<ModificationMatch>());
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> ions = fragmentFactory.getFragmentIons(peptide);
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> cachedIons = fragmentIonsCache.getFragmentIons(peptide, null);
+        Assert.assertEquals(0, fragmentIonsCache.getNHits());
+        Assert.assertEquals(1, fragmentIonsCache.getNMisses());
+        Assert.assertEquals(ions.keySet(), cachedIons.keySet());
+        for (Integer type : ions.keySet()) {
+            for (Integer subType : ions.get(type).keySet()) {
+                ArrayList<Ion> ionsList = ions.get(type).get(subType);
+                ArrayList<Ion> cachedIonsList = cachedIons.get(type).get(subType);
+                Assert.assertEquals(ionsList.size(), cachedIonsList.size());
+                for (int i = 0; i < ionsList.size(); i++) {
+                    Assert.assertEquals(ionsList.get(i).getTheoreticMass(), cachedIonsList.get(i).getTheoreticMass());
+                }
+            }
+        }
+
+        Peptide samePeptide = new Peptide("PEPTIDEK", new ArrayList<ModificationMatch>());
+        Assert.assertSame(cachedIons, fragmentIonsCache.getFragmentIons(samePeptide, null));
+        Assert.assertEquals(1, fragmentIonsCache.getNHits());
+        Assert.assertEquals(0.5, fragmentIonsCache.getHitRate());
+
+        Peptide otherPeptide = new Peptide("PEPTIDER", new ArrayList<ModificationMatch>());
+        Assert.assertNotSame(cachedIons, fragmentIonsCache.getFragmentIons(otherPeptide, null));
+        Assert.assertEquals(2, fragmentIonsCache.getNMisses());
+
+        fragmentIonsCache.clear();
+        Assert.assertEquals(0, fragmentIonsCache.getNHits());
+        Assert.assertNotSame(cachedIons, fragmentIonsCache.getFragmentIons(peptide, null));
+        Assert.assertEquals(1, fragmentIonsCache.getNMisses());
+    }
+
+    /**
+     * Tests that the shared fragment ions cache is emptied when the
+     * modifications of the PTM factory change.
+     */
+    public void testFragmentIonsCacheClearedByPtmFactory() {
+
+        FragmentIonsCache fragmentIonsCache = FragmentIonsCache.getInstance();
+        Peptide peptide = new Peptide("PEPTIDEKPEPTIDE", new ArrayList<ModificationMatch>());
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> cachedIons = fragmentIonsCache.getFragmentIons(peptide, null);
+        Assert.assertSame(cachedIons, fragmentIonsCache.getFragmentIons(peptide, null));
+
+        PTMFactory.getInstance().removeUserPtm("not a modification");
+        Assert.assertEquals(0, fragmentIonsCache.getNHits());
+        Assert.assertEquals(0, fragmentIonsCache.getNMisses());
+        Assert.assertNotSame(cachedIons, fragmentIonsCache.getFragmentIons(peptide, null));
+    }
+
+    /**
+     * Tests that annotating with a mass shift does not modify the ions of the
+     * fragment ions cache.
+     */
+    public void testMassShiftWithCache() {
+
+        Peptide peptide = new Peptide("PEPTIDEK", new ArrayList<ModificationMatch>());
+        SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings("spectrum", new PeptideAssumption(peptide, 1, 0, new Charge(Charge.PLUS, 2), 0.0));
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION);
+        specificAnnotationSettings.addSelectedCharge(1);
+        specificAnnotationSettings.setFragmentIonAccuracy(0.01);
+
+        FragmentIonsCache fragmentIonsCache = FragmentIonsCache.getInstance();
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> cachedIons = fragmentIonsCache.getFragmentIons(peptide, specificAnnotationSettings);
+        ArrayList<Ion> bIons = cachedIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(PeptideFragmentIon.B_ION);
+        double[] bMasses = new double[bIons.size()];
+        for (int i = 0; i < bMasses.length; i++) {
+            bMasses[i] = bIons.get(i).getTheoreticMass();
+        }
+        Ion b2 = bIons.get(1);
+        Assert.assertEquals(2, ((PeptideFragmentIon) b2).getNumber());
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+
+        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+        for (double massShift : new double[]{1.0, 0.5, 0.5}) {
+            spectrumAnnotator.setMassShift(massShift);
+            Peak peak = new Peak(bMasses[1] + massShift + protonMass, 100);
+            ArrayList<IonMatch> ionMatches = spectrumAnnotator.matchPeak(peptide, specificAnnotationSettings, peak);
+            Assert.assertEquals(1, ionMatches.size());
+            Assert.assertEquals("b2", ionMatches.get(0).getPeakAnnotation());
+            Assert.assertEquals(bMasses[1] + massShift, ionMatches.get(0).ion.getTheoreticMass(), 1e-10);
+            Assert.assertTrue(spectrumAnnotator.matchPeak(peptide, specificAnnotationSettings, new Peak(bMasses[1] + protonMass, 100)).isEmpty());
+        }
+
+        // ions provided by the caller are not modified either
+        spectrumAnnotator.setMassShift(2.0);
+        Peptide otherPeptide = new Peptide("PEPTIDER", new ArrayList<ModificationMatch>());
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> otherIons = fragmentIonsCache.getFragmentIons(otherPeptide, specificAnnotationSettings);
+        double otherMass = otherIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(PeptideFragmentIon.Y_ION).get(0).getTheoreticMass();
+        spectrumAnnotator.getExpectedIons(specificAnnotationSettings, otherPeptide, otherIons);
+        Assert.assertEquals(otherMass, otherIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(PeptideFragmentIon.Y_ION).get(0).getTheoreticMass());
+
+        Assert.assertSame(cachedIons, fragmentIonsCache.getFragmentIons(peptide, specificAnnotationSettings));
+        Assert.assertSame(b2, cachedIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(PeptideFragmentIon.B_ION).get(1));
+        for (int i = 0; i < bMasses.length; i++) {
+            Assert.assertEquals(bMasses[i], bIons.get(i).getTheoreticMass());
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.IdentificationKeys;
+import com.compomics.util.experiment.identification.KeyInterner;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import java.util.ArrayList;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the interning of the match keys.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationKeysTest extends TestCase {
+
+    /**
+     * Tests the ids of the match keys and the information parsed from the
+     * keys.
+     */
+    public void testIdentificationKeys() {
+
+        IdentificationKeys identificationKeys = new IdentificationKeys();
+
+        String spectrumKey1 = Spectrum.getSpectrumKey("file1.mgf", "spectrum 1");
+        String spectrumKey2 = Spectrum.getSpectrumKey("file2.mgf", "spectrum 2");
+        String spectrumKey3 = Spectrum.getSpectrumKey("file1.mgf", "spectrum 3");
+        int spectrumId1 = identificationKeys.getSpectrumId(spectrumKey1);
+        int spectrumId2 = identificationKeys.getSpectrumId(spectrumKey2);
+        int spectrumId3 = identificationKeys.getSpectrumId(spectrumKey3);
+        Assert.assertEquals(0, spectrumId1);
+        Assert.assertEquals(1, spectrumId2);
+        Assert.assertEquals(2, spectrumId3);
+        Assert.assertEquals(spectrumId1, identificationKeys.getSpectrumId(new String(spectrumKey1)));
+        Assert.assertEquals(3, identificationKeys.getNSpectrumKeys());
+        Assert.assertEquals(spectrumKey2, identificationKeys.getSpectrumKey(spectrumId2));
+        Assert.assertEquals("file2.mgf", identificationKeys.getSpectrumFile(spectrumId2));
+        Assert.assertEquals("spectrum 3", identificationKeys.getSpectrumTitle(spectrumId3));
+        Assert.assertEquals(identificationKeys.getSpectrumFileId(spectrumId1), identificationKeys.getSpectrumFileId(spectrumId3));
+        Assert.assertEquals("file1.mgf", identificationKeys.getSpectrumFileName(identificationKeys.getSpectrumFileId(spectrumId1)));
+
+        String peptideKey = "PEPTIDEK" + Peptide.MODIFICATION_SEPARATOR + "79.966" + Peptide.MODIFICATION_LOCALIZATION_SEPARATOR + "4";
+        int peptideId = identificationKeys.getPeptideId(peptideKey);
+        Assert.assertEquals(peptideKey, identificationKeys.getPeptideKey(peptideId));
+        Assert.assertEquals("PEPTIDEK", identificationKeys.getPeptideSequence(peptideId));
+        Assert.assertEquals("PEPTIDER", identificationKeys.getPeptideSequence(identificationKeys.getPeptideId("PEPTIDER")));
+
+        String proteinKey = "P1" + ProteinMatch.PROTEIN_KEY_SPLITTER + "P2" + ProteinMatch.PROTEIN_KEY_SPLITTER + "P3";
+        Assert.assertTrue(Arrays.equals(new String[]{"P1", "P2", "P3"}, identificationKeys.getProteinAccessions(proteinKey)));
+        Assert.assertEquals(0, identificationKeys.getNProteinKeys());
+        int proteinId = identificationKeys.getProteinId(proteinKey);
+        Assert.assertEquals(1, identificationKeys.getNProteinKeys());
+        Assert.assertEquals(proteinKey, identificationKeys.getProteinKey(proteinId));
+        Assert.assertEquals(3, identificationKeys.getNProteins(proteinId));
+        Assert.assertTrue(Arrays.equals(new String[]{"P1", "P2", "P3"}, identificationKeys.getProteinAccessions(proteinId)));
+
+        try {
+            identificationKeys.getProteinKey(1);
+            fail("No exception thrown for an unknown id.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests the canonical instances of the keys and the release of keys.
+     */
+    public void testReleasedKeys() {
+
+        IdentificationKeys identificationKeys = new IdentificationKeys();
+
+        String peptideKey = "PEPTIDEK";
+        Assert.assertSame(peptideKey, identificationKeys.internPeptideKey(peptideKey));
+        Assert.assertSame(peptideKey, identificationKeys.internPeptideKey(new String(peptideKey)));
+        int peptideId = identificationKeys.getPeptideId(peptideKey);
+        identificationKeys.releasePeptideKey(new String(peptideKey));
+        try {
+            identificationKeys.getPeptideKey(peptideId);
+            fail("No exception thrown for a released key.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            identificationKeys.getPeptideSequence(peptideId);
+            fail("No exception thrown for a released key.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        String proteinKey = "P1" + ProteinMatch.PROTEIN_KEY_SPLITTER + "P2";
+        int proteinId = identificationKeys.getProteinId(proteinKey);
+        identificationKeys.releaseProteinKey(proteinKey);
+        Assert.assertTrue(Arrays.equals(new String[]{"P1", "P2"}, identificationKeys.getProteinAccessions(proteinKey)));
+        int newProteinId = identificationKeys.getProteinId(proteinKey);
+        Assert.assertTrue(newProteinId != proteinId);
+        Assert.assertEquals(proteinKey, identificationKeys.getProteinKey(newProteinId));
+        Assert.assertEquals(2, identificationKeys.getNProteinKeys());
+
+        KeyInterner<Object> keyInterner = new KeyInterner<Object>();
+        int id = keyInterner.getId("KEY");
+        Assert.assertEquals(id, keyInterner.release("KEY"));
+        Assert.assertEquals(-1, keyInterner.release("KEY"));
+        Assert.assertEquals(-1, keyInterner.getExistingId("KEY"));
+        Assert.assertEquals(1, keyInterner.size());
+    }
+
+    /**
+     * Tests that keys interned by concurrent threads get unique and dense
+     * ids.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testConcurrentInterning() throws Exception {
+
+        final KeyInterner<String> keyInterner = new KeyInterner<String>() {
+            @Override
+            protected String parse(String key) {
+                return key.toLowerCase();
+            }
+        };
+        final int nKeys = 10000;
+        final int[][] ids = new int[4][nKeys];
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < ids.length; i++) {
+            final int[] threadIds = ids[i];
+            final int offset = 1000 * i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < nKeys; j++) {
+                        int key = (j + offset) % nKeys;
+                        threadIds[key] = keyInterner.getId("KEY" + key);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(nKeys, keyInterner.size());
+        boolean[] found = new boolean[nKeys];
+        for (int key = 0; key < nKeys; key++) {
+            int id = ids[0][key];
+            for (int[] threadIds : ids) {
+                Assert.assertEquals(id, threadIds[key]);
+            }
+            Assert.assertFalse(found[id]);
+            found[id] = true;
+            Assert.assertEquals("KEY" + key, keyInterner.getKey(id));
+            Assert.assertEquals("key" + key, keyInterner.getValue(id));
+            Assert.assertEquals(id, keyInterner.getExistingId("KEY" + key));
+        }
+        Assert.assertEquals(-1, keyInterner.getExistingId("KEY" + nKeys));
+    }
+}
@@ -0,0 +1,180 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.db.CodecRegistry;
+import com.compomics.util.experiment.biology.AminoAcidSequence;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.IdentificationDB;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.refinementparameters.PepnovoAssumptionDetails;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the binary codecs used to store the identification matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectCodecTest extends TestCase {
+
+    /**
+     * Tests that the matches are restored after encoding.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testMatchCodecs() throws Exception {
+
+        IdentificationDB.registerCodecs();
+        CodecRegistry codecRegistry = CodecRegistry.getInstance();
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        ModificationMatch modificationMatch = new ModificationMatch("oxidation of m", true, 3);
+        modificationMatch.setConfident(true);
+        modificationMatches.add(modificationMatch);
+        modificationMatches.add(new ModificationMatch("carbamidomethyl c", false, 5));
+        Peptide peptide = new Peptide("PEMTCIDE", modificationMatches);
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add("P12345");
+        proteins.add("Q67890");
+        peptide.setParentProteins(proteins);
+        PeptideMatch peptideMatch = new PeptideMatch(peptide, peptide.getKey());
+        peptideMatch.addSpectrumMatchKey("file.mgf_cus_spectrum 1");
+        peptideMatch.addSpectrumMatchKey("file.mgf_cus_spectrum 2");
+        PepnovoAssumptionDetails parameter = new PepnovoAssumptionDetails();
+        parameter.setRankScore(12.3);
+        peptideMatch.addUrParam(parameter);
+
+        byte[] bytes = codecRegistry.serialize(peptideMatch);
+        Assert.assertEquals(CodecRegistry.CODEC_BLOB, bytes[0]);
+        PeptideMatch decodedPeptideMatch = (PeptideMatch) codecRegistry.deserialize(bytes);
+        Assert.assertEquals(peptideMatch.getKey(), decodedPeptideMatch.getKey());
+        Assert.assertEquals(peptideMatch.getSpectrumMatchesKeys(), decodedPeptideMatch.getSpectrumMatchesKeys());
+        Peptide decodedPeptide = decodedPeptideMatch.getTheoreticPeptide();
+        Assert.assertEquals(peptide.getKey(), decodedPeptide.getKey());
+        Assert.assertEquals(peptide.getSequenceWithLowerCasePtms(), decodedPeptide.getSequenceWithLowerCasePtms());
+        Assert.assertEquals(proteins, decodedPeptide.getParentProteinsNoRemapping());
+        ModificationMatch decodedModificationMatch = decodedPeptide.getModificationMatches().get(0);
+        Assert.assertTrue(decodedModificationMatch.isVariable());
+        Assert.assertTrue(decodedModificationMatch.isConfident());
+        Assert.assertFalse(decodedModificationMatch.isInferred());
+        Assert.assertFalse(decodedPeptide.getModificationMatches().get(1).isVariable());
+        PepnovoAssumptionDetails decodedParameter = (PepnovoAssumptionDetails) decodedPeptideMatch.getUrParam(parameter);
+        Assert.assertEquals(12.3, decodedParameter.getRankScore());
+
+        ProteinMatch proteinMatch = new ProteinMatch(peptide, peptideMatch.getKey());
+        proteinMatch.setMainMatch("Q67890");
+        ProteinMatch decodedProteinMatch = (ProteinMatch) codecRegistry.deserialize(codecRegistry.serialize(proteinMatch));
+        Assert.assertEquals(proteinMatch.getKey(), decodedProteinMatch.getKey());
+        Assert.assertEquals("Q67890", decodedProteinMatch.getMainMatch());
+        Assert.assertEquals(proteinMatch.getPeptideMatchesKeys(), decodedProteinMatch.getPeptideMatchesKeys());
+        Assert.assertNull(decodedProteinMatch.getUrParams());
+
+        // objects without codec and objects stored by previous versions use Java serialization
+        bytes = codecRegistry.serialize(proteins);
+        Assert.assertEquals(proteins, codecRegistry.deserialize(bytes));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(peptideMatch);
+        oos.close();
+        decodedPeptideMatch = (PeptideMatch) codecRegistry.deserialize(bos.toByteArray());
+        Assert.assertEquals(peptideMatch.getKey(), decodedPeptideMatch.getKey());
+        Assert.assertTrue(codecRegistry.serialize(peptideMatch).length < bos.size());
+    }
+
+    /**
+     * Tests that spectrum matches are restored after encoding, the best
+     * assumptions remaining the same objects as in the assumptions map.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testSpectrumMatchCodec() throws Exception {
+
+        IdentificationDB.registerCodecs();
+        CodecRegistry codecRegistry = CodecRegistry.getInstance();
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("oxidation of m", true, 3));
+        Peptide peptide1 = new Peptide("PEMTIDE", modificationMatches);
+        Peptide peptide2 = new Peptide("TESTPEPTIDE", new ArrayList<ModificationMatch>());
+        int mascotId = Advocate.mascot.getIndex();
+        int omssaId = Advocate.omssa.getIndex();
+        PeptideAssumption assumption1 = new PeptideAssumption(peptide1, 1, mascotId, new Charge(Charge.PLUS, 2), 0.001, "search.dat");
+        assumption1.setRawScore(45.6);
+        ArrayList<double[]> aminoAcidScores = new ArrayList<double[]>();
+        aminoAcidScores.add(new double[]{0.1, 0.2, 0.3});
+        assumption1.setAminoAcidScores(aminoAcidScores);
+        PeptideAssumption assumption2 = new PeptideAssumption(peptide2, 2, mascotId, new Charge(Charge.PLUS, 3), 0.05);
+        PeptideAssumption assumption3 = new PeptideAssumption(peptide1, 1, omssaId, null, 0.01, "search.omx");
+        TagAssumption tagAssumption = new TagAssumption(omssaId, 2, new Tag(12.3, new AminoAcidSequence("TAG"), 45.6), new Charge(Charge.PLUS, 2), 0.2);
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("file.mgf_cus_spectrum 1", assumption1);
+        spectrumMatch.addHit(mascotId, assumption2, false);
+        spectrumMatch.addHit(omssaId, assumption3, false);
+        spectrumMatch.addHit(omssaId, tagAssumption, false);
+        spectrumMatch.setBestPeptideAssumption(assumption1);
+        spectrumMatch.setBestTagAssumption(tagAssumption);
+        spectrumMatch.setSpectrumNumber(12);
+        PepnovoAssumptionDetails parameter = new PepnovoAssumptionDetails();
+        parameter.setRankScore(1.5);
+        spectrumMatch.addUrParam(parameter);
+
+        byte[] bytes = codecRegistry.serialize(spectrumMatch);
+        Assert.assertEquals(CodecRegistry.CODEC_BLOB, bytes[0]);
+        SpectrumMatch decodedSpectrumMatch = (SpectrumMatch) codecRegistry.deserialize(bytes);
+        Assert.assertEquals(spectrumMatch.getKey(), decodedSpectrumMatch.getKey());
+        Assert.assertEquals(new Integer(12), decodedSpectrumMatch.getSpectrumNumber());
+        Assert.assertEquals(1.5, ((PepnovoAssumptionDetails) decodedSpectrumMatch.getUrParam(parameter)).getRankScore());
+        Assert.assertEquals(spectrumMatch.getAssumptionsMap().keySet(), decodedSpectrumMatch.getAssumptionsMap().keySet());
+        Assert.assertEquals(spectrumMatch.getAllAssumptions(mascotId).keySet(), decodedSpectrumMatch.getAllAssumptions(mascotId).keySet());
+        Assert.assertEquals(spectrumMatch.getAllAssumptions(omssaId).keySet(), decodedSpectrumMatch.getAllAssumptions(omssaId).keySet());
+
+        PeptideAssumption decodedAssumption1 = decodedSpectrumMatch.getBestPeptideAssumption();
+        Assert.assertSame(decodedAssumption1, decodedSpectrumMatch.getAllAssumptions(mascotId).get(0.001).get(0));
+        Assert.assertEquals(peptide1.getKey(), decodedAssumption1.getPeptide().getKey());
+        Assert.assertEquals(1, decodedAssumption1.getRank());
+        Assert.assertEquals(mascotId, decodedAssumption1.getAdvocate());
+        Assert.assertEquals(2, decodedAssumption1.getIdentificationCharge().value);
+        Assert.assertEquals(Charge.PLUS, decodedAssumption1.getIdentificationCharge().sign);
+        Assert.assertEquals(0.001, decodedAssumption1.getScore());
+        Assert.assertEquals(45.6, decodedAssumption1.getRawScore());
+        Assert.assertEquals("search.dat", decodedAssumption1.getIdentificationFile());
+        Assert.assertEquals(0.2, decodedAssumption1.getAminoAcidScores().get(0)[1]);
+
+        PeptideAssumption decodedAssumption2 = (PeptideAssumption) decodedSpectrumMatch.getAllAssumptions(mascotId).get(0.05).get(0);
+        Assert.assertEquals(peptide2.getKey(), decodedAssumption2.getPeptide().getKey());
+        Assert.assertNull(decodedAssumption2.getIdentificationFile());
+        Assert.assertNull(decodedAssumption2.getRawScore());
+        Assert.assertNull(decodedAssumption2.getAminoAcidScores());
+        PeptideAssumption decodedAssumption3 = (PeptideAssumption) decodedSpectrumMatch.getAllAssumptions(omssaId).get(0.01).get(0);
+        Assert.assertNull(decodedAssumption3.getIdentificationCharge());
+
+        // assumptions without codec are serialized and keep their identity
+        TagAssumption decodedTagAssumption = decodedSpectrumMatch.getBestTagAssumption();
+        Assert.assertSame(decodedTagAssumption, decodedSpectrumMatch.getAllAssumptions(omssaId).get(0.2).get(0));
+        Assert.assertEquals(tagAssumption.getTag().asSequence(), decodedTagAssumption.getTag().asSequence());
+
+        // best assumptions which are not in the assumptions map
+        spectrumMatch.removeAssumptions();
+        decodedSpectrumMatch = (SpectrumMatch) codecRegistry.deserialize(codecRegistry.serialize(spectrumMatch));
+        Assert.assertNull(decodedSpectrumMatch.getAssumptionsMap());
+        Assert.assertEquals(peptide1.getKey(), decodedSpectrumMatch.getBestPeptideAssumption().getPeptide().getKey());
+        Assert.assertNotNull(decodedSpectrumMatch.getBestTagAssumption());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(spectrumMatch);
+        oos.close();
+        Assert.assertEquals(spectrumMatch.getKey(), ((SpectrumMatch) codecRegistry.deserialize(bos.toByteArray())).getKey());
+    }
+}
@@ -0,0 +1,67 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.PackedProteinSequences;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import java.io.File;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the protein sequences packed in memory.
+ *
+ * @author Marc Vaudel
+ */
+public class PackedProteinSequencesTest extends TestCase {
+
+    /**
+     * Tests that the proteins packed in memory are the same as the ones read
+     * from the FASTA file.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testPackedSequences() throws Exception {
+
+        File folder = File.createTempFile("packedSequences", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            File fastaFile = new File(folder, "proteinTreeTestSequences.fasta");
+            Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), fastaFile);
+
+            SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+            sequenceFactory.loadFastaFile(fastaFile, null);
+
+            ArrayList<Protein> proteins = new ArrayList<Protein>();
+            SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(false);
+            while (proteinIterator.hasNext()) {
+                proteins.add(proteinIterator.getNextProtein());
+            }
+            Assert.assertFalse(proteins.isEmpty());
+
+            sequenceFactory.loadSequencesInMemory(null);
+            Assert.assertTrue(sequenceFactory.isSequencesInMemory());
+            PackedProteinSequences packedSequences = sequenceFactory.getPackedSequences();
+            Assert.assertEquals(proteins.size(), packedSequences.size());
+
+            for (int i = 0; i < proteins.size(); i++) {
+                Protein protein = proteins.get(i);
+                Assert.assertEquals(i, packedSequences.getOrdinal(protein.getAccession()));
+                Assert.assertEquals(protein.getAccession(), packedSequences.getAccession(i));
+                Protein packedProtein = sequenceFactory.getProtein(protein.getAccession());
+                Assert.assertEquals(protein.getSequence(), packedProtein.getSequence());
+                Assert.assertEquals(protein.getDatabaseType(), packedProtein.getDatabaseType());
+                Assert.assertEquals(protein.isDecoy(), packedProtein.isDecoy());
+            }
+            Assert.assertEquals(-1, packedSequences.getOrdinal("NOT_AN_ACCESSION"));
+            Assert.assertNull(packedSequences.getProtein("NOT_AN_ACCESSION"));
+
+            sequenceFactory.clearFactory();
+            Assert.assertFalse(sequenceFactory.isSequencesInMemory());
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+}
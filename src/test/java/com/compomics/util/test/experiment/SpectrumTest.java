@@ -1,6 +1,12 @@
 package com.compomics.util.test.experiment;
 
+import com.compomics.util.Util;
+import com.compomics.util.experiment.io.massspectrometry.MappedMgfReader;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
@@ -8,6 +14,16 @@ import junit.framework.Assert;
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
  * This test case will test the mgf import and spectrum annotation
@@ -42,4 +58,240 @@ public class SpectrumTest extends TestCase {
         Assert.assertTrue(rtMax == 219.71);
         Assert.assertTrue(Math.abs(precursor.getRt() - 218.855) < 0.0001);
     }
+
+    public void testPeakArrays() throws Exception {
+        Precursor precursor = new Precursor(-1, 500.0, 0, new ArrayList<Charge>());
+        double[] mz = {300.0, 100.0, 200.0, 100.0, 400.0};
+        double[] intensity = {3.0, 1.0, 2.0, 10.0, 4.0};
+        MSnSpectrum spectrum = new MSnSpectrum(2, precursor, "test", mz, intensity, "test.mgf");
+
+        Assert.assertEquals(4, spectrum.getNPeaks());
+        double[] orderedMz = spectrum.getOrderedMzValues();
+        double[] orderedIntensity = spectrum.getOrderedIntensityValues();
+        Assert.assertEquals(100.0, orderedMz[0]);
+        Assert.assertEquals(10.0, orderedIntensity[0]);
+        Assert.assertEquals(400.0, orderedMz[3]);
+        Assert.assertEquals(4.0, orderedIntensity[3]);
+        Assert.assertEquals(100.0, spectrum.getMinMz());
+        Assert.assertEquals(400.0, spectrum.getMaxMz());
+        Assert.assertEquals(10.0, spectrum.getMaxIntensity());
+        Assert.assertEquals(19.0, spectrum.getTotalIntensity());
+
+        Assert.assertEquals(1, spectrum.getPeakIndex(150.0));
+        Assert.assertEquals(1, spectrum.getPeakIndex(200.0));
+        Assert.assertEquals(4, spectrum.getPeakIndex(500.0));
+        HashMap<Double, Peak> subSpectrum = spectrum.getSubSpectrum(150.0, 300.0);
+        Assert.assertEquals(1, subSpectrum.size());
+        Assert.assertTrue(subSpectrum.containsKey(200.0));
+
+        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
+        Assert.assertEquals(4, peakMap.size());
+        Assert.assertEquals(3.0, peakMap.get(300.0).intensity);
+        Assert.assertSame(peakMap, spectrum.getPeakMap());
+        try {
+            peakMap.put(50.0, new Peak(50.0, 5.0));
+            fail("No exception thrown when modifying the peak map.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            spectrum.getPeakList().clear();
+            fail("No exception thrown when modifying the peak list.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        spectrum.addPeak(new Peak(50.0, 5.0));
+        Assert.assertEquals(5, spectrum.getNPeaks());
+        Assert.assertEquals(50.0, spectrum.getOrderedMzValues()[0]);
+        Assert.assertEquals(5.0, spectrum.getOrderedIntensityValues()[0]);
+        Assert.assertEquals(50.0, spectrum.getMinMz());
+        Assert.assertEquals(24.0, spectrum.getTotalIntensity());
+        Assert.assertNotSame(peakMap, spectrum.getPeakMap());
+        Assert.assertEquals(5.0, spectrum.getPeakMap().get(50.0).intensity);
+
+        for (int i = 0; i < 100; i++) {
+            spectrum.addPeak(new Peak(1000.0 - i, i));
+        }
+        spectrum.addPeak(new Peak(300.0, 30.0));
+        spectrum.addPeak(new Peak(1000.0, 100.0));
+        orderedMz = spectrum.getOrderedMzValues();
+        orderedIntensity = spectrum.getOrderedIntensityValues();
+        Assert.assertEquals(105, spectrum.getNPeaks());
+        for (int i = 1; i < orderedMz.length; i++) {
+            Assert.assertTrue(orderedMz[i - 1] < orderedMz[i]);
+        }
+        Assert.assertEquals(30.0, orderedIntensity[spectrum.getPeakIndex(300.0)]);
+        Assert.assertEquals(1000.0, orderedMz[104]);
+        Assert.assertEquals(100.0, orderedIntensity[104]);
+    }
+
+    public void testConcurrentRetrieval() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.addSpectra(mgfFile, new WaitingHandlerCLIImpl());
+
+        final ArrayList<String> titles = spectrumFactory.getSpectrumTitles("test.mgf");
+        final ArrayList<double[]> expectedMz = new ArrayList<double[]>();
+        for (String title : titles) {
+            expectedMz.add(spectrumFactory.getSpectrum("test.mgf", title).getOrderedMzValues());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int j = 0; j < 200; j++) {
+                            if (j % 50 == 0) {
+                                spectrumFactory.emptyCache();
+                            }
+                            int index = j % titles.size();
+                            String title = titles.get(index);
+                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum("test.mgf", title);
+                            if (!title.equals(spectrum.getSpectrumTitle())
+                                    || !Arrays.equals(expectedMz.get(index), spectrum.getOrderedMzValues())
+                                    || spectrumFactory.getPrecursor("test.mgf", title).getMz() != spectrum.getPrecursor().getMz()) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                Assert.assertTrue(future.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public void testMappedMgfReader() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile);
+        Assert.assertEquals(2, mgfIndex.getNSpectra());
+
+        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024);
+        // small windows to test the reading of spectra overlapping windows
+        MappedMgfReader mappedMgfReader = new MappedMgfReader(mgfFile, 64, 128);
+        try {
+            for (String title : mgfIndex.getSpectrumTitles()) {
+                long index = mgfIndex.getIndex(title);
+                MSnSpectrum expected = MgfReader.getSpectrum(bufferedRandomAccessFile, index, "test.mgf");
+                MSnSpectrum spectrum = mappedMgfReader.getSpectrum(index, "test.mgf");
+                Assert.assertEquals(title, spectrum.getSpectrumTitle());
+                Assert.assertEquals(expected.asMgf(), spectrum.asMgf());
+                Precursor precursor = mappedMgfReader.getPrecursor(index, "test.mgf");
+                Assert.assertEquals(expected.getPrecursor().getMz(), precursor.getMz());
+                Assert.assertEquals(expected.getPrecursor().getRt(), precursor.getRt());
+            }
+        } finally {
+            bufferedRandomAccessFile.close();
+            mappedMgfReader.close();
+        }
+    }
+
+    /**
+     * Tests that closing the mapped MGF reader releases the file.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testMappedMgfReaderClose() throws Exception {
+        File mgfFile = File.createTempFile("mapped_reader_close", ".mgf");
+        try {
+            Util.copyFile(new File("src/test/resources/experiment/test.mgf"), mgfFile);
+            MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile);
+            long index = mgfIndex.getIndex(mgfIndex.getSpectrumTitles().get(0));
+
+            MappedMgfReader mappedMgfReader = new MappedMgfReader(mgfFile);
+            Assert.assertNotNull(mappedMgfReader.getSpectrum(index, mgfFile.getName()));
+            mappedMgfReader.close();
+            mappedMgfReader.close();
+            try {
+                mappedMgfReader.getSpectrum(index, mgfFile.getName());
+                Assert.fail("No exception thrown when reading from a closed reader.");
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                mappedMgfReader.getPrecursor(index, mgfFile.getName());
+                Assert.fail("No exception thrown when reading from a closed reader.");
+            } catch (IOException e) {
+                // expected
+            }
+            Assert.assertTrue(mgfFile.delete());
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the parallel indexing of an MGF file returns the same index
+     * as the sequential indexing.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testParallelIndexing() throws Exception {
+        File mgfFile = File.createTempFile("parallel_indexing", ".mgf");
+        try {
+            FileWriter writer = new FileWriter(mgfFile);
+            try {
+                for (int i = 0; i < 200; i++) {
+                    writer.write("BEGIN IONS\n");
+                    if (i % 7 != 3) {
+                        // duplicate titles and spectra without title
+                        writer.write("TITLE=spectrum " + (i % 11 == 0 ? "duplicate" : i) + "\n");
+                    }
+                    writer.write("PEPMASS=" + (400 + i) + " 1000\n");
+                    if (i % 5 != 0) {
+                        writer.write("CHARGE=" + (1 + i % 4) + "+\n");
+                    }
+                    writer.write("RTINSECONDS=" + (10 + i) + "\n");
+                    for (int j = 0; j <= i % 13; j++) {
+                        writer.write((100 + j) + ".5 " + (i % 17 == 0 ? 0 : 10 + j) + "\n");
+                    }
+                    if (i % 23 != 22) {
+                        // spectra without end tag
+                        writer.write("END IONS\n");
+                    }
+                    writer.write("\n");
+                }
+            } finally {
+                writer.close();
+            }
+
+            MappedMgfReader mappedMgfReader = new MappedMgfReader(mgfFile, 512, 256);
+            try {
+                MgfIndex expected = mappedMgfReader.getIndexMap(null);
+                Assert.assertEquals(200, expected.getNSpectra());
+                for (int nThreads = 2; nThreads <= 16; nThreads *= 2) {
+                    MgfIndex mgfIndex = mappedMgfReader.getIndexMap(null, nThreads);
+                    Assert.assertEquals(expected.getSpectrumTitles(), mgfIndex.getSpectrumTitles());
+                    Assert.assertEquals(expected.getDuplicatedSpectrumTitles(), mgfIndex.getDuplicatedSpectrumTitles());
+                    for (String title : expected.getSpectrumTitles()) {
+                        Assert.assertEquals(expected.getIndex(title), mgfIndex.getIndex(title));
+                        Assert.assertEquals(expected.getSpectrumIndex(title), mgfIndex.getSpectrumIndex(title));
+                    }
+                    for (int i = 0; i < expected.getNSpectra(); i++) {
+                        Assert.assertEquals(expected.getPrecursorMz(i), mgfIndex.getPrecursorMz(i));
+                    }
+                    Assert.assertEquals(expected.getNSpectra(), mgfIndex.getNSpectra());
+                    Assert.assertEquals(expected.getMaxPeakCount(), mgfIndex.getMaxPeakCount());
+                    Assert.assertEquals(expected.getMaxCharge(), mgfIndex.getMaxCharge());
+                    Assert.assertEquals(expected.getMaxMz(), mgfIndex.getMaxMz());
+                    Assert.assertEquals(expected.getMinRT(), mgfIndex.getMinRT());
+                    Assert.assertEquals(expected.getMaxRT(), mgfIndex.getMaxRT());
+                    Assert.assertEquals(expected.isPeakPicked(), mgfIndex.isPeakPicked());
+                    Assert.assertEquals(expected.isPrecursorChargesMissing(), mgfIndex.isPrecursorChargesMissing());
+                }
+            } finally {
+                mappedMgfReader.close();
+            }
+        } finally {
+            mgfFile.delete();
+        }
+    }
 }
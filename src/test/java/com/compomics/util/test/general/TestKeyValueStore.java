@@ -0,0 +1,181 @@
+package com.compomics.util.test.general;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.KeyValueStore;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the key-value store.
+ *
+ * @author Marc Vaudel
+ */
+public class TestKeyValueStore extends TestCase {
+
+    /**
+     * Tests storing, reading and deleting values and reopening the store.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testStore() throws Exception {
+        File folder = getFolder();
+        try {
+            KeyValueStore store = new KeyValueStore(folder, 1024);
+            store.addTable("table");
+            Assert.assertTrue(store.hasTable("table"));
+            Assert.assertFalse(store.hasTable("other"));
+            HashMap<String, byte[]> values = new HashMap<String, byte[]>();
+            for (int i = 0; i < 100; i++) {
+                values.put("key" + i, ("value" + i).getBytes());
+            }
+            store.putAll("table", values);
+            store.put("table", "key0", "new value".getBytes());
+            Assert.assertTrue(store.delete("table", "key1"));
+            Assert.assertFalse(store.delete("table", "key1"));
+            Assert.assertEquals("new value", new String(store.get("table", "key0")));
+            Assert.assertEquals("value2", new String(store.get("table", "key2")));
+            Assert.assertNull(store.get("table", "key1"));
+            Assert.assertNull(store.get("other", "key0"));
+            Assert.assertEquals(99, store.size("table"));
+            Assert.assertEquals(3, store.getNObsoleteRecords());
+
+            ArrayList<String> keys = new ArrayList<String>();
+            ArrayList<byte[]> pageValues = new ArrayList<byte[]>();
+            String lastKey = store.readPage("table", null, 10, keys, pageValues);
+            Assert.assertEquals(10, keys.size());
+            Assert.assertEquals("key0", keys.get(0));
+            Assert.assertEquals("key18", lastKey);
+            lastKey = store.readPage("table", lastKey, 1000, keys, pageValues);
+            Assert.assertEquals(99, keys.size());
+            Assert.assertEquals("key99", lastKey);
+            store.close();
+
+            Assert.assertTrue(KeyValueStore.isKeyValueStore(folder));
+            store = new KeyValueStore(folder, 1024);
+            Assert.assertTrue(store.hasTable("table"));
+            Assert.assertEquals(99, store.size("table"));
+            Assert.assertEquals("new value", new String(store.get("table", "key0")));
+            Assert.assertEquals("value99", new String(store.get("table", "key99")));
+            Assert.assertNull(store.get("table", "key1"));
+
+            store.compact();
+            Assert.assertEquals(0, store.getNObsoleteRecords());
+            Assert.assertEquals("new value", new String(store.get("table", "key0")));
+            store.close();
+
+            store = new KeyValueStore(folder, 1024);
+            Assert.assertEquals(99, store.size("table"));
+            Assert.assertEquals("value50", new String(store.get("table", "key50")));
+            store.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that an incomplete record at the end of a segment is ignored.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testIncompleteRecord() throws Exception {
+        File folder = getFolder();
+        try {
+            KeyValueStore store = new KeyValueStore(folder);
+            store.addTable("table");
+            store.put("table", "key0", "value0".getBytes());
+            store.put("table", "key1", "value1".getBytes());
+            store.close();
+
+            File segment = new File(folder, KeyValueStore.SEGMENT_PREFIX + 0 + KeyValueStore.SEGMENT_EXTENSION);
+            RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+            raf.setLength(raf.length() - 3);
+            raf.close();
+
+            store = new KeyValueStore(folder);
+            Assert.assertEquals("value0", new String(store.get("table", "key0")));
+            Assert.assertNull(store.get("table", "key1"));
+            store.put("table", "key1", "value1".getBytes());
+            store.close();
+
+            store = new KeyValueStore(folder);
+            Assert.assertEquals("value1", new String(store.get("table", "key1")));
+            store.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests storing, updating, deleting and reading objects of a database
+     * backed by the key-value store and reopening the database.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testObjectsDB() throws Exception {
+        File folder = getFolder();
+        try {
+            StringBuilder longKey = new StringBuilder();
+            while (longKey.length() <= ObjectsDB.MAX_KEY_LENGTH) {
+                longKey.append("longKey");
+            }
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(0);
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", true, objectsCache, true);
+            try {
+                Assert.assertTrue(objectsDB.isUsingKeyValueStore());
+                objectsDB.addTable("table");
+                Assert.assertTrue(objectsDB.hasTable("table"));
+                HashMap<String, Object> objects = new HashMap<String, Object>();
+                for (int i = 0; i < 100; i++) {
+                    objects.put("key" + i, "value" + i);
+                }
+                objectsDB.insertObjects("table", objects, null);
+                objectsDB.insertObject("table", longKey.toString(), "long value", false);
+                objectsDB.updateObject("table", "key0", "new value", false);
+                objectsDB.deleteObject("table", "key1");
+                Assert.assertEquals("new value", objectsDB.retrieveObject("table", "key0", true, false));
+                Assert.assertNull(objectsDB.retrieveObject("table", "key1", true, false));
+                Assert.assertEquals(100, objectsDB.tableContent("table").size());
+            } finally {
+                objectsDB.close();
+            }
+            Assert.assertTrue(KeyValueStore.isKeyValueStore(new File(objectsDB.getPath())));
+
+            objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", false, new ObjectsCache(), true);
+            try {
+                Assert.assertTrue(objectsDB.hasTable("table"));
+                Assert.assertEquals(100, objectsDB.tableContent("table").size());
+                Assert.assertEquals("new value", objectsDB.retrieveObject("table", "key0", true, false));
+                Assert.assertFalse(objectsDB.inDB("table", "key1", false));
+                for (int i = 2; i < 100; i++) {
+                    Assert.assertEquals("value" + i, objectsDB.retrieveObject("table", "key" + i, true, false));
+                }
+                Assert.assertEquals("long value", objectsDB.retrieveObject("table", longKey.toString(), true, false));
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Returns an empty temporary folder.
+     *
+     * @return an empty temporary folder
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    private File getFolder() throws Exception {
+        File folder = File.createTempFile("keyValueStore", "");
+        folder.delete();
+        return folder;
+    }
+}
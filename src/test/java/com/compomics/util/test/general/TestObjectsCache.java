@@ -0,0 +1,377 @@
+package com.compomics.util.test.general;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.CacheMetrics;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.db.SizeEstimator;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the eviction and concurrent access of the objects cache.
+ *
+ * @author Marc Vaudel
+ */
+public class TestObjectsCache extends TestCase {
+
+    /**
+     * Tests that the least recently used entries are evicted first.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testEviction() throws Exception {
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(100);
+        for (int i = 0; i < 100; i++) {
+            objectsCache.addObject("db", "table", "key" + i, i, false);
+        }
+        Assert.assertTrue(objectsCache.inCache("db", "table", "key0"));
+        Assert.assertFalse(objectsCache.inCache("db", "other", "key0"));
+        Assert.assertEquals(0, objectsCache.getObject("db", "table", "key0"));
+        objectsCache.addObject("db", "table", "key100", 100, false);
+        Assert.assertTrue(objectsCache.inCache("db", "table", "key0"));
+        Assert.assertTrue(objectsCache.inCache("db", "table", "key100"));
+        int nInCache = 0;
+        String evictedKey = null;
+        for (int i = 0; i < 100; i++) {
+            if (objectsCache.inCache("db", "table", "key" + i)) {
+                nInCache++;
+            } else {
+                evictedKey = "key" + i;
+            }
+        }
+        Assert.assertTrue(nInCache < 100);
+        Assert.assertNotNull(evictedKey);
+        Assert.assertTrue(objectsCache.updateObject("db", "table", "key100", -1));
+        Assert.assertEquals(-1, objectsCache.getObject("db", "table", "key100"));
+        Assert.assertFalse(objectsCache.updateObject("db", "table", evictedKey, -1));
+        objectsCache.removeObject("db", "table", "key100");
+        Assert.assertNull(objectsCache.getObject("db", "table", "key100"));
+    }
+
+    /**
+     * Tests the eviction of entries according to the size budget.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testSizeBudget() throws Exception {
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setSizeEstimator(new SizeEstimator<String>() {
+            @Override
+            public Class<String> getObjectClass() {
+                return String.class;
+            }
+
+            @Override
+            public long getSize(String object) {
+                return object.length();
+            }
+        });
+        objectsCache.setSizeBudget(10000);
+        Assert.assertEquals(ObjectsCache.DEFAULT_OBJECT_SIZE, objectsCache.getSize(1));
+        Assert.assertEquals(100, objectsCache.getSize(new String(new char[100])));
+        for (int i = 0; i < 99; i++) {
+            objectsCache.addObject("db", "table", "key" + i, new String(new char[100]), false);
+        }
+        CacheMetrics cacheMetrics = objectsCache.getMetrics();
+        Assert.assertEquals(99, cacheMetrics.getNObjects());
+        Assert.assertEquals(9900, cacheMetrics.getSize());
+        Assert.assertEquals(0, cacheMetrics.getNEvicted());
+        objectsCache.addObject("db", "table", "key99", new String(new char[1000]), false);
+        cacheMetrics = objectsCache.getMetrics();
+        Assert.assertTrue(cacheMetrics.getSize() <= 10000);
+        Assert.assertTrue(cacheMetrics.getNEvicted() > 0);
+        Assert.assertEquals(100, cacheMetrics.getNObjects() + cacheMetrics.getNEvicted());
+        Assert.assertTrue(objectsCache.updateObject("db", "table", "key99", "small"));
+        Assert.assertEquals(cacheMetrics.getSize() - 995, objectsCache.getMetrics().getSize());
+        objectsCache.removeObject("db", "table", "key99");
+        Assert.assertEquals(cacheMetrics.getSize() - 1000, objectsCache.getMetrics().getSize());
+    }
+
+    /**
+     * Tests that the cache stays consistent when accessed by different
+     * threads.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testConcurrentAccess() throws Exception {
+        final ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(1000);
+        int nThreads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < nThreads; t++) {
+                final int thread = t;
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int i = 0; i < 20000; i++) {
+                            String key = "key" + ((i * 31 + thread) % 3000);
+                            Object object = objectsCache.getObject("db", "table", key);
+                            if (object == null) {
+                                objectsCache.addObject("db", "table", key, key, false);
+                            } else if (!object.equals(key)) {
+                                throw new IllegalStateException("Wrong object for " + key + ".");
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        int nInCache = 0;
+        for (int i = 0; i < 3000; i++) {
+            String key = "key" + i;
+            Object object = objectsCache.getObject("db", "table", key);
+            if (object != null) {
+                Assert.assertEquals(key, object);
+                nInCache++;
+            }
+        }
+        Assert.assertTrue(nInCache > 0);
+        Assert.assertTrue(nInCache <= 1000);
+        Assert.assertFalse(objectsCache.isEmpty());
+    }
+
+    /**
+     * Tests that the modified entries evicted from the cache are saved by the
+     * flusher, and that closing the database saves the entries still
+     * pending.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testWriteBehind() throws Exception {
+        File folder = getTempFolder();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(100);
+            objectsCache.setBatchSize(50);
+            Assert.assertTrue(objectsCache.isWriteBehind());
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", true, objectsCache, true);
+            objectsDB.addTable("table");
+            for (int i = 0; i < 1000; i++) {
+                objectsCache.addObject("db", "table", "key" + i, "value" + i, true);
+            }
+            objectsCache.awaitFlush();
+            CacheMetrics cacheMetrics = objectsCache.getMetrics();
+            Assert.assertEquals(0, cacheMetrics.getNPending());
+            Assert.assertTrue(cacheMetrics.getNSaved() >= 900);
+            Assert.assertEquals(1000, cacheMetrics.getNObjects() + cacheMetrics.getNEvicted());
+
+            // entries evicted just before closing are saved upon closing
+            objectsCache.setBatchSize(10000);
+            objectsCache.setMaxPendingWrites(10000);
+            for (int i = 1000; i < 1200; i++) {
+                objectsCache.addObject("db", "table", "key" + i, "value" + i, true);
+            }
+            objectsDB.close();
+            Assert.assertEquals(0, objectsCache.getMetrics().getNPending());
+            long nSaved = objectsCache.getMetrics().getNSaved();
+            Assert.assertEquals(1200, objectsCache.getMetrics().getNObjects() + objectsCache.getMetrics().getNEvicted());
+
+            // the objects remaining in cache were not saved, all others are in the database
+            ObjectsCache newCache = new ObjectsCache();
+            objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", false, newCache, true);
+            try {
+                int nFound = 0;
+                for (int i = 0; i < 1200; i++) {
+                    Object value = objectsDB.retrieveObject("table", "key" + i, true, false);
+                    if (value != null) {
+                        Assert.assertEquals("value" + i, value);
+                        nFound++;
+                    } else {
+                        Assert.assertTrue(objectsCache.inCache("db", "table", "key" + i));
+                    }
+                }
+                Assert.assertEquals(nSaved, nFound);
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the number of entries waiting to be saved does not exceed
+     * the maximal number of pending writes.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testBackpressure() throws Exception {
+        File folder = getTempFolder();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(10);
+            // batches larger than the number of pending writes allowed, the flusher waits for the delay
+            objectsCache.setBatchSize(100000);
+            objectsCache.setMaxPendingWrites(20);
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", true, objectsCache, true);
+            try {
+                objectsDB.addTable("table");
+                for (int i = 0; i < 2000; i++) {
+                    objectsCache.addObject("db", "table", "key" + i, "value" + i, true);
+                    Assert.assertTrue(objectsCache.getMetrics().getNPending() <= 20);
+                }
+                Assert.assertTrue(objectsCache.getMetrics().getNSaved() > 0);
+                objectsCache.awaitFlush();
+                Assert.assertEquals(0, objectsCache.getMetrics().getNPending());
+                Assert.assertEquals(2000, objectsCache.getMetrics().getNObjects() + objectsCache.getMetrics().getNEvicted());
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that an exception encountered by the flusher is thrown to the
+     * threads using the cache, the entries which could not be saved staying
+     * in cache.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testFlushException() throws Exception {
+        File folder = getTempFolder();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(5);
+            objectsCache.setMaxPendingWrites(1000);
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", true, objectsCache, true);
+            try {
+                objectsDB.addTable("table");
+                // objects which cannot be serialized
+                for (int i = 0; i < 10; i++) {
+                    objectsCache.addObject("db", "table", "key" + i, new Object(), true);
+                }
+                objectsCache.flush();
+                long timeOut = System.currentTimeMillis() + 60000;
+                while (objectsCache.getMetrics().getNPending() > 0 && System.currentTimeMillis() < timeOut) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(0, objectsCache.getMetrics().getNPending());
+                try {
+                    objectsCache.awaitFlush();
+                    Assert.fail("No exception thrown for objects which cannot be saved.");
+                } catch (IOException e) {
+                    // expected
+                }
+                // the exception is thrown once
+                objectsCache.awaitFlush();
+                Assert.assertEquals(0, objectsCache.getMetrics().getNSaved());
+                Assert.assertEquals(10, objectsCache.getMetrics().getNObjects());
+                for (int i = 0; i < 10; i++) {
+                    objectsCache.removeObject("db", "table", "key" + i);
+                }
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests the loading of tables using several deserialization threads.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testParallelLoading() throws Exception {
+        File folder = getTempFolder();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(10000);
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", true, objectsCache, true);
+            try {
+                objectsDB.addTable("table");
+                HashMap<String, Object> objects = new HashMap<String, Object>();
+                ArrayList<String> keys = new ArrayList<String>();
+                for (int i = 0; i < 1000; i++) {
+                    String key = "key" + i;
+                    objects.put(key, "value" + i);
+                    keys.add(key);
+                }
+                objectsDB.insertObjects("table", objects, null);
+
+                // projects saved before the number of threads was stored deserialize it as 0
+                Field threadsField = ObjectsDB.class.getDeclaredField("deserializationThreads");
+                threadsField.setAccessible(true);
+                threadsField.setInt(objectsDB, 0);
+                Assert.assertTrue(objectsDB.getDeserializationThreads() >= 1);
+
+                objectsDB.setDeserializationThreads(3);
+                objectsCache.addObject("db", "table", "key0", "modified", true);
+                objectsDB.loadObjects("table", null, false);
+                for (int i = 1; i < 1000; i++) {
+                    Assert.assertTrue(objectsCache.inCache("db", "table", "key" + i));
+                    Assert.assertEquals("value" + i, objectsCache.getObject("db", "table", "key" + i));
+                }
+
+                objectsCache.removeObject("db", "table", "key1");
+                objectsCache.addObject("db", "table", "key2", "modified", true);
+                objectsDB.loadObjects("table", keys, null, false);
+                Assert.assertEquals("value1", objectsCache.getObject("db", "table", "key1"));
+
+                // loaded objects do not replace the objects in cache
+                Assert.assertFalse(objectsCache.addObjectIfAbsent("db", "table", "key0", "value0"));
+                Assert.assertTrue(objectsCache.addObjectIfAbsent("db", "table", "key1000", "value1000"));
+                Assert.assertEquals("modified", objectsCache.getObject("db", "table", "key0"));
+                Assert.assertEquals("modified", objectsCache.getObject("db", "table", "key2"));
+                Assert.assertEquals("value1000", objectsCache.getObject("db", "table", "key1000"));
+                objectsCache.saveCache(null, false);
+            } finally {
+                objectsDB.close();
+            }
+
+            // the modified objects were saved
+            ObjectsCache newCache = new ObjectsCache();
+            objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", false, newCache, true);
+            try {
+                Assert.assertEquals("modified", objectsDB.retrieveObject("table", "key0", true, false));
+                Assert.assertEquals("modified", objectsDB.retrieveObject("table", "key2", true, false));
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Returns a new temporary folder.
+     *
+     * @return a new temporary folder
+     *
+     * @throws IOException thrown whenever an error occurs while creating the
+     * folder
+     */
+    private File getTempFolder() throws IOException {
+        File folder = File.createTempFile("objects_cache", "");
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+}
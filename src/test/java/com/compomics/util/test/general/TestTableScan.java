@@ -0,0 +1,212 @@
+package com.compomics.util.test.general;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.DerbyUtil;
+import com.compomics.util.db.ObjectConsumer;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.db.TableIterator;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerDummy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the reading of the tables of a database by pages.
+ *
+ * @author Marc Vaudel
+ */
+public class TestTableScan extends TestCase {
+
+    /**
+     * The number of objects in the table.
+     */
+    private static final int N_OBJECTS = 25;
+    /**
+     * The page sizes to test, around the number of objects and its divisors.
+     */
+    private static final int[] PAGE_SIZES = {1, 4, 5, 24, 25, 26, 1000};
+
+    /**
+     * Tests the queries used to read the pages of a table.
+     */
+    public void testPageQueries() {
+        Assert.assertEquals("select NAME, MATCH_BLOB from table order by NAME fetch first 10 rows only",
+                ObjectsDB.getTablePageQuery("table", false, 10, false));
+        Assert.assertEquals("select NAME, MATCH_BLOB from table where NAME > ? order by NAME fetch first 10 rows only",
+                ObjectsDB.getTablePageQuery("table", true, 10, false));
+        Assert.assertEquals("select NAME, MATCH_BLOB from table order by NAME limit 10",
+                ObjectsDB.getTablePageQuery("table", false, 10, true));
+        Assert.assertEquals("select NAME, MATCH_BLOB from table where NAME > ? order by NAME limit 10",
+                ObjectsDB.getTablePageQuery("table", true, 10, true));
+    }
+
+    /**
+     * Tests the reading by pages of tables stored in the key value store.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testKeyValueStoreScan() throws Exception {
+        testScan(true);
+    }
+
+    /**
+     * Tests the reading by pages of tables stored in a Derby database.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testDerbyScan() throws Exception {
+        testScan(false);
+    }
+
+    /**
+     * Tests the table iterator and the table scan on a table and on an empty
+     * table for the different page sizes.
+     *
+     * @param useKeyValueStore boolean indicating whether the key value store
+     * should be used, Derby otherwise
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    private void testScan(boolean useKeyValueStore) throws Exception {
+        File folder = File.createTempFile("table_scan", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(0);
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "db", true, objectsCache, useKeyValueStore);
+            try {
+                objectsDB.addTable("empty");
+                objectsDB.addTable("test");
+                HashMap<String, Object> objects = new HashMap<String, Object>();
+                ArrayList<String> expectedKeys = new ArrayList<String>();
+                for (int i = 0; i < N_OBJECTS; i++) {
+                    String key = "key" + i;
+                    objects.put(key, "value" + i);
+                    expectedKeys.add(key);
+                }
+                objectsDB.insertObjects("test", objects, null);
+                Collections.sort(expectedKeys);
+
+                for (int pageSize : PAGE_SIZES) {
+
+                    TableIterator tableIterator = objectsDB.getTableIterator("test", pageSize);
+                    ArrayList<String> keys = new ArrayList<String>();
+                    while (tableIterator.hasNext()) {
+                        Object object = tableIterator.next();
+                        String key = tableIterator.getKey();
+                        Assert.assertEquals("value" + key.substring(3), object);
+                        keys.add(key);
+                    }
+                    Assert.assertNull(tableIterator.next());
+                    Assert.assertEquals(expectedKeys, keys);
+
+                    tableIterator = objectsDB.getTableIterator("empty", pageSize);
+                    Assert.assertFalse(tableIterator.hasNext());
+                    Assert.assertNull(tableIterator.next());
+
+                    for (int nThreads = 1; nThreads <= 3; nThreads += 2) {
+                        ProgressRecorder waitingHandler = new ProgressRecorder();
+                        ConcurrentHashMap<String, Object> scanned = scan(objectsDB, "test", nThreads, pageSize, waitingHandler);
+                        Assert.assertEquals(objects, new HashMap<String, Object>(scanned));
+                        Assert.assertEquals(N_OBJECTS, waitingHandler.getMaxSecondaryProgressCounter());
+                        Assert.assertEquals(N_OBJECTS, waitingHandler.getSecondaryProgressCounter());
+
+                        waitingHandler = new ProgressRecorder();
+                        Assert.assertTrue(scan(objectsDB, "empty", nThreads, pageSize, waitingHandler).isEmpty());
+                        Assert.assertEquals(0, waitingHandler.getMaxSecondaryProgressCounter());
+                    }
+                }
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            if (!useKeyValueStore) {
+                DerbyUtil.closeConnection();
+            }
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Scans a table and returns the objects found.
+     *
+     * @param objectsDB the database
+     * @param tableName the name of the table
+     * @param nThreads the number of threads to use
+     * @param pageSize the number of objects to read per page
+     * @param waitingHandler the waiting handler
+     *
+     * @return the objects found indexed by key
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    private ConcurrentHashMap<String, Object> scan(ObjectsDB objectsDB, String tableName, int nThreads, int pageSize, ProgressRecorder waitingHandler) throws Exception {
+        final ConcurrentHashMap<String, Object> scanned = new ConcurrentHashMap<String, Object>();
+        objectsDB.scanTable(tableName, new ObjectConsumer() {
+            @Override
+            public void consume(String key, Object object) {
+                if (scanned.put(key, object) != null) {
+                    throw new IllegalStateException("Object " + key + " scanned twice.");
+                }
+            }
+        }, nThreads, pageSize, waitingHandler);
+        return scanned;
+    }
+
+    /**
+     * Waiting handler recording the secondary progress.
+     */
+    private static class ProgressRecorder extends WaitingHandlerDummy {
+
+        /**
+         * The secondary progress.
+         */
+        private int progress = 0;
+        /**
+         * The maximal secondary progress.
+         */
+        private int maxProgress = 0;
+
+        @Override
+        public synchronized void setMaxSecondaryProgressCounter(int maxProgressValue) {
+            maxProgress = maxProgressValue;
+        }
+
+        @Override
+        public synchronized void resetSecondaryProgressCounter() {
+            progress = 0;
+        }
+
+        @Override
+        public synchronized void increaseSecondaryProgressCounter() {
+            progress++;
+        }
+
+        @Override
+        public synchronized void setSecondaryProgressCounter(int value) {
+            progress = value;
+        }
+
+        @Override
+        public synchronized void increaseSecondaryProgressCounter(int amount) {
+            progress += amount;
+        }
+
+        @Override
+        public synchronized int getSecondaryProgressCounter() {
+            return progress;
+        }
+
+        @Override
+        public synchronized int getMaxSecondaryProgressCounter() {
+            return maxProgress;
+        }
+    }
+}
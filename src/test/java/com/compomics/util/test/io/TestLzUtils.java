@@ -0,0 +1,48 @@
+package com.compomics.util.test.io;
+
+import com.compomics.util.io.compression.LzUtils;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the compression and decompression of byte arrays.
+ *
+ * @author Marc Vaudel
+ */
+public class TestLzUtils extends TestCase {
+
+    /**
+     * Tests that compressed bytes are restored upon decompression.
+     *
+     * @throws Exception thrown whenever an error occurs
+     */
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = new byte[random.nextInt(i % 50 == 0 ? 100000 : 1000)];
+            for (int j = 0; j < bytes.length; j++) {
+                if (i % 4 == 0) {
+                    // incompressible
+                    bytes[j] = (byte) random.nextInt(256);
+                } else if (i % 4 == 1) {
+                    // long runs
+                    bytes[j] = 7;
+                } else if (j > 10 && random.nextInt(10) > 0) {
+                    // short repeats
+                    bytes[j] = bytes[j - 1 - random.nextInt(10)];
+                } else {
+                    bytes[j] = (byte) random.nextInt(256);
+                }
+            }
+            byte[] compressed = LzUtils.compress(bytes);
+            Assert.assertTrue(compressed.length <= LzUtils.getMaxCompressedLength(bytes.length));
+            if (i % 4 == 1 && bytes.length > 100) {
+                Assert.assertTrue(compressed.length < bytes.length / 10);
+            }
+            byte[] decompressed = LzUtils.decompress(compressed, 0, compressed.length, bytes.length);
+            Assert.assertTrue(Arrays.equals(bytes, decompressed));
+        }
+    }
+}